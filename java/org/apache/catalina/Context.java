@@ -1736,4 +1736,95 @@ public interface Context extends Container {
      *         {@code false}
      */
     public boolean getDispatchersUseEncodedPaths();
+
+    /**
+     * Should the JARs of this web application be scanned for annotations, and
+     * for the types of interest to {@link
+     * javax.servlet.ServletContainerInitializer}s, in parallel using the
+     * start/stop executor of the parent Host?
+     *
+     * @param parallelAnnotationScanning {@code true} to scan in parallel,
+     *        otherwise {@code false}
+     */
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning);
+
+    /**
+     * Will the JARs of this web application be scanned for annotations in
+     * parallel?
+     *
+     * @return {@code true} if the JARs will be scanned in parallel, otherwise
+     *         {@code false}
+     *
+     * @see #setParallelAnnotationScanning(boolean)
+     */
+    public boolean getParallelAnnotationScanning();
+
+    /**
+     * Should the results of scanning the JARs of this web application for
+     * annotations, web fragments and TLDs be cached in the work directory so
+     * that JARs that have not changed are not scanned again when this Context
+     * next starts? The parsed web.xml is also cached so that it is not parsed
+     * again if it has not changed. The cached results are still merged as
+     * normal so the effective configuration is unaffected.
+     *
+     * @param useScanIndex {@code true} to cache the results of the scan,
+     *        otherwise {@code false}
+     */
+    public void setUseScanIndex(boolean useScanIndex);
+
+    /**
+     * Will the results of scanning the JARs of this web application be cached
+     * in the work directory?
+     *
+     * @return {@code true} if the results of the scan will be cached,
+     *         otherwise {@code false}
+     *
+     * @see #setUseScanIndex(boolean)
+     */
+    public boolean getUseScanIndex();
+
+    /**
+     * Should servlets with the same load on startup value be loaded and
+     * initialized in parallel? Servlets with different load on startup values
+     * are still loaded in order of increasing value. The number of servlets
+     * loaded at the same time is limited by
+     * {@link Container#getStartStopThreads()}.
+     *
+     * @param parallelLoadOnStartup {@code true} to load servlets with the
+     *        same load on startup value in parallel, otherwise {@code false}
+     */
+    public void setParallelLoadOnStartup(boolean parallelLoadOnStartup);
+
+    /**
+     * Will servlets with the same load on startup value be loaded and
+     * initialized in parallel?
+     *
+     * @return {@code true} if the servlets will be loaded in parallel,
+     *         otherwise {@code false}
+     *
+     * @see #setParallelLoadOnStartup(boolean)
+     */
+    public boolean getParallelLoadOnStartup();
+
+    /**
+     * Should the web-fragment.xml files and the TLDs in the JARs of this web
+     * application be parsed in parallel? The JARs are parsed using the
+     * start/stop threads of the parent Host and the results are processed in
+     * the same order as if the JARs had been parsed one at a time.
+     *
+     * @param parallelDescriptorParsing {@code true} to parse the descriptors
+     *        in parallel, otherwise {@code false}
+     */
+    public void setParallelDescriptorParsing(boolean parallelDescriptorParsing);
+
+    /**
+     * Will the web-fragment.xml files and the TLDs in the JARs of this web
+     * application be parsed in parallel?
+     *
+     * @return {@code true} if the descriptors will be parsed in parallel,
+     *         otherwise {@code false}
+     *
+     * @see #setParallelDescriptorParsing(boolean)
+     */
+    public boolean getParallelDescriptorParsing();
 }
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.RequestDispatcher;
+
+import org.apache.catalina.Globals;
+import org.apache.tomcat.util.net.SSLSupport;
+
+/**
+ * Storage for the attributes and notes of a {@link Request} that is designed
+ * to be reused for many requests without re-allocating its internal
+ * structures.
+ * <p>
+ * Attributes that Tomcat itself sets on requests (the SSL attributes, the
+ * error and forward attributes and some of the {@link Globals} keys) are held
+ * in fixed slots. Everything else is held in a small open-addressed hash table
+ * that keeps its capacity when the map is cleared, unless it has grown beyond
+ * {@link #MAX_RETAINED_CAPACITY}.
+ * <p>
+ * Null keys are not supported and putting a null value is equivalent to
+ * removing the entry. All methods are synchronized since, with asynchronous
+ * processing, a request may be accessed by more than one thread.
+ */
+final class AttributeMap {
+
+    @SuppressWarnings("deprecation") // SSL_SESSION_ID_TOMCAT_ATTR
+    private static final String[] SLOT_NAMES = new String[] {
+        Globals.CERTIFICATES_ATTR,
+        Globals.CIPHER_SUITE_ATTR,
+        Globals.KEY_SIZE_ATTR,
+        Globals.SSL_SESSION_ID_ATTR,
+        Globals.SSL_SESSION_ID_TOMCAT_ATTR,
+        Globals.SSL_SESSION_MGR_ATTR,
+        SSLSupport.PROTOCOL_VERSION_KEY,
+        Globals.SENDFILE_FILENAME_ATTR,
+        Globals.SENDFILE_FILE_START_ATTR,
+        Globals.SENDFILE_FILE_END_ATTR,
+        Globals.REMOTE_ADDR_ATTRIBUTE,
+        RequestDispatcher.ERROR_EXCEPTION,
+        RequestDispatcher.ERROR_EXCEPTION_TYPE,
+        RequestDispatcher.ERROR_MESSAGE,
+        RequestDispatcher.ERROR_REQUEST_URI,
+        RequestDispatcher.ERROR_SERVLET_NAME,
+        RequestDispatcher.ERROR_STATUS_CODE,
+        RequestDispatcher.FORWARD_CONTEXT_PATH,
+        RequestDispatcher.FORWARD_PATH_INFO,
+        RequestDispatcher.FORWARD_QUERY_STRING,
+        RequestDispatcher.FORWARD_REQUEST_URI,
+        RequestDispatcher.FORWARD_SERVLET_PATH
+    };
+
+    private static final Map<String,Integer> SLOTS =
+            new HashMap<String,Integer>();
+
+    static {
+        for (int i = 0; i < SLOT_NAMES.length; i++) {
+            SLOTS.put(SLOT_NAMES[i], Integer.valueOf(i));
+        }
+    }
+
+    /**
+     * Initial capacity of the hash table. Must be a power of two.
+     */
+    static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Largest hash table capacity that is retained when the map is cleared.
+     * Larger tables are discarded so that a single request with an unusually
+     * large number of attributes does not pin the memory for the lifetime of
+     * the processor.
+     */
+    static final int MAX_RETAINED_CAPACITY = 128;
+
+
+    private final Object[] slotValues = new Object[SLOT_NAMES.length];
+    private int slotCount = 0;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int count = 0;
+
+
+    public synchronized Object get(String name) {
+        int slot = slot(name);
+        if (slot >= 0) {
+            return slotValues[slot];
+        }
+        int index = indexOf(name);
+        return (index < 0) ? null : values[index];
+    }
+
+
+    public synchronized boolean containsKey(String name) {
+        return get(name) != null;
+    }
+
+
+    public synchronized Object put(String name, Object value) {
+        if (value == null) {
+            return remove(name);
+        }
+
+        int slot = slot(name);
+        if (slot >= 0) {
+            Object oldValue = slotValues[slot];
+            slotValues[slot] = value;
+            if (oldValue == null) {
+                slotCount++;
+            }
+            return oldValue;
+        }
+
+        int mask = keys.length - 1;
+        int i = hash(name) & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(name)) {
+                Object oldValue = values[i];
+                values[i] = value;
+                return oldValue;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = name;
+        values[i] = value;
+        count++;
+        // Keep the load factor at or below 0.75
+        if (count * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+
+    public synchronized Object remove(String name) {
+        int slot = slot(name);
+        if (slot >= 0) {
+            Object oldValue = slotValues[slot];
+            if (oldValue != null) {
+                slotValues[slot] = null;
+                slotCount--;
+            }
+            return oldValue;
+        }
+
+        int index = indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        Object oldValue = values[index];
+        deleteAt(index);
+        return oldValue;
+    }
+
+
+    public synchronized int size() {
+        return slotCount + count;
+    }
+
+
+    /**
+     * @return A snapshot of the names currently present in the map. Changes to
+     *         the returned set are not reflected in the map and vice versa.
+     */
+    public synchronized Set<String> keySet() {
+        Set<String> result = new HashSet<String>();
+        if (slotCount > 0) {
+            for (int i = 0; i < slotValues.length; i++) {
+                if (slotValues[i] != null) {
+                    result.add(SLOT_NAMES[i]);
+                }
+            }
+        }
+        if (count > 0) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    result.add(keys[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    public synchronized void clear() {
+        if (slotCount > 0) {
+            Arrays.fill(slotValues, null);
+            slotCount = 0;
+        }
+        if (keys.length > MAX_RETAINED_CAPACITY) {
+            keys = new String[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        } else if (count > 0) {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+        }
+        count = 0;
+    }
+
+
+    /*
+     * Visible for testing.
+     */
+    synchronized int capacity() {
+        return keys.length;
+    }
+
+
+    // -------------------------------------------------------- Private methods
+
+    private static int slot(String name) {
+        Integer slot = SLOTS.get(name);
+        return (slot == null) ? -1 : slot.intValue();
+    }
+
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+
+    private int indexOf(String name) {
+        if (count == 0) {
+            return -1;
+        }
+        int mask = keys.length - 1;
+        int i = hash(name) & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(name)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+
+    /*
+     * Linear probing does not permit simply nulling out an entry since that
+     * would break the probe sequence of any entries that collided with it.
+     * Instead, subsequent entries in the same cluster are shifted back into
+     * the gap where their probe sequence allows it.
+     */
+    private void deleteAt(int index) {
+        int mask = keys.length - 1;
+        int gap = index;
+        int i = (index + 1) & mask;
+        while (keys[i] != null) {
+            int home = hash(keys[i]) & mask;
+            // Move the entry if its home position is not in (gap, i]
+            if ((i > gap && (home <= gap || home > i)) ||
+                    (i < gap && (home <= gap && home > i))) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = null;
+        values[gap] = null;
+        count--;
+    }
+
+
+    private void resize(int newCapacity) {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new String[newCapacity];
+        values = new Object[newCapacity];
+        int mask = newCapacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
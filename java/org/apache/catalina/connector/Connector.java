@@ -137,6 +137,44 @@ public class Connector extends LifecycleMBeanBase  {
     protected boolean xpoweredBy = false;
 
 
+    /**
+     * Should the CPU time and the bytes allocated by the container threads
+     * processing each request be measured?
+     */
+    protected boolean trackResourceUsage = false;
+
+
+    /**
+     * The synthetic requests processed before the Connector starts to accept
+     * connections.
+     */
+    protected WarmupRequest[] warmupRequests = new WarmupRequest[0];
+
+    private final Object warmupRequestsLock = new Object();
+
+
+    /**
+     * The number of times each warm-up request is processed. Zero means no
+     * limit.
+     */
+    protected int warmupIterations = 0;
+
+
+    /**
+     * The maximum time, in milliseconds, spent processing warm-up requests.
+     * Zero means no limit.
+     */
+    protected long warmupDuration = 0;
+
+
+    /**
+     * Statistics for the most recent warm-up.
+     */
+    protected volatile long warmupRequestCount = 0;
+    protected volatile long warmupErrorCount = 0;
+    protected volatile long warmupTime = 0;
+
+
     /**
      * Descriptive information about this Connector implementation.
      */
@@ -877,6 +915,98 @@ public class Connector extends LifecycleMBeanBase  {
         setProperty("xpoweredBy", String.valueOf(xpoweredBy));
     }
 
+
+    /**
+     * @return <code>true</code> if the CPU time used and the bytes allocated
+     * while processing each request are measured
+     */
+    public boolean getTrackResourceUsage() {
+        return trackResourceUsage;
+    }
+
+
+    /**
+     * Enables or disables the measurement of the CPU time used and the bytes
+     * allocated by the container threads while processing each request. The
+     * values are made available to the access log and aggregated by the
+     * request processors and the wrappers that processed the requests.
+     *
+     * @param trackResourceUsage true if resource usage is to be measured
+     */
+    public void setTrackResourceUsage(boolean trackResourceUsage) {
+        this.trackResourceUsage = trackResourceUsage;
+    }
+
+
+    /**
+     * @return the number of times each warm-up request is processed before
+     * the Connector starts to accept connections. Zero means no limit.
+     */
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+
+    /**
+     * Set the number of times each warm-up request is processed before the
+     * Connector starts to accept connections. Warm-up ends when either this
+     * number of iterations has been completed or the warm-up duration has
+     * elapsed. If both are zero, no warm-up takes place.
+     *
+     * @param warmupIterations  The number of iterations or zero for no limit
+     */
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+
+    /**
+     * @return the maximum time, in milliseconds, spent processing warm-up
+     * requests. Zero means no limit.
+     */
+    public long getWarmupDuration() {
+        return warmupDuration;
+    }
+
+
+    /**
+     * Set the maximum time spent processing warm-up requests before the
+     * Connector starts to accept connections. At least one iteration is
+     * always completed.
+     *
+     * @param warmupDuration    The time in milliseconds or zero for no limit
+     */
+    public void setWarmupDuration(long warmupDuration) {
+        this.warmupDuration = warmupDuration;
+    }
+
+
+    /**
+     * @return the number of warm-up requests processed when the Connector
+     * last started
+     */
+    public long getWarmupRequestCount() {
+        return warmupRequestCount;
+    }
+
+
+    /**
+     * @return the number of warm-up requests that failed, or returned a 5xx
+     * status code, when the Connector last started
+     */
+    public long getWarmupErrorCount() {
+        return warmupErrorCount;
+    }
+
+
+    /**
+     * @return the time, in milliseconds, spent processing warm-up requests
+     * when the Connector last started
+     */
+    public long getWarmupTime() {
+        return warmupTime;
+    }
+
     /**
      * Enable the use of IP-based virtual hosting.
      *
@@ -907,6 +1037,60 @@ public class Connector extends LifecycleMBeanBase  {
     // --------------------------------------------------------- Public Methods
 
 
+    /**
+     * Add a synthetic request to be processed before this Connector starts to
+     * accept connections.
+     *
+     * @param warmupRequest The request to add
+     */
+    public void addWarmupRequest(WarmupRequest warmupRequest) {
+        synchronized (warmupRequestsLock) {
+            WarmupRequest[] results =
+                    Arrays.copyOf(warmupRequests, warmupRequests.length + 1);
+            results[warmupRequests.length] = warmupRequest;
+            warmupRequests = results;
+        }
+    }
+
+
+    /**
+     * @return the synthetic requests processed before this Connector starts
+     * to accept connections
+     */
+    public WarmupRequest[] findWarmupRequests() {
+        synchronized (warmupRequestsLock) {
+            return warmupRequests;
+        }
+    }
+
+
+    /**
+     * Remove a warm-up request from this Connector.
+     *
+     * @param warmupRequest The request to remove
+     */
+    public void removeWarmupRequest(WarmupRequest warmupRequest) {
+        synchronized (warmupRequestsLock) {
+            int j = -1;
+            for (int i = 0; i < warmupRequests.length; i++) {
+                if (warmupRequest == warmupRequests[i]) {
+                    j = i;
+                    break;
+                }
+            }
+            if (j < 0) {
+                return;
+            }
+            WarmupRequest[] results =
+                    new WarmupRequest[warmupRequests.length - 1];
+            System.arraycopy(warmupRequests, 0, results, 0, j);
+            System.arraycopy(warmupRequests, j + 1, results, j,
+                    warmupRequests.length - j - 1);
+            warmupRequests = results;
+        }
+    }
+
+
     /**
      * Create (or allocate) and return a Request object suitable for
      * specifying the contents of a Request to the responsible Container.
@@ -1043,6 +1227,11 @@ public class Connector extends LifecycleMBeanBase  {
 
         setState(LifecycleState.STARTING);
 
+        // The Mapper is required to process the warm-up requests
+        mapperListener.start();
+
+        warmup();
+
         try {
             //这里调用AbstractProtocol的start方法进行 协议启动。。主要就是调用endPoint方法进行启动
             //endPoint的启动交给 AbstractEndPoint进行启动。。在AbstractEndPoint启动过程中调用 JIoEndPoint的启动方法进行启动
@@ -1056,8 +1245,30 @@ public class Connector extends LifecycleMBeanBase  {
 
             throw new LifecycleException(errPrefix + " " + sm.getString("coyoteConnector.protocolHandlerStartFailed"), e);
         }
-        //TODO 这里是对Mapper中进行处理
-        mapperListener.start();
+    }
+
+
+    /**
+     * Process the warm-up requests, if any, so that the request processing
+     * code has been loaded and compiled before real requests arrive.
+     */
+    protected void warmup() {
+        WarmupRequest[] requests = findWarmupRequests();
+        if (requests.length == 0 ||
+                (warmupIterations <= 0 && warmupDuration <= 0)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ConnectorWarmup warmup = new ConnectorWarmup(this, adapter);
+        warmup.run(requests, warmupIterations, warmupDuration);
+        warmupTime = System.currentTimeMillis() - start;
+        warmupRequestCount = warmup.getRequestCount();
+        warmupErrorCount = warmup.getErrorCount();
+        if (log.isInfoEnabled()) {
+            log.info(sm.getString("coyoteConnector.warmupDone",
+                    this, Long.valueOf(warmupRequestCount),
+                    Long.valueOf(warmupErrorCount), Long.valueOf(warmupTime)));
+        }
     }
 
 
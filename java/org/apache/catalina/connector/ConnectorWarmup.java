@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.ActionHook;
+import org.apache.coyote.Adapter;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Passes the warm-up requests of a {@link Connector} through its
+ * {@link Adapter} using an in-memory request and response in place of a
+ * network connection. The request body is provided from memory and the
+ * response body is discarded.
+ */
+final class ConnectorWarmup implements ActionHook, InputBuffer, OutputBuffer {
+
+    private static final Log log = LogFactory.getLog(ConnectorWarmup.class);
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private static final String LOCAL_ADDR = "127.0.0.1";
+    private static final String LOCAL_NAME = "localhost";
+
+    private final Connector connector;
+    private final Adapter adapter;
+    private final Request req = new Request();
+    private final Response res = new Response();
+
+    private byte[] body;
+    private boolean bodyRead;
+    private long bytesWritten;
+
+    private long requestCount;
+    private long errorCount;
+
+
+    ConnectorWarmup(Connector connector, Adapter adapter) {
+        this.connector = connector;
+        this.adapter = adapter;
+        req.setInputBuffer(this);
+        res.setOutputBuffer(this);
+        res.setHook(this);
+        req.setResponse(res);
+    }
+
+
+    /**
+     * Process the warm-up requests in turn until either the given number of
+     * iterations have been completed or the given time has elapsed.
+     *
+     * @param requests      The requests to process
+     * @param iterations    The number of times to process every request or
+     *                      zero for no limit
+     * @param duration      The maximum time, in milliseconds, to spend
+     *                      processing requests or zero for no limit
+     */
+    void run(WarmupRequest[] requests, int iterations, long duration) {
+        PreparedRequest[] prepared = new PreparedRequest[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            prepared[i] = new PreparedRequest(requests[i]);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int iteration = 0; iterations <= 0 || iteration < iterations;
+                iteration++) {
+            for (PreparedRequest request : prepared) {
+                service(request);
+            }
+            if (duration > 0 &&
+                    System.currentTimeMillis() - start >= duration) {
+                break;
+            }
+        }
+    }
+
+
+    long getRequestCount() {
+        return requestCount;
+    }
+
+
+    long getErrorCount() {
+        return errorCount;
+    }
+
+
+    private void service(PreparedRequest request) {
+        body = request.body;
+        bodyRead = false;
+        bytesWritten = 0;
+        request.prepare();
+        requestCount++;
+        try {
+            adapter.service(req, res);
+            if (res.getStatus() >= 500) {
+                errorCount++;
+            }
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            errorCount++;
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("coyoteConnector.warmupFail",
+                        request.request.getUri()), t);
+            }
+        } finally {
+            req.recycle();
+            res.recycle();
+        }
+    }
+
+
+    /*
+     * URIs are ASCII once %nn encoded so each char is one byte.
+     */
+    private static byte[] toBytes(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+
+    // ------------------------------------------------------ ActionHook Methods
+
+    @Override
+    public void action(ActionCode actionCode, Object param) {
+        switch (actionCode) {
+            case AVAILABLE:
+                req.setAvailable(body != null && !bodyRead ? body.length : 0);
+                break;
+            case ASYNC_START:
+                throw new IllegalStateException(
+                        sm.getString("coyoteConnector.warmupAsync"));
+            default:
+                // Nothing to do: there is no connection
+                break;
+        }
+    }
+
+
+    // ----------------------------------------------------- InputBuffer Methods
+
+    @Override
+    public int doRead(ByteChunk chunk, Request request) throws IOException {
+        if (body == null || bodyRead) {
+            return -1;
+        }
+        bodyRead = true;
+        chunk.setBytes(body, 0, body.length);
+        return body.length;
+    }
+
+
+    // ---------------------------------------------------- OutputBuffer Methods
+
+    @Override
+    public int doWrite(ByteChunk chunk, Response response) throws IOException {
+        int len = chunk.getLength();
+        bytesWritten += len;
+        return len;
+    }
+
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+
+    /*
+     * The parts of a warm-up request that do not change between iterations.
+     */
+    private class PreparedRequest {
+
+        private final WarmupRequest request;
+        private final byte[] uri;
+        private final byte[] query;
+        private final byte[] body;
+        private final String serverName;
+
+        public PreparedRequest(WarmupRequest request) {
+            this.request = request;
+            String uri = request.getUri();
+            int question = uri.indexOf('?');
+            if (question > -1) {
+                query = toBytes(uri.substring(question + 1));
+                uri = uri.substring(0, question);
+            } else {
+                query = null;
+            }
+            this.uri = toBytes(uri);
+
+            byte[] body = null;
+            if (request.getBody() != null) {
+                try {
+                    body = request.getBody().getBytes(request.getBodyEncoding());
+                } catch (UnsupportedEncodingException e) {
+                    log.warn(sm.getString("coyoteConnector.warmupEncoding",
+                            request.getBodyEncoding(), request.getUri()));
+                }
+            }
+            this.body = body;
+
+            String serverName = null;
+            for (String[] header : request.getHeaders()) {
+                if ("host".equalsIgnoreCase(header[0])) {
+                    serverName = header[1];
+                    int colon = serverName.lastIndexOf(':');
+                    if (colon > serverName.lastIndexOf(']')) {
+                        serverName = serverName.substring(0, colon);
+                    }
+                }
+            }
+            this.serverName = serverName;
+        }
+
+        private void prepare() {
+            req.method().setString(request.getMethod());
+            req.requestURI().setBytes(uri, 0, uri.length);
+            if (query != null) {
+                req.queryString().setBytes(query, 0, query.length);
+            }
+            req.protocol().setString("HTTP/1.1");
+
+            boolean contentLength = false;
+            for (String[] header : request.getHeaders()) {
+                req.getMimeHeaders().addValue(header[0]).setString(header[1]);
+                if ("content-length".equalsIgnoreCase(header[0])) {
+                    contentLength = true;
+                }
+            }
+            if (body != null && !contentLength) {
+                req.getMimeHeaders().addValue("Content-Length").setLong(
+                        body.length);
+            }
+            if (serverName != null) {
+                req.serverName().setString(serverName);
+            }
+
+            req.setServerPort(connector.getPort());
+            req.remoteAddr().setString(LOCAL_ADDR);
+            req.remoteHost().setString(LOCAL_NAME);
+            req.setRemotePort(0);
+            req.localAddr().setString(LOCAL_ADDR);
+            req.localName().setString(LOCAL_NAME);
+            req.setLocalPort(connector.getPort());
+            req.setAttribute(WarmupRequest.WARMUP_REQUEST_ATTR, Boolean.TRUE);
+            req.setStartTime(System.currentTimeMillis());
+        }
+    }
+}
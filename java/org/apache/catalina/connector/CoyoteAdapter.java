@@ -19,6 +19,8 @@ package org.apache.catalina.connector;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
 import java.util.EnumSet;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -28,17 +30,23 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.Authenticator;
 import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
 import org.apache.catalina.Host;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.authenticator.AuthenticatorBase;
 import org.apache.catalina.comet.CometEvent;
 import org.apache.catalina.comet.CometEvent.EventType;
 import org.apache.catalina.core.AsyncContextImpl;
+import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.SessionConfig;
 import org.apache.catalina.util.URLEncoder;
 import org.apache.coyote.ActionCode;
-import org.apache.coyote.Adapter;
+import org.apache.coyote.BufferReportingAdapter;
+import org.apache.coyote.ReadListener;
+import org.apache.coyote.RequestInfo;
+import org.apache.coyote.WriteListener;
+import org.apache.juli.FlightRecorderEventType;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -48,9 +56,12 @@ import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.Cookies;
 import org.apache.tomcat.util.http.ServerCookie;
+import org.apache.tomcat.util.http.mapper.MappingData;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SocketStatus;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.security.PrivilegedGetTccl;
+import org.apache.tomcat.util.security.PrivilegedSetTccl;
 
 
 /**
@@ -60,7 +71,7 @@ import org.apache.tomcat.util.res.StringManager;
  * @author Craig R. McClanahan
  * @author Remy Maucherat
  */
-public class CoyoteAdapter implements Adapter {
+public class CoyoteAdapter implements BufferReportingAdapter {
 
     private static final Log log = LogFactory.getLog(CoyoteAdapter.class);
 
@@ -80,6 +91,18 @@ public class CoyoteAdapter implements Adapter {
     protected static final boolean ALLOW_BACKSLASH =
         Boolean.parseBoolean(System.getProperty("org.apache.catalina.connector.CoyoteAdapter.ALLOW_BACKSLASH", "false"));
 
+    /**
+     * JFR event describing the processing of a request by a container thread.
+     */
+    private static final FlightRecorderEventType REQUEST_EVENT =
+            FlightRecorderEventType.create("org.apache.catalina.Request",
+                    "HTTP Request",
+                    "Processing of an HTTP request by a container thread",
+                    new String[] { "method", "uri", "status", "context",
+                            "servlet", "async" },
+                    new Class<?>[] { String.class, String.class, int.class,
+                            String.class, String.class, boolean.class });
+
 
     // ----------------------------------------------------------- Constructors
 
@@ -268,6 +291,95 @@ public class CoyoteAdapter implements Adapter {
         }
     }
 
+    /**
+     * Notify the non-blocking IO listeners, if any, that the socket is ready
+     * for reading or writing.
+     *
+     * @return the error thrown by a listener, if any
+     */
+    private Throwable nonBlockingDispatch(Request request,
+            org.apache.coyote.Request req, org.apache.coyote.Response res,
+            SocketStatus status) {
+        ReadListener readListener = req.getReadListener();
+        WriteListener writeListener = res.getWriteListener();
+        if ((status == SocketStatus.OPEN_READ && readListener == null) ||
+                (status == SocketStatus.OPEN_WRITE && writeListener == null)) {
+            return null;
+        }
+
+        ClassLoader oldCL;
+        if (Globals.IS_SECURITY_ENABLED) {
+            PrivilegedAction<ClassLoader> pa = new PrivilegedGetTccl();
+            oldCL = AccessController.doPrivileged(pa);
+        } else {
+            oldCL = Thread.currentThread().getContextClassLoader();
+        }
+        ClassLoader newCL = request.getContext().getLoader().getClassLoader();
+        try {
+            if (Globals.IS_SECURITY_ENABLED) {
+                PrivilegedAction<Void> pa = new PrivilegedSetTccl(newCL);
+                AccessController.doPrivileged(pa);
+            } else {
+                Thread.currentThread().setContextClassLoader(newCL);
+            }
+            if (status == SocketStatus.OPEN_WRITE) {
+                try {
+                    if (res.checkWritePossible()) {
+                        writeListener.onWritePossible();
+                    }
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    fireOnError(writeListener, t);
+                    return t;
+                }
+            } else {
+                try {
+                    if (!request.getInputBuffer().isFinished() &&
+                            request.getInputBuffer().isReady()) {
+                        readListener.onDataAvailable();
+                    }
+                    if (request.getInputBuffer().isFinished() &&
+                            req.sendAllDataReadEvent()) {
+                        readListener.onAllDataRead();
+                    }
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    fireOnError(readListener, t);
+                    return t;
+                }
+            }
+        } finally {
+            if (Globals.IS_SECURITY_ENABLED) {
+                PrivilegedAction<Void> pa = new PrivilegedSetTccl(oldCL);
+                AccessController.doPrivileged(pa);
+            } else {
+                Thread.currentThread().setContextClassLoader(oldCL);
+            }
+        }
+        return null;
+    }
+
+
+    private void fireOnError(ReadListener listener, Throwable t) {
+        try {
+            listener.onError(t);
+        } catch (Throwable t2) {
+            ExceptionUtils.handleThrowable(t2);
+            log.warn(sm.getString("coyoteAdapter.listenerOnError"), t2);
+        }
+    }
+
+
+    private void fireOnError(WriteListener listener, Throwable t) {
+        try {
+            listener.onError(t);
+        } catch (Throwable t2) {
+            ExceptionUtils.handleThrowable(t2);
+            log.warn(sm.getString("coyoteAdapter.listenerOnError"), t2);
+        }
+    }
+
+
     @Override
     public boolean asyncDispatch(org.apache.coyote.Request req,
             org.apache.coyote.Response res, SocketStatus status) throws Exception {
@@ -282,6 +394,10 @@ public class CoyoteAdapter implements Adapter {
         boolean success = true;
         AsyncContextImpl asyncConImpl = request.getAsyncContextInternal();
         req.getRequestProcessor().setWorkerThreadName(Thread.currentThread().getName());
+        boolean trackResourceUsage = connector.getTrackResourceUsage();
+        if (trackResourceUsage) {
+            req.getRequestProcessor().startResourceUsage();
+        }
         try {
             if (!request.isAsync() && !comet) {
                 // Error or timeout
@@ -304,6 +420,14 @@ public class CoyoteAdapter implements Adapter {
                 if (t != null) {
                     asyncConImpl.setErrorState(t, true);
                 }
+            } else if ((status == SocketStatus.OPEN_READ ||
+                    status == SocketStatus.OPEN_WRITE) && request.isAsync() &&
+                    !request.isAsyncDispatching() &&
+                    !request.isAsyncCompleting()) {
+                Throwable t = nonBlockingDispatch(request, req, res, status);
+                if (t != null) {
+                    asyncConImpl.setErrorState(t, true);
+                }
             }
             // Has an error occurred during async processing that needs to be
             // processed by the application's error page mechanism (or Tomcat's
@@ -347,6 +471,9 @@ public class CoyoteAdapter implements Adapter {
                     request.finishRequest();
                     response.finishResponse();
                 } finally {
+                    if (trackResourceUsage) {
+                        recordResourceUsage(req, request);
+                    }
                     long time = 0;
                     if (req.getStartTime() != -1) {
                         time = System.currentTimeMillis() - req.getStartTime();
@@ -383,6 +510,9 @@ public class CoyoteAdapter implements Adapter {
             success = false;
             log.error(sm.getString("coyoteAdapter.service"), t);
         } finally {
+            if (trackResourceUsage) {
+                req.getRequestProcessor().stopResourceUsage();
+            }
             req.getRequestProcessor().setWorkerThreadName(null);
             // Recycle the wrapper request and response
             if (!success || (!comet && !request.isAsync())) {
@@ -438,6 +568,12 @@ public class CoyoteAdapter implements Adapter {
         boolean async = false;
         boolean postParseSuccess = false;
 
+        boolean trackResourceUsage = connector.getTrackResourceUsage();
+        if (trackResourceUsage) {
+            req.getRequestProcessor().startResourceUsage();
+        }
+        Object requestEvent = REQUEST_EVENT.begin();
+
         try {
             // Parse and set Catalina and configuration specific
             // request parameters
@@ -487,6 +623,9 @@ public class CoyoteAdapter implements Adapter {
                     request.finishRequest();
                     response.finishResponse();
                 } finally {
+                    if (trackResourceUsage) {
+                        recordResourceUsage(req, request);
+                    }
                     if (postParseSuccess) {
                         // Log only if processing was invoked.
                         // If postParseRequest() failed, it has already logged it.
@@ -514,6 +653,12 @@ public class CoyoteAdapter implements Adapter {
                 async = false;
             }
 
+            if (trackResourceUsage) {
+                req.getRequestProcessor().stopResourceUsage();
+            }
+            if (requestEvent != null) {
+                commitRequestEvent(requestEvent, req, request, async);
+            }
             req.getRequestProcessor().setWorkerThreadName(null);
 
             // Recycle the wrapper request and response
@@ -530,6 +675,41 @@ public class CoyoteAdapter implements Adapter {
     }
 
 
+    private static void commitRequestEvent(Object event,
+            org.apache.coyote.Request req, Request request, boolean async) {
+        MappingData mappingData = request.getMappingData();
+        String contextPath = null;
+        if (mappingData.context instanceof Context) {
+            contextPath = ((Context) mappingData.context).getPath();
+        }
+        String servletName = null;
+        if (mappingData.wrapper instanceof Wrapper) {
+            servletName = ((Wrapper) mappingData.wrapper).getName();
+        }
+        REQUEST_EVENT.commit(event, req.method().toString(),
+                req.requestURI().toString(),
+                Integer.valueOf(req.getResponse().getStatus()), contextPath,
+                servletName, Boolean.valueOf(async));
+    }
+
+
+    /**
+     * Complete the measurement of the resources used to process a request
+     * that is about to be logged and add them to the statistics of the wrapper
+     * that processed it.
+     */
+    private void recordResourceUsage(org.apache.coyote.Request req,
+            Request request) {
+        RequestInfo rp = req.getRequestProcessor();
+        rp.stopResourceUsage();
+        Wrapper wrapper = request.getWrapper();
+        if (wrapper instanceof StandardWrapper) {
+            ((StandardWrapper) wrapper).addResourceUsage(
+                    rp.getRequestCpuTime(), rp.getRequestAllocatedBytes());
+        }
+    }
+
+
     @Override
     public void errorDispatch(org.apache.coyote.Request req,
             org.apache.coyote.Response res) {
@@ -658,6 +838,22 @@ public class CoyoteAdapter implements Adapter {
     }
 
 
+    @Override
+    public long getRetainedBufferBytes(org.apache.coyote.Request req,
+            org.apache.coyote.Response res) {
+        long result = 0;
+        Request request = (Request) req.getNote(ADAPTER_NOTES);
+        if (request != null) {
+            result += request.getRetainedBufferBytes();
+        }
+        Response response = (Response) res.getNote(ADAPTER_NOTES);
+        if (response != null) {
+            result += response.getRetainedBufferBytes();
+        }
+        return result;
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -967,9 +1163,11 @@ public class CoyoteAdapter implements Adapter {
             log.warn(sm.getString("coyoteAdapter.parsePathParam", enc));
         }
 
-        log.info(sm.getString("coyoteAdapter.debug", "uriBC", uriBC.toString()));
-        log.info(sm.getString("coyoteAdapter.debug", "semicolon", String.valueOf(semicolon)));
-        log.info(sm.getString("coyoteAdapter.debug", "enc", enc));
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("coyoteAdapter.debug", "uriBC", uriBC.toString()));
+            log.debug(sm.getString("coyoteAdapter.debug", "semicolon", String.valueOf(semicolon)));
+            log.debug(sm.getString("coyoteAdapter.debug", "enc", enc));
+        }
 
         while (semicolon > -1) {
             // Parse path param, and extract it from the decoded request URI
@@ -998,9 +1196,11 @@ public class CoyoteAdapter implements Adapter {
                 uriBC.setEnd(start + semicolon);
             }
 
-            log.info(sm.getString("coyoteAdapter.debug", "pathParamStart", String.valueOf(pathParamStart)));
-            log.info(sm.getString("coyoteAdapter.debug", "pathParamEnd", String.valueOf(pathParamEnd)));
-            log.info(sm.getString("coyoteAdapter.debug", "pv", pv));
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("coyoteAdapter.debug", "pathParamStart", String.valueOf(pathParamStart)));
+                log.debug(sm.getString("coyoteAdapter.debug", "pathParamEnd", String.valueOf(pathParamEnd)));
+                log.debug(sm.getString("coyoteAdapter.debug", "pv", pv));
+            }
 
             if (pv != null) {
                 int equals = pv.indexOf('=');
@@ -1008,9 +1208,11 @@ public class CoyoteAdapter implements Adapter {
                     String name = pv.substring(0, equals);
                     String value = pv.substring(equals + 1);
                     request.addPathParameter(name, value);
-                    log.info(sm.getString("coyoteAdapter.debug", "equals", String.valueOf(equals)));
-                    log.info(sm.getString("coyoteAdapter.debug", "name", name));
-                    log.info(sm.getString("coyoteAdapter.debug", "value", value));
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("coyoteAdapter.debug", "equals", String.valueOf(equals)));
+                        log.debug(sm.getString("coyoteAdapter.debug", "name", name));
+                        log.debug(sm.getString("coyoteAdapter.debug", "value", value));
+                    }
                 }
             }
 
@@ -1073,7 +1275,9 @@ public class CoyoteAdapter implements Adapter {
                     request.setRequestedSessionId(scookie.getValue().toString());
                     request.setRequestedSessionCookie(true);
                     request.setRequestedSessionURL(false);
-                    log.info(" Requested cookie session id is " + request.getRequestedSessionId());
+                    if (log.isDebugEnabled()) {
+                        log.debug(" Requested cookie session id is " + request.getRequestedSessionId());
+                    }
 
                 } else {
                     if (!request.isRequestedSessionIdValid()) {
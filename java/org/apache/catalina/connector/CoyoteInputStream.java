@@ -24,6 +24,7 @@ import java.security.PrivilegedExceptionAction;
 import javax.servlet.ServletInputStream;
 
 import org.apache.catalina.security.SecurityUtil;
+import org.apache.coyote.ReadListener;
 
 /**
  * This class handles reading bytes.
@@ -241,4 +242,39 @@ public class CoyoteInputStream
         }
     }
 
+
+    /**
+     * Has the whole request body been read? This is a Tomcat specific
+     * extension.
+     *
+     * @return <code>true</code> if there is no more data to read
+     */
+    public boolean isFinished() {
+        return ib.isFinished();
+    }
+
+
+    /**
+     * Can data be read without blocking? This is a Tomcat specific extension
+     * that is only available once a {@link ReadListener} has been set.
+     *
+     * @return <code>true</code> if data can be read without blocking,
+     *         otherwise the listener will be notified once it can
+     */
+    public boolean isReady() {
+        return ib.isReady();
+    }
+
+
+    /**
+     * Read the request body without blocking. This is a Tomcat specific
+     * extension that is only available for asynchronous requests on
+     * connectors that support non-blocking IO.
+     *
+     * @param listener the listener to notify when data can be read
+     */
+    public void setReadListener(ReadListener listener) {
+        ib.setReadListener(listener);
+    }
+
 }
@@ -17,9 +17,12 @@
 package org.apache.catalina.connector;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.servlet.ServletOutputStream;
 
+import org.apache.coyote.WriteListener;
+
 /**
  * Coyote implementation of the servlet output stream.
  *
@@ -92,6 +95,20 @@ public class CoyoteOutputStream
     }
 
 
+    /**
+     * Write the remaining content of the given buffer. This is a Tomcat
+     * specific extension that allows direct and memory mapped buffers to be
+     * written without an intermediate byte array.
+     *
+     * @param from the buffer to write, its position is advanced to its limit
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(ByteBuffer from)
+        throws IOException {
+        ob.write(from);
+    }
+
+
     /**
      * Will send the buffer to the client.
      */
@@ -109,5 +126,30 @@ public class CoyoteOutputStream
     }
 
 
+    /**
+     * Can data be written without blocking? This is a Tomcat specific
+     * extension that is only available once a {@link WriteListener} has been
+     * set.
+     *
+     * @return <code>true</code> if data can be written without blocking,
+     *         otherwise the listener will be notified once it can
+     */
+    public boolean isReady() {
+        return ob.isReady();
+    }
+
+
+    /**
+     * Write the response without blocking. This is a Tomcat specific
+     * extension that is only available for asynchronous requests on
+     * connectors that support non-blocking IO.
+     *
+     * @param listener the listener to notify when data can be written
+     */
+    public void setWriteListener(WriteListener listener) {
+        ob.setWriteListener(listener);
+    }
+
+
 }
 
@@ -23,9 +23,11 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.ReadListener;
 import org.apache.coyote.Request;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -194,6 +196,19 @@ public class InputBuffer extends Reader
     // --------------------------------------------------------- Public Methods
 
 
+    /*
+     * The size, in bytes, of the buffers that are kept when this buffer is
+     * recycled. The byte buffer is not included since it refers to the
+     * processor's input buffer.
+     */
+    long getRetainedBufferBytes() {
+        if (cb.getBuffer() == null) {
+            return 0;
+        }
+        return 2L * cb.getBuffer().length;
+    }
+
+
     /**
      * Recycle the output buffer.
      */
@@ -260,6 +275,73 @@ public class InputBuffer extends Reader
     }
 
 
+    /**
+     * @return <code>true</code> if the whole request body has been read by
+     *         the application
+     */
+    public boolean isFinished() {
+        int available = 0;
+        if (state == BYTE_STATE) {
+            available = bb.getLength();
+        } else if (state == CHAR_STATE) {
+            available = cb.getLength();
+        }
+        if (available > 0) {
+            return false;
+        } else {
+            return coyoteRequest.isFinished();
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if data can be read without blocking. If not,
+     *         the {@link ReadListener} will be notified once it can.
+     */
+    public boolean isReady() {
+        if (coyoteRequest.getReadListener() == null) {
+            throw new IllegalStateException(
+                    sm.getString("inputBuffer.requiresNonBlocking"));
+        }
+        if (isFinished()) {
+            return false;
+        }
+        return available() > 0 || coyoteRequest.isReady();
+    }
+
+
+    /**
+     * Read the request body without blocking, notifying the given listener
+     * when data is available. Only asynchronous requests on connectors that
+     * support non-blocking IO may do so.
+     *
+     * @param listener The listener to notify
+     */
+    public void setReadListener(ReadListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException(
+                    sm.getString("inputBuffer.listener.null"));
+        }
+        if (coyoteRequest.getReadListener() != null) {
+            throw new IllegalStateException(
+                    sm.getString("inputBuffer.listener.set"));
+        }
+        AtomicBoolean result = new AtomicBoolean(false);
+        coyoteRequest.action(ActionCode.ASYNC_IS_ASYNC, result);
+        if (!result.get()) {
+            throw new IllegalStateException(
+                    sm.getString("inputBuffer.listener.notAsync"));
+        }
+        result.set(false);
+        coyoteRequest.action(ActionCode.IS_NB_IO_SUPPORTED, result);
+        if (!result.get()) {
+            throw new IllegalStateException(
+                    sm.getString("inputBuffer.listener.notSupported"));
+        }
+        coyoteRequest.setReadListener(listener);
+    }
+
+
     // ------------------------------------------------- Bytes Handling Methods
 
 
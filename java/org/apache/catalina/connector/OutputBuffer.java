@@ -19,19 +19,23 @@ package org.apache.catalina.connector;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.Globals;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Response;
+import org.apache.coyote.WriteListener;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.C2BConverter;
 import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.res.StringManager;
 
 
 /**
@@ -45,6 +49,12 @@ import org.apache.tomcat.util.buf.CharChunk;
 public class OutputBuffer extends Writer
     implements ByteChunk.ByteOutputChannel, CharChunk.CharOutputChannel {
 
+    /**
+     * The string manager for this package.
+     */
+    protected static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
 
     // -------------------------------------------------------------- Constants
 
@@ -63,6 +73,12 @@ public class OutputBuffer extends Writer
     private final ByteChunk bb;
 
 
+    /**
+     * The default buffer size, restored when the buffer is recycled.
+     */
+    private final int size;
+
+
     /**
      * The chunk buffer.
      */
@@ -168,6 +184,7 @@ public class OutputBuffer extends Writer
      */
     public OutputBuffer(int size) {
 
+        this.size = size;
         bb = new ByteChunk(size);
         bb.setLimit(size);
         bb.setByteOutputChannel(this);
@@ -245,6 +262,8 @@ public class OutputBuffer extends Writer
         charsWritten = 0;
         
         bb.recycle();
+        // Undo any change made by setBufferSize()
+        bb.setLimit(size);
         cb.recycle();
         outputCharChunk.setChars(null, 0, 0);
         closed = false;
@@ -374,6 +393,51 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * @return <code>true</code> if data can be written without blocking. If
+     *         not, the {@link WriteListener} will be notified once it can.
+     */
+    public boolean isReady() {
+        if (coyoteResponse.getWriteListener() == null) {
+            throw new IllegalStateException(
+                    sm.getString("outputBuffer.requiresNonBlocking"));
+        }
+        return coyoteResponse.isReady();
+    }
+
+
+    /**
+     * Write the response body without blocking, notifying the given listener
+     * when data can be written. Only asynchronous requests on connectors that
+     * support non-blocking IO may do so.
+     *
+     * @param listener The listener to notify
+     */
+    public void setWriteListener(WriteListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException(
+                    sm.getString("outputBuffer.listener.null"));
+        }
+        if (coyoteResponse.getWriteListener() != null) {
+            throw new IllegalStateException(
+                    sm.getString("outputBuffer.listener.set"));
+        }
+        AtomicBoolean result = new AtomicBoolean(false);
+        coyoteResponse.action(ActionCode.ASYNC_IS_ASYNC, result);
+        if (!result.get()) {
+            throw new IllegalStateException(
+                    sm.getString("outputBuffer.listener.notAsync"));
+        }
+        result.set(false);
+        coyoteResponse.action(ActionCode.IS_NB_IO_SUPPORTED, result);
+        if (!result.get()) {
+            throw new IllegalStateException(
+                    sm.getString("outputBuffer.listener.notSupported"));
+        }
+        coyoteResponse.setWriteListener(listener);
+    }
+
+
     // ------------------------------------------------- Bytes Handling Methods
 
     /**
@@ -444,6 +508,36 @@ public class OutputBuffer extends Writer
     }
 
 
+    /**
+     * Write the remaining content of a {@link ByteBuffer} without requiring
+     * the caller to copy it into an intermediate array first.
+     *
+     * @param from the buffer to write, its position is advanced to its limit
+     * @throws IOException An underlying IOException occurred
+     */
+    public void write(ByteBuffer from) throws IOException {
+
+        if (suspended) {
+            return;
+        }
+
+        if (closed) {
+            return;
+        }
+
+        int len = from.remaining();
+        bb.append(from);
+        bytesWritten += len;
+
+        // if called from within flush(), then immediately flush
+        // remaining bytes
+        if (doFlush) {
+            bb.flushBuffer();
+        }
+
+    }
+
+
     public void writeByte(int b)
         throws IOException {
 
@@ -672,4 +766,20 @@ public class OutputBuffer extends Writer
     }
 
 
+    /*
+     * The size, in bytes, of the buffers that are kept when this buffer is
+     * recycled.
+     */
+    long getRetainedBufferBytes() {
+        long result = 0;
+        if (bb.getBuffer() != null) {
+            result += bb.getBuffer().length;
+        }
+        if (cb.getBuffer() != null) {
+            result += 2L * cb.getBuffer().length;
+        }
+        return result;
+    }
+
+
 }
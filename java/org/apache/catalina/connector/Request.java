@@ -31,15 +31,12 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.naming.NamingException;
@@ -196,8 +193,9 @@ public class Request implements HttpServletRequest {
 
     /**
      * The attributes associated with this Request, keyed by attribute name.
+     * The map is retained and cleared when the request is recycled.
      */
-    private final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+    private final AttributeMap attributes = new AttributeMap();
 
 
     /**
@@ -218,7 +216,7 @@ public class Request implements HttpServletRequest {
      * Internal notes associated with this request by Catalina components
      * and event listeners.
      */
-    private transient HashMap<String, Object> notes = new HashMap<String, Object>();
+    private final transient AttributeMap notes = new AttributeMap();
 
 
     /**
@@ -447,6 +445,18 @@ public class Request implements HttpServletRequest {
         this.asyncSupported = Boolean.valueOf(asyncSupported);
     }
 
+    /**
+     * Return the size, in bytes, of the buffers this request keeps when it is
+     * recycled.
+     */
+    long getRetainedBufferBytes() {
+        long result = inputBuffer.getRetainedBufferBytes();
+        if (postData != null) {
+            result += postData.length;
+        }
+        return result;
+    }
+
     /**
      * Release all object references, and initialize instance variables, in
      * preparation for reuse of this object.
@@ -570,6 +580,14 @@ public class Request implements HttpServletRequest {
     }
 
 
+    /**
+     * Return the buffer the request body is read through.
+     */
+    InputBuffer getInputBuffer() {
+        return inputBuffer;
+    }
+
+
     // -------------------------------------------------------- Request Methods
 
 
@@ -1039,9 +1057,7 @@ public class Request implements HttpServletRequest {
         }
         // Take a copy to prevent ConcurrentModificationExceptions if used to
         // remove attributes
-        Set<String> names = new HashSet<String>();
-        names.addAll(attributes.keySet());
-        return Collections.enumeration(names);
+        return Collections.enumeration(attributes.keySet());
     }
 
 
@@ -1486,15 +1502,10 @@ public class Request implements HttpServletRequest {
             coyoteRequest.getAttributes().remove(name);
         }
 
-        boolean found = attributes.containsKey(name);
-        if (found) {
-            Object value = attributes.get(name);
-            attributes.remove(name);
-
+        Object value = attributes.remove(name);
+        if (value != null) {
             // Notify interested application event listeners
             notifyAttributeRemoved(name, value);
-        } else {
-            return;
         }
     }
 
@@ -364,7 +364,9 @@ public class RequestFacade implements HttpServletRequest {
 
     @Override
     public String getParameter(String name) {
-        log.info("getParameter  ======"+name);
+        if (log.isDebugEnabled()) {
+            log.debug("getParameter  ======"+name);
+        }
         if (request == null) {
             throw new IllegalStateException(sm.getString("requestFacade.nullRequest"));
         }
@@ -379,7 +381,9 @@ public class RequestFacade implements HttpServletRequest {
 
     @Override
     public Enumeration<String> getParameterNames() {
-        log.info("getParameterNames");
+        if (log.isDebugEnabled()) {
+            log.debug("getParameterNames");
+        }
         if (request == null) {
             throw new IllegalStateException(
                             sm.getString("requestFacade.nullRequest"));
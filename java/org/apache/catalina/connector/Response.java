@@ -321,6 +321,19 @@ public class Response implements HttpServletResponse {
     }
 
 
+    /**
+     * Return the size, in bytes, of the buffers this response keeps when it
+     * is recycled.
+     */
+    long getRetainedBufferBytes() {
+        long result = outputBuffer.getRetainedBufferBytes();
+        if (redirectURLCC.getBuffer() != null) {
+            result += 2L * redirectURLCC.getBuffer().length;
+        }
+        return result;
+    }
+
+
     // ------------------------------------------------------- Response Methods
 
 
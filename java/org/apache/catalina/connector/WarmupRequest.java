@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A synthetic request that a {@link Connector} passes through the request
+ * processing pipeline before it starts to accept connections so that the code
+ * used to process requests has been loaded and compiled by the time real
+ * traffic arrives. The response to a warm-up request is discarded.
+ * <p>
+ * Warm-up requests are processed by the thread that starts the Connector.
+ * Asynchronous processing is not supported and an attempt to start it will
+ * fail. Warm-up requests carry the request attribute
+ * {@link #WARMUP_REQUEST_ATTR} so that they can, for example, be excluded
+ * from the access log.
+ */
+public class WarmupRequest {
+
+    /**
+     * The request attribute that is present, with the value
+     * <code>Boolean.TRUE</code>, for warm-up requests.
+     */
+    public static final String WARMUP_REQUEST_ATTR =
+        "org.apache.catalina.connector.WARMUP_REQUEST";
+
+
+    private String uri = "/";
+    private String method = "GET";
+    private String body = null;
+    private String bodyEncoding = "UTF-8";
+    private final List<String[]> headers = new ArrayList<String[]>();
+
+
+    /**
+     * @return The request URI, including any query string
+     */
+    public String getUri() {
+        return uri;
+    }
+
+
+    /**
+     * Set the request URI. The URI may include a query string and must be
+     * %nn encoded as it would be on the wire.
+     *
+     * @param uri   The request URI
+     */
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+
+    public String getMethod() {
+        return method;
+    }
+
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+
+    /**
+     * @return The request body or <code>null</code> if the request has no
+     *         body
+     */
+    public String getBody() {
+        return body;
+    }
+
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+
+    /**
+     * @return The character encoding used to convert the body to bytes
+     */
+    public String getBodyEncoding() {
+        return bodyEncoding;
+    }
+
+
+    public void setBodyEncoding(String bodyEncoding) {
+        this.bodyEncoding = bodyEncoding;
+    }
+
+
+    /**
+     * Add a request header. A <code>Content-Length</code> header is added
+     * automatically if the request has a body.
+     *
+     * @param name  The name of the header
+     * @param value The value of the header
+     */
+    public void addHeader(String name, String value) {
+        headers.add(new String[] { name, value });
+    }
+
+
+    /**
+     * @return The request headers as name, value pairs
+     */
+    public List<String[]> getHeaders() {
+        return headers;
+    }
+}
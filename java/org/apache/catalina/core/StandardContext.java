@@ -42,8 +42,10 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ListenerNotFoundException;
@@ -918,9 +920,65 @@ public class StandardContext extends ContainerBase implements Context, Notificat
 
     private boolean dispatchersUseEncodedPaths = true;
 
+    private boolean parallelAnnotationScanning = false;
+
+    private boolean useScanIndex = false;
+
+    private boolean parallelLoadOnStartup = false;
+
+    private boolean parallelDescriptorParsing = false;
+
 
     // ----------------------------------------------------- Context Properties
 
+    @Override
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning) {
+        this.parallelAnnotationScanning = parallelAnnotationScanning;
+    }
+
+
+    @Override
+    public boolean getParallelAnnotationScanning() {
+        return parallelAnnotationScanning;
+    }
+
+
+    @Override
+    public void setUseScanIndex(boolean useScanIndex) {
+        this.useScanIndex = useScanIndex;
+    }
+
+
+    @Override
+    public boolean getUseScanIndex() {
+        return useScanIndex;
+    }
+
+
+    @Override
+    public void setParallelLoadOnStartup(boolean parallelLoadOnStartup) {
+        this.parallelLoadOnStartup = parallelLoadOnStartup;
+    }
+
+
+    @Override
+    public boolean getParallelLoadOnStartup() {
+        return parallelLoadOnStartup;
+    }
+
+
+    @Override
+    public void setParallelDescriptorParsing(boolean parallelDescriptorParsing) {
+        this.parallelDescriptorParsing = parallelDescriptorParsing;
+    }
+
+
+    @Override
+    public boolean getParallelDescriptorParsing() {
+        return parallelDescriptorParsing;
+    }
+
+
     @Override
     public void setDispatchersUseEncodedPaths(boolean dispatchersUseEncodedPaths) {
         this.dispatchersUseEncodedPaths = dispatchersUseEncodedPaths;
@@ -4752,6 +4810,49 @@ public class StandardContext extends ContainerBase implements Context, Notificat
         return result;
     }
 
+    /**
+     * Gets the cumulative CPU time, in nanoseconds, of the requests processed
+     * by all servlets in this StandardContext for which resource usage was
+     * tracked.
+     *
+     * @return Cumulative CPU time of all servlets in this StandardContext
+     */
+    public long getCpuTime() {
+
+        long result = 0;
+
+        Container[] children = findChildren();
+        if (children != null) {
+            for( int i=0; i< children.length; i++ ) {
+                result += ((StandardWrapper)children[i]).getCpuTime();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the cumulative number of bytes allocated by the requests processed
+     * by all servlets in this StandardContext for which resource usage was
+     * tracked.
+     *
+     * @return Cumulative allocated bytes of all servlets in this
+     * StandardContext
+     */
+    public long getAllocatedBytes() {
+
+        long result = 0;
+
+        Container[] children = findChildren();
+        if (children != null) {
+            for( int i=0; i< children.length; i++ ) {
+                result += ((StandardWrapper)children[i]).getAllocatedBytes();
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Gets the cumulative error count of all servlets in this
      * StandardContext.
@@ -5341,17 +5442,13 @@ public class StandardContext extends ContainerBase implements Context, Notificat
 
         // Load the collected "load on startup" servlets
         for (ArrayList<Wrapper> list : map.values()) {
-            for (Wrapper wrapper : list) {
-                try {
-                    wrapper.load();
-                } catch (ServletException e) {
-                    getLogger().error(sm.getString("standardContext.loadOnStartup.loadException",
-                          getName(), wrapper.getName()), StandardWrapper.getRootCause(e));
-                    // NOTE: load errors (including a servlet that throws
-                    // UnavailableException from the init() method) are NOT
-                    // fatal to application startup
-                    // unless failCtxIfServletStartFails="true" is specified
-                    if(getComputedFailCtxIfServletStartFails()) {
+            if (getParallelLoadOnStartup() && list.size() > 1) {
+                if (!loadOnStartupParallel(list)) {
+                    return false;
+                }
+            } else {
+                for (Wrapper wrapper : list) {
+                    if (!loadOnStartup(wrapper)) {
                         return false;
                     }
                 }
@@ -5362,6 +5459,69 @@ public class StandardContext extends ContainerBase implements Context, Notificat
     }
 
 
+    /*
+     * Servlets with the same load on startup value may be loaded in any order
+     * so load them using the start/stop threads of this Context. Each thread
+     * is bound to this Context while it loads a servlet. All the servlets are
+     * loaded, even if one fails, before the next load on startup value is
+     * processed.
+     */
+    private boolean loadOnStartupParallel(List<Wrapper> wrappers) {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (final Wrapper wrapper : wrappers) {
+            results.add(startStopExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    ClassLoader oldCCL = bindThread();
+                    try {
+                        return Boolean.valueOf(loadOnStartup(wrapper));
+                    } finally {
+                        unbindThread(oldCCL);
+                    }
+                }
+            }));
+        }
+
+        boolean ok = true;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                if (!results.get(i).get().booleanValue()) {
+                    ok = false;
+                }
+            } catch (Exception e) {
+                getLogger().error(sm.getString("standardContext.loadOnStartup.loadException",
+                        getName(), wrappers.get(i).getName()), e);
+                if (getComputedFailCtxIfServletStartFails()) {
+                    ok = false;
+                }
+            }
+        }
+        return ok;
+    }
+
+
+    /*
+     * Returns false if the failure to load the servlet means the Context must
+     * fail to start.
+     */
+    private boolean loadOnStartup(Wrapper wrapper) {
+        try {
+            wrapper.load();
+        } catch (ServletException e) {
+            getLogger().error(sm.getString("standardContext.loadOnStartup.loadException",
+                  getName(), wrapper.getName()), StandardWrapper.getRootCause(e));
+            // NOTE: load errors (including a servlet that throws
+            // UnavailableException from the init() method) are NOT
+            // fatal to application startup
+            // unless failCtxIfServletStartFails="true" is specified
+            if(getComputedFailCtxIfServletStartFails()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     /**
      * Start this component and implement the requirements
      * of {@link org.apache.catalina.util.LifecycleBase#startInternal()}.
@@ -259,6 +259,7 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
     protected StandardWrapperValve swValve;
     protected long loadTime=0;
     protected int classLoadTime=0;
+    protected long initTime=0;
     
     /**
      * Multipart config
@@ -1249,6 +1250,7 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
         }
 
         // Call the initialization method of this servlet
+        long t1 = System.currentTimeMillis();
         try {
             instanceSupport.fireInstanceEvent(InstanceEvent.BEFORE_INIT_EVENT, servlet);
 
@@ -1268,6 +1270,7 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
                 servlet.init(facade);
             }
 
+            initTime = System.currentTimeMillis() - t1;
             instanceInitialized = true;
 
             instanceSupport.fireInstanceEvent(InstanceEvent.AFTER_INIT_EVENT,
@@ -1667,6 +1670,33 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
            swValve.setErrorCount(errorCount);
     }
 
+    /**
+     * @return The total CPU time, in nanoseconds, used by the requests
+     *         processed by this wrapper for which resource usage was tracked
+     */
+    public long getCpuTime() {
+        return swValve.getCpuTime();
+    }
+
+    /**
+     * @return The total number of bytes allocated by the requests processed by
+     *         this wrapper for which resource usage was tracked
+     */
+    public long getAllocatedBytes() {
+        return swValve.getAllocatedBytes();
+    }
+
+    /**
+     * Add the resources used by a request processed by this wrapper to the
+     * statistics used for monitoring.
+     *
+     * @param cpuTime           The CPU time used, in nanoseconds
+     * @param allocatedBytes    The number of bytes allocated
+     */
+    public void addResourceUsage(long cpuTime, long allocatedBytes) {
+        swValve.addResourceUsage(cpuTime, allocatedBytes);
+    }
+
     /**
      * Increment the error count used for monitoring.
      */
@@ -1688,6 +1718,14 @@ public class StandardWrapper extends ContainerBase implements ServletConfig, Wra
         return classLoadTime;
     }
 
+    /**
+     * @return the time, in milliseconds, taken by the init() method of the
+     * most recently initialized instance of the servlet
+     */
+    public long getInitTime() {
+        return initTime;
+    }
+
     @Override
     public MultipartConfigElement getMultipartConfigElement() {
         return multipartConfigElement;
@@ -21,6 +21,7 @@ package org.apache.catalina.core;
 
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.RequestDispatcher;
@@ -67,6 +68,8 @@ final class StandardWrapperValve extends ValveBase {
     private volatile long minTime = Long.MAX_VALUE;
     private final AtomicInteger requestCount = new AtomicInteger(0);
     private final AtomicInteger errorCount = new AtomicInteger(0);
+    private final AtomicLong cpuTime = new AtomicLong(0);
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
 
 
     /**
@@ -547,6 +550,23 @@ final class StandardWrapperValve extends ValveBase {
         this.errorCount.set(errorCount);
     }
 
+    public long getCpuTime() {
+        return cpuTime.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public void addResourceUsage(long cpuTime, long allocatedBytes) {
+        if (cpuTime > 0) {
+            this.cpuTime.addAndGet(cpuTime);
+        }
+        if (allocatedBytes > 0) {
+            this.allocatedBytes.addAndGet(allocatedBytes);
+        }
+    }
+
     @Override
     protected void initInternal() throws LifecycleException {
         // NOOP - Don't register this Valve in JMX
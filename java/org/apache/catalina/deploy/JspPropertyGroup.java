@@ -16,13 +16,17 @@
  */
 package org.apache.catalina.deploy;
 
+import java.io.Serializable;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
  * Representation of a jsp-property-group element in web.xml.
  */
-public class JspPropertyGroup {
+public class JspPropertyGroup implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     private Boolean deferredSyntax = null;
     public void setDeferredSyntax(String deferredSyntax) {
         this.deferredSyntax = Boolean.valueOf(deferredSyntax);
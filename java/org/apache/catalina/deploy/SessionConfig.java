@@ -17,6 +17,7 @@
 
 package org.apache.catalina.deploy;
 
+import java.io.Serializable;
 import java.util.EnumSet;
 
 import javax.servlet.SessionTrackingMode;
@@ -26,7 +27,10 @@ import javax.servlet.SessionTrackingMode;
  * as represented in a <code>&lt;session-config&gt;</code> element in the
  * deployment descriptor.
  */
-public class SessionConfig {
+public class SessionConfig implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     private Integer sessionTimeout;
     private String cookieName;
     private String cookieDomain;
@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Loads, in the background, the classes recorded in a class preload profile
+ * so they are already loaded when the first requests need them. The profile
+ * is a text file in the work directory of the web application that lists the
+ * classes loaded by the web application class loader, in the order they were
+ * loaded, shortly after the previous start. The profile is only used if it
+ * was recorded for the same version of the web application.
+ * <p>
+ * Classes are loaded without being initialized so no application code is
+ * executed by the preloading threads.
+ */
+final class ClassPreloader {
+
+    private static final Log log = LogFactory.getLog(ClassPreloader.class);
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    static final String PROFILE_NAME = "class-preload-profile.txt";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final WebappClassLoaderBase classLoader;
+    private final List<String> classNames;
+    private final Thread[] threads;
+    private final AtomicInteger loadedCount = new AtomicInteger();
+    private volatile boolean stopped = false;
+
+
+    /**
+     * Create a preloader for the given classes.
+     *
+     * @param classLoader   The class loader to load the classes with
+     * @param classNames    The names of the classes in the order they should
+     *                      be loaded
+     * @param threadCount   The number of threads to load the classes with
+     * @param name          The name, used in the thread names, of the web
+     *                      application
+     */
+    ClassPreloader(WebappClassLoaderBase classLoader, List<String> classNames,
+            int threadCount, String name) {
+        this.classLoader = classLoader;
+        this.classNames = classNames;
+        int count = Math.max(1, Math.min(threadCount, classNames.size()));
+        threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            threads[i] = new PreloadThread(i, count);
+            threads[i].setName("ClassPreloader[" + name + "]-" + (i + 1));
+            threads[i].setDaemon(true);
+            threads[i].setPriority(Thread.MIN_PRIORITY);
+            // Don't let the threads retain a reference to the web application
+            threads[i].setContextClassLoader(ClassPreloader.class.getClassLoader());
+        }
+    }
+
+
+    void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+
+    /**
+     * Stop preloading and wait for the preloading threads to finish.
+     */
+    void stop() {
+        stopped = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> once every class has been preloaded or
+     *         preloading has been stopped
+     */
+    boolean isDone() {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return The number of classes that have been loaded by this preloader
+     */
+    int getLoadedCount() {
+        return loadedCount.get();
+    }
+
+
+    /**
+     * Read a class preload profile.
+     *
+     * @param file      The profile
+     * @param version   The version of the web application that is starting
+     * @return The names of the classes in the profile or an empty list if the
+     *         profile does not exist, cannot be read or was recorded for a
+     *         different version of the web application
+     */
+    static List<String> load(File file, String version) {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        List<String> classNames = new ArrayList<String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), CHARSET));
+            String line = reader.readLine();
+            if (line == null || !line.equals(version)) {
+                return Collections.emptyList();
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    classNames.add(line);
+                }
+            }
+        } catch (IOException e) {
+            log.warn(sm.getString("classPreloader.loadFail",
+                    file.getAbsolutePath()), e);
+            return Collections.emptyList();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ioe) {
+                    // Ignore
+                }
+            }
+        }
+        return classNames;
+    }
+
+
+    /**
+     * Write a class preload profile.
+     *
+     * @param file          The profile
+     * @param version       The version of the web application
+     * @param classNames    The names of the classes in the order they were
+     *                      loaded
+     */
+    static void save(File file, String version, Collection<String> classNames) {
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), CHARSET));
+            writer.write(version);
+            writer.write('\n');
+            for (String className : classNames) {
+                writer.write(className);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            log.warn(sm.getString("classPreloader.saveFail",
+                    file.getAbsolutePath()), e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ioe) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Each thread loads every n-th class so the classes are loaded in
+     * approximately the order they were recorded.
+     */
+    private class PreloadThread extends Thread {
+
+        private final int offset;
+        private final int step;
+
+        public PreloadThread(int offset, int step) {
+            this.offset = offset;
+            this.step = step;
+        }
+
+        @Override
+        public void run() {
+            for (int i = offset; i < classNames.size(); i += step) {
+                if (stopped || !classLoader.isStarted()) {
+                    return;
+                }
+                String className = classNames.get(i);
+                try {
+                    Class.forName(className, false, classLoader);
+                    loadedCount.incrementAndGet();
+                } catch (ClassNotFoundException e) {
+                    // The application has changed since the profile was
+                    // recorded
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("classPreloader.notFound",
+                                className));
+                    }
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("classPreloader.loadClassFail",
+                                className), t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * An immutable index of the entries in the JARs used by a web application
+ * class loader. For each entry path the index holds the positions, in search
+ * order, of the JARs that contain an entry with that path. This allows a
+ * resource to be located, or found to be absent, without asking each JAR in
+ * turn. Instances are built once, when the JARs have been opened, and are then
+ * safe to use from multiple threads without synchronization.
+ */
+final class JarIndex {
+
+    private static final int[] NO_JARS = new int[0];
+
+    private final int jarCount;
+    private final Map<String,int[]> entries;
+
+
+    private JarIndex(int jarCount, Map<String,int[]> entries) {
+        this.jarCount = jarCount;
+        this.entries = entries;
+    }
+
+
+    /**
+     * Build an index of the given JARs.
+     *
+     * @param jarFiles  The open JARs in search order
+     * @return The index of the entries in the JARs
+     */
+    static JarIndex build(JarFile[] jarFiles) {
+        Map<String,int[]> entries = new HashMap<String,int[]>();
+        // Most entries are only present in one JAR so share those arrays
+        int[][] singleJars = new int[jarFiles.length][];
+        for (int i = 0; i < jarFiles.length; i++) {
+            singleJars[i] = new int[] { i };
+            Enumeration<JarEntry> jarEntries = jarFiles[i].entries();
+            while (jarEntries.hasMoreElements()) {
+                String name = jarEntries.nextElement().getName();
+                int[] jars = entries.get(name);
+                if (jars == null) {
+                    entries.put(name, singleJars[i]);
+                } else if (jars[jars.length - 1] != i) {
+                    int[] result = new int[jars.length + 1];
+                    System.arraycopy(jars, 0, result, 0, jars.length);
+                    result[jars.length] = i;
+                    entries.put(name, result);
+                }
+            }
+        }
+        return new JarIndex(jarFiles.length, entries);
+    }
+
+
+    /**
+     * @return The number of JARs in this index
+     */
+    int getJarCount() {
+        return jarCount;
+    }
+
+
+    /**
+     * Obtain the JARs that contain the given entry. As with
+     * {@link JarFile#getJarEntry(String)}, a directory entry will be matched
+     * if the path does not include the trailing '/'.
+     *
+     * @param path  The path of the entry within the JAR
+     * @return The positions, in search order, of the JARs that contain the
+     *         entry. The returned array must not be modified.
+     */
+    int[] getJars(String path) {
+        int[] jars = entries.get(path);
+        if (!path.endsWith("/")) {
+            int[] directoryJars = entries.get(path + "/");
+            if (directoryJars != null) {
+                jars = merge(jars, directoryJars);
+            }
+        }
+        if (jars == null) {
+            return NO_JARS;
+        }
+        return jars;
+    }
+
+
+    private static int[] merge(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[k++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[k++] = b[j++];
+            } else {
+                result[k++] = a[i++];
+                j++;
+            }
+        }
+        if (k < result.length) {
+            int[] trimmed = new int[k];
+            System.arraycopy(result, 0, trimmed, 0, k);
+            return trimmed;
+        }
+        return result;
+    }
+}
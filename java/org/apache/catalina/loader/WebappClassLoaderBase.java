@@ -54,11 +54,16 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.JarEntry;
@@ -76,6 +81,7 @@ import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.LifecycleState;
+import org.apache.juli.FlightRecorderEventType;
 import org.apache.naming.JndiPermission;
 import org.apache.naming.resources.ProxyDirContext;
 import org.apache.naming.resources.Resource;
@@ -159,6 +165,17 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
 
     private static final Method GET_CLASSLOADING_LOCK_METHOD;
 
+    /**
+     * JFR event describing a call to {@link #loadClass(String, boolean)}.
+     */
+    private static final FlightRecorderEventType LOAD_CLASS_EVENT =
+            FlightRecorderEventType.create(
+                    "org.apache.catalina.loader.LoadClass",
+                    "Web Application Class Load",
+                    "Loading of a class by a web application class loader",
+                    new String[] { "className", "found" },
+                    new Class<?>[] { String.class, boolean.class });
+
     protected static final StringManager sm = StringManager.getManager(Constants.Package);
 
     static {
@@ -373,7 +390,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     /**
      * Last time a JAR was accessed.
      */
-    protected long lastJarAccessed = 0L;
+    protected volatile long lastJarAccessed = 0L;
 
 
     /**
@@ -404,6 +421,15 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     protected JarFile[] jarFiles = new JarFile[0];
 
 
+    /**
+     * Held for read while the JARs are in use and for write while they are
+     * opened or closed so that a JAR is never closed while it is being read.
+     * Readers do not block each other and idle JARs are only closed if no
+     * reader is using them.
+     */
+    private final ReadWriteLock jarFilesLock = new ReentrantReadWriteLock();
+
+
     /**
      * The list of JARs, in the order they should be searched
      * for locally loaded classes or resources.
@@ -424,6 +450,20 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     protected String[] jarNames = new String[0];
 
 
+    /**
+     * The index of the entries in {@link #jarFiles}. Built when the class
+     * loader starts and discarded if the list of JARs changes.
+     */
+    private volatile JarIndex jarIndex = null;
+
+
+    /**
+     * The names of the classes defined by this class loader, in the order
+     * they were defined, while recording is enabled.
+     */
+    private volatile Queue<String> recordedClassNames = null;
+
+
     /**
      * The list of JARs last modified dates, in the order they should be
      * searched for locally loaded classes or resources.
@@ -983,6 +1023,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
         base.jarFiles = this.jarFiles.clone();
         base.jarRealFiles = this.jarRealFiles.clone();
         base.jarNames = this.jarNames.clone();
+        base.jarIndex = this.jarIndex;
         base.lastModifiedDates = this.lastModifiedDates.clone();
         base.paths = this.paths.clone();
         base.notFoundResources.putAll(this.notFoundResources);
@@ -1137,6 +1178,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
         }
         result2[jarFiles.length] = jarFile;
         jarFiles = result2;
+        jarIndex = null;
 
         // Add the file to the list
         File[] result4 = new File[jarRealFiles.length + 1];
@@ -1323,7 +1365,8 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     @Override
     public Class<?> findClass(String name) throws ClassNotFoundException {
 
-        log.info("    findClass(" + name + ")");
+        if (log.isDebugEnabled())
+            log.debug("    findClass(" + name + ")");
 
         // Cannot load anything from local repositories if class loader is stopped
         if (!started) {
@@ -1336,11 +1379,13 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             if (i >= 0) {
                 try {
 
-                    log.info("      securityManager.checkPackageDefinition");
+                    if (log.isDebugEnabled())
+                        log.debug("      securityManager.checkPackageDefinition");
                     securityManager.checkPackageDefinition(name.substring(0,i));
                 } catch (Exception se) {
 
-                    log.info("      -->Exception-->ClassNotFoundException", se);
+                    if (log.isTraceEnabled())
+                        log.trace("      -->Exception-->ClassNotFoundException", se);
                     throw new ClassNotFoundException(name, se);
                 }
             }
@@ -1352,7 +1397,8 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
         try {
 
             if (hasExternalRepositories && searchExternalFirst) {
-                log.info("      findClassInternal(" + name + ")");
+                if (log.isDebugEnabled())
+                    log.debug("      findClassInternal(" + name + ")");
 
                 try {
                     clazz = super.findClass(name);
@@ -1528,19 +1574,22 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
         }
 
         // Looking at the JAR files
-        synchronized (jarFiles) {
-            if (openJARs()) {
-                for (i = 0; i < jarFilesLength; i++) {
-                    JarEntry jarEntry = jarFiles[i].getJarEntry(name);
+        int[] jars = findJars(name, jarFilesLength);
+        if (jars.length > 0 && lockJARs()) {
+            try {
+                for (int jar : jars) {
+                    JarEntry jarEntry = jarFiles[jar].getJarEntry(name);
                     if (jarEntry != null) {
                         try {
-                            String jarFakeUrl = getURI(jarRealFiles[i]).toString();
+                            String jarFakeUrl = getURI(jarRealFiles[jar]).toString();
                             result.add(UriUtil.buildJarUrl(jarFakeUrl, name));
                         } catch (MalformedURLException e) {
                             // Ignore
                         }
                     }
                 }
+            } finally {
+                jarFilesLock.readLock().unlock();
             }
         }
 
@@ -1765,10 +1814,27 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     @SuppressWarnings("sync-override")
     @Override
     public Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Object event = LOAD_CLASS_EVENT.begin();
+        if (event == null) {
+            return doLoadClass(name, resolve);
+        }
+        boolean found = false;
+        try {
+            Class<?> clazz = doLoadClass(name, resolve);
+            found = true;
+            return clazz;
+        } finally {
+            LOAD_CLASS_EVENT.commit(event, name, Boolean.valueOf(found));
+        }
+    }
+
+
+    private Class<?> doLoadClass(String name, boolean resolve) throws ClassNotFoundException {
 
         synchronized (getClassLoadingLockInternal(name)) {
 
-            log.info("loadClass(" + name + ", " + resolve + ")");
+            if (log.isDebugEnabled())
+                log.debug("loadClass(" + name + ", " + resolve + ")");
             Class<?> clazz = null;
 
             // Log access to stopped classloader
@@ -1783,7 +1849,8 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             // (0) Check our previously loaded local class cache
             clazz = findLoadedClass0(name);
             if (clazz != null) {
-                log.info("  Returning class from cache");
+                if (log.isDebugEnabled())
+                    log.debug("  Returning class from cache");
                 if (resolve)
                     resolveClass(clazz);
                 return (clazz);
@@ -1792,7 +1859,8 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             // (0.1) Check our previously loaded class cache
             clazz = findLoadedClass(name);
             if (clazz != null) {
-                log.info("  Returning class from cache");
+                if (log.isDebugEnabled())
+                    log.debug("  Returning class from cache");
                 if (resolve)
                     resolveClass(clazz);
                 return (clazz);
@@ -1838,11 +1906,13 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             // (1) Delegate to our parent if requested
             if (delegateLoad) {
 
-                log.info("  Delegating to parent classloader1 " + parent);
+                if (log.isDebugEnabled())
+                    log.debug("  Delegating to parent classloader1 " + parent);
                 try {
                     clazz = Class.forName(name, false, parent);
                     if (clazz != null) {
-                        log.info("  Loading class from parent");
+                        if (log.isDebugEnabled())
+                            log.debug("  Loading class from parent");
                         if (resolve)
                             resolveClass(clazz);
                         return (clazz);
@@ -1854,11 +1924,13 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
 
             // (2) Search local repositories
 
-            log.info("  Searching local repositories");
+            if (log.isDebugEnabled())
+                log.debug("  Searching local repositories");
             try {
                 clazz = findClass(name);
                 if (clazz != null) {
-                    log.info("  Loading class from local repository");
+                    if (log.isDebugEnabled())
+                        log.debug("  Loading class from local repository");
                     if (resolve)
                         resolveClass(clazz);
                     return (clazz);
@@ -1869,11 +1941,13 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
 
             // (3) Delegate to parent unconditionally
             if (!delegateLoad) {
-                log.info("  Delegating to parent classloader at end: " + parent);
+                if (log.isDebugEnabled())
+                    log.debug("  Delegating to parent classloader at end: " + parent);
                 try {
                     clazz = Class.forName(name, false, parent);
                     if (clazz != null) {
-                            log.info("  Loading class from parent");
+                            if (log.isDebugEnabled())
+                                log.debug("  Loading class from parent");
                         if (resolve)
                             resolveClass(clazz);
                         return (clazz);
@@ -2098,6 +2172,9 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             }
         }
 
+        if (openJARs()) {
+            buildJarIndex();
+        }
     }
 
 
@@ -2124,20 +2201,28 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             files[i] = null;
         }
 
-        length = jarFiles.length;
-        for (int i = 0; i < length; i++) {
-            try {
-                if (jarFiles[i] != null) {
-                    jarFiles[i].close();
+        jarFilesLock.writeLock().lock();
+        try {
+            length = jarFiles.length;
+            for (int i = 0; i < length; i++) {
+                try {
+                    if (jarFiles[i] != null) {
+                        jarFiles[i].close();
+                    }
+                } catch (IOException e) {
+                    // Ignore
                 }
-            } catch (IOException e) {
-                // Ignore
+                jarFiles[i] = null;
             }
-            jarFiles[i] = null;
+        } finally {
+            jarFilesLock.writeLock().unlock();
         }
 
-        notFoundResources.clear();
+        synchronized (notFoundResources) {
+            notFoundResources.clear();
+        }
         resourceEntries.clear();
+        jarIndex = null;
         resources = null;
         repositories = null;
         repositoryURLs = null;
@@ -2174,27 +2259,80 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
      */
     public void closeJARs(boolean force) {
         if (jarFiles.length > 0) {
-                synchronized (jarFiles) {
-                    if (force || (System.currentTimeMillis()
-                                  > (lastJarAccessed + 90000))) {
-                        for (int i = 0; i < jarFiles.length; i++) {
-                            try {
-                                if (jarFiles[i] != null) {
-                                    jarFiles[i].close();
-                                    jarFiles[i] = null;
-                                }
-                            } catch (IOException e) {
-                                if (log.isDebugEnabled()) {
-                                    log.debug("Failed to close JAR", e);
-                                }
+            Lock writeLock = jarFilesLock.writeLock();
+            if (force) {
+                writeLock.lock();
+            } else if (!writeLock.tryLock()) {
+                // The JARs are in use so they are not idle
+                return;
+            }
+            try {
+                if (force || (System.currentTimeMillis()
+                              > (lastJarAccessed + 90000))) {
+                    for (int i = 0; i < jarFiles.length; i++) {
+                        try {
+                            if (jarFiles[i] != null) {
+                                jarFiles[i].close();
+                                jarFiles[i] = null;
+                            }
+                        } catch (IOException e) {
+                            if (log.isDebugEnabled()) {
+                                log.debug("Failed to close JAR", e);
                             }
                         }
                     }
                 }
+            } finally {
+                writeLock.unlock();
+            }
         }
     }
 
 
+    /**
+     * Start recording the names of the classes defined by this class loader.
+     */
+    void startRecordingClasses() {
+        recordedClassNames = new ConcurrentLinkedQueue<String>();
+    }
+
+
+    /**
+     * Stop recording the names of the classes defined by this class loader.
+     *
+     * @return The names of the classes defined since recording started, in
+     *         the order they were defined
+     */
+    List<String> stopRecordingClasses() {
+        Queue<String> recorded = recordedClassNames;
+        recordedClassNames = null;
+        if (recorded == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<String>(recorded);
+    }
+
+
+    /**
+     * @return <code>true</code> if the names of the classes defined by this
+     *         class loader are being recorded
+     */
+    boolean isRecordingClasses() {
+        return recordedClassNames != null;
+    }
+
+
+    /**
+     * @return <code>true</code> if this class loader is registered as parallel
+     *         capable so that several threads may load classes with it without
+     *         blocking each other
+     */
+    boolean isParallelCapable() {
+        // A class loader that is not parallel capable uses itself as the lock
+        return getClassLoadingLockInternal(getClass().getName()) != this;
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
     protected ClassLoader getJavaseClassLoader() {
@@ -3092,24 +3230,111 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
 
 
     /**
-     * Used to periodically signal to the classloader to release JAR resources.
+     * Open any JARs that have been closed by {@link #closeJARs(boolean)}. If
+     * any JAR fails to open, all the JARs are closed.
+     *
+     * @return <code>true</code> if the JARs are open or the class loader has
+     *         not been started
      */
     protected boolean openJARs() {
         if (started && (jarFiles.length > 0)) {
-            lastJarAccessed = System.currentTimeMillis();
+            if (!lockJARs()) {
+                return false;
+            }
+            jarFilesLock.readLock().unlock();
+        }
+        return true;
+    }
+
+
+    /**
+     * Acquire the read lock for the JARs, first opening them if they have been
+     * closed by {@link #closeJARs(boolean)}. The JARs are only opened and
+     * closed while holding the write lock so, while the read lock is held,
+     * every element of {@link #jarFiles} is open and readers do not block each
+     * other.
+     *
+     * @return <code>true</code> if the read lock is held and the JARs are
+     *         open. If <code>false</code> the lock is not held.
+     */
+    private boolean lockJARs() {
+        long now = System.currentTimeMillis();
+        // Avoid writing to the shared field on every access
+        if (now - lastJarAccessed > 1000) {
+            lastJarAccessed = now;
+        }
+        Lock readLock = jarFilesLock.readLock();
+        readLock.lock();
+        if (jarFiles.length == 0 || jarFiles[0] != null) {
+            return true;
+        }
+        readLock.unlock();
+
+        Lock writeLock = jarFilesLock.writeLock();
+        writeLock.lock();
+        try {
             if (jarFiles[0] == null) {
+                if (!started) {
+                    return false;
+                }
                 for (int i = 0; i < jarFiles.length; i++) {
                     try {
                         jarFiles[i] = new JarFile(jarRealFiles[i]);
                     } catch (IOException e) {
-                        log.warn(sm.getString("webappClassLoader.jarOpenFail", jarFiles[i]), e);
+                        log.warn(sm.getString("webappClassLoader.jarOpenFail", jarRealFiles[i]), e);
                         closeJARs(true);
                         return false;
                     }
                 }
             }
+            // Downgrade to the read lock
+            readLock.lock();
+            return true;
+        } finally {
+            writeLock.unlock();
         }
-        return true;
+    }
+
+
+    /**
+     * Build the index of the entries in the JARs.
+     */
+    private void buildJarIndex() {
+        if (!lockJARs()) {
+            // Fall back to searching each JAR in turn
+            jarIndex = null;
+            return;
+        }
+        try {
+            jarIndex = JarIndex.build(jarFiles);
+        } catch (RuntimeException e) {
+            // Fall back to searching each JAR in turn
+            log.warn(sm.getString("webappClassLoader.jarIndexFail", contextName), e);
+            jarIndex = null;
+        } finally {
+            jarFilesLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Obtain the positions, in search order, of the JARs that may contain
+     * the given entry.
+     *
+     * @param jarEntryPath  The path of the entry within the JAR
+     * @param jarFilesLength The current number of JARs
+     * @return The positions of the JARs to search
+     */
+    private int[] findJars(String jarEntryPath, int jarFilesLength) {
+        JarIndex index = jarIndex;
+        if (index != null && index.getJarCount() == jarFilesLength) {
+            return index.getJars(jarEntryPath);
+        }
+        int[] jars = new int[jarFilesLength];
+        for (int i = 0; i < jarFilesLength; i++) {
+            jars[i] = i;
+        }
+        return jars;
     }
 
 
@@ -3209,6 +3434,10 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             // Now the class has been defined, clear the elements of the local
             // resource cache that are no longer required.
             entry.loadedClass = clazz;
+            Queue<String> recorded = recordedClassNames;
+            if (recorded != null) {
+                recorded.add(name);
+            }
             entry.binaryContent = null;
             entry.codeBase = null;
             entry.manifest = null;
@@ -3270,22 +3499,26 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                 // This resource was added to the cache when a request was made
                 // for the resource that did not need the manifest. Now the
                 // manifest is required, the cache entry needs to be updated.
-                synchronized (jarFiles) {
-                    if (openJARs()) {
-                        for (int i = 0; i < jarFiles.length; i++) {
-
-                            jarEntry = jarFiles[i].getJarEntry(jarEntryPath);
+                int[] jars = findJars(jarEntryPath, jarFiles.length);
+                if (!lockJARs()) {
+                    return entry;
+                }
+                try {
+                    for (int i : jars) {
+                        JarFile jarFile = jarFiles[i];
+                        jarEntry = jarFile.getJarEntry(jarEntryPath);
 
-                            if (jarEntry != null) {
-                                try {
-                                    entry.manifest = jarFiles[i].getManifest();
-                                } catch (IOException ioe) {
-                                    // Ignore
-                                }
-                                break;
+                        if (jarEntry != null) {
+                            try {
+                                entry.manifest = jarFile.getManifest();
+                            } catch (IOException ioe) {
+                                // Ignore
                             }
-                         }
-                     }
+                            break;
+                        }
+                    }
+                } finally {
+                    jarFilesLock.readLock().unlock();
                 }
             }
             return entry;
@@ -3383,18 +3616,35 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             }
         }
 
-        if ((entry == null) && (notFoundResources.containsKey(name)))
+        if (entry == null) {
+            synchronized (notFoundResources) {
+                if (notFoundResources.containsKey(name)) {
+                    return null;
+                }
+            }
+        }
+
+        // Only lock the JARs if the resource may be in one of them
+        int[] jars = findJars(jarEntryPath, jarFilesLength);
+        if (entry == null && jars.length == 0) {
+            synchronized (notFoundResources) {
+                notFoundResources.put(name, name);
+            }
             return null;
+        }
 
-        synchronized (jarFiles) {
+        if (!lockJARs()) {
+            return null;
+        }
+        try {
 
             try {
-                if (!openJARs()) {
-                    return null;
-                }
-                for (i = 0; (entry == null) && (i < jarFilesLength); i++) {
+                for (int jar = 0; (entry == null) && (jar < jars.length); jar++) {
 
-                    jarEntry = jarFiles[i].getJarEntry(jarEntryPath);
+                    i = jars[jar];
+                    JarFile jarFile = jarFiles[i];
+
+                    jarEntry = jarFile.getJarEntry(jarEntryPath);
 
                     if (jarEntry != null) {
 
@@ -3410,11 +3660,11 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                         contentLength = (int) jarEntry.getSize();
                         try {
                             if (manifestRequired) {
-                                entry.manifest = jarFiles[i].getManifest();
+                                entry.manifest = jarFile.getManifest();
                             } else {
                                 entry.manifest = MANIFEST_UNKNOWN;
                             }
-                            binaryStream = jarFiles[i].getInputStream(jarEntry);
+                            binaryStream = jarFile.getInputStream(jarEntry);
                         } catch (IOException e) {
                             return null;
                         }
@@ -3424,7 +3674,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                             byte[] buf = new byte[1024];
                             File resourceFile = new File(loaderDir, jarEntry.getName());
                             if (!resourceFile.exists()) {
-                                Enumeration<JarEntry> entries = jarFiles[i].entries();
+                                Enumeration<JarEntry> entries = jarFile.entries();
                                 while (entries.hasMoreElements()) {
                                     JarEntry jarEntry2 =  entries.nextElement();
                                     if (!(jarEntry2.isDirectory()) &&
@@ -3449,7 +3699,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                                         FileOutputStream os = null;
                                         InputStream is = null;
                                         try {
-                                            is = jarFiles[i].getInputStream(jarEntry2);
+                                            is = jarFile.getInputStream(jarEntry2);
                                             os = new FileOutputStream(resourceFile);
                                             while (true) {
                                                 int n = is.read(buf);
@@ -3551,6 +3801,8 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                     } catch (IOException e) { /* Ignore */}
                 }
             }
+        } finally {
+            jarFilesLock.readLock().unlock();
         }
 
         if (isClassResource && entry.binaryContent != null &&
@@ -3577,10 +3829,10 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
         }
 
         // Add the entry in the local resource repository
+        // Ensures that all the threads which may be in a race to load
+        // a particular class all end up with the same ResourceEntry
+        // instance
         synchronized (resourceEntries) {
-            // Ensures that all the threads which may be in a race to load
-            // a particular class all end up with the same ResourceEntry
-            // instance
             ResourceEntry entry2 = resourceEntries.get(path);
             if (entry2 == null) {
                 resourceEntries.put(path, entry);
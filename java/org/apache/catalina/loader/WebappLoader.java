@@ -37,6 +37,7 @@ import java.net.URLClassLoader;
 import java.net.URLDecoder;
 import java.net.URLStreamHandlerFactory;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.jar.JarFile;
 
 import javax.management.ObjectName;
@@ -50,7 +51,9 @@ import org.apache.catalina.Container;
 import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
 import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Loader;
 import org.apache.catalina.core.StandardContext;
@@ -202,6 +205,34 @@ public class WebappLoader extends LifecycleMBeanBase
     private boolean searchExternalFirst = false;
 
 
+    /**
+     * The time, in seconds, after this loader starts during which the classes
+     * loaded by the web application are recorded so they can be preloaded the
+     * next time the same version of the web application starts. Zero or less
+     * disables both recording and preloading.
+     */
+    private int classPreloadRecordTime = 0;
+
+
+    /**
+     * The time at which recording of loaded classes will end.
+     */
+    private long classPreloadRecordEnd = 0;
+
+
+    /**
+     * Preloads the classes recorded during the previous start.
+     */
+    private volatile ClassPreloader classPreloader = null;
+
+
+    /**
+     * Starts preloading once the Context has started.
+     */
+    private final LifecycleListener classPreloadListener =
+            new ClassPreloadListener();
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -362,6 +393,39 @@ public class WebappLoader extends LifecycleMBeanBase
         }
     }
 
+    /**
+     * @return The time, in seconds, after start during which loaded classes
+     *         are recorded for preloading
+     */
+    public int getClassPreloadRecordTime() {
+        return classPreloadRecordTime;
+    }
+
+    /**
+     * Set the time, in seconds, after this loader starts during which the
+     * classes loaded by the web application are recorded. The classes are
+     * written to the work directory and are preloaded in the background the
+     * next time the same version of the web application starts. A value of
+     * zero or less, the default, disables recording and preloading. Changes
+     * take effect the next time this loader starts.
+     *
+     * @param classPreloadRecordTime The new recording time in seconds
+     */
+    public void setClassPreloadRecordTime(int classPreloadRecordTime) {
+        this.classPreloadRecordTime = classPreloadRecordTime;
+    }
+
+    /**
+     * @return The number of classes preloaded since this loader started
+     */
+    public int getClassPreloadCount() {
+        ClassPreloader preloader = classPreloader;
+        if (preloader == null) {
+            return 0;
+        }
+        return preloader.getLoadedCount();
+    }
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -416,6 +480,10 @@ public class WebappLoader extends LifecycleMBeanBase
      */
     @Override
     public void backgroundProcess() {
+        if (classLoader != null && classLoader.isRecordingClasses() &&
+                System.currentTimeMillis() >= classPreloadRecordEnd) {
+            saveClassPreloadProfile();
+        }
         if (reloadable && modified()) {
             try {
                 Thread.currentThread().setContextClassLoader
@@ -609,6 +677,13 @@ public class WebappLoader extends LifecycleMBeanBase
 
             ((Lifecycle) classLoader).start();
 
+            if (classPreloadRecordTime > 0 && getClassPreloadProfile() != null) {
+                classLoader.startRecordingClasses();
+                classPreloadRecordEnd = System.currentTimeMillis() +
+                        classPreloadRecordTime * 1000L;
+                ((Lifecycle) container).addLifecycleListener(classPreloadListener);
+            }
+
             // Binding the Webapp class loader to the directory context
             DirContextURLStreamHandler.bind(classLoader,
                     this.container.getResources());
@@ -657,6 +732,17 @@ public class WebappLoader extends LifecycleMBeanBase
             servletContext.removeAttribute(Globals.CLASS_PATH_ATTR);
         }
 
+        // Stop preloading and save what has been recorded so far
+        ((Lifecycle) container).removeLifecycleListener(classPreloadListener);
+        ClassPreloader preloader = classPreloader;
+        if (preloader != null) {
+            preloader.stop();
+            classPreloader = null;
+        }
+        if (classLoader != null && classLoader.isRecordingClasses()) {
+            saveClassPreloadProfile();
+        }
+
         // Throw away our current class loader
         if (classLoader != null) {
             ((Lifecycle) classLoader).stop();
@@ -713,6 +799,83 @@ public class WebappLoader extends LifecycleMBeanBase
     // ------------------------------------------------------- Private Methods
 
 
+    /**
+     * Obtain the location of the class preload profile.
+     *
+     * @return The profile or <code>null</code> if the Context does not have a
+     *         work directory
+     */
+    private File getClassPreloadProfile() {
+        if (!(container instanceof Context)) {
+            return null;
+        }
+        File workDir = (File) ((Context) container).getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        if (workDir == null) {
+            return null;
+        }
+        return new File(workDir, ClassPreloader.PROFILE_NAME);
+    }
+
+
+    private String getWebappVersion() {
+        String version = ((Context) container).getWebappVersion();
+        if (version == null) {
+            return "";
+        }
+        return version;
+    }
+
+
+    private void saveClassPreloadProfile() {
+        List<String> classNames = classLoader.stopRecordingClasses();
+        File profile = getClassPreloadProfile();
+        if (profile != null) {
+            ClassPreloader.save(profile, getWebappVersion(), classNames);
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("webappLoader.classPreloadSaved",
+                        Integer.valueOf(classNames.size()), profile));
+            }
+        }
+    }
+
+
+    /**
+     * Preload the classes recorded during the previous start. This is done
+     * once the Context has started, rather than when this loader starts, so
+     * that any class file transformers registered during start are applied to
+     * the preloaded classes.
+     */
+    private void startClassPreloading() {
+        File profile = getClassPreloadProfile();
+        if (profile == null || classLoader == null) {
+            return;
+        }
+        List<String> classNames =
+                ClassPreloader.load(profile, getWebappVersion());
+        if (classNames.isEmpty()) {
+            return;
+        }
+        // There is a usable profile so there is nothing to record. Stop now
+        // so that the preloaded classes are not recorded again.
+        classLoader.stopRecordingClasses();
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("webappLoader.classPreloadStart",
+                    Integer.valueOf(classNames.size()), container.getName()));
+        }
+        // Threads loading with a class loader that is not parallel capable
+        // would just queue up on its lock
+        int threadCount = 1;
+        if (classLoader.isParallelCapable()) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        ClassPreloader preloader = new ClassPreloader(classLoader, classNames,
+                threadCount, container.getName());
+        classPreloader = preloader;
+        preloader.start();
+    }
+
+
     /**
      * Create associated classLoader.
      */
@@ -1240,4 +1403,15 @@ public class WebappLoader extends LifecycleMBeanBase
         return name.toString();
     }
 
+
+    private class ClassPreloadListener implements LifecycleListener {
+
+        @Override
+        public void lifecycleEvent(LifecycleEvent event) {
+            if (Lifecycle.AFTER_START_EVENT.equals(event.getType()) &&
+                    ((Lifecycle) container).getState().isAvailable()) {
+                startClassPreloading();
+            }
+        }
+    }
 }
@@ -25,7 +25,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Locale;
 
 import javax.management.MBeanServer;
@@ -49,6 +51,7 @@ import org.apache.catalina.Host;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Server;
 import org.apache.catalina.Session;
+import org.apache.catalina.Valve;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.core.StandardServer;
@@ -56,6 +59,7 @@ import org.apache.catalina.startup.ExpandWar;
 import org.apache.catalina.util.ContextName;
 import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.ServerInfo;
+import org.apache.catalina.valves.SlowRequestRecorderValve;
 import org.apache.tomcat.util.Diagnostics;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.modeler.Registry;
@@ -99,6 +103,9 @@ import org.apache.tomcat.util.res.StringManager;
  *     resources, optionally limited to those of the specified type
  *     (fully qualified Java class name), if available.</li>
  * <li><b>/serverinfo</b> - Display system OS and JVM properties.
+ * <li><b>/slowrequests</b> - Write the slow requests retained by any
+ *     {@link SlowRequestRecorderValve} configured for the engine, this
+ *     virtual host or its web applications.</li>
  * <li><b>/sessions</b> - Deprecated. Use expire.
  * <li><b>/expire?path=/xxx</b> - List session idle timeinformation about the
  *     web application attached to context path <code>/xxx</code> for this
@@ -377,6 +384,8 @@ public class ManagerServlet extends HttpServlet implements ContainerServlet {
             serverinfo(writer, smClient);
         } else if (command.equals("/sessions")) {
             expireSessions(writer, cn, request, smClient);
+        } else if (command.equals("/slowrequests")) {
+            slowRequests(writer, smClient);
         } else if (command.equals("/expire")) {
             expireSessions(writer, cn, request, smClient);
         } else if (command.equals("/start")) {
@@ -584,6 +593,40 @@ public class ManagerServlet extends HttpServlet implements ContainerServlet {
     }
 
 
+    /**
+     * Write the slow requests recorded by the slow request recorder valves of
+     * the engine, this host and its web applications.
+     *
+     * @param writer Writer to render to
+     */
+    protected void slowRequests(PrintWriter writer, StringManager smClient) {
+        List<Container> containers = new ArrayList<Container>();
+        if (host.getParent() != null) {
+            containers.add(host.getParent());
+        }
+        containers.add(host);
+        for (Container child : host.findChildren()) {
+            containers.add(child);
+        }
+
+        writer.println(smClient.getString("managerServlet.slowRequests"));
+        for (Container container : containers) {
+            for (Valve valve : container.getPipeline().getValves()) {
+                if (valve instanceof SlowRequestRecorderValve) {
+                    SlowRequestRecorderValve recorder =
+                            (SlowRequestRecorderValve) valve;
+                    writer.println(smClient.getString(
+                            "managerServlet.slowRequestsValve",
+                            container.getName(),
+                            Integer.valueOf(recorder.getThreshold()),
+                            Long.valueOf(recorder.getSlowRequestCount())));
+                    writer.print(recorder.report());
+                }
+            }
+        }
+    }
+
+
     /**
      * Store server configuration.
      * 
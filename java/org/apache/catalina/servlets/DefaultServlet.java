@@ -32,11 +32,14 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.security.AccessController;
 import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.zip.GZIPOutputStream;
 
 import javax.naming.InitialContext;
 import javax.naming.NameClassPair;
@@ -66,8 +69,10 @@ import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import org.apache.catalina.Globals;
+import org.apache.catalina.connector.CoyoteOutputStream;
 import org.apache.catalina.connector.RequestFacade;
 import org.apache.catalina.connector.ResponseFacade;
+import org.apache.catalina.servlets.MappedFileCache.MappedFile;
 import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
@@ -216,6 +221,23 @@ public class DefaultServlet
      */
     protected int sendfileSize = 48 * 1024;
 
+    /**
+     * Minimum size for serving files from a memory mapping in bytes. Memory
+     * mapping is used when sendfile is not available. A negative value
+     * disables memory mapping.
+     */
+    protected int mappedFileSize = -1;
+
+    /**
+     * Maximum number of bytes kept memory mapped by this servlet.
+     */
+    protected long mappedCacheMaxSize = 256 * 1024 * 1024;
+
+    /**
+     * The memory mappings of large files, if enabled.
+     */
+    protected transient MappedFileCache mappedFiles = null;
+
     /**
      * Should the Accept-Ranges: bytes header be send with static resources?
      */
@@ -231,6 +253,25 @@ public class DefaultServlet
      */
     protected boolean showServerInfo = true;
 
+    /**
+     * Precompressed variants to look for next to a requested resource, in
+     * order of server preference.
+     */
+    protected CompressionFormat[] compressionFormats =
+        new CompressionFormat[0];
+
+    /**
+     * Should gzip compressed variants of cached resources be generated and
+     * stored alongside the resource cache entry?
+     */
+    protected boolean compressedCache = false;
+
+    /**
+     * Minimum size in bytes of a resource for which a compressed variant is
+     * generated.
+     */
+    protected int compressedCacheMinSize = 2048;
+
 
     // ----------------------------------------------------- Static Initializer
 
@@ -292,7 +333,9 @@ public class DefaultServlet
      */
     @Override
     public void destroy() {
-        // NOOP
+        if (mappedFiles != null) {
+            mappedFiles.clear();
+        }
     }
 
 
@@ -320,6 +363,18 @@ public class DefaultServlet
             sendfileSize =
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
 
+        if (getServletConfig().getInitParameter("mappedFileSize") != null)
+            mappedFileSize =
+                Integer.parseInt(getServletConfig().getInitParameter("mappedFileSize")) * 1024;
+
+        if (getServletConfig().getInitParameter("mappedCacheMaxSize") != null)
+            mappedCacheMaxSize =
+                Long.parseLong(getServletConfig().getInitParameter("mappedCacheMaxSize")) * 1024;
+
+        if (mappedFileSize >= 0) {
+            mappedFiles = new MappedFileCache(mappedCacheMaxSize);
+        }
+
         fileEncoding = getServletConfig().getInitParameter("fileEncoding");
 
         globalXsltFile = getServletConfig().getInitParameter("globalXsltFile");
@@ -330,6 +385,16 @@ public class DefaultServlet
         if (getServletConfig().getInitParameter("useAcceptRanges") != null)
             useAcceptRanges = Boolean.parseBoolean(getServletConfig().getInitParameter("useAcceptRanges"));
 
+        compressionFormats = parseCompressionFormats(
+                getServletConfig().getInitParameter("precompressed"));
+
+        compressedCache = Boolean.parseBoolean(
+                getServletConfig().getInitParameter("compressedCache"));
+
+        if (getServletConfig().getInitParameter("compressedCacheMinSize") != null)
+            compressedCacheMinSize = Integer.parseInt(
+                    getServletConfig().getInitParameter("compressedCacheMinSize"));
+
         // Sanity check on the specified buffer sizes
         if (input < 256)
             input = 256;
@@ -860,13 +925,36 @@ public class DefaultServlet
             return;
         }
 
+        // Find content type. This is always based on the requested resource,
+        // even if a compressed variant of it is served.
+        String contentType = cacheEntry.attributes.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(cacheEntry.name);
+            cacheEntry.attributes.setMimeType(contentType);
+        }
+
+        boolean included = (request.getAttribute(
+                RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
+
+        // Serve a compressed variant of the resource if there is one the
+        // client accepts. The variant is a distinct representation with its
+        // own ETag, length and ranges.
+        boolean usingCompressedVariant = false;
+        if (cacheEntry.context == null && cacheEntry.resource != null
+                && !included) {
+            CacheEntry variant = getCompressedVariant(request, response, path,
+                    cacheEntry, contentType);
+            if (variant != null) {
+                cacheEntry = variant;
+                usingCompressedVariant = true;
+            }
+        }
+
         // Check if the conditions specified in the optional If headers are
         // satisfied.
         if (cacheEntry.context == null) {
 
             // Checking If headers
-            boolean included = (request.getAttribute(
-                    RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
             if (!included && !isError &&
                     !checkIfHeaders(request, response, cacheEntry.attributes)) {
                 return;
@@ -874,13 +962,6 @@ public class DefaultServlet
 
         }
 
-        // Find content type.
-        String contentType = cacheEntry.attributes.getMimeType();
-        if (contentType == null) {
-            contentType = getServletContext().getMimeType(cacheEntry.name);
-            cacheEntry.attributes.setMimeType(contentType);
-        }
-
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -939,11 +1020,9 @@ public class DefaultServlet
                 ostream = response.getOutputStream();
             } catch (IllegalStateException e) {
                 // If it fails, we try to get a Writer instead if we're
-                // trying to serve a text file
-                if ( (contentType == null)
-                        || (contentType.startsWith("text"))
-                        || (contentType.endsWith("xml"))
-                        || (contentType.contains("/javascript")) ) {
+                // trying to serve a text file. Compressed content can't be
+                // written through a Writer.
+                if (!usingCompressedVariant && isText(contentType)) {
                     writer = response.getWriter();
                     // Cannot reliably serve partial content with a Writer
                     ranges = FULL;
@@ -1098,6 +1177,243 @@ public class DefaultServlet
 
     }
 
+    /**
+     * Select a compressed variant of the given resource acceptable to the
+     * client, either a precompressed file located next to the resource or a
+     * gzip variant generated from the cached resource content. The
+     * <code>Vary</code> and <code>Content-Encoding</code> headers are set as
+     * appropriate.
+     *
+     * @param request The servlet request we are processing
+     * @param response The servlet response we are creating
+     * @param path The path of the requested resource
+     * @param cacheEntry The requested resource
+     * @param contentType The content type of the requested resource
+     * @return the variant to serve or <code>null</code> to serve the resource
+     *         as is
+     * @throws IOException if the resource content can't be compressed
+     */
+    protected CacheEntry getCompressedVariant(HttpServletRequest request,
+            HttpServletResponse response, String path, CacheEntry cacheEntry,
+            String contentType) throws IOException {
+
+        boolean varies = false;
+        CacheEntry result = null;
+        String encoding = null;
+
+        if (compressionFormats.length > 0 && !isCompressedPath(path)) {
+            double bestQuality = 0;
+            for (CompressionFormat format : compressionFormats) {
+                CacheEntry precompressed =
+                    resources.lookupCache(path + format.extension);
+                if (!precompressed.exists || precompressed.context != null
+                        || precompressed.resource == null) {
+                    continue;
+                }
+                varies = true;
+                double quality = getAcceptQuality(request, format.encoding);
+                if (quality > bestQuality) {
+                    bestQuality = quality;
+                    result = precompressed;
+                    encoding = format.encoding;
+                }
+            }
+        }
+
+        if (result == null && compressedCache && contentType != null
+                && isCompressible(contentType)
+                && cacheEntry.resource.getContent() != null
+                && cacheEntry.attributes.getContentLength() >= compressedCacheMinSize) {
+            varies = true;
+            if (getAcceptQuality(request, "gzip") > 0) {
+                CacheEntry compressed = cacheEntry.compressed;
+                if (compressed == null && !cacheEntry.compressedNotCached) {
+                    compressed = compress(cacheEntry);
+                    if (!resources.cacheCompressed(cacheEntry, compressed)) {
+                        if (cacheEntry.compressed != null) {
+                            // Cached by a concurrent request
+                            compressed = cacheEntry.compressed;
+                        } else {
+                            // No room in the cache. Serve the resource as is
+                            // from now on rather than compress it again for
+                            // every request.
+                            cacheEntry.compressedNotCached = true;
+                        }
+                    }
+                }
+                // Content which doesn't compress is still remembered, so
+                // that it isn't compressed again, but it is never served
+                if (compressed != null &&
+                        compressed.attributes.getContentLength() <
+                        cacheEntry.attributes.getContentLength()) {
+                    result = compressed;
+                    encoding = "gzip";
+                }
+            }
+        }
+
+        if (varies) {
+            response.addHeader("Vary", "accept-encoding");
+        }
+        if (result != null) {
+            response.setHeader("Content-Encoding", encoding);
+        }
+        return result;
+    }
+
+
+    /**
+     * Generate the gzip compressed variant of a resource whose content is
+     * held in memory.
+     */
+    private static CacheEntry compress(CacheEntry cacheEntry)
+        throws IOException {
+
+        byte[] content = cacheEntry.resource.getContent();
+        ByteArrayOutputStream baos =
+            new ByteArrayOutputStream(content.length / 2 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        try {
+            gzip.write(content);
+        } finally {
+            gzip.close();
+        }
+        byte[] compressedContent = baos.toByteArray();
+
+        ResourceAttributes attributes = new ResourceAttributes();
+        attributes.setContentLength(compressedContent.length);
+        attributes.setLastModified(cacheEntry.attributes.getLastModified());
+        attributes.setMimeType(cacheEntry.attributes.getMimeType());
+        String eTag = cacheEntry.attributes.getETag();
+        if (eTag != null) {
+            if (eTag.endsWith("\"")) {
+                eTag = eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+            } else {
+                eTag = eTag + "-gzip";
+            }
+            attributes.setETag(eTag);
+        }
+
+        CacheEntry compressed = new CacheEntry();
+        compressed.name = cacheEntry.name;
+        compressed.attributes = attributes;
+        compressed.resource = new Resource(compressedContent);
+        compressed.timestamp = cacheEntry.timestamp;
+        compressed.size += compressedContent.length / 1024;
+        return compressed;
+    }
+
+
+    private boolean isCompressedPath(String path) {
+        for (CompressionFormat format : compressionFormats) {
+            if (path.endsWith(format.extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Parse the value of the <code>precompressed</code> init parameter, which
+     * is either a boolean or a comma separated list of
+     * <code>encoding=extension</code> pairs in order of preference.
+     */
+    private static CompressionFormat[] parseCompressionFormats(String precompressed) {
+        ArrayList<CompressionFormat> result = new ArrayList<CompressionFormat>();
+        if (precompressed == null || "false".equalsIgnoreCase(precompressed)) {
+            // None
+        } else if ("true".equalsIgnoreCase(precompressed)) {
+            result.add(new CompressionFormat(".br", "br"));
+            result.add(new CompressionFormat(".gz", "gzip"));
+        } else {
+            StringTokenizer st = new StringTokenizer(precompressed, ",");
+            while (st.hasMoreTokens()) {
+                String setting = st.nextToken();
+                int equals = setting.indexOf('=');
+                if (equals == -1) {
+                    throw new IllegalArgumentException(sm.getString(
+                            "defaultServlet.invalidPrecompressed", setting));
+                }
+                result.add(new CompressionFormat(
+                        setting.substring(equals + 1).trim(),
+                        setting.substring(0, equals).trim()));
+            }
+        }
+        return result.toArray(new CompressionFormat[result.size()]);
+    }
+
+
+    /**
+     * Determine the quality value the client assigns to the given content
+     * coding in its <code>Accept-Encoding</code> headers.
+     *
+     * @return the quality value, <code>0</code> if the coding is not
+     *         acceptable
+     */
+    private static double getAcceptQuality(HttpServletRequest request,
+            String encoding) {
+        double wildcard = 0;
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            StringTokenizer st = new StringTokenizer(headers.nextElement(), ",");
+            while (st.hasMoreTokens()) {
+                String token = st.nextToken();
+                String coding;
+                double quality = 1;
+                int semicolon = token.indexOf(';');
+                if (semicolon == -1) {
+                    coding = token.trim();
+                } else {
+                    coding = token.substring(0, semicolon).trim();
+                    quality = parseQuality(token.substring(semicolon + 1));
+                }
+                if (coding.equalsIgnoreCase(encoding)) {
+                    // An explicit entry overrides any wildcard
+                    return quality;
+                } else if ("*".equals(coding)) {
+                    wildcard = quality;
+                }
+            }
+        }
+        return wildcard;
+    }
+
+
+    private static double parseQuality(String parameters) {
+        StringTokenizer st = new StringTokenizer(parameters, ";");
+        while (st.hasMoreTokens()) {
+            String parameter = st.nextToken().trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+
+    private static boolean isText(String contentType) {
+        return (contentType == null)
+            || (contentType.startsWith("text"))
+            || (contentType.endsWith("xml"))
+            || (contentType.contains("/javascript"));
+    }
+
+
+    /**
+     * Is content of the given type worth compressing? This is wider than
+     * {@link #isText(String)}, which also decides whether content may be
+     * written through a Writer.
+     */
+    private static boolean isCompressible(String contentType) {
+        return isText(contentType) || contentType.contains("json");
+    }
+
+
     private void doDirectoryRedirect(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
         StringBuilder location = new StringBuilder(request.getRequestURI());
@@ -2077,6 +2393,15 @@ public class DefaultServlet
                 ostream.write(buffer, 0, buffer.length);
                 return;
             }
+            MappedFile mappedFile = acquireMappedFile(cacheEntry);
+            if (mappedFile != null) {
+                try {
+                    copyRange(mappedFile, ostream, 0, mappedFile.getLength() - 1);
+                } finally {
+                    mappedFiles.release(mappedFile);
+                }
+                return;
+            }
             resourceInputStream = cacheEntry.resource.streamContent();
         } else {
             resourceInputStream = is;
@@ -2158,6 +2483,16 @@ public class DefaultServlet
 
         IOException exception = null;
 
+        MappedFile mappedFile = acquireMappedFile(cacheEntry);
+        if (mappedFile != null) {
+            try {
+                copyRange(mappedFile, ostream, range.start, range.end);
+            } finally {
+                mappedFiles.release(mappedFile);
+            }
+            return;
+        }
+
         InputStream resourceInputStream = cacheEntry.resource.streamContent();
         InputStream istream =
             new BufferedInputStream(resourceInputStream, input);
@@ -2190,35 +2525,51 @@ public class DefaultServlet
 
         IOException exception = null;
 
-        while ( (exception == null) && (ranges.hasNext()) ) {
+        // All ranges are served from the same mapping, if there is one
+        MappedFile mappedFile = acquireMappedFile(cacheEntry);
 
-            InputStream resourceInputStream = cacheEntry.resource.streamContent();
-            InputStream istream = null;
-            try {
-                istream = new BufferedInputStream(resourceInputStream, input);
-                Range currentRange = ranges.next();
-
-                // Writing MIME header.
-                ostream.println();
-                ostream.println("--" + mimeSeparation);
-                if (contentType != null)
-                    ostream.println("Content-Type: " + contentType);
-                ostream.println("Content-Range: bytes " + currentRange.start
-                               + "-" + currentRange.end + "/"
-                               + currentRange.length);
-                ostream.println();
-
-                // Printing content
-                exception = copyRange(istream, ostream, currentRange.start,
-                                      currentRange.end);
-            } finally {
-                if (istream != null) {
-                    try {
-                        istream.close();
-                    } catch (IOException e) {
+        try {
+            while ( (exception == null) && (ranges.hasNext()) ) {
+
+                InputStream istream = null;
+                try {
+                    if (mappedFile == null) {
+                        istream = new BufferedInputStream(
+                                cacheEntry.resource.streamContent(), input);
+                    }
+                    Range currentRange = ranges.next();
+
+                    // Writing MIME header.
+                    ostream.println();
+                    ostream.println("--" + mimeSeparation);
+                    if (contentType != null)
+                        ostream.println("Content-Type: " + contentType);
+                    ostream.println("Content-Range: bytes " + currentRange.start
+                                   + "-" + currentRange.end + "/"
+                                   + currentRange.length);
+                    ostream.println();
+
+                    // Printing content
+                    if (mappedFile == null) {
+                        exception = copyRange(istream, ostream,
+                                currentRange.start, currentRange.end);
+                    } else {
+                        copyRange(mappedFile, ostream, currentRange.start,
+                                currentRange.end);
+                    }
+                } finally {
+                    if (istream != null) {
+                        try {
+                            istream.close();
+                        } catch (IOException e) {
+                        }
                     }
                 }
             }
+        } finally {
+            if (mappedFile != null) {
+                mappedFiles.release(mappedFile);
+            }
         }
 
         ostream.println();
@@ -2353,6 +2704,71 @@ public class DefaultServlet
     }
 
 
+    /**
+     * Obtain a memory mapping of the file backing the given resource if
+     * memory mapping is enabled and the resource is eligible: it must be a
+     * plain file, at least <code>mappedFileSize</code> bytes long, whose
+     * content is not already held in memory.
+     *
+     * @param cacheEntry The resource to serve
+     * @return the mapping, which must be released once the content has been
+     *         written, or <code>null</code> if the resource should be copied
+     *         from its stream
+     */
+    protected MappedFile acquireMappedFile(CacheEntry cacheEntry) {
+        if (mappedFiles == null || cacheEntry.resource == null
+                || cacheEntry.resource.getContent() != null) {
+            return null;
+        }
+        long length = cacheEntry.attributes.getContentLength();
+        String canonicalPath = cacheEntry.attributes.getCanonicalPath();
+        if (canonicalPath == null || length < mappedFileSize || length <= 0) {
+            return null;
+        }
+        try {
+            return mappedFiles.acquire(canonicalPath, length,
+                    cacheEntry.attributes.getLastModified());
+        } catch (IOException e) {
+            if (debug > 0) {
+                log("DefaultServlet.acquireMappedFile:  Unable to map '" +
+                        canonicalPath + "'", e);
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * Write a range of a memory mapped file to the specified output stream.
+     * The Tomcat output stream accepts the mapped buffer directly, other
+     * streams are written to through a transfer buffer.
+     *
+     * @param mappedFile The mapped file to read from
+     * @param ostream The output stream to write to
+     * @param start Start of the range which will be copied
+     * @param end End of the range which will be copied
+     * @exception IOException if an input/output error occurs
+     */
+    protected void copyRange(MappedFile mappedFile, ServletOutputStream ostream,
+            long start, long end) throws IOException {
+
+        if (debug > 10)
+            log("Serving mapped bytes:" + start + "-" + end);
+
+        ByteBuffer slice = mappedFile.slice(start, end);
+        if (ostream instanceof CoyoteOutputStream) {
+            ((CoyoteOutputStream) ostream).write(slice);
+        } else {
+            byte buffer[] = new byte[Math.min(output, slice.remaining())];
+            while (slice.hasRemaining()) {
+                int len = Math.min(buffer.length, slice.remaining());
+                slice.get(buffer, 0, len);
+                ostream.write(buffer, 0, len);
+            }
+        }
+    }
+
+
     protected static class Range {
 
         public long start;
@@ -2372,6 +2788,22 @@ public class DefaultServlet
     }
 
 
+    /**
+     * A content coding and the file extension of resources precompressed
+     * with it.
+     */
+    protected static class CompressionFormat {
+
+        public final String extension;
+        public final String encoding;
+
+        public CompressionFormat(String extension, String encoding) {
+            this.extension = extension;
+            this.encoding = encoding;
+        }
+    }
+
+
     /**
      * This is secure in the sense that any attempt to use an external entity
      * will trigger an exception.
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+
+/**
+ * A bounded cache of read-only memory mappings of static files, used to serve
+ * large resources without reading them through streams on every request.
+ * <p>
+ * Mappings are reference counted: the cache holds one reference to each file
+ * it contains and every caller of {@link #acquire(String, long, long)} holds
+ * another until it calls {@link #release(MappedFile)}. A mapping is unmapped
+ * once it has been evicted, or replaced because the file changed, and the
+ * last reference has been released.
+ */
+public class MappedFileCache {
+
+    private final Map<String,MappedFile> files =
+        new LinkedHashMap<String,MappedFile>(16, 0.75f, true);
+
+    private final long maxSize;
+
+    private long size = 0;
+
+
+    /**
+     * @param maxSize The maximum number of bytes mapped by the cache at any
+     *                one time, not counting mappings which have been evicted
+     *                but are still in use
+     */
+    public MappedFileCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Obtain a reference to the mapping of the given file, mapping it if
+     * necessary. The length and last modification time are used to detect
+     * files which have changed since they were mapped.
+     *
+     * @param path         The canonical path of the file
+     * @param length       The expected length of the file
+     * @param lastModified The expected last modification time of the file
+     * @return the mapped file, which must be released by the caller, or
+     *         <code>null</code> if the file is too large to be mapped
+     * @throws IOException if the file can't be mapped
+     */
+    public MappedFile acquire(String path, long length, long lastModified)
+            throws IOException {
+
+        synchronized (files) {
+            MappedFile file = files.get(path);
+            if (file != null) {
+                if (file.length == length && file.lastModified == lastModified) {
+                    file.refCount++;
+                    return file;
+                }
+                remove(path);
+            }
+        }
+
+        if (length > maxSize || length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        // Map the file outside of the lock, it may take some time
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() != length) {
+                // The file has changed since its attributes were read
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            raf.close();
+        }
+
+        synchronized (files) {
+            MappedFile file = files.get(path);
+            if (file != null && file.length == length &&
+                    file.lastModified == lastModified) {
+                // Another thread mapped the same file concurrently
+                file.refCount++;
+                ByteBufferUtils.cleanDirectBuffer(buffer);
+                return file;
+            }
+            if (file != null) {
+                remove(path);
+            }
+            file = new MappedFile(path, length, lastModified, buffer);
+            // One reference for the cache and one for the caller
+            file.refCount = 2;
+            files.put(path, file);
+            size += length;
+
+            Iterator<MappedFile> iter = files.values().iterator();
+            while (size > maxSize && iter.hasNext()) {
+                MappedFile eldest = iter.next();
+                if (eldest == file) {
+                    continue;
+                }
+                iter.remove();
+                size -= eldest.length;
+                releaseInternal(eldest);
+            }
+            return file;
+        }
+    }
+
+
+    /**
+     * Release a reference obtained from {@link #acquire(String, long, long)}.
+     *
+     * @param file The mapped file
+     */
+    public void release(MappedFile file) {
+        synchronized (files) {
+            releaseInternal(file);
+        }
+    }
+
+
+    /**
+     * Evict all mappings. Mappings still in use are unmapped once they are
+     * released.
+     */
+    public void clear() {
+        synchronized (files) {
+            Iterator<MappedFile> iter = files.values().iterator();
+            while (iter.hasNext()) {
+                MappedFile file = iter.next();
+                iter.remove();
+                releaseInternal(file);
+            }
+            size = 0;
+        }
+    }
+
+
+    /**
+     * @return the number of bytes currently mapped by the cache
+     */
+    public long getSize() {
+        synchronized (files) {
+            return size;
+        }
+    }
+
+
+    private void remove(String path) {
+        MappedFile file = files.remove(path);
+        if (file != null) {
+            size -= file.length;
+            releaseInternal(file);
+        }
+    }
+
+
+    private void releaseInternal(MappedFile file) {
+        file.refCount--;
+        if (file.refCount == 0) {
+            ByteBufferUtils.cleanDirectBuffer(file.buffer);
+            file.buffer = null;
+        }
+    }
+
+
+    /**
+     * A memory mapped file.
+     */
+    public static class MappedFile {
+
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private MappedByteBuffer buffer;
+        private int refCount;
+
+        private MappedFile(String path, long length, long lastModified,
+                MappedByteBuffer buffer) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.buffer = buffer;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Return a view of a range of the mapped file. Views are independent
+         * of each other and may only be used while a reference to this file
+         * is held.
+         *
+         * @param start The first byte of the range
+         * @param end The last byte of the range, inclusive
+         * @return a buffer positioned at the start of the range and limited
+         *         to its end
+         */
+        public ByteBuffer slice(long start, long end) {
+            ByteBuffer result = buffer.duplicate();
+            result.limit((int) (end + 1));
+            result.position((int) start);
+            return result;
+        }
+    }
+}
@@ -50,6 +50,7 @@ import org.apache.catalina.mbeans.MBeanUtils;
 import org.apache.catalina.util.LifecycleMBeanBase;
 import org.apache.catalina.util.SessionIdGeneratorBase;
 import org.apache.catalina.util.StandardSessionIdGenerator;
+import org.apache.juli.FlightRecorderEventType;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
@@ -223,6 +224,22 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
      */
     protected static final StringManager sm = StringManager.getManager(ManagerBase.class);
 
+    /**
+     * JFR events describing the creation and expiry of sessions.
+     */
+    private static final FlightRecorderEventType SESSION_CREATE_EVENT =
+            FlightRecorderEventType.create(
+                    "org.apache.catalina.session.SessionCreate",
+                    "Session Created", "Creation of an HTTP session",
+                    new String[] { "context", "activeSessions" },
+                    new Class<?>[] { String.class, int.class });
+    private static final FlightRecorderEventType SESSION_EXPIRE_EVENT =
+            FlightRecorderEventType.create(
+                    "org.apache.catalina.session.SessionExpire",
+                    "Session Expired", "Expiry of an HTTP session",
+                    new String[] { "context", "aliveTime" },
+                    new Class<?>[] { String.class, int.class });
+
     /**
      * The property change support for this component.
      */
@@ -782,6 +799,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
             sessionCreationTiming.add(timing);
             sessionCreationTiming.poll();
         }
+        if (SESSION_CREATE_EVENT.isEnabled()) {
+            SESSION_CREATE_EVENT.emit(getContainerName(),
+                    Integer.valueOf(getActiveSessions()));
+        }
         return (session);
 
     }
@@ -829,6 +850,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
                 sessionExpirationTiming.add(timing);
                 sessionExpirationTiming.poll();
             }
+            if (SESSION_EXPIRE_EVENT.isEnabled()) {
+                SESSION_EXPIRE_EVENT.emit(getContainerName(),
+                        Integer.valueOf(timeAlive));
+            }
         }
 
         if (session.getIdInternal() != null) {
@@ -837,6 +862,12 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     }
 
 
+    private String getContainerName() {
+        Container container = this.container;
+        return (container == null) ? null : container.getName();
+    }
+
+
     @Override
     public void removePropertyChangeListener(PropertyChangeListener listener) {
         support.removePropertyChangeListener(listener);
@@ -390,6 +390,19 @@ public class Catalina {
                             "addLifecycleListener",
                             "org.apache.catalina.LifecycleListener");
 
+        digester.addObjectCreate("Server/Service/Connector/WarmupRequest",
+                                 "org.apache.catalina.connector.WarmupRequest");
+        digester.addSetProperties("Server/Service/Connector/WarmupRequest");
+        digester.addCallMethod("Server/Service/Connector/WarmupRequest/Header",
+                               "addHeader", 2);
+        digester.addCallParam("Server/Service/Connector/WarmupRequest/Header",
+                              0, "name");
+        digester.addCallParam("Server/Service/Connector/WarmupRequest/Header",
+                              1, "value");
+        digester.addSetNext("Server/Service/Connector/WarmupRequest",
+                            "addWarmupRequest",
+                            "org.apache.catalina.connector.WarmupRequest");
+
 
         // Add RuleSets for nested elements
         digester.addRuleSet(new NamingRuleSet("Server/GlobalNamingResources/"));
@@ -21,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.JarURLConnection;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
@@ -31,15 +32,21 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 import javax.naming.Binding;
 import javax.naming.NameNotFoundException;
@@ -88,10 +95,10 @@ import org.apache.tomcat.util.bcel.classfile.AnnotationElementValue;
 import org.apache.tomcat.util.bcel.classfile.AnnotationEntry;
 import org.apache.tomcat.util.bcel.classfile.ArrayElementValue;
 import org.apache.tomcat.util.bcel.classfile.ClassFormatException;
-import org.apache.tomcat.util.bcel.classfile.ClassParser;
 import org.apache.tomcat.util.bcel.classfile.ElementValue;
 import org.apache.tomcat.util.bcel.classfile.ElementValuePair;
 import org.apache.tomcat.util.bcel.classfile.JavaClass;
+import org.apache.tomcat.util.bcel.classfile.LazyClassParser;
 import org.apache.tomcat.util.buf.UriUtil;
 import org.apache.tomcat.util.descriptor.DigesterFactory;
 import org.apache.tomcat.util.descriptor.InputSourceUtil;
@@ -251,6 +258,8 @@ public class ContextConfig implements LifecycleListener {
 
     /**
      * Map of ServletContainerInitializer to classes they expressed interest in.
+     * Updates made while scanning for annotations must hold the lock on this
+     * map since the scan may be performed in parallel.
      */
     protected final Map<ServletContainerInitializer, Set<Class<?>>> initializerClassMap =
             new LinkedHashMap<ServletContainerInitializer, Set<Class<?>>>();
@@ -265,10 +274,26 @@ public class ContextConfig implements LifecycleListener {
     /**
      * Cache of JavaClass objects (byte code) by fully qualified class name.
      * Only populated if it is necessary to scan the super types and interfaces
-     * as part of the processing for {@link HandlesTypes}.
+     * as part of the processing for {@link HandlesTypes}. The scan may be
+     * performed in parallel so the cache is populated without locking. If two
+     * threads read the same class, the first entry added is used.
      */
     protected final Map<String,JavaClassCacheEntry> javaClassCache =
-            new HashMap<String,JavaClassCacheEntry>();
+            new ConcurrentHashMap<String,JavaClassCacheEntry>();
+
+    /**
+     * The index of the results of previous annotation scans of the JARs of the
+     * web application. Only set while the JARs are being scanned and only if
+     * the Context uses a scan index.
+     */
+    private volatile ScanIndex annotationScanIndex = null;
+
+    /**
+     * The index of the results of previous parses of the web-fragment.xml
+     * files in the JARs of the web application. Only set while the JARs are
+     * being scanned and only if the Context uses a scan index.
+     */
+    private volatile ScanIndex fragmentScanIndex = null;
 
     /**
      * Flag that indicates if at least one {@link HandlesTypes} entry is present
@@ -296,6 +321,16 @@ public class ContextConfig implements LifecycleListener {
     protected Digester webFragmentDigester = null;
     protected WebRuleSet webFragmentRuleSet = null;
 
+    /**
+     * The Digesters, including {@link #webFragmentDigester}, that are not in
+     * use. Additional Digesters are created when web fragment deployment
+     * descriptor files are parsed in parallel.
+     */
+    private final Queue<FragmentDigester> webFragmentDigesters =
+            new ConcurrentLinkedQueue<FragmentDigester>();
+    private boolean webFragmentNamespaceAware = false;
+    private boolean webFragmentValidation = false;
+
 
     // ------------------------------------------------------------- Properties
     /**
@@ -537,6 +572,12 @@ public class ContextConfig implements LifecycleListener {
         webFragmentDigester = DigesterFactory.newDigester(validation,
                 namespaceAware, webFragmentRuleSet, blockExternal);
         webFragmentDigester.getParser();
+
+        webFragmentNamespaceAware = namespaceAware;
+        webFragmentValidation = validation;
+        webFragmentDigesters.clear();
+        webFragmentDigesters.add(
+                new FragmentDigester(webFragmentDigester, webFragmentRuleSet));
     }
 
 
@@ -1256,11 +1297,24 @@ public class ContextConfig implements LifecycleListener {
         Set<WebXml> defaults = new HashSet<WebXml>();
         defaults.add(getDefaultWebXmlFragment());
 
-        WebXml webXml = createWebXml();
-
-        // Parse context level web.xml
+        // Parse context level web.xml unless it is unchanged since it was
+        // last parsed
         InputSource contextWebXml = getContextWebXmlSource();
-        parseWebXml(contextWebXml, webXml, false);
+        WebXmlSnapshot snapshot =
+                WebXmlSnapshot.create(context, contextWebXml);
+        WebXml webXml = null;
+        if (snapshot != null) {
+            webXml = snapshot.load();
+        }
+        if (webXml == null) {
+            webXml = createWebXml();
+            parseWebXml(contextWebXml, webXml, false);
+            if (snapshot != null && ok) {
+                snapshot.save(webXml);
+            }
+        } else {
+            InputSourceUtil.close(contextWebXml);
+        }
 
         ServletContext sContext = context.getServletContext();
 
@@ -1330,8 +1384,16 @@ public class ContextConfig implements LifecycleListener {
             // Step 5. Process JARs for annotations - only need to process
             // those fragments we are going to use
             if (ok) {
-                processAnnotations(
-                        orderedFragments, webXml.isMetadataComplete());
+                annotationScanIndex = ScanIndex.load(context, "annotation");
+                try {
+                    processAnnotations(
+                            orderedFragments, webXml.isMetadataComplete());
+                    if (annotationScanIndex != null) {
+                        annotationScanIndex.save();
+                    }
+                } finally {
+                    annotationScanIndex = null;
+                }
             }
 
             // Cache, if used, is no longer required so clear it
@@ -1839,17 +1901,32 @@ public class ContextConfig implements LifecycleListener {
 
         if (source == null) return;
 
-        XmlErrorHandler handler = new XmlErrorHandler();
-
-        Digester digester;
-        WebRuleSet ruleSet;
         if (fragment) {
-            digester = webFragmentDigester;
-            ruleSet = webFragmentRuleSet;
+            // Web fragments may be parsed in parallel
+            FragmentDigester fragmentDigester = webFragmentDigesters.poll();
+            if (fragmentDigester == null) {
+                WebRuleSet ruleSet = new WebRuleSet(true);
+                Digester digester = DigesterFactory.newDigester(
+                        webFragmentValidation, webFragmentNamespaceAware,
+                        ruleSet, context.getXmlBlockExternal());
+                fragmentDigester = new FragmentDigester(digester, ruleSet);
+            }
+            try {
+                parseWebXml(source, dest, fragmentDigester.digester,
+                        fragmentDigester.ruleSet);
+            } finally {
+                webFragmentDigesters.offer(fragmentDigester);
+            }
         } else {
-            digester = webDigester;
-            ruleSet = webRuleSet;
+            parseWebXml(source, dest, webDigester, webRuleSet);
         }
+    }
+
+
+    private void parseWebXml(InputSource source, WebXml dest,
+            Digester digester, WebRuleSet ruleSet) {
+
+        XmlErrorHandler handler = new XmlErrorHandler();
 
         digester.push(dest);
         digester.setErrorHandler(handler);
@@ -1908,32 +1985,110 @@ public class ContextConfig implements LifecycleListener {
             parseRequired = false;
         }
 
+        ExecutorService executor = null;
+        if (context.getParallelDescriptorParsing() &&
+                context.getParent() instanceof Host) {
+            executor = ((Host) context.getParent()).getStartStopExecutor();
+        }
+
         FragmentJarScannerCallback callback =
-                new FragmentJarScannerCallback(parseRequired);
+                new FragmentJarScannerCallback(parseRequired, executor);
 
-        jarScanner.scan(context.getServletContext(),
-                context.getLoader().getClassLoader(), callback,
-                pluggabilityJarsToSkip);
+        // The parse result depends on validation so changing it invalidates
+        // the index
+        fragmentScanIndex = ScanIndex.load(context,
+                context.getXmlValidation() ? "fragment-validated" : "fragment");
+        try {
+            jarScanner.scan(context.getServletContext(),
+                    context.getLoader().getClassLoader(), callback,
+                    pluggabilityJarsToSkip);
 
-        return callback.getFragments();
+            Map<String,WebXml> fragments = callback.getFragments();
+            // Save before the fragments are ordered or merged since both
+            // modify them. Don't save the results of a failed parse.
+            if (fragmentScanIndex != null && ok) {
+                fragmentScanIndex.save();
+            }
+            return fragments;
+        } finally {
+            fragmentScanIndex = null;
+        }
     }
 
     protected void processAnnotations(Set<WebXml> fragments,
             boolean handlesTypesOnly) {
-        for(WebXml fragment : fragments) {
-            WebXml annotations = new WebXml();
-            // no impact on distributable
-            annotations.setDistributable(true);
-            URL url = fragment.getURL();
-            processAnnotationsUrl(url, annotations,
-                    (handlesTypesOnly || fragment.isMetadataComplete()));
-            Set<WebXml> set = new HashSet<WebXml>();
-            set.add(annotations);
-            // Merge annotations into fragment - fragment takes priority
-            fragment.merge(set);
+        ExecutorService executor = null;
+        if (context.getParallelAnnotationScanning() && fragments.size() > 1 &&
+                context.getParent() instanceof Host) {
+            executor = ((Host) context.getParent()).getStartStopExecutor();
+        }
+        if (executor == null) {
+            for(WebXml fragment : fragments) {
+                mergeAnnotations(fragment,
+                        scanAnnotations(fragment, handlesTypesOnly));
+            }
+        } else {
+            processAnnotationsInParallel(
+                    fragments, handlesTypesOnly, executor);
         }
     }
 
+
+    /**
+     * Scan the JARs for annotations using the given executor. The results are
+     * merged into the fragments once all the JARs have been scanned and in the
+     * same order as a sequential scan so that the ordering of the fragments
+     * has the same effect as it does for a sequential scan.
+     */
+    protected void processAnnotationsInParallel(Set<WebXml> fragments,
+            final boolean handlesTypesOnly, ExecutorService executor) {
+
+        List<Callable<WebXml>> callables =
+                new ArrayList<Callable<WebXml>>(fragments.size());
+        for (final WebXml fragment : fragments) {
+            callables.add(new Callable<WebXml>() {
+                @Override
+                public WebXml call() {
+                    return scanAnnotations(fragment, handlesTypesOnly);
+                }
+            });
+        }
+
+        List<WebXml> results;
+        try {
+            results = ParallelTasks.invokeAll(callables, executor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(sm.getString(
+                    "contextConfig.annotationsParallelFailure",
+                    context.getName()), e);
+        }
+
+        Iterator<WebXml> iter = fragments.iterator();
+        for (WebXml annotations : results) {
+            mergeAnnotations(iter.next(), annotations);
+        }
+    }
+
+
+    private WebXml scanAnnotations(WebXml fragment, boolean handlesTypesOnly) {
+        WebXml annotations = new WebXml();
+        // no impact on distributable
+        annotations.setDistributable(true);
+        URL url = fragment.getURL();
+        processAnnotationsUrl(url, annotations,
+                (handlesTypesOnly || fragment.isMetadataComplete()));
+        return annotations;
+    }
+
+
+    private void mergeAnnotations(WebXml fragment, WebXml annotations) {
+        Set<WebXml> set = new HashSet<WebXml>();
+        set.add(annotations);
+        // Merge annotations into fragment - fragment takes priority
+        fragment.merge(set);
+    }
+
     protected void processAnnotationsUrl(URL url, WebXml fragment,
             boolean handlesTypesOnly) {
         if (url == null) {
@@ -1961,6 +2116,19 @@ public class ContextConfig implements LifecycleListener {
     protected void processAnnotationsJar(URL url, WebXml fragment,
             boolean handlesTypesOnly) {
 
+        ScanIndex scanIndex = annotationScanIndex;
+        ArrayList<ScannedClass> scannedClasses = null;
+        if (scanIndex != null) {
+            @SuppressWarnings("unchecked")
+            List<ScannedClass> indexed = (List<ScannedClass>) scanIndex.get(url);
+            if (indexed != null) {
+                processAnnotationsIndexed(url, fragment, handlesTypesOnly,
+                        indexed);
+                return;
+            }
+            scannedClasses = new ArrayList<ScannedClass>();
+        }
+
         Jar jar = null;
         InputStream is;
 
@@ -1979,14 +2147,17 @@ public class ContextConfig implements LifecycleListener {
                     is = null;
                     try {
                         is = jar.getEntryInputStream();
-                        processAnnotationsStream(
-                                is, fragment, handlesTypesOnly);
+                        processAnnotationsStream(is, fragment,
+                                handlesTypesOnly, entryName, scannedClasses);
                     } catch (IOException e) {
                         log.error(sm.getString("contextConfig.inputStreamJar",
                                 entryName, url),e);
+                        // Scan the JAR again next time so the error is logged
+                        scannedClasses = null;
                     } catch (ClassFormatException e) {
                         log.error(sm.getString("contextConfig.inputStreamJar",
                                 entryName, url),e);
+                        scannedClasses = null;
                     } finally {
                         if (is != null) {
                             try {
@@ -2000,6 +2171,57 @@ public class ContextConfig implements LifecycleListener {
                 jar.nextEntry();
                 entryName = jar.getEntryName();
             }
+            if (scannedClasses != null) {
+                scanIndex.put(url, scannedClasses);
+            }
+        } catch (IOException e) {
+            log.error(sm.getString("contextConfig.jarFile", url), e);
+        } finally {
+            if (jar != null) {
+                jar.close();
+            }
+        }
+    }
+
+
+    /*
+     * Process a JAR using the results of a previous scan. Only the classes with
+     * annotations that add to web.xml need to be read from the JAR.
+     */
+    private void processAnnotationsIndexed(URL url, WebXml fragment,
+            boolean handlesTypesOnly, List<ScannedClass> scannedClasses) {
+
+        Jar jar = null;
+
+        try {
+            for (ScannedClass scannedClass : scannedClasses) {
+                checkHandlesTypes(scannedClass);
+
+                if (handlesTypesOnly || !scannedClass.hasWebAnnotation()) {
+                    continue;
+                }
+                if (jar == null) {
+                    jar = JarFactory.newInstance(url);
+                }
+                String entryName = scannedClass.getEntryName();
+                InputStream is = jar.getInputStream(entryName);
+                if (is == null) {
+                    continue;
+                }
+                try {
+                    LazyClassParser parser = new LazyClassParser(is);
+                    processClassAnnotations(parser.parse(), fragment);
+                } catch (ClassFormatException e) {
+                    log.error(sm.getString("contextConfig.inputStreamJar",
+                            entryName, url),e);
+                } finally {
+                    try {
+                        is.close();
+                    } catch (IOException ioe) {
+                        // Ignore
+                    }
+                }
+            }
         } catch (IOException e) {
             log.error(sm.getString("contextConfig.jarFile", url), e);
         } finally {
@@ -2115,15 +2337,32 @@ public class ContextConfig implements LifecycleListener {
     protected void processAnnotationsStream(InputStream is, WebXml fragment,
             boolean handlesTypesOnly)
             throws ClassFormatException, IOException {
+        processAnnotationsStream(is, fragment, handlesTypesOnly, null, null);
+    }
+
+
+    private void processAnnotationsStream(InputStream is, WebXml fragment,
+            boolean handlesTypesOnly, String entryName,
+            List<ScannedClass> scannedClasses)
+            throws ClassFormatException, IOException {
 
-        ClassParser parser = new ClassParser(is);
+        LazyClassParser parser = new LazyClassParser(is);
         JavaClass clazz = parser.parse();
+        if (scannedClasses != null) {
+            scannedClasses.add(new ScannedClass(entryName, clazz));
+        }
         checkHandlesTypes(clazz);
 
         if (handlesTypesOnly) {
             return;
         }
 
+        processClassAnnotations(clazz, fragment);
+    }
+
+
+    private void processClassAnnotations(JavaClass clazz, WebXml fragment) {
+
         String className = clazz.getClassName();
 
         AnnotationEntry[] annotationsEntries = clazz.getAnnotationEntries();
@@ -2155,19 +2394,30 @@ public class ContextConfig implements LifecycleListener {
         if (typeInitializerMap.size() == 0)
             return;
 
-        if ((javaClass.getAccessFlags() &
+        checkHandlesTypes(new ScannedClass(null, javaClass));
+    }
+
+
+    private void checkHandlesTypes(ScannedClass scannedClass) {
+
+        // Skip this if we can
+        if (typeInitializerMap.size() == 0)
+            return;
+
+        if ((scannedClass.getAccessFlags() &
                 org.apache.tomcat.util.bcel.Const.ACC_ANNOTATION) != 0) {
             // Skip annotations.
             return;
         }
 
-        String className = javaClass.getClassName();
+        String className = scannedClass.getClassName();
 
         Class<?> clazz = null;
         if (handlesTypesNonAnnotations) {
             // This *might* be match for a HandlesType.
-            populateJavaClassCache(className, javaClass);
-            JavaClassCacheEntry entry = javaClassCache.get(className);
+            JavaClassCacheEntry entry = populateJavaClassCache(className,
+                    scannedClass.getSuperclassName(),
+                    scannedClass.getInterfaceNames());
             if (entry.getSciSet() == null) {
                 try {
                     populateSCIsForCacheEntry(entry);
@@ -2178,7 +2428,8 @@ public class ContextConfig implements LifecycleListener {
                             classHierarchyToString(className, entry)));
                 }
             }
-            if (!entry.getSciSet().isEmpty()) {
+            Set<ServletContainerInitializer> sciSet = entry.getSciSet();
+            if (!sciSet.isEmpty()) {
                 // Need to try and load the class
                 clazz = Introspection.loadClass(context, className);
                 if (clazz == null) {
@@ -2186,13 +2437,15 @@ public class ContextConfig implements LifecycleListener {
                     return;
                 }
 
-                for (ServletContainerInitializer sci : entry.getSciSet()) {
-                    Set<Class<?>> classes = initializerClassMap.get(sci);
-                    if (classes == null) {
-                        classes = new HashSet<Class<?>>();
-                        initializerClassMap.put(sci, classes);
+                synchronized (initializerClassMap) {
+                    for (ServletContainerInitializer sci : sciSet) {
+                        Set<Class<?>> classes = initializerClassMap.get(sci);
+                        if (classes == null) {
+                            classes = new HashSet<Class<?>>();
+                            initializerClassMap.put(sci, classes);
+                        }
+                        classes.add(clazz);
                     }
-                    classes.add(clazz);
                 }
             }
         }
@@ -2201,11 +2454,11 @@ public class ContextConfig implements LifecycleListener {
             for (Map.Entry<Class<?>, Set<ServletContainerInitializer>> entry :
                     typeInitializerMap.entrySet()) {
                 if (entry.getKey().isAnnotation()) {
-                    AnnotationEntry[] annotationEntries = javaClass.getAnnotationEntries();
-                    if (annotationEntries != null) {
-                        for (AnnotationEntry annotationEntry : annotationEntries) {
+                    String[] annotationTypes = scannedClass.getAnnotationTypes();
+                    if (annotationTypes != null) {
+                        for (String annotationType : annotationTypes) {
                             if (entry.getKey().getName().equals(
-                                    getClassName(annotationEntry.getAnnotationType()))) {
+                                    getClassName(annotationType))) {
                                 if (clazz == null) {
                                     clazz = Introspection.loadClass(
                                             context, className);
@@ -2215,8 +2468,10 @@ public class ContextConfig implements LifecycleListener {
                                         return;
                                     }
                                 }
-                                for (ServletContainerInitializer sci : entry.getValue()) {
-                                    initializerClassMap.get(sci).add(clazz);
+                                synchronized (initializerClassMap) {
+                                    for (ServletContainerInitializer sci : entry.getValue()) {
+                                        initializerClassMap.get(sci).add(clazz);
+                                    }
                                 }
                                 break;
                             }
@@ -2252,49 +2507,91 @@ public class ContextConfig implements LifecycleListener {
         return msg.toString();
     }
 
-    private void populateJavaClassCache(String className, JavaClass javaClass) {
-        if (javaClassCache.containsKey(className)) {
+    /**
+     * Add the given class to the cache, if not already present, and ensure that
+     * all of its super types that can be found are also in the cache. Class
+     * files are read without holding any lock so another thread may be adding
+     * entries for the same types at the same time. Therefore the super types
+     * are always checked by walking the hierarchy rather than assuming that
+     * they are present because an entry was found.
+     */
+    private JavaClassCacheEntry populateJavaClassCache(String className,
+            String superclassName, String[] interfaceNames) {
+        JavaClassCacheEntry entry = addJavaClassCacheEntry(className,
+                new JavaClassCacheEntry(superclassName, interfaceNames));
+        Set<String> visited = new HashSet<String>();
+        visited.add(className);
+        populateSuperTypes(entry, visited);
+        return entry;
+    }
+
+    private void populateJavaClassCache(String className, Set<String> visited) {
+        if (!visited.add(className)) {
             return;
         }
+        JavaClassCacheEntry entry = javaClassCache.get(className);
+        if (entry == null) {
+            entry = readJavaClassCacheEntry(className);
+            if (entry == null) {
+                return;
+            }
+            entry = addJavaClassCacheEntry(className, entry);
+        }
+        populateSuperTypes(entry, visited);
+    }
 
-        // Add this class to the cache
-        javaClassCache.put(className, new JavaClassCacheEntry(javaClass));
-
-        populateJavaClassCache(javaClass.getSuperclassName());
-
-        for (String interfaceName : javaClass.getInterfaceNames()) {
-            populateJavaClassCache(interfaceName);
+    private void populateSuperTypes(JavaClassCacheEntry entry,
+            Set<String> visited) {
+        // The SCIs are only determined once all of the super types are present
+        if (entry.getSciSet() != null) {
+            return;
+        }
+        populateJavaClassCache(entry.getSuperclassName(), visited);
+        for (String interfaceName : entry.getInterfaceNames()) {
+            populateJavaClassCache(interfaceName, visited);
         }
     }
 
-    private void populateJavaClassCache(String className) {
-        if (!javaClassCache.containsKey(className)) {
-            String name = className.replace('.', '/') + ".class";
-            InputStream is =
-                    context.getLoader().getClassLoader().getResourceAsStream(name);
-            if (is == null) {
-                return;
-            }
-            ClassParser parser = new ClassParser(is);
+    private JavaClassCacheEntry addJavaClassCacheEntry(String className,
+            JavaClassCacheEntry entry) {
+        JavaClassCacheEntry existing = ((ConcurrentMap<String,JavaClassCacheEntry>)
+                javaClassCache).putIfAbsent(className, entry);
+        return existing == null ? entry : existing;
+    }
+
+    private JavaClassCacheEntry readJavaClassCacheEntry(String className) {
+        String name = className.replace('.', '/') + ".class";
+        InputStream is =
+                context.getLoader().getClassLoader().getResourceAsStream(name);
+        if (is == null) {
+            return null;
+        }
+        LazyClassParser parser = new LazyClassParser(is);
+        try {
+            JavaClass clazz = parser.parse();
+            return new JavaClassCacheEntry(clazz.getSuperclassName(),
+                    clazz.getInterfaceNames());
+        } catch (ClassFormatException e) {
+            log.debug(sm.getString("contextConfig.invalidSciHandlesTypes",
+                    className), e);
+        } catch (IOException e) {
+            log.debug(sm.getString("contextConfig.invalidSciHandlesTypes",
+                    className), e);
+        } finally {
             try {
-                JavaClass clazz = parser.parse();
-                populateJavaClassCache(clazz.getClassName(), clazz);
-            } catch (ClassFormatException e) {
-                log.debug(sm.getString("contextConfig.invalidSciHandlesTypes",
-                        className), e);
+                is.close();
             } catch (IOException e) {
-                log.debug(sm.getString("contextConfig.invalidSciHandlesTypes",
-                        className), e);
-            } finally {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    // ignore
-                }
+                // ignore
             }
         }
+        return null;
     }
 
+    /*
+     * Several threads may determine the SCIs for the same entry at the same
+     * time. That is safe since the super types are all in the cache by the
+     * time this is called so each thread calculates the same set.
+     */
     private void populateSCIsForCacheEntry(JavaClassCacheEntry cacheEntry) {
         Set<ServletContainerInitializer> result =
                 new HashSet<ServletContainerInitializer>();
@@ -2660,23 +2957,68 @@ public class ContextConfig implements LifecycleListener {
             "META-INF/web-fragment.xml";
         private Map<String,WebXml> fragments = new HashMap<String,WebXml>();
         private final boolean parseRequired;
+        private final ExecutorService executor;
+        private final List<Callable<WebXml>> callables =
+                new ArrayList<Callable<WebXml>>();
 
-        public FragmentJarScannerCallback(boolean parseRequired) {
+        public FragmentJarScannerCallback(boolean parseRequired,
+                ExecutorService executor) {
             this.parseRequired = parseRequired;
+            this.executor = executor;
         }
 
         @Override
         public void scan(JarURLConnection jarConn) throws IOException {
 
-            URL url = jarConn.getURL();
-            URL resourceURL = jarConn.getJarFileURL();
+            final URL url = jarConn.getURL();
+            final URL resourceURL = jarConn.getJarFileURL();
+
+            if (executor == null) {
+                WebXml fragment = new WebXml();
+                try {
+                    fragment = parseJar(url, resourceURL, fragment);
+                } finally {
+                    fragments.put(fragment.getName(), fragment);
+                }
+            } else {
+                submit(new Callable<WebXml>() {
+                    @Override
+                    public WebXml call() {
+                        WebXml fragment = new WebXml();
+                        try {
+                            fragment = parseJar(url, resourceURL, fragment);
+                        } catch (IOException e) {
+                            log.warn(sm.getString(
+                                    "contextConfig.fragmentJarFail", url), e);
+                        }
+                        return fragment;
+                    }
+                });
+            }
+        }
+
+        /*
+         * Returns the given fragment or, if the JAR is unchanged since it was
+         * indexed, the fragment from the index.
+         */
+        private WebXml parseJar(URL url, URL resourceURL, WebXml fragment)
+                throws IOException {
+
+            boolean parse = parseRequired || context.getXmlValidation();
+            ScanIndex scanIndex = fragmentScanIndex;
+            if (parse && scanIndex != null) {
+                WebXml indexed = (WebXml) scanIndex.get(url);
+                if (indexed != null) {
+                    return indexed;
+                }
+            }
+
             Jar jar = null;
             InputStream is = null;
-            WebXml fragment = new WebXml();
 
             try {
                 jar = JarFactory.newInstance(url);
-                if (parseRequired || context.getXmlValidation()) {
+                if (parse) {
                     is = jar.getInputStream(FRAGMENT_LOCATION);
                 }
 
@@ -2700,8 +3042,12 @@ public class ContextConfig implements LifecycleListener {
                     fragment.setName(fragment.getURL().toString());
                 }
                 fragment.setJarName(extractJarFileName(url));
-                fragments.put(fragment.getName(), fragment);
             }
+
+            if (parse && scanIndex != null) {
+                scanIndex.put(url, fragment);
+            }
+            return fragment;
         }
 
         private String extractJarFileName(URL input) {
@@ -2716,10 +3062,35 @@ public class ContextConfig implements LifecycleListener {
         }
 
         @Override
-        public void scan(File file) throws IOException {
+        public void scan(final File file) throws IOException {
+
+            if (executor == null) {
+                WebXml fragment = new WebXml();
+                try {
+                    parseDir(file, fragment);
+                } finally {
+                    fragments.put(fragment.getName(), fragment);
+                }
+            } else {
+                submit(new Callable<WebXml>() {
+                    @Override
+                    public WebXml call() {
+                        WebXml fragment = new WebXml();
+                        try {
+                            parseDir(file, fragment);
+                        } catch (IOException e) {
+                            log.warn(sm.getString(
+                                    "contextConfig.fragmentJarFail", file), e);
+                        }
+                        return fragment;
+                    }
+                });
+            }
+        }
+
+        private void parseDir(File file, WebXml fragment) throws IOException {
 
             InputStream stream = null;
-            WebXml fragment = new WebXml();
 
             try {
                 File fragmentFile = new File(file, FRAGMENT_LOCATION);
@@ -2746,15 +3117,53 @@ public class ContextConfig implements LifecycleListener {
                     fragment.setName(fragment.getURL().toString());
                 }
                 fragment.setJarName(file.getName());
-                fragments.put(fragment.getName(), fragment);
             }
         }
 
+        private void submit(Callable<WebXml> callable) {
+            // Parsed in getFragments()
+            callables.add(callable);
+        }
+
+        /*
+         * When parsing in parallel, the fragments are added in the order the
+         * JARs were scanned so that, as for a sequential parse, a later
+         * fragment replaces an earlier fragment with the same name.
+         */
         public Map<String,WebXml> getFragments() {
+            List<WebXml> results;
+            try {
+                results = ParallelTasks.invokeAll(callables, executor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(sm.getString(
+                        "contextConfig.fragmentsParallelFailure",
+                        context.getName()), e);
+            }
+            for (WebXml fragment : results) {
+                fragments.put(fragment.getName(), fragment);
+            }
+            callables.clear();
             return fragments;
         }
     }
 
+
+    /*
+     * A Digester for web fragments and the rules it uses, since the rules
+     * hold state that must be reset after each parse.
+     */
+    private static class FragmentDigester {
+
+        private final Digester digester;
+        private final WebRuleSet ruleSet;
+
+        public FragmentDigester(Digester digester, WebRuleSet ruleSet) {
+            this.digester = digester;
+            this.ruleSet = ruleSet;
+        }
+    }
+
     private static class DefaultWebXmlCacheEntry {
         private final WebXml webXml;
         private final long globalTimeStamp;
@@ -2785,11 +3194,12 @@ public class ContextConfig implements LifecycleListener {
 
         public final String[] interfaceNames;
 
-        private Set<ServletContainerInitializer> sciSet = null;
+        private volatile Set<ServletContainerInitializer> sciSet = null;
 
-        public JavaClassCacheEntry(JavaClass javaClass) {
-            superclassName = javaClass.getSuperclassName();
-            interfaceNames = javaClass.getInterfaceNames();
+        public JavaClassCacheEntry(String superclassName,
+                String[] interfaceNames) {
+            this.superclassName = superclassName;
+            this.interfaceNames = interfaceNames;
         }
 
         public String getSuperclassName() {
@@ -2808,4 +3218,77 @@ public class ContextConfig implements LifecycleListener {
             this.sciSet = sciSet;
         }
     }
+
+    /**
+     * The information obtained by scanning a class that is required to process
+     * it for {@link HandlesTypes}. This is what is cached in the scan index for
+     * each class in a JAR.
+     */
+    private static class ScannedClass implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String entryName;
+        private final String className;
+        private final String superclassName;
+        private final String[] interfaceNames;
+        private final int accessFlags;
+        private final String[] annotationTypes;
+
+        public ScannedClass(String entryName, JavaClass javaClass) {
+            this.entryName = entryName;
+            className = javaClass.getClassName();
+            superclassName = javaClass.getSuperclassName();
+            interfaceNames = javaClass.getInterfaceNames();
+            accessFlags = javaClass.getAccessFlags();
+            AnnotationEntry[] annotationEntries =
+                    javaClass.getAnnotationEntries();
+            if (annotationEntries == null) {
+                annotationTypes = null;
+            } else {
+                annotationTypes = new String[annotationEntries.length];
+                for (int i = 0; i < annotationEntries.length; i++) {
+                    annotationTypes[i] =
+                            annotationEntries[i].getAnnotationType();
+                }
+            }
+        }
+
+        public String getEntryName() {
+            return entryName;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getSuperclassName() {
+            return superclassName;
+        }
+
+        public String[] getInterfaceNames() {
+            return interfaceNames;
+        }
+
+        public int getAccessFlags() {
+            return accessFlags;
+        }
+
+        public String[] getAnnotationTypes() {
+            return annotationTypes;
+        }
+
+        public boolean hasWebAnnotation() {
+            if (annotationTypes != null) {
+                for (String type : annotationTypes) {
+                    if ("Ljavax/servlet/annotation/WebServlet;".equals(type) ||
+                            "Ljavax/servlet/annotation/WebFilter;".equals(type) ||
+                            "Ljavax/servlet/annotation/WebListener;".equals(type)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the tasks that parse descriptors and scan for annotations in parallel
+ * while a Context is being configured.
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * Run the given tasks using the given executor and wait for them all to
+     * complete. The calling thread also runs any task that has yet to start.
+     * Since Contexts are usually started by the same executor this ensures
+     * progress even if all of the executor's threads are busy.
+     *
+     * @param callables The tasks to run
+     * @param executor  The executor to run the tasks with or <code>null</code>
+     *                  to run them all with the calling thread
+     * @return The results of the tasks in the same order as the tasks
+     *
+     * @throws InterruptedException If the calling thread is interrupted while
+     *         waiting for a task to complete
+     */
+    static <T> List<T> invokeAll(List<Callable<T>> callables,
+            Executor executor) throws InterruptedException {
+
+        List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>(callables.size());
+        for (Callable<T> callable : callables) {
+            FutureTask<T> task = new FutureTask<T>(callable);
+            tasks.add(task);
+            if (executor != null) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // Run by this thread below
+                }
+            }
+        }
+
+        for (FutureTask<T> task : tasks) {
+            task.run();
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (FutureTask<T> task : tasks) {
+            try {
+                results.add(task.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return results;
+    }
+}
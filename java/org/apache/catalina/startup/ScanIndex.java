@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An index of the results of scanning the JARs of a web application. The index
+ * is persisted in the work directory of the Context so that JARs that have not
+ * changed do not need to be scanned again the next time the Context starts.
+ * <p>
+ * A JAR is identified by its path, its size, its last modified time and a
+ * digest of the names, sizes and CRCs of its entries. If any of these change
+ * the cached result is ignored and the JAR is scanned as normal. Any problem
+ * reading the index results in all the JARs being scanned. Only the results
+ * for the JARs used during the current start are written back so results for
+ * JARs that have been removed are discarded.
+ * <p>
+ * Instances are thread safe so JARs may be scanned in parallel.
+ */
+final class ScanIndex {
+
+    private static final Log log = LogFactory.getLog(ScanIndex.class);
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    /**
+     * Change this whenever the format of any of the cached results changes so
+     * that indexes written by earlier versions are ignored.
+     */
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<String,Entry> previous;
+    private final Map<String,Entry> current =
+            new ConcurrentHashMap<String,Entry>();
+
+
+    private ScanIndex(File file, Map<String,Entry> previous) {
+        this.file = file;
+        this.previous = previous;
+    }
+
+
+    /**
+     * Load the named index for the given Context.
+     *
+     * @param context   The Context whose JARs are being scanned
+     * @param name      The name of the index
+     * @return The index or <code>null</code> if the Context does not use a
+     *         scan index or does not have a work directory
+     */
+    static ScanIndex load(Context context, String name) {
+        if (!context.getUseScanIndex()) {
+            return null;
+        }
+        File workDir = (File) context.getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        if (workDir == null) {
+            return null;
+        }
+
+        File file = new File(workDir, name + "-scan-index.ser");
+        Map<String,Entry> previous = new HashMap<String,Entry>();
+        if (file.isFile()) {
+            ObjectInputStream ois = null;
+            try {
+                ois = new IndexObjectInputStream(new BufferedInputStream(
+                        new FileInputStream(file)));
+                if (ois.readInt() == VERSION) {
+                    int count = ois.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String path = (String) ois.readObject();
+                        Entry entry = (Entry) ois.readObject();
+                        previous.put(path, entry);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn(sm.getString("scanIndex.loadFail",
+                        file.getAbsolutePath()), e);
+                previous.clear();
+            } finally {
+                if (ois != null) {
+                    try {
+                        ois.close();
+                    } catch (IOException ioe) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("scanIndex.load", file.getAbsolutePath(),
+                    Integer.valueOf(previous.size())));
+        }
+        return new ScanIndex(file, previous);
+    }
+
+
+    /**
+     * Obtain the cached result of scanning a JAR.
+     *
+     * @param url   The URL of the JAR
+     * @return The cached result or <code>null</code> if there is no result or
+     *         the JAR has changed since the result was cached
+     */
+    Object get(URL url) {
+        File jarFile = getJarFile(url);
+        if (jarFile == null) {
+            return null;
+        }
+        String path = jarFile.getAbsolutePath();
+        Entry entry = previous.get(path);
+        if (entry == null || entry.length != jarFile.length() ||
+                entry.lastModified != jarFile.lastModified() ||
+                !Arrays.equals(entry.digest, digest(jarFile))) {
+            return null;
+        }
+        current.put(path, entry);
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("scanIndex.hit", path));
+        }
+        return entry.result;
+    }
+
+
+    /**
+     * Cache the result of scanning a JAR.
+     *
+     * @param url       The URL of the JAR
+     * @param result    The result of scanning the JAR
+     */
+    void put(URL url, Serializable result) {
+        File jarFile = getJarFile(url);
+        if (jarFile == null) {
+            return;
+        }
+        // Obtain the length and last modified time first so that a change
+        // made while the JAR is being digested will be seen next time
+        long length = jarFile.length();
+        long lastModified = jarFile.lastModified();
+        byte[] digest = digest(jarFile);
+        if (digest != null) {
+            current.put(jarFile.getAbsolutePath(),
+                    new Entry(length, lastModified, digest, result));
+        }
+    }
+
+
+    /**
+     * Write the results for the JARs used since this index was loaded to the
+     * work directory of the Context.
+     */
+    void save() {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        ObjectOutputStream oos = null;
+        boolean written = false;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            oos.writeInt(VERSION);
+            // Take a copy in case the scan is still (unexpectedly) running
+            Map<String,Entry> entries = new HashMap<String,Entry>(current);
+            oos.writeInt(entries.size());
+            for (Map.Entry<String,Entry> entry : entries.entrySet()) {
+                oos.writeObject(entry.getKey());
+                oos.writeObject(entry.getValue());
+            }
+            oos.flush();
+            written = true;
+        } catch (IOException e) {
+            log.warn(sm.getString("scanIndex.saveFail",
+                    file.getAbsolutePath()), e);
+        } finally {
+            if (oos != null) {
+                try {
+                    oos.close();
+                } catch (IOException ioe) {
+                    written = false;
+                }
+            }
+        }
+
+        if (written && (!file.exists() || file.delete()) && tmp.renameTo(file)) {
+            return;
+        }
+        if (written) {
+            log.warn(sm.getString("scanIndex.saveFail", file.getAbsolutePath()));
+        }
+        if (tmp.exists() && !tmp.delete()) {
+            log.debug(sm.getString("scanIndex.deleteFail", tmp.getAbsolutePath()));
+        }
+    }
+
+
+    /*
+     * Only JARs on the file system are indexed.
+     */
+    private static File getJarFile(URL url) {
+        String s = url.toString();
+        if (s.startsWith("jar:")) {
+            s = s.substring(4);
+            int separator = s.indexOf("!/");
+            if (separator > -1) {
+                s = s.substring(0, separator);
+            }
+        }
+        if (!s.startsWith("file:")) {
+            return null;
+        }
+        try {
+            File file = new File(new URI(s));
+            if (file.isFile()) {
+                return file;
+            }
+        } catch (URISyntaxException e) {
+            // Not a JAR that can be indexed
+        } catch (IllegalArgumentException e) {
+            // Not a JAR that can be indexed
+        }
+        return null;
+    }
+
+
+    /*
+     * The CRC of every entry is held in the central directory so this detects
+     * changes to the contents of the JAR without having to read all of it.
+     */
+    private static byte[] digest(File jarFile) {
+        ZipFile zipFile = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            zipFile = new ZipFile(jarFile);
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            byte[] buf = new byte[16];
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                md.update(entry.getName().getBytes("UTF-8"));
+                long crc = entry.getCrc();
+                long size = entry.getSize();
+                for (int i = 0; i < 8; i++) {
+                    buf[i] = (byte) (crc >>> (i * 8));
+                    buf[i + 8] = (byte) (size >>> (i * 8));
+                }
+                md.update(buf);
+            }
+            return md.digest();
+        } catch (IOException e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } finally {
+            if (zipFile != null) {
+                try {
+                    zipFile.close();
+                } catch (IOException ioe) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    private static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long length;
+        private final long lastModified;
+        private final byte[] digest;
+        private final Serializable result;
+
+        public Entry(long length, long lastModified, byte[] digest,
+                Serializable result) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.result = result;
+        }
+    }
+
+
+    /*
+     * Only the types that are used by the cached results may be deserialized.
+     * Arrays are permitted if their component type is a primitive or a
+     * permitted type. Proxies are never used so are always rejected.
+     */
+    static class IndexObjectInputStream extends ObjectInputStream {
+
+        private static final Set<String> PERMITTED_CLASS_NAMES;
+
+        static {
+            Set<String> names = new HashSet<String>();
+            // JRE types
+            names.add("java.lang.Boolean");
+            names.add("java.lang.Enum");
+            names.add("java.lang.Integer");
+            names.add("java.lang.Number");
+            names.add("java.lang.String");
+            names.add("java.net.URL");
+            names.add("java.util.ArrayList");
+            names.add("java.util.EnumSet$SerializationProxy");
+            names.add("java.util.HashMap");
+            names.add("java.util.HashSet");
+            names.add("java.util.LinkedHashMap");
+            names.add("java.util.LinkedHashSet");
+            names.add("javax.servlet.SessionTrackingMode");
+            // The cached results
+            names.add(Entry.class.getName());
+            names.add(ContextConfig.class.getName() + "$ScannedClass");
+            names.add(TldConfig.class.getName() + "$ScannedTld");
+            // The parsed web.xml held by WebXmlSnapshot. NamingResources is
+            // excluded as it is never referenced by a parsed web.xml.
+            String[] deployNames = new String[] { "ContextEjb",
+                    "ContextEnvironment", "ContextHandler", "ContextLocalEjb",
+                    "ContextResource", "ContextResourceEnvRef",
+                    "ContextService", "ErrorPage", "FilterDef", "FilterMap",
+                    "InjectionTarget", "JspPropertyGroup", "LoginConfig",
+                    "MessageDestination", "MessageDestinationRef",
+                    "MultipartDef", "ResourceBase", "SecurityCollection",
+                    "SecurityConstraint", "SecurityRoleRef", "ServletDef",
+                    "SessionConfig", "WebXml" };
+            for (String deployName : deployNames) {
+                names.add("org.apache.catalina.deploy." + deployName);
+            }
+            PERMITTED_CLASS_NAMES = Collections.unmodifiableSet(names);
+        }
+
+        public IndexObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            if (!isPermitted(name)) {
+                throw new InvalidClassException(name);
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces)
+                throws IOException, ClassNotFoundException {
+            throw new InvalidClassException(Arrays.toString(interfaces));
+        }
+
+        private static boolean isPermitted(String name) {
+            int dimensions = 0;
+            while (dimensions < name.length() &&
+                    name.charAt(dimensions) == '[') {
+                dimensions++;
+            }
+            if (dimensions == 0) {
+                return isPermittedClass(name);
+            }
+            String component = name.substring(dimensions);
+            if (component.length() == 1) {
+                // Primitive
+                return "ZBCSIJFD".indexOf(component.charAt(0)) > -1;
+            }
+            if (component.length() > 2 && component.charAt(0) == 'L' &&
+                    component.charAt(component.length() - 1) == ';') {
+                return isPermittedClass(
+                        component.substring(1, component.length() - 1));
+            }
+            return false;
+        }
+
+        private static boolean isPermittedClass(String name) {
+            return PERMITTED_CLASS_NAMES.contains(name);
+        }
+    }
+}
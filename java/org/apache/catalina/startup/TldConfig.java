@@ -20,18 +20,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.net.JarURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 
 import javax.servlet.ServletContext;
 import javax.servlet.descriptor.TaglibDescriptor;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Host;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleListener;
@@ -77,35 +85,39 @@ public final class TldConfig  implements LifecycleListener {
         StringManager.getManager(Constants.Package);
 
     /**
-     * The <code>Digester</code>s available to process tld files.
+     * The <code>Digester</code>s available to process tld files, one pool per
+     * combination of validation and blocking of external entities. A Digester
+     * is removed from its pool while it is in use so that TLDs may be parsed
+     * by several threads at once.
      */
-    private static Digester[] tldDigesters = new Digester[4];
+    private static final List<Queue<Digester>> tldDigesters =
+            new ArrayList<Queue<Digester>>(4);
+
+    static {
+        for (int i = 0; i < 4; i++) {
+            tldDigesters.add(new ConcurrentLinkedQueue<Digester>());
+        }
+    }
 
     /**
-     * Create (if necessary) and return a Digester configured to process the
-     * tld.
+     * Obtain a Digester configured to process the tld from the pool, creating
+     * one if necessary. It must be returned with
+     * {@link #releaseTldDigester(int, Digester)} once the tld has been parsed.
      */
-    private static synchronized Digester createTldDigester(boolean validation,
-            boolean blockExternal) {
-
-        Digester digester;
-        int cacheIndex = 0;
-        if (validation) {
-            cacheIndex += 1;
-        }
-        if (blockExternal) {
-            cacheIndex += 2;
-        }
-        digester = tldDigesters[cacheIndex];
+    private static Digester getTldDigester(int cacheIndex) {
+        Digester digester = tldDigesters.get(cacheIndex).poll();
         if (digester == null) {
-            digester = DigesterFactory.newDigester(validation,
-                    true, new TldRuleSet(), blockExternal);
+            digester = DigesterFactory.newDigester((cacheIndex & 1) != 0,
+                    true, new TldRuleSet(), (cacheIndex & 2) != 0);
             digester.getParser();
-            tldDigesters[cacheIndex] = digester;
         }
         return digester;
     }
 
+    private static void releaseTldDigester(int cacheIndex, Digester digester) {
+        tldDigesters.get(cacheIndex).offer(digester);
+    }
+
 
     static {
         // Set the default list of JARs to skip for TLDs
@@ -160,10 +172,10 @@ public final class TldConfig  implements LifecycleListener {
 
 
     /**
-     * The <code>Digester</code> we will use to process tag library
+     * The pool of <code>Digester</code>s we will use to process tag library
      * descriptor files.
      */
-    private Digester tldDigester = null;
+    private int tldDigesterIndex = -1;
 
 
     /**
@@ -177,6 +189,19 @@ public final class TldConfig  implements LifecycleListener {
 
     private ArrayList<String> listeners = new ArrayList<String>();
 
+    /**
+     * The index of the results of previous scans of JARs for TLDs. Only set
+     * while the JARs are being scanned and only if the Context uses a scan
+     * index.
+     */
+    private ScanIndex tldScanIndex = null;
+
+    /**
+     * The contents of the TLD currently being parsed. Only set for the
+     * instances used to collect the contents of TLDs in JARs.
+     */
+    private ScannedTld scannedTld = null;
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -228,6 +253,22 @@ public final class TldConfig  implements LifecycleListener {
         return result;
     }
 
+    /*
+     * Called by the digester rules with the contents of the TLD as parsed,
+     * before any filtering of duplicate URIs.
+     */
+    void scannedTaglibUri(String uri) {
+        if (scannedTld != null) {
+            scannedTld.uri = uri;
+        }
+    }
+
+    void scannedListener(String listener) {
+        if (scannedTld != null) {
+            scannedTld.listeners.add(listener);
+        }
+    }
+
 
     /**
      * Scan for and configure all tag library descriptors found in this
@@ -267,9 +308,23 @@ public final class TldConfig  implements LifecycleListener {
         // Stages 3b & 4
         JarScanner jarScanner = context.getJarScanner();
         
-        TldJarScannerCallback tldCallBack = new TldJarScannerCallback();
-        jarScanner.scan(context.getServletContext(), context.getLoader().getClassLoader(),
-                tldCallBack, noTldJars);
+        ExecutorService executor = null;
+        if (context.getParallelDescriptorParsing() &&
+                context.getParent() instanceof Host) {
+            executor = ((Host) context.getParent()).getStartStopExecutor();
+        }
+        TldJarScannerCallback tldCallBack = new TldJarScannerCallback(executor);
+        tldScanIndex = ScanIndex.load(context, "tld");
+        try {
+            jarScanner.scan(context.getServletContext(),
+                    context.getLoader().getClassLoader(), tldCallBack, noTldJars);
+            tldCallBack.finish();
+            if (tldScanIndex != null) {
+                tldScanIndex.save();
+            }
+        } finally {
+            tldScanIndex = null;
+        }
         if(tldCallBack.scanFoundNoTLDs()){
             log.info(sm.getString("tldConfig.noTldSummary"));
         }
@@ -292,21 +347,71 @@ public final class TldConfig  implements LifecycleListener {
 
     }
 
+    /*
+     * The TLDs in each JAR are parsed, possibly in parallel, without updating
+     * this TldConfig. The parsed TLDs are then processed in the order that the
+     * JARs were scanned so the first TLD found for a URI is always used.
+     */
     private class TldJarScannerCallback implements JarScannerCallback {
         boolean tldFound = true;
-        
+        private final ExecutorService executor;
+        private final List<Callable<List<ScannedTld>>> callables =
+                new ArrayList<Callable<List<ScannedTld>>>();
+
+        public TldJarScannerCallback(ExecutorService executor) {
+            this.executor = executor;
+        }
+
         @Override
         public void scan(JarURLConnection urlConn) throws IOException {
-            tldFound = tldScanJar(urlConn);
+            final URL url = urlConn.getURL();
+            submit(new Callable<List<ScannedTld>>() {
+                @Override
+                public List<ScannedTld> call() {
+                    return tldScanJar(url);
+                }
+            });
         }
 
         @Override
         public void scan(File file) {
-            File metaInf = new File(file, "META-INF");
+            final File metaInf = new File(file, "META-INF");
             if (metaInf.isDirectory()) {
-                tldFound = tldScanDir(metaInf);
+                submit(new Callable<List<ScannedTld>>() {
+                    @Override
+                    public List<ScannedTld> call() {
+                        List<ScannedTld> tlds = new ArrayList<ScannedTld>();
+                        tldScanDir(metaInf, tlds);
+                        return tlds;
+                    }
+                });
             }
         }
+
+        private void submit(Callable<List<ScannedTld>> callable) {
+            callables.add(callable);
+            if (executor == null) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            List<List<ScannedTld>> results;
+            try {
+                results = ParallelTasks.invokeAll(callables, executor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(sm.getString(
+                        "tldConfig.parallelFailure", context.getName()), e);
+            }
+            for (List<ScannedTld> tlds : results) {
+                for (ScannedTld tld : tlds) {
+                    processScannedTld(tld);
+                }
+                tldFound = !tlds.isEmpty();
+            }
+            callables.clear();
+        }
         
         private boolean scanFoundNoTLDs() {
             return !tldFound;
@@ -354,7 +459,7 @@ public final class TldConfig  implements LifecycleListener {
                     stream = context.getServletContext().getResourceAsStream(
                             resourcePath);
                     if (stream != null) {
-                        XmlErrorHandler handler = tldScanStream(stream);
+                        XmlErrorHandler handler = tldScanStream(stream, this);
                         handler.logFindings(log, resourcePath);
                         taglibUris.add(descriptor.getTaglibURI());
                         webxmlTaglibUris.add(descriptor.getTaglibURI());
@@ -413,7 +518,7 @@ public final class TldConfig  implements LifecycleListener {
                     }
                     InputStream stream = ctxt.getResourceAsStream(path);
                     try {
-                        XmlErrorHandler handler = tldScanStream(stream);
+                        XmlErrorHandler handler = tldScanStream(stream, this);
                         handler.logFindings(log, path);
                     } catch (IOException ioe) {
                         log.warn(sm.getString("tldConfig.webinfFail", path),
@@ -440,7 +545,7 @@ public final class TldConfig  implements LifecycleListener {
      *
      * Keep in sync with o.a.j.comiler.TldLocationsCache
      */
-    private boolean tldScanDir(File start) {
+    private boolean tldScanDir(File start, List<ScannedTld> tlds) {
         boolean isFound = false;
         
         if (log.isTraceEnabled()) {
@@ -452,14 +557,16 @@ public final class TldConfig  implements LifecycleListener {
             for (int i = 0; i < fileList.length; i++) {
                 // Scan recursively
                 if (fileList[i].isDirectory()) {
-                    tldScanDir(fileList[i]);
+                    tldScanDir(fileList[i], tlds);
                 } else if (fileList[i].getAbsolutePath().endsWith(TLD_EXT)) {
                     InputStream stream = null;
                     isFound = true;
                     try {
                         stream = new FileInputStream(fileList[i]);
-                        XmlErrorHandler handler = tldScanStream(stream);
+                        ScannedTld tld = new ScannedTld();
+                        XmlErrorHandler handler = tldScanStream(stream, tld);
                         handler.logFindings(log, fileList[i].getAbsolutePath());
+                        tlds.add(tld);
                     } catch (IOException ioe) {
                         log.warn(sm.getString("tldConfig.dirFail",
                                 fileList[i].getAbsolutePath()),
@@ -485,33 +592,55 @@ public final class TldConfig  implements LifecycleListener {
     }
 
     /*
-     * Scans the given JarURLConnection for TLD files located in META-INF
+     * Scans the JAR at the given URL for TLD files located in META-INF
      * (or a sub-directory of it).
      *
-     * @param jarConn The JarURLConnection to the JAR file to scan
+     * @param url The URL of the JAR file to scan
+     * @return The TLDs found in the JAR, in the order they were found
      * 
      * Keep in sync with o.a.j.comiler.TldLocationsCache
      */
-    private boolean tldScanJar(JarURLConnection jarConn) {
+    private List<ScannedTld> tldScanJar(URL url) {
+
+        ScanIndex scanIndex = tldScanIndex;
+        if (scanIndex != null) {
+            @SuppressWarnings("unchecked")
+            List<ScannedTld> indexed = (List<ScannedTld>) scanIndex.get(url);
+            if (indexed != null) {
+                if (indexed.isEmpty() && log.isDebugEnabled()) {
+                    log.debug(sm.getString("tldConfig.noTldInJar",
+                            url.getFile()));
+                }
+                return indexed;
+            }
+        }
 
         Jar jar = null;
         InputStream is;
-        boolean isFound = false;
+        ArrayList<ScannedTld> tlds = new ArrayList<ScannedTld>();
+        boolean index = scanIndex != null;
         
         try {
-            jar = JarFactory.newInstance(jarConn.getURL());
+            jar = JarFactory.newInstance(url);
             
             jar.nextEntry();
             String entryName = jar.getEntryName();
             while (entryName != null) {
                 if (entryName.startsWith("META-INF/") &&
                         entryName.endsWith(".tld")) {
-                    isFound = true;
                     is = null;
                     try {
                         is = jar.getEntryInputStream();
-                        XmlErrorHandler handler = tldScanStream(is);
-                        handler.logFindings(log, jarConn.getURL() + entryName);
+                        ScannedTld tld = new ScannedTld();
+                        XmlErrorHandler handler = tldScanStream(is, tld);
+                        handler.logFindings(log, url + entryName);
+                        tlds.add(tld);
+                        if (!handler.getErrors().isEmpty() ||
+                                !handler.getWarnings().isEmpty()) {
+                            // Parse the JAR again next time so the problems
+                            // are logged
+                            index = false;
+                        }
                     } finally {
                         if (is != null) {
                             try {
@@ -525,52 +654,95 @@ public final class TldConfig  implements LifecycleListener {
                 jar.nextEntry();
                 entryName = jar.getEntryName();
             }
-            if(!isFound){
+            if (tlds.isEmpty()) {
                 if (log.isDebugEnabled()) {
                     log.debug(sm.getString("tldConfig.noTldInJar",
-                            jarConn.getURL().getFile()));
+                            url.getFile()));
                 }
             }
+            if (index) {
+                scanIndex.put(url, tlds);
+            }
         } catch (IOException ioe) {
-            log.warn(sm.getString("tldConfig.jarFail", jarConn.getURL()), ioe);
+            log.warn(sm.getString("tldConfig.jarFail", url), ioe);
         } finally {
             if (jar != null) {
                 jar.close();
             }
         }
-        return isFound;
+        return tlds;
+    }
+
+
+    /*
+     * Process a TLD from a JAR in the same way as the digester rules process a
+     * TLD that is parsed directly in to this TldConfig.
+     */
+    private void processScannedTld(ScannedTld tld) {
+        String uri = tld.uri;
+        if (uri != null) {
+            if (isKnownTaglibUri(uri)) {
+                // This is expected if the URI was defined in web.xml
+                if (isKnownWebxmlTaglibUri(uri)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("tldConfig.duplicateUri", uri));
+                    }
+                } else {
+                    log.info(sm.getString("tldConfig.duplicateUri", uri));
+                }
+                return;
+            }
+            addTaglibUri(uri);
+        }
+        for (String listener : tld.listeners) {
+            addApplicationListener(listener);
+        }
     }
 
 
     /*
      * Scan the TLD contents in the specified input stream, and register
-     * any application event listeners found there.  <b>NOTE</b> - This 
-     * method ensure that the InputStream is correctly closed.
+     * any application event listeners found there with the given TldConfig.
+     * <b>NOTE</b> - This method ensure that the InputStream is correctly
+     * closed.
      *
      * @param resourceStream InputStream containing a tag library descriptor
+     * @param tldConfig      The TldConfig the digester rules update
      *
      * @throws IOException  If the file cannot be read
      */
-    private XmlErrorHandler tldScanStream(InputStream resourceStream)
-            throws IOException {
+    private XmlErrorHandler tldScanStream(InputStream resourceStream,
+            TldConfig tldConfig) throws IOException {
         
         InputSource source = new InputSource(resourceStream);
         
         XmlErrorHandler result = new XmlErrorHandler();
         
-        synchronized (tldDigester) {
-            try {
-                tldDigester.setErrorHandler(result);
-                tldDigester.push(this);
-                tldDigester.parse(source);
-            } catch (SAXException s) {
-                // Hack - makes exception handling simpler
-                throw new IOException(s);
-            } finally {
-                tldDigester.reset();
-            }
-            return result;
+        Digester tldDigester = getTldDigester(tldDigesterIndex);
+        try {
+            tldDigester.setErrorHandler(result);
+            tldDigester.push(tldConfig);
+            tldDigester.parse(source);
+        } catch (SAXException s) {
+            // Hack - makes exception handling simpler
+            throw new IOException(s);
+        } finally {
+            tldDigester.reset();
+            releaseTldDigester(tldDigesterIndex, tldDigester);
         }
+        return result;
+    }
+
+    /*
+     * Parse a TLD from a JAR in to the given ScannedTld. The contents are
+     * collected by a separate TldConfig so this TldConfig is not modified.
+     */
+    private XmlErrorHandler tldScanStream(InputStream resourceStream,
+            ScannedTld tld) throws IOException {
+        TldConfig collector = new TldConfig();
+        collector.scannedTld = tld;
+        collector.tldDigesterIndex = tldDigesterIndex;
+        return tldScanStream(resourceStream, collector);
     }
 
     @Override
@@ -600,10 +772,25 @@ public final class TldConfig  implements LifecycleListener {
     }
     
     private void init() {
-        if (tldDigester == null){
-            tldDigester = createTldDigester(context.getTldValidation(),
-                    context.getXmlBlockExternal());
+        int cacheIndex = 0;
+        if (context.getTldValidation()) {
+            cacheIndex += 1;
         }
+        if (context.getXmlBlockExternal()) {
+            cacheIndex += 2;
+        }
+        tldDigesterIndex = cacheIndex;
     }
 
+
+    /**
+     * The contents of a TLD that are cached in the scan index.
+     */
+    private static class ScannedTld implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String uri = null;
+        private final ArrayList<String> listeners = new ArrayList<String>();
+    }
 }
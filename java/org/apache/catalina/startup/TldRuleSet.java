@@ -133,6 +133,7 @@ final class TaglibUriRule extends Rule {
             throws Exception {
         TldConfig tldConfig =
             (TldConfig) digester.peek(digester.getCount() - 1);
+        tldConfig.scannedTaglibUri(text);
         if (tldConfig.isKnownTaglibUri(text)) {
             // Already seen this URI
             duplicateUri = true;
@@ -176,6 +177,7 @@ final class TaglibListenerRule extends Rule {
             throws Exception {
         TldConfig tldConfig =
             (TldConfig) digester.peek(digester.getCount() - 1);
+        tldConfig.scannedListener(text.trim());
         
         // Only process the listener if the URI is not a duplicate
         if (!taglibUriRule.isDuplicateUri()) {
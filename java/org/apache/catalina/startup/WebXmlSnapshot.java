@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.deploy.WebXml;
+import org.apache.catalina.util.IOTools;
+import org.apache.catalina.util.ServerInfo;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+import org.xml.sax.InputSource;
+
+/**
+ * A snapshot of the result of parsing the web.xml of a web application. The
+ * snapshot is persisted in the work directory of the Context so that the
+ * web.xml does not need to be parsed again the next time the Context starts
+ * if it has not changed.
+ * <p>
+ * The web.xml is identified by its system ID and a digest of its contents.
+ * The snapshot is also tied to the validation, namespace awareness and
+ * external entity settings used to parse it. If any of these change, or there
+ * is any problem reading the snapshot, the web.xml is parsed as normal. Only
+ * the parsed web.xml is held in the snapshot. It is merged with the web
+ * fragments, annotations and global defaults on every start.
+ */
+final class WebXmlSnapshot {
+
+    private static final Log log = LogFactory.getLog(WebXmlSnapshot.class);
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    /**
+     * Change this whenever the format of the snapshot or the parsing of
+     * web.xml changes so that snapshots written by earlier versions are
+     * ignored.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Written at the start of the snapshot. The classes in
+     * org.apache.catalina.deploy do not change their serialVersionUID when
+     * their fields change so the snapshot is also tied to the version of
+     * Tomcat that wrote it. After an upgrade the web.xml is parsed again.
+     */
+    private static final String FORMAT =
+            "WebXmlSnapshot/" + VERSION + '/' + ServerInfo.getServerNumber();
+
+    static final String SNAPSHOT_NAME = "web-xml-snapshot.ser";
+
+    private final File file;
+    private final String key;
+    private final byte[] digest;
+
+
+    private WebXmlSnapshot(File file, String key, byte[] digest) {
+        this.file = file;
+        this.key = key;
+        this.digest = digest;
+    }
+
+
+    /**
+     * Prepare the snapshot for the given web.xml. The contents of the web.xml
+     * are read into memory so that they can be digested. The byte stream of
+     * the source is replaced so that it can still be parsed if there is no
+     * usable snapshot.
+     *
+     * @param context   The Context whose web.xml is being parsed
+     * @param source    The web.xml
+     * @return The snapshot or <code>null</code> if the Context does not use a
+     *         snapshot, does not have a work directory or the web.xml could
+     *         not be read
+     */
+    static WebXmlSnapshot create(Context context, InputSource source) {
+        if (source == null || source.getByteStream() == null ||
+                !context.getUseScanIndex()) {
+            return null;
+        }
+        File workDir = (File) context.getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        if (workDir == null) {
+            return null;
+        }
+
+        InputStream is = source.getByteStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try {
+            IOTools.flow(is, content);
+        } catch (IOException e) {
+            // The problem will be reported when the web.xml is parsed
+            return null;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ioe) {
+                // Ignore
+            }
+        }
+        byte[] bytes = content.toByteArray();
+        source.setByteStream(new ByteArrayInputStream(bytes));
+
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        String key = source.getSystemId() + ';' + context.getXmlValidation() +
+                ';' + context.getXmlNamespaceAware() + ';' +
+                context.getXmlBlockExternal();
+        return new WebXmlSnapshot(new File(workDir, SNAPSHOT_NAME), key, digest);
+    }
+
+
+    /**
+     * Obtain the parsed web.xml from the snapshot.
+     *
+     * @return The parsed web.xml or <code>null</code> if there is no snapshot
+     *         or the web.xml has changed since the snapshot was written
+     */
+    WebXml load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        ObjectInputStream ois = null;
+        try {
+            ois = new ScanIndex.IndexObjectInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (!FORMAT.equals(ois.readUTF()) ||
+                    !key.equals(ois.readObject()) ||
+                    !Arrays.equals(digest, (byte[]) ois.readObject())) {
+                return null;
+            }
+            WebXml webXml = (WebXml) ois.readObject();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("webXmlSnapshot.hit",
+                        file.getAbsolutePath()));
+            }
+            return webXml;
+        } catch (Exception e) {
+            log.warn(sm.getString("webXmlSnapshot.loadFail",
+                    file.getAbsolutePath()), e);
+            return null;
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException ioe) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Write the snapshot to the work directory of the Context. This must be
+     * called before the parsed web.xml is merged with anything else.
+     *
+     * @param webXml    The result of parsing the web.xml
+     */
+    void save(WebXml webXml) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        ObjectOutputStream oos = null;
+        boolean written = false;
+        try {
+            oos = new ObjectOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmp)));
+            oos.writeUTF(FORMAT);
+            oos.writeObject(key);
+            oos.writeObject(digest);
+            oos.writeObject(webXml);
+            oos.flush();
+            written = true;
+        } catch (IOException e) {
+            log.warn(sm.getString("webXmlSnapshot.saveFail",
+                    file.getAbsolutePath()), e);
+        } finally {
+            if (oos != null) {
+                try {
+                    oos.close();
+                } catch (IOException ioe) {
+                    written = false;
+                }
+            }
+        }
+
+        if (written && (!file.exists() || file.delete()) && tmp.renameTo(file)) {
+            return;
+        }
+        if (written) {
+            log.warn(sm.getString("webXmlSnapshot.saveFail",
+                    file.getAbsolutePath()));
+        }
+        if (tmp.exists() && !tmp.delete()) {
+            log.debug(sm.getString("webXmlSnapshot.deleteFail",
+                    tmp.getAbsolutePath()));
+        }
+    }
+}
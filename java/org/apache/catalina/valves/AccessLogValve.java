@@ -112,6 +112,10 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * <li><code>%{xxx}s</code> xxx is an attribute in the HttpSession
  * <li><code>%{xxx}t</code> xxx is an enhanced SimpleDateFormat pattern
  * (see Configuration Reference document for details on supported time patterns)
+ * <li><code>%{xxx}R</code> resources used to process the request: xxx is
+ * <code>cpu</code> for the CPU time in microseconds or <code>alloc</code> for
+ * the number of bytes allocated. Written as '-' unless resource usage
+ * tracking is enabled on the Connector.
  * </ul>
  *
  * <p>
@@ -2073,6 +2077,51 @@ public class AccessLogValve extends ValveBase implements AccessLog {
         return list.toArray(new AccessLogElement[0]);
     }
 
+    /**
+     * write the resources used by the container threads to process the
+     * request - %{cpu}R, %{alloc}R
+     */
+    protected static class ResourceUsageElement implements AccessLogElement {
+
+        private static final String cpuTime = "cpu";
+        private static final String allocatedBytes = "alloc";
+
+        private final boolean cpu;
+
+        public ResourceUsageElement(String type) {
+            if (type.equals(cpuTime)) {
+                cpu = true;
+            } else if (type.equals(allocatedBytes)) {
+                cpu = false;
+            } else {
+                cpu = true;
+                log.error(sm.getString(
+                        "accessLogValve.invalidResourceUsageType", type));
+            }
+        }
+
+        @Override
+        public void addElement(StringBuilder buf, Date date, Request request,
+                Response response, long time) {
+            RequestInfo rp = request.getCoyoteRequest().getRequestProcessor();
+            long value;
+            if (cpu) {
+                value = rp.getRequestCpuTime();
+                if (value >= 0) {
+                    value = value / 1000;
+                }
+            } else {
+                value = rp.getRequestAllocatedBytes();
+            }
+            if (value < 0) {
+                buf.append('-');
+            } else {
+                buf.append(value);
+            }
+        }
+    }
+
+
     /**
      * create an AccessLogElement implementation which needs an element name
      */
@@ -2088,6 +2137,8 @@ public class AccessLogValve extends ValveBase implements AccessLog {
             return new PortElement(name);
         case 'r':
             return new RequestAttributeElement(name);
+        case 'R':
+            return new ResourceUsageElement(name);
         case 's':
             return new SessionAttributeElement(name);
         case 't':
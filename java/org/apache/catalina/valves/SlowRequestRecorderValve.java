@@ -0,0 +1,655 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Keeps a record of the most recent completed requests that took longer than
+ * a configurable threshold to process so that they can be analysed after the
+ * fact via JMX or the Manager application. It is a companion to
+ * {@link StuckThreadDetectionValve} which reports requests while they are
+ * still running.
+ * <p>
+ * Each record holds the time taken by each phase of the request, the thread
+ * that processed it and, if stack sampling is enabled, stack traces of that
+ * thread taken while the request was slow. Records are held in a fixed size
+ * ring buffer that is written without locking so the cost for requests that
+ * are not slow is limited to a couple of time stamps.
+ * <p>
+ * The valve is notified of completed requests via the {@link AccessLog}
+ * interface so asynchronous requests are recorded once they complete.
+ */
+public class SlowRequestRecorderValve extends ValveBase implements AccessLog {
+
+    /**
+     * The descriptive information related to this implementation.
+     */
+    private static final String info =
+            "org.apache.catalina.valves.SlowRequestRecorderValve/1.0";
+
+    private static final Log log =
+            LogFactory.getLog(SlowRequestRecorderValve.class);
+
+    /**
+     * The string manager for this package.
+     */
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    private static final String TIMING_NOTE =
+            "org.apache.catalina.valves.SlowRequestRecorderValve.TIMING";
+
+
+    /**
+     * In milliseconds. Default 1000 (1 second).
+     */
+    private int threshold = 1000;
+
+    /**
+     * The number of slow requests retained. Default 100.
+     */
+    private int capacity = 100;
+
+    /**
+     * In milliseconds. Default is 0 which disables stack sampling.
+     */
+    private int stackSampleInterval = 0;
+
+    /**
+     * The maximum number of stack samples retained per request. Default 10.
+     */
+    private int maxStackSamples = 10;
+
+    private volatile AtomicReferenceArray<SlowRequest> buffer;
+
+    private final AtomicLong slowRequestCount = new AtomicLong(0);
+
+    /**
+     * The requests currently being processed by a container thread. Only
+     * populated when stack sampling is enabled. Keyed by request rather than
+     * thread since an asynchronous request may be dispatched to a different
+     * thread.
+     */
+    private final Map<Request, RequestTiming> activeRequests =
+            new ConcurrentHashMap<Request, RequestTiming>();
+
+    private volatile Thread sampler = null;
+
+    private boolean requestAttributesEnabled = false;
+
+
+    /**
+     * Required to enable async support.
+     */
+    public SlowRequestRecorderValve() {
+        super(true);
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * Return descriptive information about this Valve implementation.
+     */
+    @Override
+    public String getInfo() {
+        return info;
+    }
+
+
+    /**
+     * @return The time, in milliseconds, a request must take for it to be
+     *         recorded
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+
+    /**
+     * Specifies the time (in milliseconds) that a request must take for it to
+     * be recorded. If &lt;=0, recording is disabled. The default is 1000
+     * milliseconds.
+     *
+     * @param threshold The new threshold in milliseconds
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Set the number of slow requests that are retained. Changing the capacity
+     * discards all of the currently retained requests.
+     *
+     * @param capacity The number of requests to retain
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(sm.getString(
+                    "slowRequestRecorderValve.invalidCapacity",
+                    Integer.valueOf(capacity)));
+        }
+        this.capacity = capacity;
+        if (buffer != null) {
+            reset();
+        }
+    }
+
+
+    public int getStackSampleInterval() {
+        return stackSampleInterval;
+    }
+
+
+    /**
+     * Specifies the interval (in milliseconds) at which the stacks of the
+     * threads processing requests that have exceeded the threshold are
+     * sampled. If &lt;=0, stack sampling is disabled. The default is 0. Changes
+     * take effect when the valve is next started.
+     *
+     * @param stackSampleInterval The new interval in milliseconds
+     */
+    public void setStackSampleInterval(int stackSampleInterval) {
+        this.stackSampleInterval = stackSampleInterval;
+    }
+
+
+    public int getMaxStackSamples() {
+        return maxStackSamples;
+    }
+
+
+    public void setMaxStackSamples(int maxStackSamples) {
+        this.maxStackSamples = maxStackSamples;
+    }
+
+
+    /**
+     * @return The total number of slow requests recorded since the valve was
+     *         started or last reset, including those no longer retained
+     */
+    public long getSlowRequestCount() {
+        return slowRequestCount.get();
+    }
+
+
+    @Override
+    public void setRequestAttributesEnabled(boolean requestAttributesEnabled) {
+        this.requestAttributesEnabled = requestAttributesEnabled;
+    }
+
+
+    @Override
+    public boolean getRequestAttributesEnabled() {
+        return requestAttributesEnabled;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * @return The retained slow requests, most recent first
+     */
+    public List<SlowRequest> getSlowRequestList() {
+        AtomicReferenceArray<SlowRequest> buffer = this.buffer;
+        if (buffer == null) {
+            return Collections.emptyList();
+        }
+        List<SlowRequest> result = new ArrayList<SlowRequest>();
+        long last = slowRequestCount.get();
+        int length = buffer.length();
+        for (long i = last - 1; i >= 0 && i >= last - length; i--) {
+            SlowRequest slowRequest = buffer.get((int) (i % length));
+            // A concurrent reset or a writer that has not yet stored its
+            // record may leave a gap
+            if (slowRequest != null && slowRequest.getSequence() == i) {
+                result.add(slowRequest);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return A one line summary of each retained slow request, most recent
+     *         first
+     */
+    public String[] getSlowRequests() {
+        List<SlowRequest> slowRequests = getSlowRequestList();
+        String[] result = new String[slowRequests.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = slowRequests.get(i).toString();
+        }
+        return result;
+    }
+
+
+    /**
+     * @return A report of the retained slow requests, most recent first,
+     *         including any stack samples
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (SlowRequest slowRequest : getSlowRequestList()) {
+            slowRequest.appendReport(sb);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Discard all of the retained slow requests.
+     */
+    public void reset() {
+        buffer = new AtomicReferenceArray<SlowRequest>(capacity);
+        slowRequestCount.set(0);
+    }
+
+
+    @Override
+    public void invoke(Request request, Response response)
+            throws IOException, ServletException {
+
+        if (threshold <= 0) {
+            // short-circuit if not recording
+            getNext().invoke(request, response);
+            return;
+        }
+
+        // An asynchronous request may pass through the valve more than once
+        RequestTiming timing = (RequestTiming) request.getNote(TIMING_NOTE);
+        if (timing == null) {
+            timing = new RequestTiming(Thread.currentThread(),
+                    System.currentTimeMillis());
+            request.setNote(TIMING_NOTE, timing);
+        }
+
+        boolean active = false;
+        if (sampler != null) {
+            timing.thread = Thread.currentThread();
+            activeRequests.put(request, timing);
+            active = true;
+        }
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (active) {
+                activeRequests.remove(request);
+                timing.thread = null;
+            }
+            timing.exit = System.currentTimeMillis();
+        }
+    }
+
+
+    @Override
+    public void log(Request request, Response response, long time) {
+        RequestTiming timing = (RequestTiming) request.getNote(TIMING_NOTE);
+        if (timing == null || time < threshold || threshold <= 0) {
+            return;
+        }
+        AtomicReferenceArray<SlowRequest> buffer = this.buffer;
+        if (buffer == null) {
+            return;
+        }
+
+        long start = request.getCoyoteRequest().getStartTime();
+        if (start < 0) {
+            start = timing.entry;
+        }
+        long commitTime = response.getCoyoteResponse().getCommitTime();
+
+        StringBuilder uri = new StringBuilder(request.getRequestURI());
+        if (request.getQueryString() != null) {
+            uri.append('?');
+            uri.append(request.getQueryString());
+        }
+
+        long sequence = slowRequestCount.getAndIncrement();
+        SlowRequest slowRequest = new SlowRequest(sequence, start,
+                request.getMethod(), uri.toString(), response.getStatus(),
+                timing.threadName, timing.threadId, time,
+                timing.entry - start, timing.exit - timing.entry,
+                (commitTime < 0) ? -1 : commitTime - start,
+                timing.getSamples());
+        buffer.set((int) (sequence % buffer.length()), slowRequest);
+    }
+
+
+    // ------------------------------------------------------ Lifecycle Methods
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        if (buffer == null) {
+            reset();
+        }
+        if (stackSampleInterval > 0) {
+            Thread t = new Thread(new Sampler(), "SlowRequestRecorder[" +
+                    getContainer().getName() + "]");
+            t.setDaemon(true);
+            sampler = t;
+            t.start();
+        }
+        super.startInternal();
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        Thread t = sampler;
+        sampler = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(stackSampleInterval * 2L);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }
+        activeRequests.clear();
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private void sample() {
+        long now = System.currentTimeMillis();
+        for (RequestTiming timing : activeRequests.values()) {
+            long elapsed = now - timing.entry;
+            if (elapsed >= threshold) {
+                timing.addSample(elapsed, maxStackSamples);
+            }
+        }
+    }
+
+
+    private class Sampler implements Runnable {
+
+        @Override
+        public void run() {
+            while (sampler == Thread.currentThread()) {
+                try {
+                    Thread.sleep(stackSampleInterval);
+                } catch (InterruptedException e) {
+                    // Valve is stopping
+                    break;
+                }
+                try {
+                    sample();
+                } catch (Throwable t) {
+                    log.warn(sm.getString(
+                            "slowRequestRecorderValve.sampleError"), t);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The time stamps of a request in progress and, while it is being
+     * processed by a container thread, the stack samples of that thread.
+     * The thread name and ID are those of the first thread to process the
+     * request.
+     */
+    private static class RequestTiming {
+
+        /**
+         * The thread currently processing the request in the valve or
+         * <code>null</code> if there is no such thread.
+         */
+        private volatile Thread thread = null;
+        private final String threadName;
+        private final long threadId;
+        private final long entry;
+        private volatile long exit;
+        private List<StackSample> samples = null;
+
+        public RequestTiming(Thread thread, long entry) {
+            this.threadName = thread.getName();
+            this.threadId = thread.getId();
+            this.entry = entry;
+            this.exit = entry;
+        }
+
+        public synchronized void addSample(long elapsed, int maxSamples) {
+            Thread thread = this.thread;
+            if (thread == null) {
+                return;
+            }
+            if (samples == null) {
+                samples = new ArrayList<StackSample>();
+            }
+            if (samples.size() < maxSamples) {
+                samples.add(new StackSample(elapsed, thread.getStackTrace()));
+            }
+        }
+
+        public synchronized List<StackSample> getSamples() {
+            if (samples == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<StackSample>(samples);
+        }
+    }
+
+
+    /**
+     * A stack trace of the thread processing a slow request.
+     */
+    public static final class StackSample {
+
+        private final long elapsed;
+        private final StackTraceElement[] stackTrace;
+
+        public StackSample(long elapsed, StackTraceElement[] stackTrace) {
+            this.elapsed = elapsed;
+            this.stackTrace = stackTrace;
+        }
+
+        /**
+         * @return The time, in milliseconds, the request had been processed
+         *         for when the sample was taken
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public StackTraceElement[] getStackTrace() {
+            return stackTrace;
+        }
+    }
+
+
+    /**
+     * A completed request that exceeded the threshold. All times are in
+     * milliseconds.
+     */
+    public static final class SlowRequest {
+
+        private final long sequence;
+        private final long startTime;
+        private final String method;
+        private final String uri;
+        private final int status;
+        private final String threadName;
+        private final long threadId;
+        private final long totalTime;
+        private final long preValveTime;
+        private final long serviceTime;
+        private final long firstByteTime;
+        private final List<StackSample> stackSamples;
+
+        public SlowRequest(long sequence, long startTime, String method,
+                String uri, int status, String threadName, long threadId,
+                long totalTime, long preValveTime, long serviceTime,
+                long firstByteTime, List<StackSample> stackSamples) {
+            this.sequence = sequence;
+            this.startTime = startTime;
+            this.method = method;
+            this.uri = uri;
+            this.status = status;
+            this.threadName = threadName;
+            this.threadId = threadId;
+            this.totalTime = totalTime;
+            this.preValveTime = preValveTime;
+            this.serviceTime = serviceTime;
+            this.firstByteTime = firstByteTime;
+            this.stackSamples = stackSamples;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return The name of the thread that first processed the request
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * @return The time from the start of request processing until the
+         *         request completed
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return The time from the start of request processing until the
+         *         request reached this valve. This covers reading the request
+         *         headers, mapping and any earlier valves.
+         */
+        public long getPreValveTime() {
+            return preValveTime;
+        }
+
+        /**
+         * @return The time from the request reaching this valve until the
+         *         container thread returned from the rest of the pipeline,
+         *         including the application
+         */
+        public long getServiceTime() {
+            return serviceTime;
+        }
+
+        /**
+         * @return The time from the start of request processing until the
+         *         response was committed or -1 if it was not committed
+         */
+        public long getFirstByteTime() {
+            return firstByteTime;
+        }
+
+        /**
+         * @return The time between the container thread returning from the
+         *         pipeline and the request completing. This covers
+         *         asynchronous processing and completing the response.
+         */
+        public long getCompletionTime() {
+            return Math.max(0, totalTime - preValveTime - serviceTime);
+        }
+
+        public List<StackSample> getStackSamples() {
+            return stackSamples;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            SimpleDateFormat format = new SimpleDateFormat(
+                    "yyyy-MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+            sb.append(format.format(new Date(startTime)));
+            sb.append(' ').append(method);
+            sb.append(' ').append(uri);
+            sb.append(" status=").append(status);
+            sb.append(" total=").append(totalTime);
+            sb.append(" preValve=").append(preValveTime);
+            sb.append(" service=").append(serviceTime);
+            sb.append(" completion=").append(getCompletionTime());
+            sb.append(" firstByte=").append(firstByteTime);
+            sb.append(" thread=\"").append(threadName).append('"');
+            sb.append(" samples=").append(stackSamples.size());
+            return sb.toString();
+        }
+
+        void appendReport(StringBuilder sb) {
+            sb.append(toString());
+            sb.append('\n');
+            for (StackSample sample : stackSamples) {
+                sb.append("  Stack sample at ");
+                sb.append(sample.getElapsed());
+                sb.append(" ms\n");
+                for (StackTraceElement element : sample.getStackTrace()) {
+                    sb.append("    at ");
+                    sb.append(element);
+                    sb.append('\n');
+                }
+            }
+        }
+    }
+}
@@ -93,11 +93,21 @@ public abstract class AbstractProcessor<S> implements ActionHook, Processor<S> {
             // clean-up is performed.
             asyncStateMachine.asyncMustError();
             getLog().info(sm.getString("abstractProcessor.nonContainerThreadError"), t);
-            getEndpoint().processSocketAsync(socketWrapper, SocketStatus.ERROR);
+            processSocketAsync(SocketStatus.ERROR);
         }
     }
 
 
+    /**
+     * Dispatch the processing of this processor to a container thread.
+     * Processors that are not directly associated with a socket override this
+     * to dispatch themselves.
+     */
+    protected void processSocketAsync(SocketStatus status) {
+        getEndpoint().processSocketAsync(socketWrapper, status);
+    }
+
+
     protected void resetErrorState() {
         errorState = ErrorState.NONE;
     }
@@ -124,6 +134,20 @@ public abstract class AbstractProcessor<S> implements ActionHook, Processor<S> {
     }
 
 
+    /**
+     * The size, in bytes, of the buffers this processor keeps between
+     * requests, including those of the container's request and response if
+     * the adapter is able to report them.
+     */
+    public long getRetainedBufferBytes() {
+        if (!(adapter instanceof BufferReportingAdapter) || request == null) {
+            return 0;
+        }
+        return ((BufferReportingAdapter) adapter).getRetainedBufferBytes(
+                request, response);
+    }
+
+
     /**
      * Set the associated adapter.
      *
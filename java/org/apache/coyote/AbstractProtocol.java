@@ -168,6 +168,27 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
 
+    /**
+     * The total size, in bytes, of the buffers held by the processors that
+     * are currently cached for re-use. This is calculated on each call.
+     */
+    public long getRecycledProcessorRetainedBytes() {
+        Handler handler = getHandler();
+        if (!(handler instanceof AbstractConnectionHandler)) {
+            return 0;
+        }
+        long result = 0;
+        for (Processor<?> processor :
+                ((AbstractConnectionHandler<?,?>) handler).recycledProcessors) {
+            if (processor instanceof AbstractProcessor) {
+                result += ((AbstractProcessor<?>) processor)
+                        .getRetainedBufferBytes();
+            }
+        }
+        return result;
+    }
+
+
     public void setMaxCookieCount(int maxCookieCount) {
         this.maxCookieCount = maxCookieCount;
     }
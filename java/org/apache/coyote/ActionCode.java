@@ -236,5 +236,31 @@ public enum ActionCode {
      * Trigger end of request processing (remaining input swallowed, write any
      * remaining parts of the response etc.).
      */
-    END_REQUEST
+    END_REQUEST,
+
+    /**
+     * Callback to determine if request body data can be read without
+     * blocking. If it can't, the connector will dispatch
+     * {@link org.apache.tomcat.util.net.SocketStatus#OPEN_READ} once it can.
+     */
+    NB_READ_INTEREST,
+
+    /**
+     * Callback to determine if response data can be written without
+     * blocking. If it can't, the connector will dispatch
+     * {@link org.apache.tomcat.util.net.SocketStatus#OPEN_WRITE} once it
+     * can.
+     */
+    NB_WRITE_INTEREST,
+
+    /**
+     * Callback to determine if the request body has been fully read.
+     */
+    REQUEST_BODY_FULLY_READ,
+
+    /**
+     * Callback to determine if the connector supports non-blocking reads and
+     * writes via {@link ReadListener} and {@link WriteListener}.
+     */
+    IS_NB_IO_SUPPORTED
 }
@@ -0,0 +1,40 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+/**
+ * An optional extension of {@link Adapter} for adapters that can report the
+ * size of the buffers they keep between requests. Processors check for it
+ * with <code>instanceof</code> so that existing {@link Adapter}
+ * implementations continue to work unchanged.
+ */
+public interface BufferReportingAdapter extends Adapter {
+
+    /**
+     * Report the size of the buffers that the container has associated with
+     * the given request and response and that will be retained when they are
+     * recycled.
+     *
+     * @param req
+     *            Request
+     * @param res
+     *            Response
+     *
+     * @return  The number of bytes retained
+     */
+    public long getRetainedBufferBytes(Request req, Response res);
+}
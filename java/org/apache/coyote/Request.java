@@ -19,6 +19,7 @@ package org.apache.coyote;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -145,6 +146,13 @@ public final class Request {
     private int available = 0;
 
     private RequestInfo reqProcessorMX=new RequestInfo(this);
+
+    /**
+     * Listener for non-blocking reads of the request body, if any.
+     */
+    private volatile ReadListener listener;
+
+    private boolean fireAllDataReadEvent = true;
     // ------------------------------------------------------------- Properties
 
 
@@ -412,6 +420,60 @@ public final class Request {
     }
 
 
+    // -------------------- Non-blocking IO --------------------
+
+    public ReadListener getReadListener() {
+        return listener;
+    }
+
+    /**
+     * Switch the reading of the request body to non-blocking mode. The caller
+     * is responsible for checking that the request is asynchronous and that
+     * the connector supports non-blocking IO.
+     *
+     * @param listener The listener to notify when data can be read
+     */
+    public void setReadListener(ReadListener listener) {
+        this.listener = listener;
+        // Arrange the first notification
+        action(ActionCode.NB_READ_INTEREST, null);
+    }
+
+    /**
+     * @return <code>true</code> if data can be read from the request body
+     *         without blocking. If not, the listener will be notified once it
+     *         can.
+     */
+    public boolean isReady() {
+        AtomicBoolean result = new AtomicBoolean(false);
+        action(ActionCode.NB_READ_INTEREST, result);
+        return result.get();
+    }
+
+    /**
+     * @return <code>true</code> if the protocol has read the whole request
+     *         body
+     */
+    public boolean isFinished() {
+        AtomicBoolean result = new AtomicBoolean(false);
+        action(ActionCode.REQUEST_BODY_FULLY_READ, result);
+        return result.get();
+    }
+
+    /**
+     * @return <code>true</code> the first time it is called for a request,
+     *         so that {@link ReadListener#onAllDataRead()} is only called
+     *         once
+     */
+    public boolean sendAllDataReadEvent() {
+        if (fireAllDataReadEvent) {
+            fireAllDataReadEvent = false;
+            return true;
+        }
+        return false;
+    }
+
+
     // -------------------- Input Buffer --------------------
 
     public InputBuffer getInputBuffer() {
@@ -526,6 +588,10 @@ public final class Request {
         attributes.clear();
 
         startTime = -1;
+        reqProcessorMX.recycleResourceUsage();
+
+        listener = null;
+        fireAllDataReadEvent = true;
     }
 
     // -------------------- Info  --------------------
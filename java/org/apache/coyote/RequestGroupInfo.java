@@ -31,6 +31,8 @@ public class RequestGroupInfo {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private long deadCpuTime = 0;
+    private long deadAllocatedBytes = 0;
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -45,6 +47,8 @@ public class RequestGroupInfo {
             deadErrorCount += rp.getErrorCount();
             deadBytesReceived += rp.getBytesReceived();
             deadBytesSent += rp.getBytesSent();
+            deadCpuTime += rp.getCpuTime();
+            deadAllocatedBytes += rp.getAllocatedBytes();
 
             processors.remove( rp );
         }
@@ -153,6 +157,40 @@ public class RequestGroupInfo {
         }
     }
 
+    public synchronized long getCpuTime() {
+        long time=deadCpuTime;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            time += rp.getCpuTime();
+        }
+        return time;
+    }
+
+    public synchronized void setCpuTime(long cpuTime) {
+        deadCpuTime = cpuTime;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            rp.setCpuTime( cpuTime );
+        }
+    }
+
+    public synchronized long getAllocatedBytes() {
+        long bytes=deadAllocatedBytes;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            bytes += rp.getAllocatedBytes();
+        }
+        return bytes;
+    }
+
+    public synchronized void setAllocatedBytes(long allocatedBytes) {
+        deadAllocatedBytes = allocatedBytes;
+        for( int i=0; i<processors.size(); i++ ) {
+            RequestInfo rp=processors.get( i );
+            rp.setAllocatedBytes( allocatedBytes );
+        }
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
@@ -160,5 +198,7 @@ public class RequestGroupInfo {
         this.setProcessingTime(0);
         this.setMaxTime(0);
         this.setErrorCount(0);
+        this.setCpuTime(0);
+        this.setAllocatedBytes(0);
     }
 }
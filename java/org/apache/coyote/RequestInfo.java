@@ -152,6 +152,18 @@ public class RequestInfo  {
     //the time of the last request
     private long lastRequestProcessingTime = 0;
 
+    // Total CPU time (nanoseconds) and allocated bytes of the requests for
+    // which resource usage was tracked
+    private long cpuTime;
+    private long allocatedBytes;
+
+    // Resource usage of the current request. The start values are -1 when no
+    // measurement is in progress.
+    private long requestCpuTime = -1;
+    private long requestAllocatedBytes = -1;
+    private long cpuTimeStart = -1;
+    private long allocatedBytesStart = -1;
+
 
     /** Called by the processor before recycling the request. It'll collect
      * statistic information.
@@ -172,6 +184,61 @@ public class RequestInfo  {
             maxTime=time;
             maxRequestUri=req.requestURI().toString();
         }
+        if (requestCpuTime > 0) {
+            cpuTime += requestCpuTime;
+        }
+        if (requestAllocatedBytes > 0) {
+            allocatedBytes += requestAllocatedBytes;
+        }
+    }
+
+
+    /**
+     * Start measuring the CPU time consumed and the bytes allocated by the
+     * current thread on behalf of the current request. A request may be
+     * processed by several container threads (e.g. when processed
+     * asynchronously) in which case the usage of each is added together.
+     * Each call must be followed by a call to {@link #stopResourceUsage()} on
+     * the same thread.
+     */
+    public void startResourceUsage() {
+        cpuTimeStart = ThreadResourceUsage.getCpuTime();
+        allocatedBytesStart = ThreadResourceUsage.getAllocatedBytes();
+    }
+
+
+    /**
+     * Stop measuring the resources used by the current thread for the current
+     * request. Calling this method when no measurement is in progress has no
+     * effect.
+     */
+    public void stopResourceUsage() {
+        if (cpuTimeStart >= 0) {
+            long end = ThreadResourceUsage.getCpuTime();
+            if (end >= cpuTimeStart) {
+                requestCpuTime = Math.max(requestCpuTime, 0) +
+                        end - cpuTimeStart;
+            }
+            cpuTimeStart = -1;
+        }
+        if (allocatedBytesStart >= 0) {
+            long end = ThreadResourceUsage.getAllocatedBytes();
+            if (end >= allocatedBytesStart) {
+                requestAllocatedBytes = Math.max(requestAllocatedBytes, 0) +
+                        end - allocatedBytesStart;
+            }
+            allocatedBytesStart = -1;
+        }
+    }
+
+
+    /** Called when the request is recycled.
+     */
+    void recycleResourceUsage() {
+        requestCpuTime = -1;
+        requestAllocatedBytes = -1;
+        cpuTimeStart = -1;
+        allocatedBytesStart = -1;
     }
 
     public int getStage() {
@@ -261,4 +328,36 @@ public class RequestInfo  {
     public void setLastRequestProcessingTime(long lastRequestProcessingTime) {
         this.lastRequestProcessingTime = lastRequestProcessingTime;
     }
+
+    /**
+     * @return The CPU time, in nanoseconds, used so far to process the current
+     *         request or -1 if it has not been measured
+     */
+    public long getRequestCpuTime() {
+        return requestCpuTime;
+    }
+
+    /**
+     * @return The number of bytes allocated so far to process the current
+     *         request or -1 if it has not been measured
+     */
+    public long getRequestAllocatedBytes() {
+        return requestAllocatedBytes;
+    }
+
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    public void setCpuTime(long cpuTime) {
+        this.cpuTime = cpuTime;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
 }
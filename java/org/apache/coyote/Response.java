@@ -20,6 +20,7 @@ package org.apache.coyote;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.http.MimeHeaders;
@@ -116,6 +117,18 @@ public final class Response {
 
     Request req;
 
+    /**
+     * Listener for non-blocking writes of the response body, if any.
+     */
+    private volatile WriteListener listener;
+
+    /**
+     * Set when the application has been told that it can't write without
+     * blocking, so the listener must be notified once it can.
+     */
+    private boolean fireListener = false;
+    private final Object nonBlockingStateLock = new Object();
+
     // ------------------------------------------------------------- Properties
 
     public Request getRequest() {
@@ -511,6 +524,11 @@ public final class Response {
 
     public void recycle() {
 
+        listener = null;
+        synchronized (nonBlockingStateLock) {
+            fireListener = false;
+        }
+
         contentType = null;
         contentLanguage = null;
         locale = DEFAULT_LOCALE;
@@ -528,6 +546,62 @@ public final class Response {
         contentWritten=0;
     }
 
+    // -------------------- Non-blocking IO --------------------
+
+    public WriteListener getWriteListener() {
+        return listener;
+    }
+
+    /**
+     * Switch the writing of the response body to non-blocking mode. The
+     * caller is responsible for checking that the request is asynchronous and
+     * that the connector supports non-blocking IO.
+     *
+     * @param listener The listener to notify when data can be written
+     */
+    public void setWriteListener(WriteListener listener) {
+        this.listener = listener;
+        // The listener is always notified once it has been set
+        synchronized (nonBlockingStateLock) {
+            fireListener = true;
+        }
+        action(ActionCode.NB_WRITE_INTEREST, null);
+    }
+
+    /**
+     * @return <code>true</code> if data can be written without blocking. If
+     *         not, the listener will be notified once it can.
+     */
+    public boolean isReady() {
+        AtomicBoolean isReady = new AtomicBoolean(false);
+        synchronized (nonBlockingStateLock) {
+            action(ActionCode.NB_WRITE_INTEREST, isReady);
+            fireListener = !isReady.get();
+        }
+        return isReady.get();
+    }
+
+    /**
+     * Used by the adapter when the connector reports that data can be written
+     * to determine if the listener should be notified.
+     *
+     * @return <code>true</code> if the listener is waiting for a notification
+     *         and data can now be written without blocking
+     */
+    public boolean checkWritePossible() {
+        AtomicBoolean isReady = new AtomicBoolean(false);
+        synchronized (nonBlockingStateLock) {
+            if (!fireListener) {
+                return false;
+            }
+            action(ActionCode.NB_WRITE_INTEREST, isReady);
+            if (isReady.get()) {
+                fireListener = false;
+            }
+        }
+        return isReady.get();
+    }
+
     /**
      * Bytes written by application - i.e. before compression, chunking, etc.
      */
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Access to the CPU time consumed and the bytes allocated by the current
+ * thread. The allocated bytes are only available on JVMs that provide the
+ * <code>com.sun.management.ThreadMXBean</code> extension and the JVM must have
+ * CPU time and allocated memory measurement enabled (the default for most
+ * JVMs) for values to be returned.
+ */
+public final class ThreadResourceUsage {
+
+    private static final ThreadMXBean threadMXBean =
+            ManagementFactory.getThreadMXBean();
+
+    private static final boolean cpuTimeSupported;
+    private static final boolean allocatedBytesSupported;
+
+    static {
+        boolean cpu = false;
+        try {
+            cpu = threadMXBean.isCurrentThreadCpuTimeSupported();
+        } catch (UnsupportedOperationException e) {
+            // Ignore
+        }
+        cpuTimeSupported = cpu;
+
+        boolean allocated = false;
+        try {
+            allocated = SunThreadMXBean.isSupported();
+        } catch (LinkageError e) {
+            // The extension is not present on this JVM
+        }
+        allocatedBytesSupported = allocated;
+    }
+
+
+    private ThreadResourceUsage() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * @return The CPU time, in nanoseconds, consumed by the current thread or
+     *         -1 if it is not available
+     */
+    public static long getCpuTime() {
+        if (cpuTimeSupported) {
+            return threadMXBean.getCurrentThreadCpuTime();
+        }
+        return -1;
+    }
+
+
+    /**
+     * @return The total number of bytes allocated by the current thread or -1
+     *         if it is not available
+     */
+    public static long getAllocatedBytes() {
+        if (allocatedBytesSupported) {
+            return SunThreadMXBean.getAllocatedBytes();
+        }
+        return -1;
+    }
+
+
+    /*
+     * Isolates the references to the JVM specific extension so that this class
+     * loads on JVMs that do not provide it.
+     */
+    private static class SunThreadMXBean {
+
+        private static boolean isSupported() {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threadMXBean)
+                        .isThreadAllocatedMemorySupported();
+            }
+            return false;
+        }
+
+        private static long getAllocatedBytes() {
+            return ((com.sun.management.ThreadMXBean) threadMXBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
@@ -148,17 +148,25 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
 
 
     /**
-     * Message used for response composition.
+     * Message used for response composition. Taken from the message pool when
+     * the response is committed.
      */
     protected AjpMessage responseMessage = null;
 
 
     /**
-     * Body message.
+     * Body message. Taken from the message pool when the first request body
+     * chunk is read.
      */
     protected AjpMessage bodyMessage = null;
 
 
+    /**
+     * Pool providing the response and body messages.
+     */
+    private AjpMessagePool messagePool = new AjpMessagePool();
+
+
     /**
      * Body message.
      */
@@ -207,6 +215,20 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
     protected boolean replay = false;
 
 
+    /**
+     * A GET_BODY_CHUNK message has been sent and the web server's reply has
+     * not been read yet.
+     */
+    protected boolean getBodyPending = false;
+
+
+    /**
+     * Request body bytes received from the web server for the current
+     * request.
+     */
+    protected long bodyBytesRead = 0;
+
+
     /**
      * Should any response body be swallowed and not sent to the client.
      */
@@ -236,8 +258,6 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
         request.setInputBuffer(new SocketInputBuffer());
 
         requestHeaderMessage = new AjpMessage(packetSize);
-        responseMessage = new AjpMessage(packetSize);
-        bodyMessage = new AjpMessage(packetSize);
 
         // Set the getBody message buffer
         AjpMessage getBodyMessage = new AjpMessage(16);
@@ -274,6 +294,28 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Request the next request body chunk as soon as the current one has been
+     * received, rather than when the application has consumed it, so that the
+     * web server reads the next chunk from the client while the application
+     * processes the current one.
+     */
+    protected boolean bodyReadAhead = false;
+    public boolean getBodyReadAhead() { return bodyReadAhead; }
+    public void setBodyReadAhead(boolean bodyReadAhead) {
+        this.bodyReadAhead = bodyReadAhead;
+    }
+
+
+    /**
+     * Share the pool of response and body messages with the other processors
+     * of the connector.
+     */
+    void setMessagePool(AjpMessagePool messagePool) {
+        this.messagePool = messagePool;
+    }
+
+
     /**
      * The number of milliseconds Tomcat will wait for a subsequent request
      * before closing the connection. The default is the same as for
@@ -664,10 +706,21 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
         endOfStream = false;
         empty = true;
         replay = false;
+        getBodyPending = false;
+        bodyBytesRead = 0;
         finished = false;
         request.recycle();
         response.recycle();
         certificates.recycle();
+        bodyBytes.recycle();
+        if (responseMessage != null) {
+            messagePool.release(responseMessage);
+            responseMessage = null;
+        }
+        if (bodyMessage != null) {
+            messagePool.release(bodyMessage);
+            bodyMessage = null;
+        }
         swallowResponse = false;
         bytesWritten = 0;
         resetErrorState();
@@ -698,6 +751,28 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
     protected abstract boolean receive() throws IOException;
 
 
+    /**
+     * Obtain the message used to compose the response.
+     */
+    protected AjpMessage getResponseMessage() {
+        if (responseMessage == null) {
+            responseMessage = messagePool.acquire(packetSize);
+        }
+        return responseMessage;
+    }
+
+
+    /**
+     * Obtain the message used to receive the request body.
+     */
+    protected AjpMessage getBodyMessage() {
+        if (bodyMessage == null) {
+            bodyMessage = messagePool.acquire(packetSize);
+        }
+        return bodyMessage;
+    }
+
+
     @Override
     public final boolean isComet() {
         // AJP does not support Comet
@@ -729,10 +804,12 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
             return false;
         }
 
-        // Request more data immediately
-        output(getBodyMessageArray, 0, getBodyMessageArray.length);
+        // Request more data immediately, unless that has already been done
+        if (!getBodyPending) {
+            output(getBodyMessageArray, 0, getBodyMessageArray.length);
+        }
 
-        boolean moreData = receive();
+        boolean moreData = receiveBody();
         if( !moreData ) {
             endOfStream = true;
         }
@@ -740,6 +817,28 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Receive the request body chunk sent by the web server, either in reply
+     * to GET_BODY_CHUNK or unsolicited after the request headers. If read
+     * ahead is enabled and more data is expected, the next chunk is
+     * requested before this one is passed to the application.
+     */
+    private boolean receiveBody() throws IOException {
+        getBodyPending = false;
+        boolean moreData = receive();
+        if (moreData) {
+            bodyBytesRead += bodyBytes.getLength();
+            long contentLength = request.getContentLengthLong();
+            if (bodyReadAhead &&
+                    (contentLength < 0 || bodyBytesRead < contentLength)) {
+                output(getBodyMessageArray, 0, getBodyMessageArray.length);
+                getBodyPending = true;
+            }
+        }
+        return moreData;
+    }
+
+
     /**
      * After reading the request headers, we have to setup the request filters.
      */
@@ -1070,6 +1169,7 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
 
         response.setCommitted(true);
 
+        AjpMessage responseMessage = getResponseMessage();
         responseMessage.reset();
         responseMessage.appendByte(Constants.JK_AJP13_SEND_HEADERS);
 
@@ -1128,7 +1228,7 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
         responseMessage.appendInt(numHeaders);
         for (int i = 0; i < numHeaders; i++) {
             MessageBytes hN = headers.getName(i);
-            int hC = Constants.getResponseAjpIndex(hN.toString());
+            int hC = Constants.getResponseAjpIndex(hN);
             if (hC > 0) {
                 responseMessage.appendInt(hC);
             }
@@ -1177,8 +1277,10 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
 
         finished = true;
 
-        // Swallow the unread body packet if present
-        if (first && request.getContentLengthLong() > 0) {
+        // Swallow the unread body packet if present, either the one sent
+        // with the request headers or the one that has been read ahead
+        if ((first && request.getContentLengthLong() > 0) || getBodyPending) {
+            getBodyPending = false;
             receive();
         }
 
@@ -1213,7 +1315,7 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
             }
             if (first && req.getContentLengthLong() > 0) {
                 // Handle special first-body-chunk
-                if (!receive()) {
+                if (!receiveBody()) {
                     return 0;
                 }
             } else if (empty) {
@@ -1262,6 +1364,7 @@ public abstract class AbstractAjpProcessor<S> extends AbstractProcessor<S> {
                     // Adjust allowed size if packetSize != default (Constants.MAX_PACKET_SIZE)
                     int chunkSize = Constants.MAX_SEND_SIZE + packetSize - Constants.MAX_PACKET_SIZE;
                     int off = 0;
+                    AjpMessage responseMessage = getResponseMessage();
                     while (len > 0) {
                         int thisTime = len;
                         if (thisTime > chunkSize) {
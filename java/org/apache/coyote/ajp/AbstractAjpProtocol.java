@@ -59,6 +59,20 @@ public abstract class AbstractAjpProtocol<S> extends AbstractProtocol<S> {
     }
 
 
+    /**
+     * Send the GET_BODY_CHUNK message for the next chunk of the request body
+     * as soon as the current chunk has been received so the web server reads
+     * it from the client while the application processes the current chunk.
+     * This improves upload throughput at the cost of one additional buffered
+     * body packet per request in the web server.
+     */
+    private boolean bodyReadAhead = false;
+    public boolean getBodyReadAhead() { return bodyReadAhead; }
+    public void setBodyReadAhead(boolean bodyReadAhead) {
+        this.bodyReadAhead = bodyReadAhead;
+    }
+
+
     /**
      * Should authentication be done in the native web server layer,
      * or in the Servlet container ?
@@ -103,6 +117,12 @@ public abstract class AbstractAjpProtocol<S> extends AbstractProtocol<S> {
         }
     }
 
+
+    /**
+     * Response and request body messages shared by the processors.
+     */
+    final AjpMessagePool messagePool = new AjpMessagePool();
+
     protected abstract static class AbstractAjpConnectionHandler<S,P extends AbstractAjpProcessor<S>>
             extends AbstractConnectionHandler<S, P> {
 
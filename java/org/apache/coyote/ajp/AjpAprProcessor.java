@@ -376,6 +376,7 @@ public class AjpAprProcessor extends AbstractAjpProcessor<Long> {
     public boolean receive() throws IOException {
 
         first = false;
+        AjpMessage bodyMessage = getBodyMessage();
         bodyMessage.reset();
         if (!readMessage(bodyMessage, false, false)) {
             // Invalid message
@@ -146,6 +146,8 @@ public class AjpAprProtocol extends AbstractAjpProtocol<Long> {
             AjpAprProcessor processor = new AjpAprProcessor(proto.packetSize, (AprEndpoint)proto.endpoint);
             processor.setAdapter(proto.adapter);
             processor.setAjpFlush(proto.getAjpFlush());
+            processor.setBodyReadAhead(proto.getBodyReadAhead());
+            processor.setMessagePool(proto.messagePool);
             processor.setTomcatAuthentication(proto.tomcatAuthentication);
             processor.setTomcatAuthorization(proto.getTomcatAuthorization());
             processor.setRequiredSecret(proto.requiredSecret);
@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.ajp;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of {@link AjpMessage}s shared by the processors of a connector. A
+ * processor only holds the messages it uses to send the response and to
+ * receive the request body while it processes a request so the processors
+ * that are cached between requests, or that wait for the next request on an
+ * idle connection, do not each retain packet sized buffers.
+ */
+final class AjpMessagePool {
+
+    private final ConcurrentLinkedQueue<AjpMessage> messages =
+            new ConcurrentLinkedQueue<AjpMessage>();
+
+
+    /**
+     * Obtain a message from the pool, creating a new one if the pool is
+     * empty or only holds messages of a different size.
+     *
+     * @param packetSize the size of the message buffer
+     * @return a message with a buffer of <code>packetSize</code> bytes
+     */
+    AjpMessage acquire(int packetSize) {
+        AjpMessage message = messages.poll();
+        while (message != null && message.getBuffer().length != packetSize) {
+            // The packet size has been changed. Drop the old messages.
+            message = messages.poll();
+        }
+        if (message == null) {
+            message = new AjpMessage(packetSize);
+        }
+        return message;
+    }
+
+
+    /**
+     * Return a message to the pool.
+     *
+     * @param message the message which must no longer be used by the caller
+     */
+    void release(AjpMessage message) {
+        messages.offer(message);
+    }
+}
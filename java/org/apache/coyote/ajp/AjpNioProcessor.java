@@ -405,6 +405,7 @@ public class AjpNioProcessor extends AbstractAjpProcessor<NioChannel> {
     public boolean receive() throws IOException {
 
         first = false;
+        AjpMessage bodyMessage = getBodyMessage();
         bodyMessage.reset();
         
         readMessage(bodyMessage, true);
@@ -75,6 +75,25 @@ public class AjpNioProtocol extends AbstractAjpProtocol<NioChannel> {
     private AjpConnectionHandler cHandler;
 
 
+    // --------------------------------------------------------- NIO properties
+
+    public String getUnixDomainSocketPath() {
+        return ((NioEndpoint)endpoint).getUnixDomainSocketPath();
+    }
+
+    public void setUnixDomainSocketPath(String unixDomainSocketPath) {
+        ((NioEndpoint)endpoint).setUnixDomainSocketPath(unixDomainSocketPath);
+    }
+
+    public String getUnixDomainSocketPathPermissions() {
+        return ((NioEndpoint)endpoint).getUnixDomainSocketPathPermissions();
+    }
+
+    public void setUnixDomainSocketPathPermissions(String permissions) {
+        ((NioEndpoint)endpoint).setUnixDomainSocketPathPermissions(permissions);
+    }
+
+
     // ----------------------------------------------------- JMX related methods
 
     @Override
@@ -176,6 +195,8 @@ public class AjpNioProtocol extends AbstractAjpProtocol<NioChannel> {
             AjpNioProcessor processor = new AjpNioProcessor(proto.packetSize, (NioEndpoint)proto.endpoint);
             processor.setAdapter(proto.adapter);
             processor.setAjpFlush(proto.getAjpFlush());
+            processor.setBodyReadAhead(proto.getBodyReadAhead());
+            processor.setMessagePool(proto.messagePool);
             processor.setTomcatAuthentication(proto.tomcatAuthentication);
             processor.setTomcatAuthorization(proto.getTomcatAuthorization());
             processor.setRequiredSecret(proto.requiredSecret);
@@ -330,6 +330,7 @@ public class AjpProcessor extends AbstractAjpProcessor<Socket> {
     public boolean receive() throws IOException {
 
         first = false;
+        AjpMessage bodyMessage = getBodyMessage();
         bodyMessage.reset();
         if (!readMessage(bodyMessage)) {
             // Invalid message
@@ -134,6 +134,8 @@ public class AjpProtocol extends AbstractAjpProtocol<Socket> {
             AjpProcessor processor = new AjpProcessor(proto.packetSize, (JIoEndpoint)proto.endpoint);
             processor.setAdapter(proto.adapter);
             processor.setAjpFlush(proto.getAjpFlush());
+            processor.setBodyReadAhead(proto.getBodyReadAhead());
+            processor.setMessagePool(proto.messagePool);
             processor.setTomcatAuthentication(proto.tomcatAuthentication);
             processor.setTomcatAuthorization(proto.getTomcatAuthorization());
             processor.setRequiredSecret(proto.requiredSecret);
@@ -20,6 +20,7 @@ package org.apache.coyote.ajp;
 import java.util.Hashtable;
 
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
 
 
 /**
@@ -268,6 +269,52 @@ public final class Constants {
             return i.intValue();
     }
 
+
+    // Response header codes grouped by the length of the header name so
+    // header names can be looked up without being converted to a String
+    private static final int[][] responseTransByLength;
+
+    static {
+        int maxLength = 0;
+        for (String header : responseTransArray) {
+            maxLength = Math.max(maxLength, header.length());
+        }
+        int[] counts = new int[maxLength + 1];
+        for (String header : responseTransArray) {
+            counts[header.length()]++;
+        }
+        responseTransByLength = new int[maxLength + 1][];
+        for (int i = 0; i <= maxLength; i++) {
+            responseTransByLength[i] = new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < SC_RESP_AJP13_MAX; i++) {
+            int length = responseTransArray[i].length();
+            responseTransByLength[length][counts[length]++] = 0xA001 + i;
+        }
+    }
+
+    /**
+     * Obtain the AJP code used to send a response header name. Header names
+     * are not case sensitive so, unlike {@link #getResponseAjpIndex(String)},
+     * the look-up ignores case.
+     *
+     * @param header the response header name
+     * @return the AJP code or zero if the header must be sent as a string
+     */
+    public static final int getResponseAjpIndex(MessageBytes header) {
+        int length = header.getLength();
+        if (length >= responseTransByLength.length) {
+            return 0;
+        }
+        for (int code : responseTransByLength[length]) {
+            if (header.equalsIgnoreCase(responseTransArray[code - 0xA001])) {
+                return code;
+            }
+        }
+        return 0;
+    }
+
     
     /**
      * CRLF.
@@ -30,6 +30,7 @@ import org.apache.coyote.AbstractProcessor;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.AsyncContextCallback;
 import org.apache.coyote.ErrorState;
+import org.apache.coyote.Request;
 import org.apache.coyote.RequestInfo;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
@@ -694,6 +695,19 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    @Override
+    public long getRetainedBufferBytes() {
+        long result = super.getRetainedBufferBytes();
+        if (getInputBuffer().buf != null) {
+            result += getInputBuffer().buf.length;
+        }
+        if (getOutputBuffer().buf != null) {
+            result += getOutputBuffer().buf.length;
+        }
+        return result;
+    }
+
+
     /**
      * Exposes input buffer to super class to allow better code re-use.
      * @return  The input buffer used by the processor.
@@ -1056,6 +1070,17 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
                         setSocketTimeout(connectionUploadTimeout);
                     }
                 }
+                if (!getErrorState().isError() && isHttp2Enabled() &&
+                        isHttp2Preface()) {
+                    // The client sent the HTTP/2 connection preface, which
+                    // parses as a PRI * HTTP/2.0 request
+                    HttpUpgradeHandler http2Handler =
+                            createHttp2UpgradeHandler(null);
+                    if (http2Handler != null) {
+                        action(ActionCode.UPGRADE, http2Handler);
+                        break;
+                    }
+                }
             } catch (IOException e) {
                 getLog().info(sm.getString("http11processor.header.parse"), e);
                 setErrorState(ErrorState.CLOSE_NOW, e);
@@ -1099,6 +1124,21 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
                 }
             }
 
+            if (!getErrorState().isError() && isHttp2Enabled() &&
+                    isH2cUpgradeRequest()) {
+                HttpUpgradeHandler http2Handler =
+                        createHttp2UpgradeHandler(request);
+                if (http2Handler != null) {
+                    response.setStatus(101);
+                    response.setHeader(Constants.CONNECTION, "Upgrade");
+                    response.setHeader("Upgrade", org.apache.coyote.http2.Constants.H2C);
+                    response.sendHeaders();
+                    action(ActionCode.CLIENT_FLUSH, null);
+                    action(ActionCode.UPGRADE, http2Handler);
+                    break;
+                }
+            }
+
             if (maxKeepAliveRequests == 1) {
                 keepAlive = false;
             } else if (maxKeepAliveRequests > 0 && socketWrapper.decrementKeepAlive() <= 0) {
@@ -1222,6 +1262,63 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Is HTTP/2 enabled for this processor? Only processors that override
+     * {@link #createHttp2UpgradeHandler(Request)} may return
+     * <code>true</code>.
+     */
+    protected boolean isHttp2Enabled() {
+        return false;
+    }
+
+
+    /**
+     * Create the handler for a connection that switches to HTTP/2.
+     *
+     * @param upgradeRequest The request that asked for an h2c upgrade or
+     *                       <code>null</code> if the client sent the HTTP/2
+     *                       connection preface
+     *
+     * @return the handler or <code>null</code> if the connection should
+     *         continue with HTTP/1.1
+     */
+    protected HttpUpgradeHandler createHttp2UpgradeHandler(
+            Request upgradeRequest) {
+        return null;
+    }
+
+
+    private boolean isHttp2Preface() {
+        return request.method().equals("PRI") &&
+                request.requestURI().equals("*") &&
+                request.protocol().equals("HTTP/2.0") &&
+                request.getMimeHeaders().size() == 0;
+    }
+
+
+    /**
+     * An h2c upgrade is only accepted for requests without a body so that the
+     * request can become the first HTTP/2 stream without having to convert
+     * the body.
+     */
+    private boolean isH2cUpgradeRequest() {
+        MimeHeaders headers = request.getMimeHeaders();
+        MessageBytes upgrade = headers.getValue("upgrade");
+        if (upgrade == null || headers.getValue("http2-settings") == null ||
+                !http11 || request.getContentLengthLong() > 0 ||
+                headers.getValue("transfer-encoding") != null) {
+            return false;
+        }
+        StringTokenizer tokens = new StringTokenizer(upgrade.toString(), ", ");
+        while (tokens.hasMoreTokens()) {
+            if (tokens.nextToken().equals(org.apache.coyote.http2.Constants.H2C)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     private void checkExpectationAndResponseStatus() {
         if (expectation && (response.getStatus() < 200 || response.getStatus() > 299)) {
             // Client sent Expect: 100-continue but received a
@@ -273,6 +273,17 @@ public abstract class AbstractInputBuffer<S> implements InputBuffer{
     }
 
 
+    /**
+     * Has the request body been fully read?
+     */
+    public boolean isFinished() {
+        if (lastActiveFilter >= 0) {
+            return activeFilters[lastActiveFilter].isFinished();
+        }
+        return false;
+    }
+
+
     // ---------------------------------------------------- InputBuffer Methods
 
     /**
@@ -21,13 +21,17 @@ import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.nio.channels.SelectionKey;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.net.ssl.SSLEngine;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.ErrorState;
+import org.apache.coyote.Request;
 import org.apache.coyote.RequestInfo;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
+import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -71,6 +75,8 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 
         super(endpoint);
 
+        this.maxHttpHeaderSize = maxHttpHeaderSize;
+
         inputBuffer = new InternalNioInputBuffer(request, maxHttpHeaderSize,
                 rejectIllegalHeaderName);
         request.setInputBuffer(inputBuffer);
@@ -101,6 +107,42 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
     protected NioEndpoint.SendfileData sendfileData = null;
 
 
+    /**
+     * HTTP/2 configuration, <code>null</code> if HTTP/2 is not enabled.
+     */
+    protected Http2Protocol http2Protocol = null;
+    public void setHttp2Protocol(Http2Protocol http2Protocol) {
+        this.http2Protocol = http2Protocol;
+    }
+
+
+    private final int maxHttpHeaderSize;
+
+
+    // --------------------------------------------------------- HTTP/2 Methods
+
+    /**
+     * HTTP/2 is only supported on cleartext connections (h2c).
+     */
+    @Override
+    protected boolean isHttp2Enabled() {
+        return http2Protocol != null && !endpoint.isSSLEnabled();
+    }
+
+
+    @Override
+    protected HttpUpgradeHandler createHttp2UpgradeHandler(
+            Request upgradeRequest) {
+        // Data the client sent after the request headers belongs to the
+        // HTTP/2 connection
+        byte[] leftover = new byte[inputBuffer.lastValid - inputBuffer.pos];
+        System.arraycopy(inputBuffer.buf, inputBuffer.pos, leftover, 0,
+                leftover.length);
+        return http2Protocol.createUpgradeHandler(adapter, endpoint,
+                socketWrapper, upgradeRequest, leftover, maxHttpHeaderSize);
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
 
@@ -161,16 +203,62 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
             if (keepAlive) {
                 inputBuffer.nextRequest();
                 outputBuffer.nextRequest();
-                return SocketState.OPEN;
+                return flushPendingWrite(SocketState.OPEN);
             } else {
-                return SocketState.CLOSED;
+                return flushPendingWrite(SocketState.CLOSED);
             }
         } else {
-            return SocketState.LONG;
+            return flushPendingWrite(SocketState.LONG);
         }
     }
 
 
+    @Override
+    public SocketState process(SocketWrapper<NioChannel> socketWrapper)
+            throws IOException {
+        return flushPendingWrite(super.process(socketWrapper));
+    }
+
+
+    @Override
+    public SocketState asyncDispatch(SocketStatus status) {
+        return flushPendingWrite(super.asyncDispatch(status));
+    }
+
+
+    /**
+     * Only the keep-alive loop hands response data the socket has not
+     * accepted yet to the Poller. Every other way of returning the connection
+     * has to write that data first.
+     */
+    private SocketState flushPendingWrite(SocketState state) {
+        if (state == SocketState.SENDFILE || getErrorState().isError()) {
+            return state;
+        }
+        if (state == SocketState.LONG && response.getWriteListener() != null) {
+            // Non-blocking writes in progress, let the Poller tell us when
+            // the client is ready for the rest
+            try {
+                if (!outputBuffer.writePendingNonBlocking()) {
+                    socketWrapper.getSocket().getPoller().add(
+                            socketWrapper.getSocket(), SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_NOW, e);
+                return SocketState.CLOSED;
+            }
+            return state;
+        }
+        try {
+            outputBuffer.flushPendingWrite();
+        } catch (IOException e) {
+            setErrorState(ErrorState.CLOSE_NOW, e);
+            return SocketState.CLOSED;
+        }
+        return state;
+    }
+
+
     @Override
     protected void resetTimeouts() {
         final NioEndpoint.KeyAttachment attach = (NioEndpoint.KeyAttachment)socketWrapper.getSocket().getAttachment();
@@ -247,7 +335,46 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
 
     @Override
     protected void setSocketTimeout(int timeout) throws IOException {
-        socketWrapper.getSocket().getIOChannel().socket().setSoTimeout(timeout);
+        if (!isUnixDomainSocket()) {
+            socketWrapper.getSocket().getIOChannel().socket().setSoTimeout(timeout);
+        }
+    }
+
+
+    private boolean isUnixDomainSocket() {
+        return ((NioEndpoint) endpoint).isUnixDomainSocket();
+    }
+
+
+    private InetAddress getRemoteInetAddress() {
+        if (isUnixDomainSocket()) {
+            return NioEndpoint.UNIX_DOMAIN_SOCKET_ADDRESS;
+        }
+        return socketWrapper.getSocket().getIOChannel().socket().getInetAddress();
+    }
+
+
+    private InetAddress getLocalInetAddress() {
+        if (isUnixDomainSocket()) {
+            return NioEndpoint.UNIX_DOMAIN_SOCKET_ADDRESS;
+        }
+        return socketWrapper.getSocket().getIOChannel().socket().getLocalAddress();
+    }
+
+
+    private int getSocketRemotePort() {
+        if (isUnixDomainSocket()) {
+            return 0;
+        }
+        return socketWrapper.getSocket().getIOChannel().socket().getPort();
+    }
+
+
+    private int getSocketLocalPort() {
+        if (isUnixDomainSocket()) {
+            return 0;
+        }
+        return socketWrapper.getSocket().getIOChannel().socket().getLocalPort();
     }
 
 
@@ -275,18 +402,20 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
     @Override
     protected boolean breakKeepAliveLoop(SocketWrapper<NioChannel> socketWrapper) {
         openSocket = keepAlive;
+        if (getErrorState().isError()) {
+            return false;
+        }
         // Do sendfile as needed: add socket to sendfile and end
-        if (sendfileData != null && !getErrorState().isError()) {
-            ((KeyAttachment) socketWrapper).setSendfileData(sendfileData);
-            if (keepAlive) {
-                if (getInputBuffer().available() == 0) {
-                    sendfileData.keepAliveState = SendfileKeepAliveState.OPEN;
-                } else {
-                    sendfileData.keepAliveState = SendfileKeepAliveState.PIPELINED;
-                }
-            } else {
-                sendfileData.keepAliveState = SendfileKeepAliveState.NONE;
+        if (sendfileData != null) {
+            // The headers have to reach the client before the file
+            try {
+                outputBuffer.flushPendingWrite();
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_NOW, e);
+                return true;
             }
+            ((KeyAttachment) socketWrapper).setSendfileData(sendfileData);
+            sendfileData.keepAliveState = getKeepAliveState();
             SelectionKey key = socketWrapper.getSocket().getIOChannel().keyFor(
                     socketWrapper.getSocket().getPoller().getSelector());
             //do the first write on this thread, might as well
@@ -308,10 +437,42 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
                 return true;
             }
         }
+        // Leave the end of the response to the Poller if the client is slow
+        if (outputBuffer.hasPendingWrite()) {
+            ((KeyAttachment) socketWrapper).setPendingWrite(
+                    outputBuffer.detachPendingWrite(), getKeepAliveState());
+            SelectionKey key = socketWrapper.getSocket().getIOChannel().keyFor(
+                    socketWrapper.getSocket().getPoller().getSelector());
+            switch (socketWrapper.getSocket().getPoller().processPendingWrite(
+                    key, (KeyAttachment) socketWrapper, true)) {
+            case DONE:
+                return false;
+            case PENDING:
+                // The Poller takes over the connection as it does for sendfile
+                sendfileInProgress = true;
+                return true;
+            case ERROR:
+                setErrorState(ErrorState.CLOSE_NOW, null);
+                return true;
+            }
+        }
         return false;
     }
 
 
+    private SendfileKeepAliveState getKeepAliveState() {
+        if (keepAlive) {
+            if (getInputBuffer().available() == 0) {
+                return SendfileKeepAliveState.OPEN;
+            } else {
+                return SendfileKeepAliveState.PIPELINED;
+            }
+        } else {
+            return SendfileKeepAliveState.NONE;
+        }
+    }
+
+
     @Override
     public void recycleInternal() {
         socketWrapper = null;
@@ -335,7 +496,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
         case REQ_HOST_ADDR_ATTRIBUTE: {
             // Get remote host address
             if ((remoteAddr == null) && (socketWrapper != null)) {
-                InetAddress inetAddr = socketWrapper.getSocket().getIOChannel().socket().getInetAddress();
+                InetAddress inetAddr = getRemoteInetAddress();
                 if (inetAddr != null) {
                     remoteAddr = inetAddr.getHostAddress();
                 }
@@ -346,7 +507,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
         case REQ_LOCAL_NAME_ATTRIBUTE: {
             // Get local host name
             if ((localName == null) && (socketWrapper != null)) {
-                InetAddress inetAddr = socketWrapper.getSocket().getIOChannel().socket().getLocalAddress();
+                InetAddress inetAddr = getLocalInetAddress();
                 if (inetAddr != null) {
                     localName = inetAddr.getHostName();
                 }
@@ -357,7 +518,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
         case REQ_HOST_ATTRIBUTE: {
             // Get remote host name
             if ((remoteHost == null) && (socketWrapper != null)) {
-                InetAddress inetAddr = socketWrapper.getSocket().getIOChannel().socket().getInetAddress();
+                InetAddress inetAddr = getRemoteInetAddress();
                 if (inetAddr != null) {
                     remoteHost = inetAddr.getHostName();
                 }
@@ -374,7 +535,7 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
         }
         case REQ_LOCAL_ADDR_ATTRIBUTE: {
             if (localAddr == null) {
-                localAddr = socketWrapper.getSocket().getIOChannel().socket().getLocalAddress().getHostAddress();
+                localAddr = getLocalInetAddress().getHostAddress();
             }
 
             request.localAddr().setString(localAddr);
@@ -382,14 +543,14 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
         }
         case REQ_REMOTEPORT_ATTRIBUTE: {
             if ((remotePort == -1 ) && (socketWrapper !=null)) {
-                remotePort = socketWrapper.getSocket().getIOChannel().socket().getPort();
+                remotePort = getSocketRemotePort();
             }
             request.setRemotePort(remotePort);
             break;
         }
         case REQ_LOCALPORT_ATTRIBUTE: {
             if ((localPort == -1 ) && (socketWrapper !=null)) {
-                localPort = socketWrapper.getSocket().getIOChannel().socket().getLocalPort();
+                localPort = getSocketLocalPort();
             }
             request.setLocalPort(localPort);
             break;
@@ -539,6 +700,53 @@ public class Http11NioProcessor extends AbstractHttp11Processor<NioChannel> {
             }
             break;
         }
+        case IS_NB_IO_SUPPORTED: {
+            ((AtomicBoolean) param).set(true);
+            break;
+        }
+        case NB_READ_INTEREST: {
+            boolean ready;
+            try {
+                ready = inputBuffer.isFinished() ||
+                        inputBuffer.available() > 0 || inputBuffer.nbRead() > 0;
+            } catch (IOException e) {
+                // Let the application see the error when it reads
+                ready = true;
+            }
+            if (!ready) {
+                socketWrapper.getSocket().getPoller().add(
+                        socketWrapper.getSocket(), SelectionKey.OP_READ);
+            } else if (!(param instanceof AtomicBoolean)) {
+                // The listener has just been set and there is data to read
+                ((NioEndpoint)endpoint).processSocket(socketWrapper.getSocket(),
+                        SocketStatus.OPEN_READ, true);
+            }
+            if (param instanceof AtomicBoolean) {
+                ((AtomicBoolean) param).set(ready);
+            }
+            break;
+        }
+        case NB_WRITE_INTEREST: {
+            boolean ready;
+            try {
+                ready = outputBuffer.writePendingNonBlocking();
+            } catch (IOException e) {
+                // Let the application see the error when it writes
+                ready = true;
+            }
+            if (!ready || !(param instanceof AtomicBoolean)) {
+                socketWrapper.getSocket().getPoller().add(
+                        socketWrapper.getSocket(), SelectionKey.OP_WRITE);
+            }
+            if (param instanceof AtomicBoolean) {
+                ((AtomicBoolean) param).set(ready);
+            }
+            break;
+        }
+        case REQUEST_BODY_FULLY_READ: {
+            ((AtomicBoolean) param).set(inputBuffer.isFinished());
+            break;
+        }
         }
     }
 
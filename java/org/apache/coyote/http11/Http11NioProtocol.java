@@ -24,6 +24,7 @@ import org.apache.coyote.AbstractProtocol;
 import org.apache.coyote.Processor;
 import org.apache.coyote.http11.upgrade.NioProcessor;
 import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.coyote.http2.Http2Protocol;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.net.AbstractEndpoint;
@@ -121,6 +122,79 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         ((NioEndpoint)endpoint).setUseSendfile(useSendfile);
     }
 
+    public int getMaxPendingWriteSize() {
+        return ((NioEndpoint)endpoint).getMaxPendingWriteSize();
+    }
+
+    public void setMaxPendingWriteSize(int maxPendingWriteSize) {
+        ((NioEndpoint)endpoint).setMaxPendingWriteSize(maxPendingWriteSize);
+    }
+
+    public String getUnixDomainSocketPath() {
+        return ((NioEndpoint)endpoint).getUnixDomainSocketPath();
+    }
+
+    public void setUnixDomainSocketPath(String unixDomainSocketPath) {
+        ((NioEndpoint)endpoint).setUnixDomainSocketPath(unixDomainSocketPath);
+    }
+
+    public String getUnixDomainSocketPathPermissions() {
+        return ((NioEndpoint)endpoint).getUnixDomainSocketPathPermissions();
+    }
+
+    public void setUnixDomainSocketPathPermissions(String permissions) {
+        ((NioEndpoint)endpoint).setUnixDomainSocketPathPermissions(permissions);
+    }
+
+    // -------------------- HTTP/2 setup --------------------
+
+    private boolean http2Enabled = false;
+    private final Http2Protocol http2Protocol = new Http2Protocol();
+
+    /**
+     * Enable HTTP/2 over cleartext connections, both for clients that upgrade
+     * with h2c and for clients that start with the HTTP/2 connection preface.
+     */
+    public boolean getHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public void setHttp2Enabled(boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return http2Protocol.getMaxConcurrentStreams();
+    }
+
+    public void setHttp2MaxConcurrentStreams(int maxConcurrentStreams) {
+        http2Protocol.setMaxConcurrentStreams(maxConcurrentStreams);
+    }
+
+    public int getHttp2InitialWindowSize() {
+        return http2Protocol.getInitialWindowSize();
+    }
+
+    public void setHttp2InitialWindowSize(int initialWindowSize) {
+        http2Protocol.setInitialWindowSize(initialWindowSize);
+    }
+
+    public long getHttp2ReadTimeout() {
+        return http2Protocol.getReadTimeout();
+    }
+
+    public void setHttp2ReadTimeout(long readTimeout) {
+        http2Protocol.setReadTimeout(readTimeout);
+    }
+
+    public long getHttp2WriteTimeout() {
+        return http2Protocol.getWriteTimeout();
+    }
+
+    public void setHttp2WriteTimeout(long writeTimeout) {
+        http2Protocol.setWriteTimeout(writeTimeout);
+    }
+
     // -------------------- Tcp setup --------------------
     public void setOomParachute(int oomParachute) {
         ((NioEndpoint)endpoint).setOomParachute(oomParachute);
@@ -283,6 +357,9 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
             processor.setMaxSavePostSize(proto.getMaxSavePostSize());
             processor.setServer(proto.getServer());
             processor.setMaxCookieCount(proto.getMaxCookieCount());
+            if (proto.getHttp2Enabled()) {
+                processor.setHttp2Protocol(proto.http2Protocol);
+            }
             register(processor);
             return processor;
         }
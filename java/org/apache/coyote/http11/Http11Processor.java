@@ -23,6 +23,7 @@ import java.net.Socket;
 import java.util.Set;
 
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.ErrorState;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -86,6 +87,12 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
      */
     protected SSLSupport sslSupport;
 
+
+    /**
+     * Sendfile data.
+     */
+    protected JIoEndpoint.SendfileData sendfileData = null;
+
     
     /**
      * The percentage of threads that have to be in use before keep-alive is
@@ -202,6 +209,22 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
     @Override
     protected boolean breakKeepAliveLoop(SocketWrapper<Socket> socketWrapper) {
         openSocket = keepAlive;
+        // Do sendfile as needed: the headers have been written by now so
+        // send the file content directly to the socket
+        if (sendfileData != null && !getErrorState().isError()) {
+            try {
+                ((JIoEndpoint) endpoint).processSendfile(
+                        socketWrapper.getSocket(), sendfileData);
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("http11processor.sendfile.error"), e);
+                }
+                setErrorState(ErrorState.CLOSE_NOW, e);
+                return true;
+            } finally {
+                sendfileData = null;
+            }
+        }
         // If we don't have a pipe-lined request allow this thread to be
         // used by another connection
         if (inputBuffer.lastValid == 0) {
@@ -221,6 +244,7 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
     protected void recycleInternal() {
         // Recycle
         this.socketWrapper = null;
+        sendfileData = null;
         // Recycle ssl info
         sslSupport = null;
     }
@@ -389,14 +413,25 @@ public class Http11Processor extends AbstractHttp11Processor<Socket> {
 
     @Override
     protected void prepareRequestInternal() {
-        // NOOP for BIO
+        sendfileData = null;
     }
 
     @Override
     protected boolean prepareSendfile(OutputFilter[] outputFilters) {
-        // Should never, ever call this code
-        Exception e = new Exception();
-        log.error(sm.getString("http11processor.neverused"), e);
+        String fileName = (String) request.getAttribute(
+                org.apache.coyote.Constants.SENDFILE_FILENAME_ATTR);
+        if (fileName != null) {
+            // No entity body sent here
+            outputBuffer.addActiveFilter(outputFilters[Constants.VOID_FILTER]);
+            contentDelimitation = true;
+            sendfileData = new JIoEndpoint.SendfileData();
+            sendfileData.fileName = fileName;
+            sendfileData.pos = ((Long) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
+            sendfileData.length = ((Long) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue() - sendfileData.pos;
+            return true;
+        }
         return false;
     }
 
@@ -91,6 +91,14 @@ public class Http11Protocol extends AbstractHttp11JsseProtocol<Socket> {
         }
     }
     
+    public boolean getUseSendfile() {
+        return ((JIoEndpoint)endpoint).getUseSendfile();
+    }
+
+    public void setUseSendfile(boolean useSendfile) {
+        ((JIoEndpoint)endpoint).setUseSendfile(useSendfile);
+    }
+
     // ----------------------------------------------------- JMX related methods
 
     @Override
@@ -809,6 +809,22 @@ public class InternalNioInputBuffer extends AbstractInputBuffer<NioChannel> {
     }
 
 
+    /**
+     * Read whatever data is available from the socket without blocking, if
+     * the buffer has been fully consumed.
+     *
+     * @return the number of bytes read
+     * @throws IOException if a socket exception occurs
+     */
+    protected int nbRead() throws IOException {
+        if (pos < lastValid) {
+            return 0;
+        }
+        lastValid = pos = end;
+        return readSocket(true, false);
+    }
+
+
     // ------------------------------------- InputStreamInputBuffer Inner Class
 
 
@@ -77,6 +77,19 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
      */
     private NioSelectorPool pool;
 
+    /**
+     * Maximum number of bytes the client may fall behind before writes
+     * block. See {@link NioEndpoint#getMaxPendingWriteSize()}.
+     */
+    private int maxPendingWriteSize;
+
+    /**
+     * Data the socket did not accept without blocking, ready to be read.
+     * Always written before any data that is currently in the socket write
+     * buffer.
+     */
+    private ByteBuffer pendingWrite = null;
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -91,8 +104,9 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     public void flush() throws IOException {
 
         super.flush();
-        // Flush the current buffer
-        flushBuffer();
+        // Flush the current buffer, an explicit flush always waits for the
+        // client unless the application writes without blocking
+        flushBuffer(!isNonBlocking());
 
     }
 
@@ -104,6 +118,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     @Override
     public void recycle() {
         super.recycle();
+        pendingWrite = null;
         if (socket != null) {
             socket.getBufHandler().getWriteBuffer().clear();
             socket = null;
@@ -119,7 +134,92 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     @Override
     public void endRequest() throws IOException {
         super.endRequest();
-        flushBuffer();
+        flushBuffer(false);
+    }
+
+
+    /**
+     * @return <code>true</code> if some of the response has not been written
+     *         to the socket yet
+     */
+    public boolean hasPendingWrite() {
+        return hasPendingData() ||
+                (socket != null && socket.getOutboundRemaining() > 0);
+    }
+
+
+    /**
+     * Give up ownership of the data which the socket has not accepted yet so
+     * that the Poller can write it.
+     *
+     * @return the data, or <code>null</code> if there is none
+     */
+    public ByteBuffer detachPendingWrite() {
+        ByteBuffer result = null;
+        if (hasPendingData()) {
+            result = pendingWrite;
+        } else if (hasPendingWrite()) {
+            // Only the channel has data left
+            result = ByteBuffer.allocate(0);
+        }
+        pendingWrite = null;
+        return result;
+    }
+
+
+    /**
+     * Write the data which the socket has not accepted yet, blocking until
+     * the client has read it.
+     *
+     * @throws IOException an underlying I/O error occurred
+     */
+    public void flushPendingWrite() throws IOException {
+        if (hasPendingData()) {
+            writeToSocket(pendingWrite, true, false);
+        } else if (hasPendingWrite()) {
+            // Only the channel has data left
+            writeToSocket(ByteBuffer.allocate(0), true, false);
+        }
+        pendingWrite = null;
+    }
+
+
+    /**
+     * Write as much of the data the socket has not accepted yet as possible
+     * without blocking.
+     *
+     * @return <code>true</code> if all of the data has been written
+     * @throws IOException an underlying I/O error occurred
+     */
+    public boolean writePendingNonBlocking() throws IOException {
+        if (socket == null) {
+            return true;
+        }
+        if (socket.getOutboundRemaining() > 0) {
+            socket.flushOutbound();
+            if (socket.getOutboundRemaining() > 0) {
+                return false;
+            }
+        }
+        if (hasPendingData()) {
+            writeNonBlocking(pendingWrite);
+        }
+        return !hasPendingWrite();
+    }
+
+
+    private boolean hasPendingData() {
+        return pendingWrite != null && pendingWrite.hasRemaining();
+    }
+
+
+    /**
+     * Is the application writing the response with a
+     * {@link org.apache.coyote.WriteListener}? If so
+     * writes never block and the amount of pending data is not limited.
+     */
+    private boolean isNonBlocking() {
+        return response.getWriteListener() != null;
     }
 
     // ------------------------------------------------ HTTP/1.1 Output Methods
@@ -132,6 +232,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     public void sendAck() throws IOException {
 
         if (!committed) {
+            flushPendingWrite();
             //Socket.send(socket, Constants.ACK_BYTES, 0, Constants.ACK_BYTES.length) < 0
             socket.getBufHandler() .getWriteBuffer().put(Constants.ACK_BYTES,0,Constants.ACK_BYTES.length);
             writeToSocket(socket.getBufHandler() .getWriteBuffer(),true,true);
@@ -182,6 +283,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
 
         socket = socketWrapper.getSocket();
         pool = ((NioEndpoint)endpoint).getSelectorPool();
+        maxPendingWriteSize = ((NioEndpoint)endpoint).getMaxPendingWriteSize();
     }
 
 
@@ -211,7 +313,7 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
             if (socket.getBufHandler().getWriteBuffer().position() ==
                     socket.getBufHandler().getWriteBuffer().capacity()
                     || socket.getBufHandler().getWriteBuffer().remaining()==0) {
-                flushBuffer();
+                flushBuffer(false);
             }
             if (thisTime > socket.getBufHandler().getWriteBuffer().remaining()) {
                 thisTime = socket.getBufHandler().getWriteBuffer().remaining();
@@ -227,8 +329,12 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
 
     /**
      * Callback to write data from the buffer.
+     *
+     * @param block <code>true</code> to wait until the client has read all of
+     *              the data, <code>false</code> to keep up to
+     *              maxPendingWriteSize bytes the socket won't accept in memory
      */
-    private void flushBuffer() throws IOException {
+    private void flushBuffer(boolean block) throws IOException {
 
         //prevent timeout for async,
         SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
@@ -237,11 +343,84 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
             attach.access();
         }
 
-        //write to the socket, if there is anything to write
-        if (socket.getBufHandler().getWriteBuffer().position() > 0) {
-            socket.getBufHandler().getWriteBuffer().flip();
-            writeToSocket(socket.getBufHandler().getWriteBuffer(),true, false);
+        ByteBuffer writeBuffer = socket.getBufHandler().getWriteBuffer();
+        boolean nonBlocking = isNonBlocking();
+        if (block || (maxPendingWriteSize <= 0 && !nonBlocking)) {
+            flushPendingWrite();
+            //write to the socket, if there is anything to write
+            if (writeBuffer.position() > 0) {
+                writeBuffer.flip();
+                writeToSocket(writeBuffer,true, false);
+            }
+            return;
+        }
+
+        // Catch up with the client first, without waiting for it
+        if (hasPendingData()) {
+            writeNonBlocking(pendingWrite);
+        }
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        if (!hasPendingData()) {
+            writeNonBlocking(writeBuffer);
+        }
+        if (writeBuffer.hasRemaining()) {
+            int pending = hasPendingData() ? pendingWrite.remaining() : 0;
+            if (!nonBlocking &&
+                    pending + writeBuffer.remaining() > maxPendingWriteSize) {
+                // The client is too far behind, wait for it
+                flushPendingWrite();
+                writeToSocket(writeBuffer, true, false);
+                return;
+            }
+            addToPendingWrite(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+
+    /**
+     * Write as much of the buffer as the socket accepts without blocking.
+     */
+    private synchronized void writeNonBlocking(ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining() && socket.write(buffer) > 0) {
+            // Keep writing
+        }
+    }
+
+
+    /**
+     * Append the remaining content of the buffer to the pending data.
+     */
+    private void addToPendingWrite(ByteBuffer buffer) {
+        int length = buffer.remaining();
+        int limit = isNonBlocking() ? Integer.MAX_VALUE : maxPendingWriteSize;
+        if (pendingWrite == null) {
+            pendingWrite = ByteBuffer.allocate(Math.min(limit,
+                    Math.max(length, buffer.capacity())));
+            pendingWrite.flip();
+        }
+        if (pendingWrite.capacity() - pendingWrite.limit() < length) {
+            pendingWrite.compact();
+            if (pendingWrite.remaining() < length) {
+                int capacity = Math.min(limit, Math.max(
+                        pendingWrite.capacity() * 2, pendingWrite.position() + length));
+                ByteBuffer expanded = ByteBuffer.allocate(capacity);
+                pendingWrite.flip();
+                expanded.put(pendingWrite);
+                pendingWrite = expanded;
+            }
+            pendingWrite.flip();
         }
+        int position = pendingWrite.position();
+        pendingWrite.position(pendingWrite.limit());
+        pendingWrite.limit(pendingWrite.capacity());
+        pendingWrite.put(buffer);
+        pendingWrite.limit(pendingWrite.position());
+        pendingWrite.position(position);
     }
 
 
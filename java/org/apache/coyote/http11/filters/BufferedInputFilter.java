@@ -139,5 +139,11 @@ public class BufferedInputFilter implements InputFilter {
     public int available() {
         return buffered.getLength();
     }
+
+
+    @Override
+    public boolean isFinished() {
+        return hasRead || buffered.getLength() <= 0;
+    }
     
 }
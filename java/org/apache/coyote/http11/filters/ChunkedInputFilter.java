@@ -267,6 +267,12 @@ public class ChunkedInputFilter implements InputFilter {
     public int available() {
         return lastValid - pos;
     }
+
+
+    @Override
+    public boolean isFinished() {
+        return endChunk;
+    }
     
 
     /**
@@ -346,39 +352,72 @@ public class ChunkedInputFilter implements InputFilter {
                     return false;
             }
 
-            if (buf[pos] == Constants.CR || buf[pos] == Constants.LF) {
-                parseCRLF(false);
-                eol = true;
-            } else if (buf[pos] == Constants.SEMI_COLON && !extension) {
-                // First semi-colon marks the start of the extension. Further
-                // semi-colons may appear to separate multiple chunk-extensions.
-                // These need to be processed as part of parsing the extensions.
-                extension = true;
-                extensionSize++;
-            } else if (!extension) {
-                //don't read data after the trailer
-                int charValue = HexUtils.getDec(buf[pos]);
-                if (charValue != -1 && readDigit < 8) {
-                    readDigit++;
-                    result = (result << 4) | charValue;
-                } else {
-                    //we shouldn't allow invalid, non hex characters
-                    //in the chunked header
-                    return false;
+            // Scan everything that is already buffered before going back to
+            // the previous buffer for more. The header usually arrives in one
+            // read so this normally completes in a single pass.
+            final byte[] b = buf;
+            final int end = lastValid;
+            int i = pos;
+
+            if (!extension) {
+                while (i < end) {
+                    byte chr = b[i];
+                    if (chr == Constants.CR || chr == Constants.LF) {
+                        eol = true;
+                        break;
+                    }
+                    if (chr == Constants.SEMI_COLON) {
+                        // First semi-colon marks the start of the extension.
+                        // Further semi-colons may appear to separate multiple
+                        // chunk-extensions. These need to be processed as part
+                        // of parsing the extensions.
+                        extension = true;
+                        extensionSize++;
+                        i++;
+                        break;
+                    }
+                    //don't read data after the trailer
+                    int charValue = HexUtils.getDec(chr);
+                    if (charValue != -1 && readDigit < 8) {
+                        readDigit++;
+                        result = (result << 4) | charValue;
+                        i++;
+                    } else {
+                        //we shouldn't allow invalid, non hex characters
+                        //in the chunked header
+                        pos = i;
+                        return false;
+                    }
                 }
-            } else {
+            }
+
+            if (extension && !eol) {
                 // Extension 'parsing'
                 // Note that the chunk-extension is neither parsed nor
                 // validated. Currently it is simply ignored.
-                extensionSize++;
-                if (maxExtensionSize > -1 && extensionSize > maxExtensionSize) {
-                    throwIOException(sm.getString("chunkedInputFilter.maxExtension"));
+                int extensionStart = i;
+                while (i < end) {
+                    byte chr = b[i];
+                    if (chr == Constants.CR || chr == Constants.LF) {
+                        eol = true;
+                        break;
+                    }
+                    i++;
+                }
+                if (i > extensionStart) {
+                    extensionSize += i - extensionStart;
+                    if (maxExtensionSize > -1 &&
+                            extensionSize > maxExtensionSize) {
+                        pos = i;
+                        throwIOException(sm.getString("chunkedInputFilter.maxExtension"));
+                    }
                 }
             }
 
-            // Parsing the CRLF increments pos
-            if (!eol) {
-                pos++;
+            pos = i;
+            if (eol) {
+                // Parsing the CRLF increments pos
+                parseCRLF(false);
             }
         }
 
@@ -414,6 +453,13 @@ public class ChunkedInputFilter implements InputFilter {
      */
     protected void parseCRLF(boolean tolerant) throws IOException {
 
+        // Fast path for the common case of a CRLF that is fully buffered
+        if (pos + 1 < lastValid && buf[pos] == Constants.CR &&
+                buf[pos + 1] == Constants.LF) {
+            pos += 2;
+            return;
+        }
+
         boolean eol = false;
         boolean crfound = false;
 
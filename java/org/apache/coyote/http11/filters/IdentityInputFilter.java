@@ -211,6 +211,14 @@ public class IdentityInputFilter implements InputFilter {
     public int available() {
         return 0;
     }
+
+
+    @Override
+    public boolean isFinished() {
+        // Only finished if a content length is defined and there is no data
+        // remaining
+        return contentLength > -1 && remaining <= 0;
+    }
     
 
     /**
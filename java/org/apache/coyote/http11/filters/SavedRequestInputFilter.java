@@ -106,6 +106,12 @@ public class SavedRequestInputFilter implements InputFilter {
     public int available() {
         return input.getLength();
     }
+
+
+    @Override
+    public boolean isFinished() {
+        return input.getLength() <= 0;
+    }
     
     /**
      * End the current request (has no effect).
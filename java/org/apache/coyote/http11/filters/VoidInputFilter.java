@@ -133,5 +133,11 @@ public class VoidInputFilter implements InputFilter {
     public int available() {
         return 0;
     }
+
+
+    @Override
+    public boolean isFinished() {
+        return true;
+    }
     
 }
@@ -68,6 +68,7 @@ public abstract class AbstractServletInputStream extends ServletInputStream {
         try {
             ready = Boolean.valueOf(doIsReady());
         } catch (IOException e) {
+            closeRequired = true;
             onError(e);
         }
         return ready.booleanValue();
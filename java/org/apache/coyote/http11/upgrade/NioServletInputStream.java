@@ -46,9 +46,15 @@ public class NioServletInputStream extends AbstractServletInputStream {
         }
 
         readBuffer.clear();
-        fillReadBuffer(false);
+        int nRead = fillReadBuffer(false);
 
         boolean isReady = readBuffer.position() > 0;
+        if (!isReady && nRead == -1) {
+            // The client closed the connection. Report it now, otherwise the
+            // Poller keeps signalling that the socket is readable.
+            readBuffer.flip();
+            throw new EOFException();
+        }
         readBuffer.flip();
         return isReady;
     }
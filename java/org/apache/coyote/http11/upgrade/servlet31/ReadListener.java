@@ -21,7 +21,7 @@ import java.io.IOException;
 /**
  * Receives notification of read events when using non-blocking IO.
  */
-public interface ReadListener extends java.util.EventListener{
+public interface ReadListener extends org.apache.coyote.ReadListener {
 
     /**
      * Invoked when data is available to read. The container will invoke this
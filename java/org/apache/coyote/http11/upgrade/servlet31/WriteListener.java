@@ -21,7 +21,7 @@ import java.io.IOException;
 /**
  * Receives notification of write events when using non-blocking IO.
  */
-public interface WriteListener extends java.util.EventListener{
+public interface WriteListener extends org.apache.coyote.WriteListener {
 
     /**
      * Invoked when it it possible to write data without blocking. The container
@@ -0,0 +1,235 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The static table and the primitive type representations shared by the HPACK
+ * encoder and decoder. See RFC 7541.
+ */
+final class Hpack {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    /**
+     * The overhead added to the length of the name and the value of an entry
+     * when calculating its size in the dynamic table.
+     */
+    static final int ENTRY_OVERHEAD = 32;
+
+    /**
+     * The static table. Index 0 is not used.
+     */
+    static final HeaderField[] STATIC_TABLE = new HeaderField[] {
+            null,
+            new HeaderField(":authority", ""),
+            new HeaderField(":method", "GET"),
+            new HeaderField(":method", "POST"),
+            new HeaderField(":path", "/"),
+            new HeaderField(":path", "/index.html"),
+            new HeaderField(":scheme", "http"),
+            new HeaderField(":scheme", "https"),
+            new HeaderField(":status", "200"),
+            new HeaderField(":status", "204"),
+            new HeaderField(":status", "206"),
+            new HeaderField(":status", "304"),
+            new HeaderField(":status", "400"),
+            new HeaderField(":status", "404"),
+            new HeaderField(":status", "500"),
+            new HeaderField("accept-charset", ""),
+            new HeaderField("accept-encoding", "gzip, deflate"),
+            new HeaderField("accept-language", ""),
+            new HeaderField("accept-ranges", ""),
+            new HeaderField("accept", ""),
+            new HeaderField("access-control-allow-origin", ""),
+            new HeaderField("age", ""),
+            new HeaderField("allow", ""),
+            new HeaderField("authorization", ""),
+            new HeaderField("cache-control", ""),
+            new HeaderField("content-disposition", ""),
+            new HeaderField("content-encoding", ""),
+            new HeaderField("content-language", ""),
+            new HeaderField("content-length", ""),
+            new HeaderField("content-location", ""),
+            new HeaderField("content-range", ""),
+            new HeaderField("content-type", ""),
+            new HeaderField("cookie", ""),
+            new HeaderField("date", ""),
+            new HeaderField("etag", ""),
+            new HeaderField("expect", ""),
+            new HeaderField("expires", ""),
+            new HeaderField("from", ""),
+            new HeaderField("host", ""),
+            new HeaderField("if-match", ""),
+            new HeaderField("if-modified-since", ""),
+            new HeaderField("if-none-match", ""),
+            new HeaderField("if-range", ""),
+            new HeaderField("if-unmodified-since", ""),
+            new HeaderField("last-modified", ""),
+            new HeaderField("link", ""),
+            new HeaderField("location", ""),
+            new HeaderField("max-forwards", ""),
+            new HeaderField("proxy-authenticate", ""),
+            new HeaderField("proxy-authorization", ""),
+            new HeaderField("range", ""),
+            new HeaderField("referer", ""),
+            new HeaderField("refresh", ""),
+            new HeaderField("retry-after", ""),
+            new HeaderField("server", ""),
+            new HeaderField("set-cookie", ""),
+            new HeaderField("strict-transport-security", ""),
+            new HeaderField("transfer-encoding", ""),
+            new HeaderField("user-agent", ""),
+            new HeaderField("vary", ""),
+            new HeaderField("via", ""),
+            new HeaderField("www-authenticate", "")
+    };
+
+    static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+
+
+    private Hpack() {
+        // Hide default constructor
+    }
+
+
+    /**
+     * Decode an integer with the given prefix length. The prefix bits of the
+     * first octet are read from the current position of the buffer.
+     */
+    static int decodeInteger(ByteBuffer source, int prefixBits)
+            throws Http2Exception {
+        if (!source.hasRemaining()) {
+            throw compressionError("hpack.truncated");
+        }
+        int mask = (1 << prefixBits) - 1;
+        int value = source.get() & mask;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            if (!source.hasRemaining()) {
+                throw compressionError("hpack.truncated");
+            }
+            if (shift > 21) {
+                throw compressionError("hpack.integerOverflow");
+            }
+            b = source.get() & 0xFF;
+            value += (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (value < 0) {
+            throw compressionError("hpack.integerOverflow");
+        }
+        return value;
+    }
+
+
+    /**
+     * Decode a string literal, Huffman encoded or not, starting at the
+     * current position of the buffer.
+     */
+    static String decodeString(ByteBuffer source) throws Http2Exception {
+        if (!source.hasRemaining()) {
+            throw compressionError("hpack.truncated");
+        }
+        boolean huffman = (source.get(source.position()) & 0x80) != 0;
+        int length = decodeInteger(source, 7);
+        if (length > source.remaining()) {
+            throw compressionError("hpack.truncated");
+        }
+        int offset = source.arrayOffset() + source.position();
+        String result;
+        if (huffman) {
+            StringBuilder sb = new StringBuilder(length * 8 / 5);
+            HpackHuffman.decode(source.array(), offset, length, sb);
+            result = sb.toString();
+        } else {
+            result = new String(source.array(), offset, length,
+                    B2CConverter.ISO_8859_1);
+        }
+        source.position(source.position() + length);
+        return result;
+    }
+
+
+    /**
+     * Encode an integer with the given prefix length. The bits of
+     * <code>firstByte</code> that are not part of the prefix are written
+     * unchanged.
+     */
+    static void encodeInteger(ByteArrayOutputStream target, int firstByte,
+            int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            target.write(firstByte | value);
+            return;
+        }
+        target.write(firstByte | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            target.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target.write(value);
+    }
+
+
+    /**
+     * Encode a string literal without Huffman encoding. Characters outside of
+     * ISO-8859-1 are replaced, as they would be by the HTTP/1.1 connector.
+     */
+    static void encodeString(ByteArrayOutputStream target, String value) {
+        int length = value.length();
+        encodeInteger(target, 0, 7, length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c > 0xFF) {
+                c = '?';
+            }
+            target.write(c);
+        }
+    }
+
+
+    private static Http2Exception compressionError(String key) {
+        return new Http2Exception(sm.getString(key), 0,
+                Constants.COMPRESSION_ERROR);
+    }
+
+
+    static class HeaderField {
+
+        final String name;
+        final String value;
+        final int size;
+
+        HeaderField(String name, String value) {
+            this.name = name;
+            this.value = value;
+            this.size = name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+}
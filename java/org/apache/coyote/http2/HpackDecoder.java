@@ -0,0 +1,201 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+
+import org.apache.coyote.http2.Hpack.HeaderField;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Decodes HPACK header blocks. An instance holds the dynamic table of one
+ * connection and must only be used by one thread at a time.
+ */
+public class HpackDecoder {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    /**
+     * Receives the decoded header fields in the order they appear in the
+     * header block.
+     */
+    public interface HeaderEmitter {
+        void emitHeader(String name, String value) throws Http2Exception;
+    }
+
+
+    /**
+     * The dynamic table, used as a ring buffer. The oldest entry is at
+     * {@link #firstSlot}.
+     */
+    private HeaderField[] headerTable = new HeaderField[16];
+    private int firstSlot = 0;
+    private int filledTableSlots = 0;
+    private int currentMemorySize = 0;
+
+    /**
+     * The maximum size of the dynamic table as last set by the encoder.
+     */
+    private int maxMemorySize;
+
+    /**
+     * The maximum size of the dynamic table the encoder is allowed to use, as
+     * advertised by the SETTINGS_HEADER_TABLE_SIZE setting.
+     */
+    private final int maxAllowedMemorySize;
+
+
+    public HpackDecoder() {
+        this(Constants.DEFAULT_HEADER_TABLE_SIZE);
+    }
+
+
+    public HpackDecoder(int maxAllowedMemorySize) {
+        this.maxAllowedMemorySize = maxAllowedMemorySize;
+        this.maxMemorySize = maxAllowedMemorySize;
+    }
+
+
+    /**
+     * Decode a complete header block.
+     *
+     * @param block   The buffer containing the header block
+     * @param offset  The offset of the header block in the buffer
+     * @param length  The length of the header block
+     * @param emitter The receiver of the decoded header fields
+     *
+     * @throws Http2Exception if the header block is not valid
+     */
+    public void decode(byte[] block, int offset, int length,
+            HeaderEmitter emitter) throws Http2Exception {
+        ByteBuffer source = ByteBuffer.wrap(block, offset, length);
+        boolean sizeUpdateAllowed = true;
+        while (source.hasRemaining()) {
+            int b = source.get(source.position()) & 0xFF;
+            if ((b & 0x80) != 0) {
+                // Indexed header field
+                int index = Hpack.decodeInteger(source, 7);
+                HeaderField field = getHeaderField(index);
+                emitter.emitHeader(field.name, field.value);
+            } else if ((b & 0x40) != 0) {
+                // Literal header field with incremental indexing
+                HeaderField field = readLiteral(source, 6);
+                addEntry(field);
+                emitter.emitHeader(field.name, field.value);
+            } else if ((b & 0x20) != 0) {
+                // Dynamic table size update
+                if (!sizeUpdateAllowed) {
+                    throw new Http2Exception(
+                            sm.getString("hpackDecoder.sizeUpdateNotAllowed"),
+                            0, Constants.COMPRESSION_ERROR);
+                }
+                int size = Hpack.decodeInteger(source, 5);
+                if (size > maxAllowedMemorySize) {
+                    throw new Http2Exception(sm.getString(
+                            "hpackDecoder.sizeUpdateTooLarge",
+                            Integer.valueOf(size),
+                            Integer.valueOf(maxAllowedMemorySize)),
+                            0, Constants.COMPRESSION_ERROR);
+                }
+                maxMemorySize = size;
+                evict(0);
+                continue;
+            } else {
+                // Literal header field without indexing or never indexed
+                HeaderField field = readLiteral(source, 4);
+                emitter.emitHeader(field.name, field.value);
+            }
+            sizeUpdateAllowed = false;
+        }
+    }
+
+
+    int getCurrentMemorySize() {
+        return currentMemorySize;
+    }
+
+
+    int getFilledTableSlots() {
+        return filledTableSlots;
+    }
+
+
+    private HeaderField readLiteral(ByteBuffer source, int prefixBits)
+            throws Http2Exception {
+        int index = Hpack.decodeInteger(source, prefixBits);
+        String name;
+        if (index == 0) {
+            name = Hpack.decodeString(source);
+        } else {
+            name = getHeaderField(index).name;
+        }
+        String value = Hpack.decodeString(source);
+        return new HeaderField(name, value);
+    }
+
+
+    private HeaderField getHeaderField(int index) throws Http2Exception {
+        if (index > 0 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_TABLE[index];
+        }
+        int dynamicIndex = index - Hpack.STATIC_TABLE_LENGTH - 1;
+        if (index <= 0 || dynamicIndex >= filledTableSlots) {
+            throw new Http2Exception(sm.getString("hpackDecoder.invalidIndex",
+                    Integer.valueOf(index)), 0, Constants.COMPRESSION_ERROR);
+        }
+        // The most recently added entry has the lowest index
+        int slot = (firstSlot + filledTableSlots - 1 - dynamicIndex) %
+                headerTable.length;
+        return headerTable[slot];
+    }
+
+
+    private void addEntry(HeaderField field) {
+        if (field.size > maxMemorySize) {
+            // Adding an entry larger than the table empties it
+            evict(0);
+            return;
+        }
+        evict(maxMemorySize - field.size);
+        if (filledTableSlots == headerTable.length) {
+            HeaderField[] newTable = new HeaderField[headerTable.length * 2];
+            for (int i = 0; i < filledTableSlots; i++) {
+                newTable[i] = headerTable[(firstSlot + i) % headerTable.length];
+            }
+            headerTable = newTable;
+            firstSlot = 0;
+        }
+        headerTable[(firstSlot + filledTableSlots) % headerTable.length] = field;
+        filledTableSlots++;
+        currentMemorySize += field.size;
+    }
+
+
+    /**
+     * Evict the oldest entries until the size of the dynamic table is no
+     * greater than the given size.
+     */
+    private void evict(int targetSize) {
+        while (currentMemorySize > targetSize && filledTableSlots > 0) {
+            currentMemorySize -= headerTable[firstSlot].size;
+            headerTable[firstSlot] = null;
+            firstSlot = (firstSlot + 1) % headerTable.length;
+            filledTableSlots--;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.coyote.http2.Hpack.HeaderField;
+
+/**
+ * Encodes HPACK header blocks. Header fields that are in the static table are
+ * sent as a single index and header names in the static table are sent as an
+ * index followed by the value. Everything else is sent as a literal that is
+ * not added to the dynamic table, which keeps the encoder stateless so it can
+ * be shared by all the streams of a connection without coordination.
+ */
+public class HpackEncoder {
+
+    private static final Map<String,Integer> NAME_INDEX =
+            new HashMap<String,Integer>();
+
+    private static final Map<String,Integer> FIELD_INDEX =
+            new HashMap<String,Integer>();
+
+    static {
+        for (int i = Hpack.STATIC_TABLE_LENGTH; i > 0; i--) {
+            // Iterate backwards so the lowest index wins for a name
+            HeaderField field = Hpack.STATIC_TABLE[i];
+            NAME_INDEX.put(field.name, Integer.valueOf(i));
+            if (field.value.length() > 0) {
+                FIELD_INDEX.put(key(field.name, field.value), Integer.valueOf(i));
+            }
+        }
+    }
+
+
+    /**
+     * Encode the <code>:status</code> pseudo header.
+     */
+    public void encodeStatus(ByteArrayOutputStream target, int status) {
+        encodeHeader(target, ":status", Integer.toString(status));
+    }
+
+
+    /**
+     * Encode a header field. The name is converted to lower case as required
+     * by HTTP/2.
+     */
+    public void encodeHeader(ByteArrayOutputStream target, String name,
+            String value) {
+        String lowerName = name.toLowerCase(Locale.ENGLISH);
+        Integer nameIndex = NAME_INDEX.get(lowerName);
+        if (nameIndex == null) {
+            // Literal header field without indexing, new name
+            Hpack.encodeInteger(target, 0, 4, 0);
+            Hpack.encodeString(target, lowerName);
+        } else {
+            Integer fieldIndex = FIELD_INDEX.get(key(lowerName, value));
+            if (fieldIndex != null) {
+                // Indexed header field
+                Hpack.encodeInteger(target, 0x80, 7, fieldIndex.intValue());
+                return;
+            }
+            // Literal header field without indexing, indexed name
+            Hpack.encodeInteger(target, 0, 4, nameIndex.intValue());
+        }
+        Hpack.encodeString(target, value);
+    }
+
+
+    private static String key(String name, String value) {
+        return name + '\u0000' + value;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Decoder for the static Huffman code used by HPACK to compress header names
+ * and values. See RFC 7541, Appendix B.
+ * <p>
+ * The code is canonical so it is fully described by the length of the code of
+ * each symbol. Decoding compares the bits read so far with the range of codes
+ * of the current length, which avoids building a tree.
+ */
+public final class HpackHuffman {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private static final int EOS = 256;
+
+    private static final int MAX_CODE_LENGTH = 30;
+
+    /**
+     * Length in bits of the code of each symbol, the last one being EOS.
+     */
+    private static final int[] CODE_LENGTHS = new int[] {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    /**
+     * Lowest code of each length.
+     */
+    private static final int[] FIRST_CODE = new int[MAX_CODE_LENGTH + 1];
+
+    /**
+     * Number of codes of each length.
+     */
+    private static final int[] CODE_COUNT = new int[MAX_CODE_LENGTH + 1];
+
+    /**
+     * Index in {@link #SYMBOLS} of the symbol with the lowest code of each
+     * length.
+     */
+    private static final int[] SYMBOL_OFFSET = new int[MAX_CODE_LENGTH + 1];
+
+    /**
+     * Symbols in code order.
+     */
+    private static final int[] SYMBOLS = new int[CODE_LENGTHS.length];
+
+    static {
+        for (int length : CODE_LENGTHS) {
+            CODE_COUNT[length]++;
+        }
+        int code = 0;
+        int offset = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            FIRST_CODE[length] = code;
+            SYMBOL_OFFSET[length] = offset;
+            code = (code + CODE_COUNT[length]) << 1;
+            offset += CODE_COUNT[length];
+        }
+        int[] next = new int[MAX_CODE_LENGTH + 1];
+        for (int symbol = 0; symbol < CODE_LENGTHS.length; symbol++) {
+            int length = CODE_LENGTHS[symbol];
+            SYMBOLS[SYMBOL_OFFSET[length] + next[length]++] = symbol;
+        }
+    }
+
+
+    private HpackHuffman() {
+        // Hide default constructor
+    }
+
+
+    /**
+     * Decode a Huffman encoded string.
+     *
+     * @param src    The buffer containing the encoded string
+     * @param offset The offset of the encoded string in the buffer
+     * @param length The length of the encoded string
+     * @param target The buffer to append the decoded octets to
+     *
+     * @throws Http2Exception if the string is not correctly encoded
+     */
+    public static void decode(byte[] src, int offset, int length,
+            StringBuilder target) throws Http2Exception {
+        int code = 0;
+        int codeLength = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = src[i] & 0xFF;
+            for (int bit = 7; bit >= 0; bit--) {
+                code = (code << 1) | ((b >> bit) & 1);
+                codeLength++;
+                int index = code - FIRST_CODE[codeLength];
+                if (index >= 0 && index < CODE_COUNT[codeLength]) {
+                    int symbol = SYMBOLS[SYMBOL_OFFSET[codeLength] + index];
+                    if (symbol == EOS) {
+                        throw new Http2Exception(
+                                sm.getString("hpackHuffman.eos"), 0,
+                                Constants.COMPRESSION_ERROR);
+                    }
+                    target.append((char) symbol);
+                    code = 0;
+                    codeLength = 0;
+                } else if (codeLength == MAX_CODE_LENGTH) {
+                    // Can't happen with a complete code but be safe
+                    throw new Http2Exception(
+                            sm.getString("hpackHuffman.invalidCode"), 0,
+                            Constants.COMPRESSION_ERROR);
+                }
+            }
+        }
+        // Padding must be the most significant bits of EOS and shorter than a
+        // byte
+        if (codeLength > 7 || code != (1 << codeLength) - 1) {
+            throw new Http2Exception(sm.getString("hpackHuffman.invalidPadding"),
+                    0, Constants.COMPRESSION_ERROR);
+        }
+    }
+}
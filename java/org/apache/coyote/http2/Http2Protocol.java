@@ -0,0 +1,116 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.net.AbstractEndpoint;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.SocketWrapper;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The configuration of the HTTP/2 support of a connector and the factory for
+ * the handlers of upgraded connections.
+ */
+public class Http2Protocol {
+
+    private static final Log log = LogFactory.getLog(Http2Protocol.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private static final long DEFAULT_READ_TIMEOUT = 20000;
+    private static final long DEFAULT_WRITE_TIMEOUT = 20000;
+
+
+    /**
+     * The maximum number of streams a client may have open at the same time.
+     */
+    private int maxConcurrentStreams = Constants.DEFAULT_MAX_CONCURRENT_STREAMS;
+    public int getMaxConcurrentStreams() { return maxConcurrentStreams; }
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+
+    /**
+     * The initial flow control window of each stream, which is also the
+     * maximum amount of request body that is buffered for a stream.
+     */
+    private int initialWindowSize = Constants.DEFAULT_WINDOW_SIZE;
+    public int getInitialWindowSize() { return initialWindowSize; }
+    public void setInitialWindowSize(int initialWindowSize) {
+        this.initialWindowSize = initialWindowSize;
+    }
+
+
+    /**
+     * The time in milliseconds a stream waits for request body data.
+     */
+    private long readTimeout = DEFAULT_READ_TIMEOUT;
+    public long getReadTimeout() { return readTimeout; }
+    public void setReadTimeout(long readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+
+    /**
+     * The time in milliseconds a stream waits for the client to open its
+     * flow control window.
+     */
+    private long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+    public long getWriteTimeout() { return writeTimeout; }
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+
+    /**
+     * Create the handler for a connection that switches to HTTP/2.
+     *
+     * @param adapter        The adapter that processes the requests
+     * @param endpoint       The endpoint that accepted the connection
+     * @param socketWrapper  The connection
+     * @param upgradeRequest The request that asked for the h2c upgrade or
+     *                       <code>null</code> if the client sent the
+     *                       connection preface
+     * @param leftover       The data read after the end of the HTTP/1.1
+     *                       request headers
+     * @param maxHeaderSize  The maximum size of a request header block
+     *
+     * @return the handler or <code>null</code> if the upgrade request is not
+     *         valid, in which case the request should be processed as an
+     *         HTTP/1.1 request
+     */
+    public HttpUpgradeHandler createUpgradeHandler(Adapter adapter,
+            AbstractEndpoint<NioChannel> endpoint,
+            SocketWrapper<NioChannel> socketWrapper, Request upgradeRequest,
+            byte[] leftover, int maxHeaderSize) {
+        try {
+            return new Http2UpgradeHandler(this, adapter, endpoint,
+                    socketWrapper, upgradeRequest, leftover, maxHeaderSize);
+        } catch (Http2Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("http2Protocol.invalidUpgrade"), e);
+            }
+            return null;
+        }
+    }
+}
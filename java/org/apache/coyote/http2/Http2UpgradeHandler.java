@@ -0,0 +1,990 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.http11.upgrade.AbstractServletInputStream;
+import org.apache.coyote.http11.upgrade.AbstractServletOutputStream;
+import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.coyote.http11.upgrade.servlet31.ReadListener;
+import org.apache.coyote.http11.upgrade.servlet31.WebConnection;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.net.AbstractEndpoint;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SocketWrapper;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Handles a cleartext HTTP/2 connection once it has been upgraded from
+ * HTTP/1.1, either with an h2c upgrade or because the client sent the
+ * connection preface (prior knowledge).
+ * <p>
+ * Frames are read with non-blocking IO on the thread that is dispatched by the
+ * Poller when data is available. Each stream is processed on its own
+ * container thread by a {@link StreamProcessor} so that a slow request does
+ * not delay the other streams of the connection. Frames are written with
+ * blocking IO, one frame at a time, by whichever thread produces them.
+ */
+public class Http2UpgradeHandler implements HttpUpgradeHandler, ReadListener {
+
+    private static final Log log = LogFactory.getLog(Http2UpgradeHandler.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private static final int READ_BUFFER_SIZE =
+            2 * (Constants.FRAME_HEADER_LENGTH + Constants.DEFAULT_MAX_FRAME_SIZE);
+
+    private final Http2Protocol protocol;
+    private final Adapter adapter;
+    private final AbstractEndpoint<NioChannel> endpoint;
+    private final SocketWrapper<NioChannel> socketWrapper;
+    private final int maxHeaderSize;
+
+    private final HpackDecoder hpackDecoder = new HpackDecoder();
+    private final HpackEncoder hpackEncoder = new HpackEncoder();
+
+    private final ConcurrentMap<Integer,Stream> streams =
+            new ConcurrentHashMap<Integer,Stream>();
+
+    private volatile WebConnection connection;
+    private volatile AbstractServletInputStream inputStream;
+    private volatile AbstractServletOutputStream outputStream;
+    private volatile boolean closed = false;
+
+    private final Object writeLock = new Object();
+
+    /**
+     * Guards the send windows of the connection and of the streams. Threads
+     * waiting for window space wait on this lock.
+     */
+    private final Object windowLock = new Object();
+    private long connectionSendWindow = Constants.DEFAULT_WINDOW_SIZE;
+    private int remoteInitialWindowSize = Constants.DEFAULT_WINDOW_SIZE;
+    private volatile int remoteMaxFrameSize = Constants.DEFAULT_MAX_FRAME_SIZE;
+
+    // The fields below are only used by the thread reading the connection
+
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private int readPos = 0;
+    private int readLimit = 0;
+
+    /**
+     * The part of the client connection preface that has not been received
+     * yet.
+     */
+    private final byte[] preface;
+    private int prefaceReceived = 0;
+
+    private byte[] leftover;
+    private Stream upgradeStream = null;
+
+    private int lastStreamId = 0;
+    private boolean goAwaySent = false;
+
+    private int headerStreamId = 0;
+    private boolean headerEndOfStream = false;
+    private final ByteArrayOutputStream headerBlock =
+            new ByteArrayOutputStream(1024);
+
+
+    /**
+     * @param protocol       The HTTP/2 configuration
+     * @param adapter        The adapter that processes the requests
+     * @param endpoint       The endpoint that accepted the connection
+     * @param socketWrapper  The connection
+     * @param upgradeRequest The HTTP/1.1 request that asked for the h2c
+     *                       upgrade or <code>null</code> if the client sent
+     *                       the connection preface
+     * @param leftover       The data the HTTP/1.1 processor read after the
+     *                       end of the request headers
+     * @param maxHeaderSize  The maximum size of a request header block
+     *
+     * @throws Http2Exception if the HTTP2-Settings header of the upgrade
+     *                        request is not valid
+     */
+    public Http2UpgradeHandler(Http2Protocol protocol, Adapter adapter,
+            AbstractEndpoint<NioChannel> endpoint,
+            SocketWrapper<NioChannel> socketWrapper, Request upgradeRequest,
+            byte[] leftover, int maxHeaderSize) throws Http2Exception {
+        this.protocol = protocol;
+        this.adapter = adapter;
+        this.endpoint = endpoint;
+        this.socketWrapper = socketWrapper;
+        this.leftover = leftover;
+        this.maxHeaderSize = maxHeaderSize;
+
+        if (upgradeRequest == null) {
+            // The HTTP/1.1 processor has read the preface up to the end of
+            // what looks like the request headers
+            int length = Constants.CLIENT_PREFACE.length -
+                    Constants.CLIENT_PREFACE_BODY_OFFSET;
+            preface = new byte[length];
+            System.arraycopy(Constants.CLIENT_PREFACE,
+                    Constants.CLIENT_PREFACE_BODY_OFFSET, preface, 0, length);
+        } else {
+            preface = Constants.CLIENT_PREFACE;
+            String settings = upgradeRequest.getHeader("HTTP2-Settings");
+            if (settings != null) {
+                // Acknowledged implicitly by the 101 response
+                byte[] payload = decodeBase64Url(settings);
+                applySettings(payload, 0, payload.length);
+            }
+            // The upgrade request is the first stream, which is half closed
+            // as the request has been fully received
+            upgradeStream = new Stream(1, this, remoteInitialWindowSize);
+            upgradeStream.copyUpgradeRequest(upgradeRequest);
+            lastStreamId = 1;
+        }
+    }
+
+
+    // ------------------------------------------- HttpUpgradeHandler methods
+
+    @Override
+    public void init(WebConnection connection) {
+        this.connection = connection;
+        try {
+            inputStream = connection.getInputStream();
+            outputStream = connection.getOutputStream();
+
+            writeSettings();
+
+            if (upgradeStream != null) {
+                streams.put(Integer.valueOf(1), upgradeStream);
+                startStream(upgradeStream);
+                upgradeStream = null;
+            }
+
+            inputStream.setReadListener(this);
+
+            int offset = 0;
+            while (offset < leftover.length) {
+                int length = Math.min(leftover.length - offset,
+                        readBuffer.length - readLimit);
+                System.arraycopy(leftover, offset, readBuffer, readLimit, length);
+                readLimit += length;
+                offset += length;
+                processReadBuffer();
+            }
+            leftover = null;
+        } catch (Http2Exception e) {
+            connectionError(e);
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror"), ioe);
+            }
+            close();
+        }
+    }
+
+
+    @Override
+    public void destroy() {
+        closed = true;
+        for (Stream stream : streams.values()) {
+            stream.reset();
+        }
+        streams.clear();
+        synchronized (windowLock) {
+            windowLock.notifyAll();
+        }
+    }
+
+
+    // ------------------------------------------------- ReadListener methods
+
+    @Override
+    public void onDataAvailable() {
+        try {
+            while (!closed && inputStream.isReady()) {
+                int read = inputStream.read(readBuffer, readLimit,
+                        readBuffer.length - readLimit);
+                if (read > 0) {
+                    readLimit += read;
+                    processReadBuffer();
+                }
+            }
+        } catch (Http2Exception e) {
+            connectionError(e);
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror"), ioe);
+            }
+            close();
+        }
+    }
+
+
+    @Override
+    public void onAllDataRead() {
+        // NO-OP: Never called for an upgraded connection
+    }
+
+
+    @Override
+    public void onError(Throwable throwable) {
+        // Usually the client closing the connection
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.ioerror"), throwable);
+        }
+        close();
+    }
+
+
+    // ------------------------------------------------------- Reading frames
+
+    private void processReadBuffer() throws IOException {
+        if (prefaceReceived < preface.length) {
+            while (prefaceReceived < preface.length && readPos < readLimit) {
+                if (readBuffer[readPos++] != preface[prefaceReceived++]) {
+                    throw new Http2Exception(
+                            sm.getString("upgradeHandler.invalidPreface"), 0,
+                            Constants.PROTOCOL_ERROR);
+                }
+            }
+        }
+        if (prefaceReceived == preface.length) {
+            while (!closed && readLimit - readPos >= Constants.FRAME_HEADER_LENGTH) {
+                int length = ((readBuffer[readPos] & 0xFF) << 16) +
+                        ((readBuffer[readPos + 1] & 0xFF) << 8) +
+                        (readBuffer[readPos + 2] & 0xFF);
+                if (length > Constants.DEFAULT_MAX_FRAME_SIZE) {
+                    throw new Http2Exception(sm.getString(
+                            "upgradeHandler.frameTooLarge", Integer.valueOf(length)),
+                            0, Constants.FRAME_SIZE_ERROR);
+                }
+                if (readLimit - readPos < Constants.FRAME_HEADER_LENGTH + length) {
+                    break;
+                }
+                int type = readBuffer[readPos + 3] & 0xFF;
+                int flags = readBuffer[readPos + 4] & 0xFF;
+                int streamId = readInt31(readBuffer, readPos + 5);
+                int payloadStart = readPos + Constants.FRAME_HEADER_LENGTH;
+                readPos = payloadStart + length;
+                try {
+                    processFrame(type, flags, streamId, readBuffer,
+                            payloadStart, length);
+                } catch (Http2Exception e) {
+                    if (e.isConnectionError()) {
+                        throw e;
+                    }
+                    resetStream(e.getStreamId(), e.getErrorCode());
+                }
+            }
+        }
+        // Make room for the rest of the current frame
+        if (readPos == readLimit) {
+            readPos = 0;
+            readLimit = 0;
+        } else if (readPos > 0) {
+            System.arraycopy(readBuffer, readPos, readBuffer, 0,
+                    readLimit - readPos);
+            readLimit -= readPos;
+            readPos = 0;
+        }
+    }
+
+
+    private void processFrame(int type, int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        if (headerStreamId != 0 && (type != Constants.FRAME_CONTINUATION ||
+                streamId != headerStreamId)) {
+            throw new Http2Exception(
+                    sm.getString("upgradeHandler.continuationExpected"), 0,
+                    Constants.PROTOCOL_ERROR);
+        }
+        switch (type) {
+        case Constants.FRAME_DATA:
+            processData(flags, streamId, payload, offset, length);
+            break;
+        case Constants.FRAME_HEADERS:
+            processHeaders(flags, streamId, payload, offset, length);
+            break;
+        case Constants.FRAME_PRIORITY:
+            if (streamId == 0) {
+                throw protocolError("upgradeHandler.streamZero");
+            }
+            if (length != 5) {
+                throw new Http2Exception(sm.getString("upgradeHandler.frameSize",
+                        "PRIORITY", Integer.valueOf(length)), streamId,
+                        Constants.FRAME_SIZE_ERROR);
+            }
+            // Prioritisation is not implemented
+            break;
+        case Constants.FRAME_RST_STREAM:
+            processRstStream(streamId, payload, offset, length);
+            break;
+        case Constants.FRAME_SETTINGS:
+            processSettings(flags, streamId, payload, offset, length);
+            break;
+        case Constants.FRAME_PUSH_PROMISE:
+            throw protocolError("upgradeHandler.pushPromise");
+        case Constants.FRAME_PING:
+            processPing(flags, streamId, payload, offset, length);
+            break;
+        case Constants.FRAME_GOAWAY:
+            if (streamId != 0) {
+                throw protocolError("upgradeHandler.streamNotZero");
+            }
+            // Streams in progress are allowed to complete. The client closes
+            // the connection once it has received the responses it wants.
+            break;
+        case Constants.FRAME_WINDOW_UPDATE:
+            processWindowUpdate(streamId, payload, offset, length);
+            break;
+        case Constants.FRAME_CONTINUATION:
+            processContinuation(flags, streamId, payload, offset, length);
+            break;
+        default:
+            // Unknown frame types must be ignored
+            break;
+        }
+    }
+
+
+    private void processData(int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        if (streamId == 0) {
+            throw protocolError("upgradeHandler.streamZero");
+        }
+        int dataOffset = offset;
+        int dataLength = length;
+        if ((flags & Constants.FLAG_PADDED) != 0) {
+            int padLength = length == 0 ? 0 : payload[offset] & 0xFF;
+            if (length == 0 || padLength >= length) {
+                throw protocolError("upgradeHandler.invalidPadding");
+            }
+            dataOffset++;
+            dataLength = length - 1 - padLength;
+        }
+        // The data is buffered by the streams, and the size of each stream's
+        // buffer is limited by its window, so the connection window can be
+        // replenished straight away
+        if (length > 0) {
+            writeWindowUpdate(0, length);
+        }
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                throw protocolError("upgradeHandler.idleStream");
+            }
+            // Data that was in flight when the stream was closed
+            return;
+        }
+        stream.receiveData(payload, dataOffset, dataLength, length,
+                (flags & Constants.FLAG_END_STREAM) != 0);
+    }
+
+
+    private void processHeaders(int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        if (streamId == 0) {
+            throw protocolError("upgradeHandler.streamZero");
+        }
+        int start = offset;
+        int end = offset + length;
+        if ((flags & Constants.FLAG_PADDED) != 0) {
+            if (length == 0) {
+                throw protocolError("upgradeHandler.invalidPadding");
+            }
+            end -= payload[start++] & 0xFF;
+        }
+        if ((flags & Constants.FLAG_PRIORITY) != 0) {
+            // Prioritisation is not implemented
+            start += 5;
+        }
+        if (start > end) {
+            throw protocolError("upgradeHandler.invalidPadding");
+        }
+        headerBlock.reset();
+        headerStreamId = streamId;
+        headerEndOfStream = (flags & Constants.FLAG_END_STREAM) != 0;
+        appendHeaderBlock(payload, start, end - start);
+        if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+            processHeaderBlock();
+        }
+    }
+
+
+    private void processContinuation(int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        if (headerStreamId == 0) {
+            throw protocolError("upgradeHandler.unexpectedContinuation");
+        }
+        appendHeaderBlock(payload, offset, length);
+        if ((flags & Constants.FLAG_END_HEADERS) != 0) {
+            processHeaderBlock();
+        }
+    }
+
+
+    private void appendHeaderBlock(byte[] payload, int offset, int length)
+            throws Http2Exception {
+        if (headerBlock.size() + length > maxHeaderSize) {
+            throw new Http2Exception(sm.getString("upgradeHandler.headersTooLarge",
+                    Integer.valueOf(headerStreamId)), 0,
+                    Constants.ENHANCE_YOUR_CALM);
+        }
+        headerBlock.write(payload, offset, length);
+    }
+
+
+    private void processHeaderBlock() throws IOException {
+        int streamId = headerStreamId;
+        headerStreamId = 0;
+        byte[] block = headerBlock.toByteArray();
+        headerBlock.reset();
+
+        Stream stream = streams.get(Integer.valueOf(streamId));
+        if (stream != null) {
+            // Trailer fields are decoded to keep the dynamic table in sync but
+            // are not passed to the application
+            hpackDecoder.decode(block, 0, block.length, DISCARD);
+            if (!headerEndOfStream) {
+                throw new Http2Exception(sm.getString(
+                        "upgradeHandler.trailersWithoutEndOfStream",
+                        Integer.valueOf(streamId)), streamId,
+                        Constants.PROTOCOL_ERROR);
+            }
+            stream.receiveEnd();
+            return;
+        }
+
+        if ((streamId & 1) == 0) {
+            throw new Http2Exception(sm.getString("upgradeHandler.invalidStreamId",
+                    Integer.valueOf(streamId)), 0, Constants.PROTOCOL_ERROR);
+        }
+        if (streamId <= lastStreamId) {
+            // Trailer fields that were in flight when the stream was closed
+            hpackDecoder.decode(block, 0, block.length, DISCARD);
+            return;
+        }
+        lastStreamId = streamId;
+
+        if (goAwaySent || streams.size() >= protocol.getMaxConcurrentStreams()) {
+            hpackDecoder.decode(block, 0, block.length, DISCARD);
+            throw new Http2Exception(sm.getString("upgradeHandler.refused",
+                    Integer.valueOf(streamId)), streamId,
+                    Constants.REFUSED_STREAM);
+        }
+
+        long sendWindow;
+        synchronized (windowLock) {
+            sendWindow = remoteInitialWindowSize;
+        }
+        stream = new Stream(streamId, this, sendWindow);
+        hpackDecoder.decode(block, 0, block.length, stream);
+        stream.headersComplete();
+        if (headerEndOfStream) {
+            stream.receiveEnd();
+        }
+        streams.put(Integer.valueOf(streamId), stream);
+        startStream(stream);
+    }
+
+
+    private void processRstStream(int streamId, byte[] payload, int offset,
+            int length) throws Http2Exception {
+        if (streamId == 0) {
+            throw protocolError("upgradeHandler.streamZero");
+        }
+        if (length != 4) {
+            throw new Http2Exception(sm.getString("upgradeHandler.frameSize",
+                    "RST_STREAM", Integer.valueOf(length)), 0,
+                    Constants.FRAME_SIZE_ERROR);
+        }
+        Stream stream = streams.remove(Integer.valueOf(streamId));
+        if (stream != null) {
+            stream.reset();
+            synchronized (windowLock) {
+                windowLock.notifyAll();
+            }
+        }
+    }
+
+
+    private void processSettings(int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        if (streamId != 0) {
+            throw protocolError("upgradeHandler.streamNotZero");
+        }
+        if ((flags & Constants.FLAG_ACK) != 0) {
+            if (length != 0) {
+                throw new Http2Exception(sm.getString("upgradeHandler.frameSize",
+                        "SETTINGS", Integer.valueOf(length)), 0,
+                        Constants.FRAME_SIZE_ERROR);
+            }
+            return;
+        }
+        applySettings(payload, offset, length);
+        writeFrame(Constants.FRAME_SETTINGS, Constants.FLAG_ACK, 0, null, 0, 0);
+    }
+
+
+    private void applySettings(byte[] payload, int offset, int length)
+            throws Http2Exception {
+        if (length % 6 != 0) {
+            throw new Http2Exception(sm.getString("upgradeHandler.frameSize",
+                    "SETTINGS", Integer.valueOf(length)), 0,
+                    Constants.FRAME_SIZE_ERROR);
+        }
+        for (int i = offset; i < offset + length; i += 6) {
+            int id = ((payload[i] & 0xFF) << 8) + (payload[i + 1] & 0xFF);
+            long value = readInt32(payload, i + 2) & 0xFFFFFFFFL;
+            switch (id) {
+            case Constants.SETTINGS_ENABLE_PUSH:
+                if (value > 1) {
+                    throw protocolError("upgradeHandler.invalidSetting");
+                }
+                // Server push is never used
+                break;
+            case Constants.SETTINGS_INITIAL_WINDOW_SIZE:
+                if (value > Constants.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(
+                            sm.getString("upgradeHandler.invalidSetting"), 0,
+                            Constants.FLOW_CONTROL_ERROR);
+                }
+                updateInitialWindowSize((int) value);
+                break;
+            case Constants.SETTINGS_MAX_FRAME_SIZE:
+                if (value < Constants.DEFAULT_MAX_FRAME_SIZE ||
+                        value > Constants.MAX_MAX_FRAME_SIZE) {
+                    throw protocolError("upgradeHandler.invalidSetting");
+                }
+                remoteMaxFrameSize = (int) value;
+                break;
+            default:
+                // The encoder does not use the dynamic table and the server
+                // does not initiate streams so the other settings are not
+                // relevant. Unknown settings must be ignored.
+                break;
+            }
+        }
+    }
+
+
+    private void updateInitialWindowSize(int value) throws Http2Exception {
+        synchronized (windowLock) {
+            int delta = value - remoteInitialWindowSize;
+            remoteInitialWindowSize = value;
+            for (Stream stream : streams.values()) {
+                stream.sendWindow += delta;
+                if (stream.sendWindow > Constants.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(
+                            sm.getString("upgradeHandler.windowOverflow"), 0,
+                            Constants.FLOW_CONTROL_ERROR);
+                }
+            }
+            windowLock.notifyAll();
+        }
+    }
+
+
+    private void processPing(int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        if (streamId != 0) {
+            throw protocolError("upgradeHandler.streamNotZero");
+        }
+        if (length != 8) {
+            throw new Http2Exception(sm.getString("upgradeHandler.frameSize",
+                    "PING", Integer.valueOf(length)), 0,
+                    Constants.FRAME_SIZE_ERROR);
+        }
+        if ((flags & Constants.FLAG_ACK) == 0) {
+            writeFrame(Constants.FRAME_PING, Constants.FLAG_ACK, 0, payload,
+                    offset, length);
+        }
+    }
+
+
+    private void processWindowUpdate(int streamId, byte[] payload, int offset,
+            int length) throws Http2Exception {
+        if (length != 4) {
+            throw new Http2Exception(sm.getString("upgradeHandler.frameSize",
+                    "WINDOW_UPDATE", Integer.valueOf(length)), 0,
+                    Constants.FRAME_SIZE_ERROR);
+        }
+        int increment = readInt31(payload, offset);
+        if (increment == 0) {
+            throw new Http2Exception(
+                    sm.getString("upgradeHandler.zeroWindowUpdate"), streamId,
+                    Constants.PROTOCOL_ERROR);
+        }
+        synchronized (windowLock) {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > Constants.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(
+                            sm.getString("upgradeHandler.windowOverflow"), 0,
+                            Constants.FLOW_CONTROL_ERROR);
+                }
+            } else {
+                Stream stream = streams.get(Integer.valueOf(streamId));
+                if (stream == null) {
+                    return;
+                }
+                stream.sendWindow += increment;
+                if (stream.sendWindow > Constants.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(
+                            sm.getString("upgradeHandler.windowOverflow"),
+                            streamId, Constants.FLOW_CONTROL_ERROR);
+                }
+            }
+            windowLock.notifyAll();
+        }
+    }
+
+
+    // ------------------------------------------------------- Writing frames
+
+    private void writeSettings() throws IOException {
+        byte[] payload = new byte[12];
+        writeSetting(payload, 0, Constants.SETTINGS_MAX_CONCURRENT_STREAMS,
+                protocol.getMaxConcurrentStreams());
+        writeSetting(payload, 6, Constants.SETTINGS_INITIAL_WINDOW_SIZE,
+                protocol.getInitialWindowSize());
+        writeFrame(Constants.FRAME_SETTINGS, 0, 0, payload, 0, payload.length);
+    }
+
+
+    private static void writeSetting(byte[] target, int offset, int id,
+            int value) {
+        target[offset] = (byte) (id >> 8);
+        target[offset + 1] = (byte) id;
+        writeInt32(target, offset + 2, value);
+    }
+
+
+    /**
+     * Write a single frame. Frames are written atomically with respect to
+     * other frames.
+     */
+    void writeFrame(int type, int flags, int streamId, byte[] payload,
+            int offset, int length) throws IOException {
+        byte[] frame = new byte[Constants.FRAME_HEADER_LENGTH + length];
+        frame[0] = (byte) (length >> 16);
+        frame[1] = (byte) (length >> 8);
+        frame[2] = (byte) length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        writeInt32(frame, 5, streamId);
+        if (length > 0) {
+            System.arraycopy(payload, offset, frame,
+                    Constants.FRAME_HEADER_LENGTH, length);
+        }
+        synchronized (writeLock) {
+            if (closed) {
+                throw new IOException(sm.getString("upgradeHandler.closed"));
+            }
+            outputStream.write(frame, 0, frame.length);
+        }
+    }
+
+
+    /**
+     * Write a header block, split into a HEADERS frame and as many
+     * CONTINUATION frames as the maximum frame size of the client requires.
+     */
+    void writeHeaders(int streamId, byte[] block, boolean endOfStream)
+            throws IOException {
+        synchronized (writeLock) {
+            int maxFrameSize = remoteMaxFrameSize;
+            int offset = 0;
+            boolean first = true;
+            do {
+                int length = Math.min(maxFrameSize, block.length - offset);
+                int flags = 0;
+                if (offset + length == block.length) {
+                    flags |= Constants.FLAG_END_HEADERS;
+                }
+                if (first && endOfStream) {
+                    flags |= Constants.FLAG_END_STREAM;
+                }
+                writeFrame(first ? Constants.FRAME_HEADERS :
+                        Constants.FRAME_CONTINUATION, flags, streamId, block,
+                        offset, length);
+                offset += length;
+                first = false;
+            } while (offset < block.length);
+        }
+    }
+
+
+    void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] payload = new byte[4];
+        writeInt32(payload, 0, increment);
+        writeFrame(Constants.FRAME_WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+    }
+
+
+    /**
+     * Write a WINDOW_UPDATE from the thread reading the connection, where a
+     * write failure is handled when the next read fails.
+     */
+    void writeWindowUpdateQuietly(int streamId, int increment) {
+        try {
+            writeWindowUpdate(streamId, increment);
+        } catch (IOException ioe) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror"), ioe);
+            }
+        }
+    }
+
+
+    /**
+     * Reserve space in the send windows of the connection and of the stream
+     * for a DATA frame, waiting for a WINDOW_UPDATE if necessary.
+     *
+     * @return the number of octets that may be sent, at least one and no more
+     *         than <code>length</code> or the maximum frame size
+     */
+    int reserveWindow(Stream stream, int length) throws IOException {
+        long timeout = protocol.getWriteTimeout();
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (windowLock) {
+            while (true) {
+                if (closed) {
+                    throw new IOException(sm.getString("upgradeHandler.closed"));
+                }
+                if (stream.isReset()) {
+                    throw new IOException(sm.getString("stream.reset",
+                            Integer.valueOf(stream.getId())));
+                }
+                long available = Math.min(connectionSendWindow, stream.sendWindow);
+                if (available > 0) {
+                    int size = (int) Math.min(available,
+                            Math.min(length, remoteMaxFrameSize));
+                    connectionSendWindow -= size;
+                    stream.sendWindow -= size;
+                    return size;
+                }
+                try {
+                    if (timeout > 0) {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            throw new SocketTimeoutException(sm.getString(
+                                    "upgradeHandler.writeTimeout",
+                                    Integer.valueOf(stream.getId())));
+                        }
+                        windowLock.wait(wait);
+                    } else {
+                        windowLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.resetStream",
+                    Integer.valueOf(streamId), Integer.valueOf(errorCode)));
+        }
+        byte[] payload = new byte[4];
+        writeInt32(payload, 0, errorCode);
+        writeFrame(Constants.FRAME_RST_STREAM, 0, streamId, payload, 0, 4);
+        Stream stream = streams.remove(Integer.valueOf(streamId));
+        if (stream != null) {
+            stream.reset();
+            synchronized (windowLock) {
+                windowLock.notifyAll();
+            }
+        }
+    }
+
+
+    private void connectionError(Http2Exception e) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.connectionError"), e);
+        }
+        goAwaySent = true;
+        byte[] payload = new byte[8];
+        writeInt32(payload, 0, lastStreamId);
+        writeInt32(payload, 4, e.getErrorCode());
+        try {
+            writeFrame(Constants.FRAME_GOAWAY, 0, 0, payload, 0, 8);
+        } catch (IOException ioe) {
+            // Closing anyway
+        }
+        close();
+    }
+
+
+    private void close() {
+        closed = true;
+        try {
+            connection.close();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror"), e);
+            }
+        }
+        destroy();
+    }
+
+
+    // ----------------------------------------------------- Stream management
+
+    private void startStream(Stream stream) throws IOException {
+        try {
+            execute(stream.getProcessor());
+        } catch (RejectedExecutionException e) {
+            log.warn(sm.getString("upgradeHandler.rejected",
+                    Integer.valueOf(stream.getId())), e);
+            resetStream(stream.getId(), Constants.REFUSED_STREAM);
+        }
+    }
+
+
+    void execute(Runnable runnable) {
+        endpoint.getExecutor().execute(runnable);
+    }
+
+
+    /**
+     * Called by the processor of a stream once the response is complete.
+     *
+     * @param stream    The stream
+     * @param completed <code>true</code> if the response was written without
+     *                  error
+     */
+    void streamFinished(Stream stream, boolean completed) {
+        Integer key = Integer.valueOf(stream.getId());
+        if (streams.get(key) != stream) {
+            // Already reset
+            return;
+        }
+        try {
+            if (!completed || !stream.isOutputEnded()) {
+                resetStream(stream.getId(), Constants.INTERNAL_ERROR);
+            } else if (!stream.isInputEnded()) {
+                // Tell the client to stop sending the request body
+                resetStream(stream.getId(), Constants.NO_ERROR);
+            } else {
+                streams.remove(key);
+            }
+        } catch (IOException ioe) {
+            streams.remove(key);
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.ioerror"), ioe);
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------------- Accessors
+
+    Http2Protocol getProtocol() {
+        return protocol;
+    }
+
+
+    Adapter getAdapter() {
+        return adapter;
+    }
+
+
+    AbstractEndpoint<NioChannel> getEndpoint() {
+        return endpoint;
+    }
+
+
+    SocketWrapper<NioChannel> getSocketWrapper() {
+        return socketWrapper;
+    }
+
+
+    HpackEncoder getHpackEncoder() {
+        return hpackEncoder;
+    }
+
+
+    int getLocalPort() {
+        if (((NioEndpoint) endpoint).isUnixDomainSocket()) {
+            return 0;
+        }
+        return socketWrapper.getSocket().getIOChannel().socket().getLocalPort();
+    }
+
+
+    // --------------------------------------------------------------- Helpers
+
+    private static Http2Exception protocolError(String key) {
+        return new Http2Exception(sm.getString(key), 0,
+                Constants.PROTOCOL_ERROR);
+    }
+
+
+    private static int readInt32(byte[] source, int offset) {
+        return ((source[offset] & 0xFF) << 24) +
+                ((source[offset + 1] & 0xFF) << 16) +
+                ((source[offset + 2] & 0xFF) << 8) +
+                (source[offset + 3] & 0xFF);
+    }
+
+
+    private static int readInt31(byte[] source, int offset) {
+        return readInt32(source, offset) & 0x7FFFFFFF;
+    }
+
+
+    private static void writeInt32(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >> 24);
+        target[offset + 1] = (byte) (value >> 16);
+        target[offset + 2] = (byte) (value >> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+
+    private static byte[] decodeBase64Url(String value) throws Http2Exception {
+        // HTTP2-Settings uses the URL and filename safe alphabet without
+        // padding
+        String base64 = value.trim().replace('-', '+').replace('_', '/');
+        byte[] result = org.apache.tomcat.util.codec.binary.Base64.decodeBase64(
+                base64);
+        if (result == null || result.length % 6 != 0) {
+            throw new Http2Exception(sm.getString(
+                    "upgradeHandler.invalidHttp2Settings"), 0,
+                    Constants.PROTOCOL_ERROR);
+        }
+        return result;
+    }
+
+
+    private static final HpackDecoder.HeaderEmitter DISCARD =
+            new HpackDecoder.HeaderEmitter() {
+                @Override
+                public void emitHeader(String name, String value) {
+                    // NO-OP
+                }
+            };
+}
@@ -0,0 +1,579 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.Locale;
+
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A single HTTP/2 stream. The stream maps the frames of one request/response
+ * exchange to an {@link org.apache.coyote.Request} and an
+ * {@link org.apache.coyote.Response} that are processed by a
+ * {@link StreamProcessor}.
+ * <p>
+ * Header fields and DATA frames are received on the thread that reads the
+ * connection. The request body is read and the response is written on the
+ * container thread that processes the stream.
+ */
+class Stream implements HpackDecoder.HeaderEmitter {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int id;
+    private final Http2UpgradeHandler handler;
+    private final StreamProcessor processor;
+    private final Request coyoteRequest;
+    private final Response coyoteResponse;
+    private final StreamInputBuffer inputBuffer = new StreamInputBuffer();
+    private final StreamOutputBuffer outputBuffer = new StreamOutputBuffer();
+
+    /**
+     * The number of octets this end may send. Guarded by the window lock of
+     * the connection.
+     */
+    long sendWindow;
+
+    private volatile boolean reset = false;
+
+    // Only used by the thread that reads the connection
+    private boolean regularHeaderSeen = false;
+    private String headerError = null;
+    private String authority = null;
+
+
+    Stream(int id, Http2UpgradeHandler handler, long sendWindow) {
+        this.id = id;
+        this.handler = handler;
+        this.sendWindow = sendWindow;
+        processor = new StreamProcessor(handler, this);
+        coyoteRequest = processor.getRequest();
+        coyoteResponse = processor.getResponse();
+        coyoteRequest.setInputBuffer(inputBuffer);
+        coyoteResponse.setOutputBuffer(outputBuffer);
+        coyoteRequest.protocol().setString("HTTP/2.0");
+        coyoteRequest.setStartTime(System.currentTimeMillis());
+        inputBuffer.receiveWindow = handler.getProtocol().getInitialWindowSize();
+    }
+
+
+    int getId() {
+        return id;
+    }
+
+
+    StreamProcessor getProcessor() {
+        return processor;
+    }
+
+
+    boolean isReset() {
+        return reset;
+    }
+
+
+    // ------------------------------------------------------- Request headers
+
+    /**
+     * Copy the request that was sent with an HTTP/1.1 upgrade to h2c. That
+     * request becomes the first stream of the connection and has no body.
+     */
+    void copyUpgradeRequest(Request upgradeRequest) {
+        coyoteRequest.method().setString(upgradeRequest.method().toString());
+        coyoteRequest.scheme().setString("http");
+        setRequestUri(upgradeRequest.requestURI().toString());
+        if (!upgradeRequest.queryString().isNull()) {
+            coyoteRequest.queryString().setString(
+                    upgradeRequest.queryString().toString());
+        }
+        MimeHeaders source = upgradeRequest.getMimeHeaders();
+        for (int i = 0; i < source.size(); i++) {
+            String name = source.getName(i).toString().toLowerCase(Locale.ENGLISH);
+            if (isConnectionSpecific(name) || name.equals("http2-settings")) {
+                continue;
+            }
+            coyoteRequest.getMimeHeaders().addValue(name).setString(
+                    source.getValue(i).toString());
+        }
+        coyoteRequest.serverName().setString(
+                upgradeRequest.serverName().toString());
+        coyoteRequest.setServerPort(upgradeRequest.getServerPort());
+        inputBuffer.receiveEnd();
+    }
+
+
+    @Override
+    public void emitHeader(String name, String value) {
+        if (headerError != null) {
+            // Keep decoding so the HPACK state stays consistent
+            return;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                headerError = sm.getString("stream.header.upperCase", name);
+                return;
+            }
+        }
+        if (name.startsWith(":")) {
+            if (regularHeaderSeen) {
+                headerError = sm.getString("stream.header.pseudoAfterRegular",
+                        name);
+            } else if (name.equals(":method")) {
+                setPseudoHeader(coyoteRequest.method(), name, value);
+            } else if (name.equals(":scheme")) {
+                setPseudoHeader(coyoteRequest.scheme(), name, value);
+            } else if (name.equals(":path")) {
+                if (!coyoteRequest.requestURI().isNull()) {
+                    headerError = sm.getString("stream.header.duplicate", name);
+                    return;
+                }
+                int query = value.indexOf('?');
+                if (query == -1) {
+                    setRequestUri(value);
+                } else {
+                    setRequestUri(value.substring(0, query));
+                    coyoteRequest.queryString().setString(
+                            value.substring(query + 1));
+                }
+            } else if (name.equals(":authority")) {
+                if (authority != null) {
+                    headerError = sm.getString("stream.header.duplicate", name);
+                    return;
+                }
+                authority = value;
+            } else {
+                headerError = sm.getString("stream.header.unknownPseudo", name);
+            }
+            return;
+        }
+        regularHeaderSeen = true;
+        if (isConnectionSpecific(name) ||
+                name.equals("te") && !value.equals("trailers")) {
+            headerError = sm.getString("stream.header.connection", name);
+            return;
+        }
+        coyoteRequest.getMimeHeaders().addValue(name).setString(value);
+    }
+
+
+    /**
+     * Complete the processing of the request header block.
+     *
+     * @throws Http2Exception if the header block does not describe a valid
+     *                        request
+     */
+    void headersComplete() throws Http2Exception {
+        if (headerError == null && (coyoteRequest.method().isNull() ||
+                coyoteRequest.scheme().isNull() ||
+                coyoteRequest.requestURI().isNull())) {
+            headerError = sm.getString("stream.header.missingPseudo");
+        }
+        if (headerError != null) {
+            throw new Http2Exception(headerError, id, Constants.PROTOCOL_ERROR);
+        }
+        MimeHeaders headers = coyoteRequest.getMimeHeaders();
+        String host = authority;
+        if (host == null) {
+            MessageBytes hostMB = headers.getValue("host");
+            if (hostMB != null) {
+                host = hostMB.toString();
+            }
+        } else if (headers.getValue("host") == null) {
+            headers.addValue("host").setString(host);
+        }
+        if (host == null) {
+            coyoteRequest.setServerPort(handler.getLocalPort());
+        } else {
+            parseHost(host);
+        }
+    }
+
+
+    private void setPseudoHeader(MessageBytes mb, String name, String value) {
+        if (!mb.isNull()) {
+            headerError = sm.getString("stream.header.duplicate", name);
+        } else {
+            mb.setString(value);
+        }
+    }
+
+
+    private void setRequestUri(String uri) {
+        // The adapter decodes the URI from bytes
+        byte[] bytes = uri.getBytes(B2CConverter.ISO_8859_1);
+        coyoteRequest.requestURI().setBytes(bytes, 0, bytes.length);
+    }
+
+
+    private void parseHost(String host) {
+        int colon;
+        if (host.startsWith("[")) {
+            int end = host.indexOf(']');
+            colon = end == -1 ? -1 : host.indexOf(':', end);
+        } else {
+            colon = host.lastIndexOf(':');
+        }
+        int port = -1;
+        if (colon != -1) {
+            try {
+                port = Integer.parseInt(host.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                // Treat as no port
+            }
+            host = host.substring(0, colon);
+        }
+        if (port == -1) {
+            port = "https".equals(coyoteRequest.scheme().toString()) ? 443 : 80;
+        }
+        coyoteRequest.serverName().setString(host);
+        coyoteRequest.setServerPort(port);
+    }
+
+
+    private static boolean isConnectionSpecific(String name) {
+        return name.equals("connection") || name.equals("keep-alive") ||
+                name.equals("proxy-connection") ||
+                name.equals("transfer-encoding") || name.equals("upgrade");
+    }
+
+
+    // ---------------------------------------------------------- Request body
+
+    /**
+     * Called by the connection when a DATA frame is received for this stream.
+     *
+     * @param data      The buffer containing the frame payload
+     * @param offset    The offset of the data in the buffer
+     * @param length    The length of the data, excluding any padding
+     * @param flowControlledLength The length of the frame payload, including
+     *                  any padding
+     * @param endOfStream Is this the last frame of the request?
+     *
+     * @throws Http2Exception if the frame is not allowed on this stream
+     */
+    void receiveData(byte[] data, int offset, int length,
+            int flowControlledLength, boolean endOfStream)
+            throws Http2Exception {
+        inputBuffer.receiveData(data, offset, length, flowControlledLength,
+                endOfStream);
+    }
+
+
+    /**
+     * Called by the connection when the trailer fields have been received.
+     */
+    void receiveEnd() {
+        inputBuffer.receiveEnd();
+    }
+
+
+    boolean isInputEnded() {
+        return inputBuffer.isEnded();
+    }
+
+
+    /**
+     * Called when the stream has been reset by either end or the connection
+     * has been closed.
+     */
+    void reset() {
+        reset = true;
+        inputBuffer.wakeUp();
+    }
+
+
+    // ------------------------------------------------------------- Response
+
+    /**
+     * Write the response headers.
+     */
+    void writeHeaders() throws IOException {
+        outputBuffer.writeHeaders();
+    }
+
+
+    /**
+     * Send an interim 100 response if the client expects one.
+     */
+    void writeAck() throws IOException {
+        MessageBytes expect = coyoteRequest.getMimeHeaders().getValue("expect");
+        if (expect == null || !expect.equalsIgnoreCase("100-continue")) {
+            return;
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream(8);
+        handler.getHpackEncoder().encodeStatus(block, 100);
+        handler.writeHeaders(id, block.toByteArray(), false);
+    }
+
+
+    /**
+     * Complete the response, sending the end of the stream if it has not
+     * been sent yet.
+     */
+    void finishResponse() throws IOException {
+        outputBuffer.finish();
+    }
+
+
+    boolean isOutputEnded() {
+        return outputBuffer.endOfStreamSent;
+    }
+
+
+    int available() {
+        return inputBuffer.available();
+    }
+
+
+    // ---------------------------------------------------------- Inner classes
+
+    private class StreamInputBuffer implements InputBuffer {
+
+        private final LinkedList<byte[]> queue = new LinkedList<byte[]>();
+        private int queuedBytes = 0;
+        private boolean ended = false;
+
+        /**
+         * The number of octets the client may still send before it receives
+         * a WINDOW_UPDATE.
+         */
+        private int receiveWindow;
+
+        @Override
+        public int doRead(ByteChunk chunk, Request request) throws IOException {
+            byte[] data;
+            boolean windowUpdate;
+            synchronized (this) {
+                long timeout = handler.getProtocol().getReadTimeout();
+                long deadline = System.currentTimeMillis() + timeout;
+                while (queue.isEmpty() && !ended && !reset) {
+                    try {
+                        if (timeout > 0) {
+                            long wait = deadline - System.currentTimeMillis();
+                            if (wait <= 0) {
+                                throw new SocketTimeoutException(
+                                        sm.getString("stream.readTimeout",
+                                                Integer.valueOf(id)));
+                            }
+                            wait(wait);
+                        } else {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (queue.isEmpty()) {
+                    if (reset) {
+                        throw new IOException(sm.getString("stream.reset",
+                                Integer.valueOf(id)));
+                    }
+                    return -1;
+                }
+                data = queue.removeFirst();
+                queuedBytes -= data.length;
+                windowUpdate = !ended && !reset;
+                if (windowUpdate) {
+                    receiveWindow += data.length;
+                }
+            }
+            if (windowUpdate) {
+                handler.writeWindowUpdate(id, data.length);
+            }
+            chunk.setBytes(data, 0, data.length);
+            return data.length;
+        }
+
+        synchronized void receiveData(byte[] data, int offset, int length,
+                int flowControlledLength, boolean endOfStream)
+                throws Http2Exception {
+            if (ended) {
+                throw new Http2Exception(sm.getString("stream.closed",
+                        Integer.valueOf(id)), id, Constants.STREAM_CLOSED);
+            }
+            if (flowControlledLength > receiveWindow) {
+                throw new Http2Exception(sm.getString("stream.windowExceeded",
+                        Integer.valueOf(id)), id, Constants.FLOW_CONTROL_ERROR);
+            }
+            receiveWindow -= flowControlledLength;
+            if (length > 0) {
+                byte[] copy = new byte[length];
+                System.arraycopy(data, offset, copy, 0, length);
+                queue.add(copy);
+                queuedBytes += length;
+            }
+            if (endOfStream) {
+                ended = true;
+            } else if (flowControlledLength > length) {
+                // Padding is never consumed so return it to the window now
+                int padding = flowControlledLength - length;
+                receiveWindow += padding;
+                handler.writeWindowUpdateQuietly(id, padding);
+            }
+            notifyAll();
+        }
+
+        synchronized void receiveEnd() {
+            ended = true;
+            notifyAll();
+        }
+
+        synchronized boolean isEnded() {
+            return ended;
+        }
+
+        synchronized int available() {
+            return queuedBytes;
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+    }
+
+
+    private class StreamOutputBuffer implements OutputBuffer {
+
+        private long bytesWritten = 0;
+        private boolean headersSent = false;
+        private boolean noBody = false;
+        private volatile boolean endOfStreamSent = false;
+
+        @Override
+        public int doWrite(ByteChunk chunk, Response response)
+                throws IOException {
+            int length = chunk.getLength();
+            if (!headersSent) {
+                response.sendHeaders();
+            }
+            if (noBody || endOfStreamSent || length == 0) {
+                return length;
+            }
+            bytesWritten += length;
+            long contentLength = coyoteResponse.getContentLengthLong();
+            boolean last = contentLength >= 0 && bytesWritten >= contentLength;
+            writeData(chunk.getBuffer(), chunk.getStart(), length, last);
+            return length;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        void writeHeaders() throws IOException {
+            if (headersSent) {
+                return;
+            }
+            headersSent = true;
+
+            int status = coyoteResponse.getStatus();
+            if (status == 204 || status == 205 || status == 304) {
+                noBody = true;
+                coyoteResponse.setContentLength(status == 205 ? 0 : -1);
+            }
+            if ("HEAD".equals(coyoteRequest.method().toString())) {
+                noBody = true;
+            }
+
+            HpackEncoder encoder = handler.getHpackEncoder();
+            ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+            encoder.encodeStatus(block, status);
+
+            MimeHeaders headers = coyoteResponse.getMimeHeaders();
+            String contentType = coyoteResponse.getContentType();
+            if (contentType != null) {
+                encoder.encodeHeader(block, "content-type", contentType);
+            }
+            String contentLanguage = coyoteResponse.getContentLanguage();
+            if (contentLanguage != null) {
+                encoder.encodeHeader(block, "content-language", contentLanguage);
+            }
+            long contentLength = coyoteResponse.getContentLengthLong();
+            if (contentLength >= 0) {
+                encoder.encodeHeader(block, "content-length",
+                        Long.toString(contentLength));
+            }
+            if (headers.getValue("Date") == null) {
+                encoder.encodeHeader(block, "date",
+                        FastHttpDateFormat.getCurrentDate());
+            }
+            for (int i = 0; i < headers.size(); i++) {
+                String name = headers.getName(i).toString().toLowerCase(
+                        Locale.ENGLISH);
+                if (isConnectionSpecific(name)) {
+                    continue;
+                }
+                encoder.encodeHeader(block, name, headers.getValue(i).toString());
+            }
+
+            boolean endOfStream = noBody || contentLength == 0;
+            handler.writeHeaders(id, block.toByteArray(), endOfStream);
+            if (endOfStream) {
+                endOfStreamSent = true;
+            }
+        }
+
+        void finish() throws IOException {
+            if (!headersSent) {
+                writeHeaders();
+            }
+            if (!endOfStreamSent) {
+                writeData(EMPTY, 0, 0, true);
+            }
+        }
+
+        private void writeData(byte[] data, int offset, int length,
+                boolean endOfStream) throws IOException {
+            if (length == 0) {
+                handler.writeFrame(Constants.FRAME_DATA,
+                        endOfStream ? Constants.FLAG_END_STREAM : 0, id,
+                        data, offset, 0);
+            }
+            while (length > 0) {
+                int size = handler.reserveWindow(Stream.this, length);
+                boolean last = endOfStream && size == length;
+                handler.writeFrame(Constants.FRAME_DATA,
+                        last ? Constants.FLAG_END_STREAM : 0, id,
+                        data, offset, size);
+                offset += size;
+                length -= size;
+            }
+            if (endOfStream) {
+                endOfStreamSent = true;
+            }
+        }
+    }
+}
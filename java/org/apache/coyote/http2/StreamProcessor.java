@@ -0,0 +1,437 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.coyote.AbstractProcessor;
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.AsyncContextCallback;
+import org.apache.coyote.ContainerThreadMarker;
+import org.apache.coyote.ErrorState;
+import org.apache.coyote.RequestInfo;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.upgrade.servlet31.HttpUpgradeHandler;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SocketStatus;
+import org.apache.tomcat.util.net.SocketWrapper;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Processes the request of a single HTTP/2 stream on a container thread. The
+ * processor is executed by the executor of the endpoint when the request
+ * headers have been received and again for each asynchronous dispatch.
+ */
+public class StreamProcessor extends AbstractProcessor<NioChannel>
+        implements Runnable {
+
+    private static final Log log = LogFactory.getLog(StreamProcessor.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private final Http2UpgradeHandler handler;
+    private final Stream stream;
+
+    /**
+     * The status to pass to the next asynchronous dispatch or
+     * <code>null</code> if the request has not been processed yet.
+     */
+    private volatile SocketStatus dispatchStatus = null;
+
+    private String remoteAddr = null;
+    private String remoteHost = null;
+    private String localName = null;
+    private String localAddr = null;
+
+
+    StreamProcessor(Http2UpgradeHandler handler, Stream stream) {
+        super(handler.getEndpoint());
+        this.handler = handler;
+        this.stream = stream;
+        setAdapter(handler.getAdapter());
+        setSocketWrapper(handler.getSocketWrapper());
+    }
+
+
+    Response getResponse() {
+        return response;
+    }
+
+
+    @Override
+    public void run() {
+        ContainerThreadMarker.markAsContainerThread();
+        // Asynchronous dispatches may be requested while a previous dispatch
+        // is still running
+        synchronized (this) {
+            SocketState state = SocketState.CLOSED;
+            SocketStatus status = dispatchStatus;
+            try {
+                do {
+                    if (status == null) {
+                        state = process(socketWrapper);
+                    } else {
+                        state = asyncDispatch(status);
+                    }
+                    status = SocketStatus.OPEN_READ;
+                    if (state != SocketState.CLOSED && isAsync()) {
+                        state = asyncPostProcess();
+                    }
+                } while (state == SocketState.ASYNC_END);
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                log.error(sm.getString("streamProcessor.service"), t);
+                setErrorState(ErrorState.CLOSE_NOW, t);
+                state = SocketState.CLOSED;
+            }
+            if (state != SocketState.LONG) {
+                handler.streamFinished(stream, getErrorState().isIoAllowed());
+            }
+        }
+    }
+
+
+    private void dispatch(SocketStatus status) {
+        dispatchStatus = status;
+        handler.execute(this);
+    }
+
+
+    @Override
+    protected void processSocketAsync(SocketStatus status) {
+        dispatch(status);
+    }
+
+
+    @Override
+    public SocketState process(SocketWrapper<NioChannel> socketWrapper)
+            throws IOException {
+        RequestInfo rp = request.getRequestProcessor();
+        rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+        try {
+            adapter.service(request, response);
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            log.error(sm.getString("streamProcessor.service"), t);
+            response.setStatus(500);
+            setErrorState(ErrorState.CLOSE_NOW, t);
+            adapter.log(request, response, 0);
+        }
+        rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+        return nextState();
+    }
+
+
+    @Override
+    public SocketState asyncDispatch(SocketStatus status) {
+        RequestInfo rp = request.getRequestProcessor();
+        rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+        try {
+            if (!adapter.asyncDispatch(request, response, status)) {
+                setErrorState(ErrorState.CLOSE_NOW, null);
+            }
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            setErrorState(ErrorState.CLOSE_NOW, t);
+            log.error(sm.getString("streamProcessor.service"), t);
+        }
+        rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
+        return nextState();
+    }
+
+
+    private SocketState nextState() {
+        if (getErrorState().isError()) {
+            return SocketState.CLOSED;
+        } else if (isAsync()) {
+            return SocketState.LONG;
+        } else {
+            return SocketState.OPEN;
+        }
+    }
+
+
+    @Override
+    public void action(ActionCode actionCode, Object param) {
+        switch (actionCode) {
+        case COMMIT: {
+            if (!response.isCommitted()) {
+                try {
+                    stream.writeHeaders();
+                } catch (IOException e) {
+                    setErrorState(ErrorState.CLOSE_NOW, e);
+                }
+            }
+            break;
+        }
+        case ACK: {
+            if (!response.isCommitted()) {
+                try {
+                    stream.writeAck();
+                } catch (IOException e) {
+                    setErrorState(ErrorState.CLOSE_NOW, e);
+                }
+            }
+            break;
+        }
+        case CLIENT_FLUSH: {
+            // Data is written to the connection as soon as the flow control
+            // windows allow so only the headers may need to be written
+            if (!response.isCommitted()) {
+                response.sendHeaders();
+            }
+            break;
+        }
+        case CLOSE: {
+            try {
+                stream.finishResponse();
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_NOW, e);
+            }
+            break;
+        }
+        case CLOSE_NOW: {
+            if (param instanceof Throwable) {
+                setErrorState(ErrorState.CLOSE_NOW, (Throwable) param);
+            } else {
+                setErrorState(ErrorState.CLOSE_NOW, null);
+            }
+            break;
+        }
+        case IS_ERROR: {
+            ((AtomicBoolean) param).set(getErrorState().isError());
+            break;
+        }
+        case AVAILABLE: {
+            request.setAvailable(stream.available());
+            break;
+        }
+        case REQ_HOST_ADDR_ATTRIBUTE: {
+            if (remoteAddr == null) {
+                InetAddress inetAddr = getRemoteInetAddress();
+                if (inetAddr != null) {
+                    remoteAddr = inetAddr.getHostAddress();
+                }
+            }
+            request.remoteAddr().setString(remoteAddr);
+            break;
+        }
+        case REQ_HOST_ATTRIBUTE: {
+            if (remoteHost == null) {
+                InetAddress inetAddr = getRemoteInetAddress();
+                if (inetAddr != null) {
+                    remoteHost = inetAddr.getHostName();
+                }
+            }
+            request.remoteHost().setString(remoteHost);
+            break;
+        }
+        case REQ_LOCAL_NAME_ATTRIBUTE: {
+            if (localName == null) {
+                InetAddress inetAddr = getLocalInetAddress();
+                if (inetAddr != null) {
+                    localName = inetAddr.getHostName();
+                }
+            }
+            request.localName().setString(localName);
+            break;
+        }
+        case REQ_LOCAL_ADDR_ATTRIBUTE: {
+            if (localAddr == null) {
+                localAddr = getLocalInetAddress().getHostAddress();
+            }
+            request.localAddr().setString(localAddr);
+            break;
+        }
+        case REQ_REMOTEPORT_ATTRIBUTE: {
+            request.setRemotePort(getSocketRemotePort());
+            break;
+        }
+        case REQ_LOCALPORT_ATTRIBUTE: {
+            request.setLocalPort(handler.getLocalPort());
+            break;
+        }
+        case ASYNC_START: {
+            asyncStateMachine.asyncStart((AsyncContextCallback) param);
+            break;
+        }
+        case ASYNC_COMPLETE: {
+            if (asyncStateMachine.asyncComplete()) {
+                dispatch(SocketStatus.OPEN_READ);
+            }
+            break;
+        }
+        case ASYNC_DISPATCH: {
+            if (asyncStateMachine.asyncDispatch()) {
+                dispatch(SocketStatus.OPEN_READ);
+            }
+            break;
+        }
+        case ASYNC_DISPATCHED: {
+            asyncStateMachine.asyncDispatched();
+            break;
+        }
+        case ASYNC_TIMEOUT: {
+            ((AtomicBoolean) param).set(asyncStateMachine.asyncTimeout());
+            break;
+        }
+        case ASYNC_RUN: {
+            asyncStateMachine.asyncRun((Runnable) param);
+            break;
+        }
+        case ASYNC_ERROR: {
+            asyncStateMachine.asyncError();
+            break;
+        }
+        case ASYNC_IS_STARTED: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncStarted());
+            break;
+        }
+        case ASYNC_IS_COMPLETING: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isCompleting());
+            break;
+        }
+        case ASYNC_IS_DISPATCHING: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncDispatching());
+            break;
+        }
+        case ASYNC_IS_ASYNC: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsync());
+            break;
+        }
+        case ASYNC_IS_TIMINGOUT: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncTimingOut());
+            break;
+        }
+        case ASYNC_IS_ERROR: {
+            ((AtomicBoolean) param).set(asyncStateMachine.isAsyncError());
+            break;
+        }
+        case ASYNC_POST_PROCESS: {
+            asyncStateMachine.asyncPostProcess();
+            break;
+        }
+        default: {
+            // ASYNC_SETTIMEOUT: streams are not registered with the endpoint
+            // so asynchronous requests do not time out.
+            // Connection level actions such as UPGRADE are not supported on a
+            // stream.
+            break;
+        }
+        }
+    }
+
+
+    private Socket getSocket() {
+        return socketWrapper.getSocket().getIOChannel().socket();
+    }
+
+
+    private boolean isUnixDomainSocket() {
+        return ((NioEndpoint) endpoint).isUnixDomainSocket();
+    }
+
+
+    private InetAddress getRemoteInetAddress() {
+        if (isUnixDomainSocket()) {
+            return NioEndpoint.UNIX_DOMAIN_SOCKET_ADDRESS;
+        }
+        return getSocket().getInetAddress();
+    }
+
+
+    private InetAddress getLocalInetAddress() {
+        if (isUnixDomainSocket()) {
+            return NioEndpoint.UNIX_DOMAIN_SOCKET_ADDRESS;
+        }
+        return getSocket().getLocalAddress();
+    }
+
+
+    private int getSocketRemotePort() {
+        if (isUnixDomainSocket()) {
+            return 0;
+        }
+        return getSocket().getPort();
+    }
+
+
+    @Override
+    protected Log getLog() {
+        return log;
+    }
+
+
+    // ----------------------------------------------- Not used for HTTP/2 streams
+
+    @Override
+    public boolean isComet() {
+        return false;
+    }
+
+    @Override
+    public boolean isUpgrade() {
+        return false;
+    }
+
+    @Override
+    public SocketState event(SocketStatus status) throws IOException {
+        return SocketState.CLOSED;
+    }
+
+    @Override
+    public SocketState upgradeDispatch() throws IOException {
+        return SocketState.CLOSED;
+    }
+
+    @Override
+    public SocketState upgradeDispatch(SocketStatus status) throws IOException {
+        return SocketState.CLOSED;
+    }
+
+    @Override
+    public HttpUpgradeHandler getHttpUpgradeHandler() {
+        return null;
+    }
+
+    /**
+     * @deprecated  Will be removed in Tomcat 8.0.x.
+     */
+    @Deprecated
+    @Override
+    public org.apache.coyote.http11.upgrade.UpgradeInbound getUpgradeInbound() {
+        return null;
+    }
+
+    @Override
+    public void recycle(boolean socketClosing) {
+        // NO-OP: stream processors are not re-used
+    }
+
+    @Override
+    public void setSslSupport(org.apache.tomcat.util.net.SSLSupport sslSupport) {
+        // NO-OP: only cleartext connections are supported
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.juli;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A Java Flight Recorder event type that Tomcat components can emit events
+ * of.</p>
+ *
+ * <p>Tomcat must run on JREs that do not provide JFR so the event types are
+ * defined at runtime, via reflection, using <code>jdk.jfr.EventFactory</code>
+ * (available from Java 8u262). The events are disabled unless the system
+ * property <code>org.apache.juli.FlightRecorderEventType.ENABLED</code> is
+ * <code>true</code>. When disabled, no event type is registered with JFR and
+ * {@link #begin()} returns <code>null</code> after reading a single field.
+ * When enabled, events are only created while a recording has the event type
+ * enabled.</p>
+ *
+ * <p>Callers must only supply the field values when an event was started:</p>
+ * <pre>
+ * Object event = TYPE.begin();
+ * // ... the operation being measured ...
+ * if (event != null) {
+ *     TYPE.commit(event, value1, value2);
+ * }
+ * </pre>
+ *
+ * <p>This class lives in JULI so that it is available to every Tomcat
+ * component, including the JDBC pool.</p>
+ */
+public final class FlightRecorderEventType {
+
+    /**
+     * Is the emission of Tomcat's JFR events enabled for this JVM?
+     */
+    public static final boolean ENABLED = Boolean.getBoolean(
+            "org.apache.juli.FlightRecorderEventType.ENABLED");
+
+    private static final String CATEGORY = "Apache Tomcat";
+
+    private final String name;
+    private final Object factory;
+    private final Object eventType;
+    private final int fieldCount;
+
+
+    private FlightRecorderEventType(String name, Object factory,
+            Object eventType, int fieldCount) {
+        this.name = name;
+        this.factory = factory;
+        this.eventType = eventType;
+        this.fieldCount = fieldCount;
+    }
+
+
+    /**
+     * Define a new event type. If events are not enabled, or JFR is not
+     * available, the returned event type never creates events.
+     *
+     * @param name          The unique name of the event type
+     * @param label         The human readable name of the event type
+     * @param description   A description of the event type
+     * @param fieldNames    The names of the fields of the event
+     * @param fieldTypes    The types of the fields of the event. Only
+     *                      primitive types and String are supported.
+     * @return The new event type
+     */
+    public static FlightRecorderEventType create(String name, String label,
+            String description, String[] fieldNames, Class<?>[] fieldTypes) {
+        return create(name, label, description, fieldNames, fieldTypes,
+                ENABLED);
+    }
+
+
+    /*
+     * Visible for testing.
+     */
+    static FlightRecorderEventType create(String name, String label,
+            String description, String[] fieldNames, Class<?>[] fieldTypes,
+            boolean enabled) {
+        if (!enabled || !Jfr.SUPPORTED) {
+            return new FlightRecorderEventType(name, null, null, 0);
+        }
+        try {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(Jfr.annotationElementConstructor.newInstance(
+                    Jfr.nameAnnotation, name));
+            annotations.add(Jfr.annotationElementConstructor.newInstance(
+                    Jfr.labelAnnotation, label));
+            annotations.add(Jfr.annotationElementConstructor.newInstance(
+                    Jfr.descriptionAnnotation, description));
+            annotations.add(Jfr.annotationElementConstructor.newInstance(
+                    Jfr.categoryAnnotation, new String[] { CATEGORY }));
+
+            List<Object> fields = new ArrayList<Object>();
+            for (int i = 0; i < fieldNames.length; i++) {
+                fields.add(Jfr.valueDescriptorConstructor.newInstance(
+                        fieldTypes[i], fieldNames[i],
+                        Collections.emptyList()));
+            }
+
+            Object factory = Jfr.factoryCreate.invoke(null, annotations, fields);
+            Object eventType = Jfr.factoryGetEventType.invoke(factory);
+            return new FlightRecorderEventType(name, factory, eventType,
+                    fieldNames.length);
+        } catch (Exception e) {
+            reportError("Unable to create the Java Flight Recorder event type [" +
+                    name + "]", e);
+            return new FlightRecorderEventType(name, null, null, 0);
+        }
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return <code>true</code> if a recording currently has this event type
+     *         enabled
+     */
+    public boolean isEnabled() {
+        if (factory == null) {
+            return false;
+        }
+        try {
+            return ((Boolean) Jfr.eventTypeIsEnabled.invoke(eventType)).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Start an event of this type. The duration of the event is measured from
+     * this call until the event is committed.
+     *
+     * @return The new event or <code>null</code> if this event type is not
+     *         currently enabled
+     */
+    public Object begin() {
+        if (factory == null || !isEnabled()) {
+            return null;
+        }
+        try {
+            Object event = Jfr.factoryNewEvent.invoke(factory);
+            Jfr.eventBegin.invoke(event);
+            return event;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Set the fields of an event and commit it to the recording.
+     *
+     * @param event     An event obtained from {@link #begin()}
+     * @param values    The values of the fields, in the order the fields were
+     *                  declared
+     */
+    public void commit(Object event, Object... values) {
+        if (event == null) {
+            return;
+        }
+        try {
+            int count = Math.min(fieldCount, values.length);
+            for (int i = 0; i < count; i++) {
+                if (values[i] != null) {
+                    Jfr.eventSet.invoke(event, Integer.valueOf(i), values[i]);
+                }
+            }
+            Jfr.eventCommit.invoke(event);
+        } catch (Exception e) {
+            // Ignore - a failure to record an event must never affect the
+            // operation that the event describes
+        }
+    }
+
+
+    /**
+     * Emit an event that has no duration. Callers should check
+     * {@link #isEnabled()} first to avoid obtaining the values when the event
+     * will not be recorded.
+     *
+     * @param values    The values of the fields, in the order the fields were
+     *                  declared
+     */
+    public void emit(Object... values) {
+        Object event = begin();
+        if (event != null) {
+            commit(event, values);
+        }
+    }
+
+
+    /*
+     * JULI can't use a logger here since logging may not yet be configured.
+     */
+    private static void reportError(String message, Throwable t) {
+        System.err.println(message + ": " + t);
+    }
+
+
+    /*
+     * Holds the reflective references to the JFR API. Only loaded once an
+     * enabled event type is created so that JVMs which do not use Tomcat's
+     * events do not load any JFR classes.
+     */
+    private static class Jfr {
+
+        private static final boolean SUPPORTED;
+        private static final Constructor<?> annotationElementConstructor;
+        private static final Constructor<?> valueDescriptorConstructor;
+        private static final Class<?> nameAnnotation;
+        private static final Class<?> labelAnnotation;
+        private static final Class<?> descriptionAnnotation;
+        private static final Class<?> categoryAnnotation;
+        private static final Method factoryCreate;
+        private static final Method factoryNewEvent;
+        private static final Method factoryGetEventType;
+        private static final Method eventTypeIsEnabled;
+        private static final Method eventBegin;
+        private static final Method eventSet;
+        private static final Method eventCommit;
+
+        static {
+            Constructor<?> c1 = null;
+            Constructor<?> c2 = null;
+            Class<?> a1 = null;
+            Class<?> a2 = null;
+            Class<?> a3 = null;
+            Class<?> a4 = null;
+            Method m1 = null;
+            Method m2 = null;
+            Method m3 = null;
+            Method m4 = null;
+            Method m5 = null;
+            Method m6 = null;
+            Method m7 = null;
+            boolean supported = false;
+            try {
+                c1 = Class.forName("jdk.jfr.AnnotationElement").getConstructor(
+                        Class.class, Object.class);
+                c2 = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(
+                        Class.class, String.class, List.class);
+                a1 = Class.forName("jdk.jfr.Name");
+                a2 = Class.forName("jdk.jfr.Label");
+                a3 = Class.forName("jdk.jfr.Description");
+                a4 = Class.forName("jdk.jfr.Category");
+                Class<?> factoryClazz = Class.forName("jdk.jfr.EventFactory");
+                m1 = factoryClazz.getMethod("create", List.class, List.class);
+                m2 = factoryClazz.getMethod("newEvent");
+                m3 = factoryClazz.getMethod("getEventType");
+                m4 = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+                Class<?> eventClazz = Class.forName("jdk.jfr.Event");
+                m5 = eventClazz.getMethod("begin");
+                m6 = eventClazz.getMethod("set", int.class, Object.class);
+                m7 = eventClazz.getMethod("commit");
+                supported = true;
+            } catch (Exception e) {
+                // JFR is not available on this JRE
+                reportError("Java Flight Recorder events are not supported", e);
+            } catch (LinkageError e) {
+                reportError("Java Flight Recorder events are not supported", e);
+            }
+            SUPPORTED = supported;
+            annotationElementConstructor = c1;
+            valueDescriptorConstructor = c2;
+            nameAnnotation = a1;
+            labelAnnotation = a2;
+            descriptionAnnotation = a3;
+            categoryAnnotation = a4;
+            factoryCreate = m1;
+            factoryNewEvent = m2;
+            factoryGetEventType = m3;
+            eventTypeIsEnabled = m4;
+            eventBegin = m5;
+            eventSet = m6;
+            eventCommit = m7;
+        }
+    }
+}
@@ -39,6 +39,18 @@ public class CacheEntry {
     public long accessCount = 0;
     public int size = 1;
 
+    /**
+     * The gzip compressed variant of this entry's content, if one has been
+     * generated. Its size is included in {@link #size}.
+     */
+    public volatile CacheEntry compressed = null;
+
+    /**
+     * Set if a compressed variant was generated but there was no room to
+     * cache it, so that it is not generated again for every request.
+     */
+    public volatile boolean compressedNotCached = false;
+
 
     // ----------------------------------------------------- Public Methods
 
@@ -52,6 +64,8 @@ public class CacheEntry {
         exists = true;
         accessCount = 0;
         size = 1;
+        compressed = null;
+        compressedNotCached = false;
     }
 
 
@@ -1484,6 +1484,24 @@ public class ProxyDirContext implements DirContext {
     }
 
 
+    /**
+     * Stores a compressed variant of a cached resource alongside its cache
+     * entry. The variant is discarded together with the entry when the
+     * resource is modified or evicted.
+     *
+     * @param entry the cache entry, as returned by {@link #lookupCache(String)}
+     * @param compressed the compressed variant
+     * @return <code>true</code> if the variant has been cached
+     */
+    public boolean cacheCompressed(CacheEntry entry, CacheEntry compressed) {
+        if (cache == null)
+            return false;
+        synchronized (cache) {
+            return cache.loadCompressed(entry, compressed);
+        }
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
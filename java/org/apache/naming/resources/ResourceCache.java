@@ -218,6 +218,14 @@ public class ResourceCache {
 
 
     public boolean allocate(int space) {
+        return allocate(space, null);
+    }
+
+
+    /**
+     * Free space in the cache, never evicting the given entry.
+     */
+    private boolean allocate(int space, CacheEntry keep) {
 
         int toFree = space - (cacheMaxSize - cacheSize);
 
@@ -264,7 +272,8 @@ public class ResourceCache {
             }
             long entryAccessRatio = 
                 ((cache[entryPos].accessCount * 100) / accessCount);
-            if (entryAccessRatio < desiredEntryAccessRatio) {
+            if (entryAccessRatio < desiredEntryAccessRatio &&
+                    cache[entryPos] != keep) {
                 toRemove[entriesFound] = entryPos;
                 totalSpace += cache[entryPos].size;
                 toFree -= cache[entryPos].size;
@@ -352,6 +361,36 @@ public class ResourceCache {
     }
 
 
+    /**
+     * Attach a compressed variant to an entry which is currently held in the
+     * cache. The space used by the variant is accounted against the cache
+     * size and released when the entry is unloaded.
+     *
+     * @param entry The cached entry
+     * @param compressed The compressed variant of the entry content
+     * @return <code>true</code> if the variant was attached to the entry
+     */
+    public boolean loadCompressed(CacheEntry entry, CacheEntry compressed) {
+        if (!isCached(entry) || entry.compressed != null) {
+            return false;
+        }
+        if (!allocate(compressed.size, entry)) {
+            return false;
+        }
+        entry.compressed = compressed;
+        entry.size += compressed.size;
+        cacheSize += compressed.size;
+        return true;
+    }
+
+
+    private boolean isCached(CacheEntry entry) {
+        CacheEntry[] currentCache = cache;
+        int pos = find(currentCache, entry.name);
+        return (pos != -1) && (currentCache[pos] == entry);
+    }
+
+
     /**
      * Find a map element given its name in a sorted array of map elements.
      * This will return the index for the closest inferior or equal item in the
@@ -34,4 +34,9 @@ public class ClassFormatException extends RuntimeException {
     public ClassFormatException(final String s) {
         super(s);
     }
+
+
+    public ClassFormatException(final String s, final Throwable cause) {
+        super(s, cause);
+    }
 }
@@ -17,7 +17,9 @@
  */
 package org.apache.tomcat.util.bcel.classfile;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.IOException;
 
 import org.apache.tomcat.util.bcel.Const;
@@ -36,6 +38,13 @@ public class ConstantPool {
 
     private final Constant[] constant_pool;
 
+    /*
+     * Only set if the constants are decoded on first use from the bytes of the
+     * class file.
+     */
+    private final byte[] bytes;
+    private final int[] offsets;
+
 
     /**
      * Read constants from given input stream.
@@ -45,6 +54,8 @@ public class ConstantPool {
      * @throws ClassFormatException
      */
     ConstantPool(final DataInput input) throws IOException, ClassFormatException {
+        bytes = null;
+        offsets = null;
         final int constant_pool_count = input.readUnsignedShort();
         constant_pool = new Constant[constant_pool_count];
         /* constant_pool[0] is unused by the compiler and may be used freely
@@ -69,6 +80,23 @@ public class ConstantPool {
     }
 
 
+    /**
+     * Create a constant pool that decodes each constant from the bytes of the
+     * class file the first time it is used.
+     *
+     * @param bytes     The bytes of the class file. At least the constant pool
+     *                  must be present and the array must not be modified
+     *                  once passed to this constructor.
+     * @param offsets   The offset of each constant in the bytes of the class
+     *                  file or zero if there is no constant at that index
+     */
+    ConstantPool(final byte[] bytes, final int[] offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        constant_pool = new Constant[offsets.length];
+    }
+
+
     /**
      * Get constant from constant pool.
      *
@@ -81,7 +109,12 @@ public class ConstantPool {
             throw new ClassFormatException("Invalid constant pool reference: " + index
                     + ". Constant pool size is: " + constant_pool.length);
         }
-        return constant_pool[index];
+        Constant c = constant_pool[index];
+        if (c == null && offsets != null && offsets[index] > 0) {
+            c = decodeConstant(index);
+            constant_pool[index] = c;
+        }
+        return c;
     }
 
 
@@ -107,4 +140,15 @@ public class ConstantPool {
         }
         return c;
     }
+
+
+    private Constant decodeConstant(final int index) {
+        final int offset = offsets[index];
+        try {
+            return Constant.readConstant(new DataInputStream(
+                    new ByteArrayInputStream(bytes, offset, bytes.length - offset)));
+        } catch (IOException e) {
+            throw new ClassFormatException("Invalid constant pool entry at index: " + index, e);
+        }
+    }
 }
@@ -0,0 +1,397 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package org.apache.tomcat.util.bcel.classfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.apache.tomcat.util.bcel.Const;
+
+/**
+ * Parses a Java .class file in to the same {@link JavaClass} as
+ * {@link ClassParser} but does less work to do so. The class file is read in
+ * to a buffer that is reused by the current thread. Only the location of each
+ * entry in the constant pool is recorded and the entries are only decoded when
+ * they are used. Fields, methods and all class attributes other than
+ * <code>RuntimeVisibleAnnotations</code> are skipped using their lengths.
+ * <p>
+ * The constant pool is only retained, as a copy, if the class has annotations.
+ */
+public final class LazyClassParser {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Buffers that grow beyond these sizes while parsing an unusually large
+     * class are not retained by the thread.
+     */
+    private static final int MAX_RETAINED_BYTES = 64 * 1024;
+    private static final int MAX_RETAINED_OFFSETS = 8 * 1024;
+
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS;
+
+    private static final String[] INTERFACES_EMPTY_ARRAY = new String[0];
+
+    private static final ThreadLocal<Buffers> buffers =
+            new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    static {
+        String name = "RuntimeVisibleAnnotations";
+        RUNTIME_VISIBLE_ANNOTATIONS = new byte[name.length()];
+        for (int i = 0; i < RUNTIME_VISIBLE_ANNOTATIONS.length; i++) {
+            RUNTIME_VISIBLE_ANNOTATIONS[i] = (byte) name.charAt(i);
+        }
+    }
+
+    private final InputStream inputStream;
+
+    // Only valid while parsing
+    private byte[] bytes;
+    private int[] offsets;
+    // The offsets buffer is reused so may be longer than the constant pool
+    private int constantPoolCount;
+    private int length;
+    private int pos;
+
+
+    /**
+     * Parse class from the given stream. The stream is read to the end but it
+     * is not closed.
+     *
+     * @param inputStream Input stream
+     */
+    public LazyClassParser(final InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+
+    /**
+     * Parse the given Java class file and return an object that represents
+     * the class name, super class name, interfaces, access flags and class
+     * level runtime visible annotations.
+     *
+     * @return Class object representing the parsed class file
+     * @throws  IOException If an I/O occurs reading the byte code
+     * @throws  ClassFormatException If the byte code is invalid
+     */
+    public JavaClass parse() throws IOException, ClassFormatException {
+        Buffers b = buffers.get();
+        try {
+            length = b.read(inputStream);
+            bytes = b.bytes;
+            try {
+                return parse(b);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // Should not happen as every read is bounds checked but
+                // ensure a corrupt class file is always reported the same way
+                throw new ClassFormatException("Invalid class file", e);
+            }
+        } finally {
+            bytes = null;
+            offsets = null;
+            b.trim();
+        }
+    }
+
+
+    private JavaClass parse(Buffers b) throws IOException, ClassFormatException {
+        pos = 0;
+        if (readInt() != MAGIC) {
+            throw new ClassFormatException("It is not a Java .class file");
+        }
+        // Minor and major version
+        skip(4);
+
+        // Constant pool
+        final int constant_pool_count = readUnsignedShort();
+        offsets = b.offsets(constant_pool_count);
+        constantPoolCount = constant_pool_count;
+        for (int i = 1; i < constant_pool_count; i++) {
+            offsets[i] = pos;
+            final byte tag = readByte();
+            switch (tag) {
+                case Const.CONSTANT_Utf8:
+                    skip(readUnsignedShort());
+                    break;
+                case Const.CONSTANT_Class:
+                case Const.CONSTANT_String:
+                case Const.CONSTANT_MethodType:
+                case Const.CONSTANT_Module:
+                case Const.CONSTANT_Package:
+                    skip(2);
+                    break;
+                case Const.CONSTANT_MethodHandle:
+                    skip(3);
+                    break;
+                case Const.CONSTANT_Integer:
+                case Const.CONSTANT_Float:
+                case Const.CONSTANT_Fieldref:
+                case Const.CONSTANT_Methodref:
+                case Const.CONSTANT_InterfaceMethodref:
+                case Const.CONSTANT_NameAndType:
+                case Const.CONSTANT_InvokeDynamic:
+                    skip(4);
+                    break;
+                case Const.CONSTANT_Long:
+                case Const.CONSTANT_Double:
+                    skip(8);
+                    // Eight byte constants take up two entries
+                    i++;
+                    if (i < constant_pool_count) {
+                        offsets[i] = 0;
+                    }
+                    break;
+                default:
+                    throw new ClassFormatException(
+                            "Invalid byte tag in constant pool: " + tag);
+            }
+        }
+        final int constant_pool_end = pos;
+
+        // Class information
+        int access_flags = readUnsignedShort();
+        /* Interfaces are implicitely abstract, the flag should be set
+         * according to the JVM specification.
+         */
+        if ((access_flags & Const.ACC_INTERFACE) != 0) {
+            access_flags |= Const.ACC_ABSTRACT;
+        }
+        if (((access_flags & Const.ACC_ABSTRACT) != 0)
+                && ((access_flags & Const.ACC_FINAL) != 0)) {
+            throw new ClassFormatException("Class can't be both final and abstract");
+        }
+        final String class_name = getClassName(readUnsignedShort());
+        final int superclass_name_index = readUnsignedShort();
+        final String superclass_name;
+        if (superclass_name_index > 0) {
+            // May be zero -> class is java.lang.Object
+            superclass_name = getClassName(superclass_name_index);
+        } else {
+            superclass_name = "java.lang.Object";
+        }
+
+        // Interfaces
+        final int interfaces_count = readUnsignedShort();
+        final String[] interface_names;
+        if (interfaces_count > 0) {
+            interface_names = new String[interfaces_count];
+            for (int i = 0; i < interfaces_count; i++) {
+                interface_names[i] = getClassName(readUnsignedShort());
+            }
+        } else {
+            interface_names = INTERFACES_EMPTY_ARRAY;
+        }
+
+        // Fields and methods
+        skipFieldsOrMethods();
+        skipFieldsOrMethods();
+
+        // Class attributes
+        Annotations runtimeVisibleAnnotations = null;
+        final int attributes_count = readUnsignedShort();
+        for (int i = 0; i < attributes_count; i++) {
+            final int name_index = readUnsignedShort();
+            final int attribute_length = readInt();
+            if (isUtf8(name_index, RUNTIME_VISIBLE_ANNOTATIONS)) {
+                if (runtimeVisibleAnnotations != null) {
+                    throw new ClassFormatException(
+                            "RuntimeVisibleAnnotations attribute is not allowed more than once in a class file");
+                }
+                checkAvailable(attribute_length);
+                // The annotations decode the constants they use on demand so
+                // they need a copy of the constant pool that will not be
+                // overwritten by the next class parsed by this thread
+                ConstantPool constant_pool = new ConstantPool(
+                        Arrays.copyOf(bytes, constant_pool_end),
+                        Arrays.copyOf(offsets, constant_pool_count));
+                runtimeVisibleAnnotations = new Annotations(
+                        new DataInputStream(new ByteArrayInputStream(
+                                bytes, pos, attribute_length)),
+                        constant_pool);
+            }
+            skip(attribute_length);
+        }
+
+        return new JavaClass(class_name, superclass_name, access_flags, null,
+                interface_names, runtimeVisibleAnnotations);
+    }
+
+
+    private void skipFieldsOrMethods() {
+        final int count = readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            // Access flags, name index and signature index
+            skip(6);
+            final int attributes_count = readUnsignedShort();
+            for (int j = 0; j < attributes_count; j++) {
+                // Name index
+                skip(2);
+                skip(readInt());
+            }
+        }
+    }
+
+
+    private String getClassName(final int index) {
+        final int offset = getOffset(index, Const.CONSTANT_Class);
+        final int name_index = ((bytes[offset + 1] & 0xff) << 8) |
+                (bytes[offset + 2] & 0xff);
+        return Utility.compactClassName(getUtf8(name_index));
+    }
+
+
+    private String getUtf8(final int index) {
+        final int offset = getOffset(index, Const.CONSTANT_Utf8);
+        final int utf8_length = ((bytes[offset + 1] & 0xff) << 8) |
+                (bytes[offset + 2] & 0xff);
+        final int start = offset + 3;
+        final char[] chars = new char[utf8_length];
+        for (int i = 0; i < utf8_length; i++) {
+            final byte c = bytes[start + i];
+            if (c <= 0) {
+                // Not ASCII - fall back to the full modified UTF-8 decoder
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(
+                            bytes, offset + 1, utf8_length + 2)).readUTF();
+                } catch (IOException e) {
+                    throw new ClassFormatException(
+                            "Invalid UTF-8 constant at index: " + index);
+                }
+            }
+            chars[i] = (char) c;
+        }
+        return new String(chars);
+    }
+
+
+    private boolean isUtf8(final int index, final byte[] expected) {
+        final int offset = getOffset(index, Const.CONSTANT_Utf8);
+        final int utf8_length = ((bytes[offset + 1] & 0xff) << 8) |
+                (bytes[offset + 2] & 0xff);
+        if (utf8_length != expected.length) {
+            return false;
+        }
+        final int start = offset + 3;
+        for (int i = 0; i < utf8_length; i++) {
+            if (bytes[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private int getOffset(final int index, final byte tag) {
+        if (index <= 0 || index >= constantPoolCount || offsets[index] == 0) {
+            throw new ClassFormatException("Invalid constant pool reference: " + index);
+        }
+        final int offset = offsets[index];
+        if (bytes[offset] != tag) {
+            throw new ClassFormatException("Expected class `" +
+                    Const.getConstantName(tag) + "' at index " + index);
+        }
+        return offset;
+    }
+
+
+    private void checkAvailable(final int count) {
+        if (count < 0 || pos + count > length) {
+            throw new ClassFormatException("Unexpected end of class file");
+        }
+    }
+
+
+    private byte readByte() {
+        checkAvailable(1);
+        return bytes[pos++];
+    }
+
+
+    private int readUnsignedShort() {
+        checkAvailable(2);
+        final int result = ((bytes[pos] & 0xff) << 8) | (bytes[pos + 1] & 0xff);
+        pos += 2;
+        return result;
+    }
+
+
+    private int readInt() {
+        checkAvailable(4);
+        final int result = ((bytes[pos] & 0xff) << 24) |
+                ((bytes[pos + 1] & 0xff) << 16) |
+                ((bytes[pos + 2] & 0xff) << 8) |
+                (bytes[pos + 3] & 0xff);
+        pos += 4;
+        return result;
+    }
+
+
+    private void skip(final int count) {
+        checkAvailable(count);
+        pos += count;
+    }
+
+
+    /*
+     * The buffers retained by each thread between parses.
+     */
+    private static final class Buffers {
+
+        private static final int DEFAULT_BYTES = 8 * 1024;
+        private static final int DEFAULT_OFFSETS = 512;
+
+        private byte[] bytes = new byte[DEFAULT_BYTES];
+        private int[] offsets = new int[DEFAULT_OFFSETS];
+
+        private int read(final InputStream inputStream) throws IOException {
+            int count = 0;
+            int n;
+            while ((n = inputStream.read(bytes, count, bytes.length - count)) > -1) {
+                count += n;
+                if (count == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+            }
+            return count;
+        }
+
+        private int[] offsets(final int count) {
+            if (offsets.length < count) {
+                offsets = new int[count];
+            }
+            return offsets;
+        }
+
+        private void trim() {
+            if (bytes.length > MAX_RETAINED_BYTES) {
+                bytes = new byte[DEFAULT_BYTES];
+            }
+            if (offsets.length > MAX_RETAINED_OFFSETS) {
+                offsets = new int[DEFAULT_OFFSETS];
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Utilities for working with direct and memory mapped {@link ByteBuffer}s.
+ */
+public class ByteBufferUtils {
+
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+    private static final Log log = LogFactory.getLog(ByteBufferUtils.class);
+
+    private static final Object unsafe;
+    private static final Method cleanerMethod;
+    private static final Method cleanMethod;
+    private static final Method invokeCleanerMethod;
+
+    static {
+        ByteBuffer tempBuffer = ByteBuffer.allocateDirect(0);
+        Method cleanerMethodLocal = null;
+        Method cleanMethodLocal = null;
+        Object unsafeLocal = null;
+        Method invokeCleanerMethodLocal = null;
+        try {
+            if (JreCompat.isJre9Available()) {
+                Class<?> clazz = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = clazz.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafeLocal = theUnsafe.get(null);
+                invokeCleanerMethodLocal =
+                        clazz.getMethod("invokeCleaner", ByteBuffer.class);
+                invokeCleanerMethodLocal.invoke(unsafeLocal, tempBuffer);
+            } else {
+                cleanerMethodLocal = tempBuffer.getClass().getMethod("cleaner");
+                cleanerMethodLocal.setAccessible(true);
+                Object cleanerObject = cleanerMethodLocal.invoke(tempBuffer);
+                cleanMethodLocal = cleanerObject.getClass().getMethod("clean");
+                cleanMethodLocal.invoke(cleanerObject);
+            }
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            log.warn(sm.getString("byteBufferUtils.cleaner"), t);
+            cleanerMethodLocal = null;
+            cleanMethodLocal = null;
+            unsafeLocal = null;
+            invokeCleanerMethodLocal = null;
+        }
+        cleanerMethod = cleanerMethodLocal;
+        cleanMethod = cleanMethodLocal;
+        unsafe = unsafeLocal;
+        invokeCleanerMethod = invokeCleanerMethodLocal;
+    }
+
+
+    private ByteBufferUtils() {
+        // Hide the default constructor since this is a utility class.
+    }
+
+
+    /**
+     * Release the native memory or file mapping held by a direct buffer
+     * without waiting for it to be garbage collected. The caller must ensure
+     * that neither the buffer nor any view of it is used afterwards. Heap
+     * buffers are ignored.
+     *
+     * @param buf The buffer to release
+     */
+    public static void cleanDirectBuffer(ByteBuffer buf) {
+        if (buf == null || !buf.isDirect()) {
+            return;
+        }
+        try {
+            if (invokeCleanerMethod != null) {
+                invokeCleanerMethod.invoke(unsafe, buf);
+            } else if (cleanMethod != null) {
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleanMethod.invoke(cleaner);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            logCleanFailure(e);
+        } catch (IllegalArgumentException e) {
+            logCleanFailure(e);
+        } catch (InvocationTargetException e) {
+            logCleanFailure(e);
+        } catch (SecurityException e) {
+            logCleanFailure(e);
+        }
+    }
+
+
+    private static void logCleanFailure(Exception e) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("byteBufferUtils.cleaner"), e);
+        }
+    }
+}
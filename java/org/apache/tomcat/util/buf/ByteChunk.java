@@ -118,6 +118,13 @@ public final class ByteChunk implements Cloneable, Serializable {
     // How much can it grow, when data is added
     private int limit=-1;
 
+    // Size of the array created by allocate(). A grown array larger than this
+    // may be released on recycle.
+    private int initialSize = 0;
+
+    // Was buff created by this chunk (rather than being set by the caller)?
+    private boolean ownsBuffer = false;
+
     private ByteInputChannel in = null;
     private ByteOutputChannel out = null;
 
@@ -155,6 +162,7 @@ public final class ByteChunk implements Cloneable, Serializable {
      */
     public void recycle() {
         //        buff = null;
+        releaseGrownBuffer();
         charset=null;
         start=0;
         end=0;
@@ -164,6 +172,7 @@ public final class ByteChunk implements Cloneable, Serializable {
 
     public void reset() {
         buff=null;
+        ownsBuffer = false;
     }
 
     // -------------------- Setup --------------------
@@ -172,6 +181,8 @@ public final class ByteChunk implements Cloneable, Serializable {
         if( buff==null || buff.length < initial ) {
             buff=new byte[initial];
         }
+        initialSize = initial;
+        ownsBuffer = true;
         this.limit=limit;
         start=0;
         end=0;
@@ -188,6 +199,7 @@ public final class ByteChunk implements Cloneable, Serializable {
      */
     public void setBytes(byte[] b, int off, int len) {
         buff = b;
+        ownsBuffer = false;
         start = off;
         end = start+ len;
         isSet=true;
@@ -385,6 +397,43 @@ public final class ByteChunk implements Cloneable, Serializable {
     }
 
 
+    /**
+     * Add data to the buffer from a {@link ByteBuffer}, for example a slice of
+     * a memory mapped file. The data is copied straight into this chunk's
+     * buffer, which is flushed to the output channel each time it reaches the
+     * limit.
+     *
+     * @param from the buffer to read from, its position is advanced by the
+     *             number of bytes appended
+     * @throws IOException if writing to the output channel fails
+     */
+    public void append(ByteBuffer from)
+        throws IOException
+    {
+        int len = from.remaining();
+
+        // will grow, up to limit
+        makeSpace(len);
+
+        // if we don't have limit: makeSpace can grow as it wants
+        if (limit < 0) {
+            // assert: makeSpace made enough space
+            from.get(buff, end, len);
+            end += len;
+            return;
+        }
+
+        while (from.hasRemaining()) {
+            if (end >= limit) {
+                flushBuffer();
+            }
+            int n = Math.min(from.remaining(), limit - end);
+            from.get(buff, end, n);
+            end += n;
+        }
+    }
+
+
     // -------------------- Removing data from the buffer --------------------
 
     public int substract()
@@ -505,11 +554,10 @@ public final class ByteChunk implements Cloneable, Serializable {
         }
 
         if( buff==null ) {
-            if( desiredSize < 256 )
-             {
-                desiredSize=256; // take a minimum
-            }
-            buff=new byte[desiredSize];
+            // take a minimum and round up to the size class
+            buff = ChunkBufferPool.newByteArray(
+                    ChunkBufferPool.sizeClass(desiredSize, limit));
+            ownsBuffer = true;
         }
 
         // limit < buf.length ( the buffer is already big )
@@ -517,30 +565,36 @@ public final class ByteChunk implements Cloneable, Serializable {
         if( desiredSize <= buff.length ) {
             return;
         }
-        // grow in larger chunks
-        if( desiredSize < 2 * buff.length ) {
-            newSize= buff.length * 2;
-            if( limit >0 &&
-                newSize > limit ) {
-                newSize=limit;
-            }
-            tmp=new byte[newSize];
-        } else {
-            newSize= buff.length * 2 + count ;
-            if( limit > 0 &&
-                newSize > limit ) {
-                newSize=limit;
-            }
-            tmp=new byte[newSize];
-        }
+        // grow in power of two size classes
+        newSize = ChunkBufferPool.sizeClass(desiredSize, limit);
+        tmp = ChunkBufferPool.newByteArray(newSize);
 
         System.arraycopy(buff, start, tmp, 0, end-start);
         buff = tmp;
         tmp = null;
+        ownsBuffer = true;
         end=end-start;
         start=0;
     }
 
+    /*
+     * An array that has grown beyond the retained size is replaced so that
+     * chunks that are re-used for many requests do not keep the array
+     * required by the largest one.
+     */
+    private void releaseGrownBuffer() {
+        if (ownsBuffer && buff != null &&
+                ChunkBufferPool.isReleased(buff.length, initialSize)) {
+            ChunkBufferPool.release(buff);
+            if (initialSize > 0) {
+                buff = new byte[initialSize];
+            } else {
+                buff = null;
+                ownsBuffer = false;
+            }
+        }
+    }
+
     // -------------------- Conversion and getters --------------------
 
     @Override
@@ -19,12 +19,19 @@ package org.apache.tomcat.util.buf;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 
 /**
  * NIO based character encoder.
+ * <p>
+ * UTF-8 and ISO-8859-1, by far the most commonly used response encodings, are
+ * encoded directly from the {@link CharChunk} into the {@link ByteChunk}
+ * without using a {@link CharsetEncoder}. The output is identical to that of
+ * the {@link CharsetEncoder} configured to replace malformed and unmappable
+ * input.
  */
 public final class C2BConverter {
 
@@ -37,8 +44,39 @@ public final class C2BConverter {
      */
     CharBuffer leftovers = null;
 
+    private static final int FAST_PATH_NONE = 0;
+    private static final int FAST_PATH_ISO_8859_1 = 1;
+    private static final int FAST_PATH_UTF_8 = 2;
+
+    /**
+     * The encoding specific conversion, if any, to use in place of the
+     * {@link CharsetEncoder}.
+     */
+    private final int fastPath;
+
+    /**
+     * Byte written in place of malformed or unmappable input. This is the
+     * default replacement of both fast path encoders.
+     */
+    private static final byte REPLACEMENT = (byte) '?';
+
+    /**
+     * High surrogate at the end of the previous input that the fast path is
+     * waiting to pair with the first character of the next input. Zero if
+     * there is none.
+     */
+    private char highSurrogate = 0;
+
     public C2BConverter(String encoding) throws IOException {
-        encoder = B2CConverter.getCharset(encoding).newEncoder();
+        Charset charset = B2CConverter.getCharset(encoding);
+        if (charset.equals(B2CConverter.UTF_8)) {
+            fastPath = FAST_PATH_UTF_8;
+        } else if (charset.equals(B2CConverter.ISO_8859_1)) {
+            fastPath = FAST_PATH_ISO_8859_1;
+        } else {
+            fastPath = FAST_PATH_NONE;
+        }
+        encoder = charset.newEncoder();
         // FIXME: See if unmappable/malformed behavior configuration is needed
         //        in practice
         encoder.onUnmappableCharacter(CodingErrorAction.REPLACE)
@@ -53,10 +91,11 @@ public final class C2BConverter {
     public void recycle() {
         encoder.reset();
         leftovers.position(0);
+        highSurrogate = 0;
     }
 
     public boolean isUndeflow() {
-        return (leftovers.position() > 0);
+        return (leftovers.position() > 0) || highSurrogate != 0;
     }
 
     /**
@@ -67,6 +106,10 @@ public final class C2BConverter {
      */
     public void convert(CharChunk cc, ByteChunk bc) 
             throws IOException {
+        if (fastPath != FAST_PATH_NONE) {
+            convertFast(cc, bc);
+            return;
+        }
         if ((bb == null) || (bb.array() != bc.getBuffer())) {
             // Create a new byte buffer if anything changed
             bb = ByteBuffer.wrap(bc.getBuffer(), bc.getEnd(), 
@@ -124,4 +167,122 @@ public final class C2BConverter {
             }
         }
     }
+
+
+    /*
+     * Encodes as many characters from cc as fit into the remaining space of
+     * the buffer of bc using the UTF-8 or ISO-8859-1 fast path.
+     */
+    private void convertFast(CharChunk cc, ByteChunk bc) {
+        char[] src = cc.getBuffer();
+        int sp = cc.getStart();
+        int sl = cc.getEnd();
+        byte[] dst = bc.getBuffer();
+        int dp = bc.getEnd();
+        int dl = dst.length;
+        boolean utf8 = (fastPath == FAST_PATH_UTF_8);
+
+        // Complete any surrogate pair started by the previous input
+        if (highSurrogate != 0 && sp < sl) {
+            char c = src[sp];
+            if (Character.isLowSurrogate(c)) {
+                if (utf8) {
+                    if (dl - dp < 4) {
+                        return;
+                    }
+                    dp = putUtf8(Character.toCodePoint(highSurrogate, c), dst,
+                            dp);
+                } else {
+                    if (dp == dl) {
+                        return;
+                    }
+                    // Unmappable
+                    dst[dp++] = REPLACEMENT;
+                }
+                sp++;
+            } else {
+                if (dp == dl) {
+                    return;
+                }
+                // Malformed. c is processed below.
+                dst[dp++] = REPLACEMENT;
+            }
+            highSurrogate = 0;
+        }
+
+        while (sp < sl) {
+            // Tight loop for the common case of ASCII (or, for ISO-8859-1,
+            // Latin-1) characters
+            int limit = sp + Math.min(sl - sp, dl - dp);
+            int max = utf8 ? 0x80 : 0x100;
+            while (sp < limit) {
+                char c = src[sp];
+                if (c >= max) {
+                    break;
+                }
+                dst[dp++] = (byte) c;
+                sp++;
+            }
+            if (sp == sl || dp == dl) {
+                break;
+            }
+
+            char c = src[sp];
+            if (utf8 && c < 0x800) {
+                if (dl - dp < 2) {
+                    break;
+                }
+                dst[dp++] = (byte) (0xc0 | (c >> 6));
+                dst[dp++] = (byte) (0x80 | (c & 0x3f));
+                sp++;
+            } else if (Character.isHighSurrogate(c)) {
+                if (sp + 1 == sl) {
+                    // Wait for the next input to see if this is a pair
+                    highSurrogate = c;
+                    sp++;
+                    break;
+                }
+                char d = src[sp + 1];
+                if (!Character.isLowSurrogate(d)) {
+                    // Malformed
+                    dst[dp++] = REPLACEMENT;
+                    sp++;
+                } else if (utf8) {
+                    if (dl - dp < 4) {
+                        break;
+                    }
+                    dp = putUtf8(Character.toCodePoint(c, d), dst, dp);
+                    sp += 2;
+                } else {
+                    // Unmappable
+                    dst[dp++] = REPLACEMENT;
+                    sp += 2;
+                }
+            } else if (!utf8 || Character.isLowSurrogate(c)) {
+                // Unmappable or malformed
+                dst[dp++] = REPLACEMENT;
+                sp++;
+            } else {
+                if (dl - dp < 3) {
+                    break;
+                }
+                dst[dp++] = (byte) (0xe0 | (c >> 12));
+                dst[dp++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                dst[dp++] = (byte) (0x80 | (c & 0x3f));
+                sp++;
+            }
+        }
+
+        bc.setEnd(dp);
+        cc.setOffset(sp);
+    }
+
+
+    private static int putUtf8(int codePoint, byte[] dst, int dp) {
+        dst[dp++] = (byte) (0xf0 | (codePoint >> 18));
+        dst[dp++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        dst[dp++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        dst[dp++] = (byte) (0x80 | (codePoint & 0x3f));
+        return dp;
+    }
 }
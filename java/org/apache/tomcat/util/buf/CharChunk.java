@@ -74,6 +74,13 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     // maximum amount to be cached
     private int limit=-1;
 
+    // Size of the array created by allocate(). A grown array larger than this
+    // may be released on recycle.
+    private int initialSize = 0;
+
+    // Was buff created by this chunk (rather than being set by the caller)?
+    private boolean ownsBuffer = false;
+
     private CharInputChannel in = null;
     private CharOutputChannel out = null;
 
@@ -115,6 +122,7 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
      */
     public void recycle() {
         //        buff=null;
+        releaseGrownBuffer();
         isSet=false; // XXX
         hasHashCode = false;
         start=0;
@@ -127,6 +135,7 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
     @Deprecated
     public void reset() {
         buff=null;
+        ownsBuffer = false;
     }
 
     // -------------------- Setup --------------------
@@ -135,6 +144,8 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
         if( buff==null || buff.length < initial ) {
             buff=new char[initial];
         }
+        initialSize = initial;
+        ownsBuffer = true;
         this.limit=limit;
         start=0;
         end=0;
@@ -149,6 +160,7 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
 
     public void setChars( char[] c, int off, int len ) {
         buff=c;
+        ownsBuffer = false;
         start=off;
         end=start + len;
         isSet=true;
@@ -490,11 +502,10 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
         }
 
         if( buff==null ) {
-            if( desiredSize < 256 )
-             {
-                desiredSize=256; // take a minimum
-            }
-            buff=new char[desiredSize];
+            // take a minimum and round up to the size class
+            buff = ChunkBufferPool.newCharArray(
+                    ChunkBufferPool.sizeClass(desiredSize, limit));
+            ownsBuffer = true;
         }
 
         // limit < buf.length ( the buffer is already big )
@@ -502,26 +513,32 @@ public final class CharChunk implements Cloneable, Serializable, CharSequence {
         if( desiredSize <= buff.length) {
             return;
         }
-        // grow in larger chunks
-        if( desiredSize < 2 * buff.length ) {
-            newSize= buff.length * 2;
-            if( limit >0 &&
-                newSize > limit ) {
-                newSize=limit;
-            }
-            tmp=new char[newSize];
-        } else {
-            newSize= buff.length * 2 + count ;
-            if( limit > 0 &&
-                newSize > limit ) {
-                newSize=limit;
-            }
-            tmp=new char[newSize];
-        }
+        // grow in power of two size classes
+        newSize = ChunkBufferPool.sizeClass(desiredSize, limit);
+        tmp = ChunkBufferPool.newCharArray(newSize);
 
         System.arraycopy(buff, 0, tmp, 0, end);
         buff = tmp;
         tmp = null;
+        ownsBuffer = true;
+    }
+
+    /*
+     * An array that has grown beyond the retained size is replaced so that
+     * chunks that are re-used for many requests do not keep the array
+     * required by the largest one.
+     */
+    private void releaseGrownBuffer() {
+        if (ownsBuffer && buff != null &&
+                ChunkBufferPool.isReleased(buff.length, initialSize)) {
+            ChunkBufferPool.release(buff);
+            if (initialSize > 0) {
+                buff = new char[initialSize];
+            } else {
+                buff = null;
+                ownsBuffer = false;
+            }
+        }
     }
 
     // -------------------- Conversion and getters --------------------
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Growth, retention and pooling policy for the arrays owned by
+ * {@link ByteChunk} and {@link CharChunk}.
+ * <p>
+ * Chunks grow their arrays in power of two size classes. When a chunk is
+ * recycled, an array that has grown beyond both the size the chunk was
+ * allocated with and the maximum retained size is released, so that objects
+ * cached for re-use (such as recycled processors) do not keep the arrays
+ * required by the largest request they ever processed. Released arrays may
+ * optionally be pooled and handed out again the next time a chunk needs to
+ * grow to the same size class.
+ * <p>
+ * The policy is configured with the system properties:
+ * <ul>
+ * <li><code>org.apache.tomcat.util.buf.ChunkBufferPool.MAX_RETAINED_SIZE</code>
+ *     - the largest array, in elements, that a recycled chunk will keep.
+ *     Defaults to 65536. A negative value disables shrinking on recycle.</li>
+ * <li><code>org.apache.tomcat.util.buf.ChunkBufferPool.MAX_POOLED_BYTES</code>
+ *     - the total size, in bytes, of the released arrays that may be pooled.
+ *     Defaults to 0, which disables pooling.</li>
+ * </ul>
+ * Pooling should only be enabled if no component retains a reference to the
+ * array of a chunk after that chunk has been recycled.
+ */
+public final class ChunkBufferPool {
+
+    /**
+     * The smallest array allocated for a chunk that does not specify an
+     * initial size.
+     */
+    public static final int MIN_SIZE = 256;
+
+    /*
+     * Size classes are powers of two up to 2^30.
+     */
+    private static final int MAX_SIZE_CLASS = 30;
+
+    private static volatile int maxRetainedSize = Integer.getInteger(
+            "org.apache.tomcat.util.buf.ChunkBufferPool.MAX_RETAINED_SIZE",
+            64 * 1024).intValue();
+
+    private static volatile long maxPooledBytes = Long.getLong(
+            "org.apache.tomcat.util.buf.ChunkBufferPool.MAX_POOLED_BYTES",
+            0).longValue();
+
+    private static final AtomicLong pooledBytes = new AtomicLong(0);
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static final ConcurrentLinkedQueue<byte[]>[] bytePool =
+            new ConcurrentLinkedQueue[MAX_SIZE_CLASS + 1];
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static final ConcurrentLinkedQueue<char[]>[] charPool =
+            new ConcurrentLinkedQueue[MAX_SIZE_CLASS + 1];
+
+    static {
+        for (int i = 0; i <= MAX_SIZE_CLASS; i++) {
+            bytePool[i] = new ConcurrentLinkedQueue<byte[]>();
+            charPool[i] = new ConcurrentLinkedQueue<char[]>();
+        }
+    }
+
+
+    private ChunkBufferPool() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    public static int getMaxRetainedSize() {
+        return maxRetainedSize;
+    }
+
+
+    public static void setMaxRetainedSize(int maxRetainedSize) {
+        ChunkBufferPool.maxRetainedSize = maxRetainedSize;
+    }
+
+
+    public static long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+
+    /**
+     * Set the total size of the arrays that may be held in the pool. Setting
+     * a size of zero or less disables pooling and empties the pool.
+     */
+    public static void setMaxPooledBytes(long maxPooledBytes) {
+        ChunkBufferPool.maxPooledBytes = maxPooledBytes;
+        if (maxPooledBytes <= 0) {
+            for (int i = 0; i <= MAX_SIZE_CLASS; i++) {
+                bytePool[i].clear();
+                charPool[i].clear();
+            }
+            pooledBytes.set(0);
+        }
+    }
+
+
+    /**
+     * @return The total size, in bytes, of the arrays currently pooled.
+     */
+    public static long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+
+    /**
+     * Determine the size an array should grow to so that it can hold the given
+     * number of elements.
+     *
+     * @param desiredSize   The minimum size required
+     * @param limit         The maximum size permitted or a value of zero or
+     *                      less for no limit
+     *
+     * @return The smallest power of two that is at least desiredSize, but no
+     *         larger than limit
+     */
+    static int sizeClass(int desiredSize, int limit) {
+        int result;
+        if (desiredSize <= MIN_SIZE) {
+            result = MIN_SIZE;
+        } else if (desiredSize > (1 << MAX_SIZE_CLASS)) {
+            result = desiredSize;
+        } else {
+            result = Integer.highestOneBit(desiredSize - 1) << 1;
+        }
+        if (limit > 0 && result > limit) {
+            result = Math.max(limit, desiredSize);
+        }
+        return result;
+    }
+
+
+    /**
+     * Should a chunk that was allocated with the given initial size release
+     * an array of the given size when it is recycled?
+     */
+    static boolean isReleased(int size, int initialSize) {
+        int max = maxRetainedSize;
+        return max >= 0 && size > max && size > initialSize;
+    }
+
+
+    static byte[] newByteArray(int size) {
+        if (maxPooledBytes > 0) {
+            int sizeClass = poolIndex(size);
+            if (sizeClass >= 0) {
+                byte[] result = bytePool[sizeClass].poll();
+                if (result != null) {
+                    pooledBytes.addAndGet(-result.length);
+                    return result;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+
+    static char[] newCharArray(int size) {
+        if (maxPooledBytes > 0) {
+            int sizeClass = poolIndex(size);
+            if (sizeClass >= 0) {
+                char[] result = charPool[sizeClass].poll();
+                if (result != null) {
+                    pooledBytes.addAndGet(-2L * result.length);
+                    return result;
+                }
+            }
+        }
+        return new char[size];
+    }
+
+
+    static void release(byte[] array) {
+        int sizeClass = poolIndex(array.length);
+        if (sizeClass >= 0 && reserve(array.length)) {
+            bytePool[sizeClass].offer(array);
+        }
+    }
+
+
+    static void release(char[] array) {
+        int sizeClass = poolIndex(array.length);
+        if (sizeClass >= 0 && reserve(2L * array.length)) {
+            charPool[sizeClass].offer(array);
+        }
+    }
+
+
+    private static boolean reserve(long bytes) {
+        long max = maxPooledBytes;
+        if (max <= 0) {
+            return false;
+        }
+        long current;
+        do {
+            current = pooledBytes.get();
+            if (current + bytes > max) {
+                return false;
+            }
+        } while (!pooledBytes.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+
+    /*
+     * Only arrays that are an exact size class larger than the retained size
+     * are pooled.
+     */
+    private static int poolIndex(int size) {
+        if (size <= maxRetainedSize || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        int index = Integer.numberOfTrailingZeros(size);
+        return (index > MAX_SIZE_CLASS) ? -1 : index;
+    }
+}
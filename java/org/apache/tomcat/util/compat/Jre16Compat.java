@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.compat;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+class Jre16Compat extends Jre9Compat {
+
+    private static final ProtocolFamily unixProtocolFamily;
+    private static final Method unixDomainSocketAddressOfMethod;
+    private static final Method openServerSocketChannelFamilyMethod;
+    private static final Method openSocketChannelFamilyMethod;
+
+
+    static {
+        ProtocolFamily f1 = null;
+        Method m1 = null;
+        Method m2 = null;
+        Method m3 = null;
+        try {
+            // The enum is Java7+ but the UNIX constant is Java16+
+            f1 = StandardProtocolFamily.valueOf("UNIX");
+            Class<?> c1 = Class.forName("java.net.UnixDomainSocketAddress");
+            m1 = c1.getMethod("of", String.class);
+            m2 = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            m3 = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (IllegalArgumentException e) {
+            // Expected on Java < 16
+        } catch (SecurityException e) {
+            // Should never happen
+        } catch (NoSuchMethodException e) {
+            // Expected on Java < 16
+        } catch (ClassNotFoundException e) {
+            // Expected on Java < 16
+        }
+        unixProtocolFamily = f1;
+        unixDomainSocketAddressOfMethod = m1;
+        openServerSocketChannelFamilyMethod = m2;
+        openSocketChannelFamilyMethod = m3;
+    }
+
+
+    static boolean isSupported() {
+        return openSocketChannelFamilyMethod != null;
+    }
+
+
+    @Override
+    public SocketAddress getUnixDomainSocketAddress(String path) {
+        try {
+            return (SocketAddress) unixDomainSocketAddressOfMethod.invoke(null, path);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+
+
+    @Override
+    public ServerSocketChannel openUnixDomainServerSocketChannel() throws IOException {
+        return (ServerSocketChannel) open(openServerSocketChannelFamilyMethod);
+    }
+
+
+    @Override
+    public SocketChannel openUnixDomainSocketChannel() throws IOException {
+        return (SocketChannel) open(openSocketChannelFamilyMethod);
+    }
+
+
+    private static Object open(Method openMethod) throws IOException {
+        try {
+            return openMethod.invoke(null, unixProtocolFamily);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException(e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new UnsupportedOperationException(cause);
+        }
+    }
+}
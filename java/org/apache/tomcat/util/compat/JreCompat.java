@@ -16,6 +16,10 @@
  */
 package org.apache.tomcat.util.compat;
 
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Locale;
 
 import javax.net.ssl.SSLEngine;
@@ -33,6 +37,7 @@ public class JreCompat {
     private static final JreCompat instance;
     private static StringManager sm =
             StringManager.getManager(JreCompat.class.getPackage().getName());
+    private static final boolean jre16Available;
     private static final boolean jre9Available;
     private static final boolean jre8Available;
     private static final boolean jre7Available;
@@ -40,26 +45,36 @@ public class JreCompat {
     
     static {
         // This is Tomcat 7 with a minimum Java version of Java 6. The latest
-        // Java version the optional features require is Java 9.
+        // Java version the optional features require is Java 16.
         // Look for the highest supported JVM first
-        if (Jre9Compat.isSupported()) {
+        if (Jre16Compat.isSupported()) {
+            instance = new Jre16Compat();
+            jre16Available = true;
+            jre9Available = true;
+            jre8Available = true;
+            jre7Available = true;
+        } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
+            jre16Available = false;
             jre9Available = true;
             jre8Available = true;
             jre7Available = true;
         }
         else if (Jre8Compat.isSupported()) {
             instance = new Jre8Compat();
+            jre16Available = false;
             jre9Available = false;
             jre8Available = true;
             jre7Available = true;
         } else if (Jre7Compat.isSupported()) {
             instance = new Jre7Compat();
+            jre16Available = false;
             jre9Available = false;
             jre8Available = false;
             jre7Available = true;
         } else {
             instance = new JreCompat();
+            jre16Available = false;
             jre9Available = false;
             jre8Available = false;
             jre7Available = false;
@@ -161,4 +176,48 @@ public class JreCompat {
         // Exception does not exist prior to Java 9
         return false;
     }
+
+
+    // Java 6 implementation of Java 16 methods
+
+    public static boolean isJre16Available() {
+        return jre16Available;
+    }
+
+
+    /**
+     * Obtain the address of the Unix domain socket at the given path.
+     *
+     * @param path The path of the socket file
+     *
+     * @return A java.net.UnixDomainSocketAddress for the given path
+     */
+    @SuppressWarnings("unused")
+    public SocketAddress getUnixDomainSocketAddress(String path) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noUnixDomainSocket"));
+    }
+
+
+    /**
+     * Open a server socket channel for the Unix domain protocol family.
+     *
+     * @return The new, unbound channel
+     *
+     * @throws IOException If the channel cannot be opened
+     */
+    public ServerSocketChannel openUnixDomainServerSocketChannel() throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noUnixDomainSocket"));
+    }
+
+
+    /**
+     * Open a socket channel for the Unix domain protocol family.
+     *
+     * @return The new, unconnected channel
+     *
+     * @throws IOException If the channel cannot be opened
+     */
+    public SocketChannel openUnixDomainSocketChannel() throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noUnixDomainSocket"));
+    }
 }
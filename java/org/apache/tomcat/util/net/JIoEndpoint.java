@@ -17,11 +17,15 @@
 
 package org.apache.tomcat.util.net;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Iterator;
@@ -93,6 +97,15 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
     public void setServerSocketFactory(ServerSocketFactory factory) { this.serverSocketFactory = factory; }
     public ServerSocketFactory getServerSocketFactory() { return serverSocketFactory; }
 
+    /**
+     * Use sendfile for sending static files. Disabled by default. Sockets
+     * created by a {@link ServerSocketFactory} generally have no channel so
+     * the file is copied to the socket output stream. That bypasses the
+     * response buffer and output filters but it is not a zero-copy transfer.
+     */
+    protected boolean useSendfile = false;
+    public void setUseSendfile(boolean useSendfile) { this.useSendfile = useSendfile; }
+
     /**
      * Port in use.
      */
@@ -110,7 +123,7 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
      * Optional feature support.
      */
     @Override
-    public boolean getUseSendfile() { return false; } // Not supported
+    public boolean getUseSendfile() { return useSendfile; }
     @Override
     public boolean getUseComet() { return false; } // Not supported
     @Override
@@ -121,6 +134,65 @@ public class JIoEndpoint extends AbstractEndpoint<Socket> {
     public boolean getUsePolling() { return false; } // Not supported
 
 
+    /**
+     * Write a file, or a range of it, to the socket using
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}. Sockets
+     * accepted by a {@link ServerSocketFactory} generally have no channel of
+     * their own, in which case the transfer is made to a channel wrapping the
+     * socket output stream and is an ordinary buffered copy. Either way, the
+     * data bypasses the response buffer and output filters. The response
+     * headers must already have been written to the socket.
+     *
+     * @param socket The socket to write to
+     * @param data   The file range to send, updated as data is written
+     * @throws IOException if reading the file or writing to the socket fails
+     */
+    public void processSendfile(Socket socket, SendfileData data)
+            throws IOException {
+        if (log.isTraceEnabled()) {
+            log.trace("Processing send file for: " + data.fileName);
+        }
+        FileInputStream fis = new FileInputStream(data.fileName);
+        try {
+            FileChannel fc = fis.getChannel();
+            WritableByteChannel wc = socket.getChannel();
+            if (wc == null) {
+                wc = Channels.newChannel(socket.getOutputStream());
+            }
+            while (data.length > 0) {
+                long written = fc.transferTo(data.pos, data.length, wc);
+                if (written <= 0) {
+                    // A blocking transfer only stops short at the end of the
+                    // file
+                    throw new IOException(sm.getString(
+                            "endpoint.sendfile.tooMuchData", data.fileName));
+                }
+                data.pos += written;
+                data.length -= written;
+            }
+        } finally {
+            fis.close();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Send file complete for: " + data.fileName);
+        }
+    }
+
+
+    // ----------------------------------------------- SendfileData Inner Class
+
+    /**
+     * SendfileData class.
+     */
+    public static class SendfileData {
+        // File
+        public String fileName;
+        // Range information
+        public long pos;
+        public long length;
+    }
+
+
     // ------------------------------------------------ Handler Inner Interface
 
     /**
@@ -93,7 +93,8 @@ public class NioChannel implements ByteChannel{
      */
     @Override
     public void close() throws IOException {
-        getIOChannel().socket().close();
+        // Closing the channel also closes the socket adaptor, which is not
+        // available for Unix domain sockets
         getIOChannel().close();
     }
 
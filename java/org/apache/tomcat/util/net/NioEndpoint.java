@@ -20,10 +20,12 @@ package org.apache.tomcat.util.net;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.FileChannel;
@@ -32,6 +34,10 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.Locale;
@@ -53,6 +59,8 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
@@ -84,6 +92,25 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public static final int OP_REGISTER = 0x100; //register interest op
     public static final int OP_CALLBACK = 0x200; //callback interest op
 
+    /**
+     * Connections accepted on a Unix domain socket have no IP address or
+     * port. The peer is necessarily on the same host so both ends of such a
+     * connection are reported as the IPv4 loopback address, named localhost,
+     * with a port of zero. This is also what the RemoteIpValve trusts as an
+     * internal proxy by default.
+     */
+    public static final InetAddress UNIX_DOMAIN_SOCKET_ADDRESS;
+
+    static {
+        try {
+            UNIX_DOMAIN_SOCKET_ADDRESS = InetAddress.getByAddress(
+                    "localhost", new byte[] {127, 0, 0, 1});
+        } catch (UnknownHostException e) {
+            // Only thrown for an address of illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+
     // ----------------------------------------------------------------- Fields
 
     protected NioSelectorPool selectorPool = new NioSelectorPool();
@@ -281,6 +308,52 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     };
 
 
+    /**
+     * Cache of the direct buffers used to feed file content to the SSL engine
+     * when sendfile is used on a secure channel.
+     */
+    protected ConcurrentLinkedQueue<ByteBuffer> sendfileBuffers = new ConcurrentLinkedQueue<ByteBuffer>() {
+        private static final long serialVersionUID = 1L;
+        protected AtomicInteger size = new AtomicInteger(0);
+        @Override
+        public boolean offer(ByteBuffer buffer) {
+            buffer.clear();
+            boolean offer = socketProperties.getBufferPool()==-1?true:size.get()<socketProperties.getBufferPool();
+            //avoid over growing our cache or add after we have stopped
+            if ( running && (!paused) && (offer) ) {
+                boolean result = super.offer(buffer);
+                if ( result ) {
+                    size.incrementAndGet();
+                }
+                return result;
+            }
+            else return false;
+        }
+
+        @Override
+        public ByteBuffer poll() {
+            ByteBuffer result = super.poll();
+            if ( result != null ) {
+                size.decrementAndGet();
+            }
+            return result;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            size.set(0);
+        }
+    };
+
+
+    /**
+     * Size of the buffers used for sendfile on secure channels: the maximum
+     * amount of plain text an SSL engine wraps into a single TLS record.
+     */
+    protected static final int SENDFILE_SSL_BUFFER_SIZE = 16384;
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -342,6 +415,46 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     protected long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
+
+    /**
+     * Maximum number of response bytes per connection which are held in
+     * memory when the client does not read them as fast as they are written.
+     * Once the request has been processed the Poller writes them out and the
+     * worker thread is free to process other connections. Zero or less
+     * (the default) blocks the worker thread until the client has read the
+     * data.
+     */
+    protected int maxPendingWriteSize = 0;
+    public void setMaxPendingWriteSize(int maxPendingWriteSize) {
+        this.maxPendingWriteSize = maxPendingWriteSize;
+    }
+    public int getMaxPendingWriteSize() { return maxPendingWriteSize; }
+
+    /**
+     * Path of the Unix domain socket to listen on instead of the TCP port.
+     * The socket file is created when the endpoint is bound and deleted when
+     * it is unbound. Requires Java 16 or later.
+     */
+    protected String unixDomainSocketPath = null;
+    public void setUnixDomainSocketPath(String unixDomainSocketPath) {
+        this.unixDomainSocketPath = unixDomainSocketPath;
+    }
+    public String getUnixDomainSocketPath() { return unixDomainSocketPath; }
+    public boolean isUnixDomainSocket() { return unixDomainSocketPath != null; }
+
+    /**
+     * POSIX permissions, e.g. <code>rw-rw----</code>, to set on the Unix
+     * domain socket file once it has been created. If not set, the
+     * permissions are derived from the umask of the process.
+     */
+    protected String unixDomainSocketPathPermissions = null;
+    public void setUnixDomainSocketPathPermissions(String permissions) {
+        this.unixDomainSocketPathPermissions = permissions;
+    }
+    public String getUnixDomainSocketPathPermissions() {
+        return unixDomainSocketPathPermissions;
+    }
+
     /**
      * The socket poller.
      */
@@ -400,7 +513,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     @Override
     public int getLocalPort() {
         ServerSocketChannel ssc = serverSock;
-        if (ssc == null) {
+        if (ssc == null || isUnixDomainSocket()) {
             return -1;
         } else {
             ServerSocket s = ssc.socket();
@@ -438,6 +551,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     protected void releaseCaches() {
         this.keyCache.clear();
         this.nioChannels.clear();
+        this.sendfileBuffers.clear();
         this.processorCache.clear();
         if ( handler != null ) handler.recycle();
 
@@ -469,12 +583,25 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     @Override
     public void bind() throws Exception {
 
-        serverSock = ServerSocketChannel.open();
-        socketProperties.setProperties(serverSock.socket());
-        InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-        serverSock.socket().bind(addr,getBacklog());
-        serverSock.configureBlocking(true); //mimic APR behavior
-        serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        if (isUnixDomainSocket()) {
+            JreCompat jreCompat = JreCompat.getInstance();
+            serverSock = jreCompat.openUnixDomainServerSocketChannel();
+            serverSock.bind(jreCompat.getUnixDomainSocketAddress(
+                    unixDomainSocketPath), getBacklog());
+            if (unixDomainSocketPathPermissions != null) {
+                Files.setPosixFilePermissions(Paths.get(unixDomainSocketPath),
+                        PosixFilePermissions.fromString(
+                                unixDomainSocketPathPermissions));
+            }
+            serverSock.configureBlocking(true);
+        } else {
+            serverSock = ServerSocketChannel.open();
+            socketProperties.setProperties(serverSock.socket());
+            InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
+            serverSock.socket().bind(addr,getBacklog());
+            serverSock.configureBlocking(true); //mimic APR behavior
+            serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
@@ -588,6 +715,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         eventCache.clear();
         keyCache.clear();
         nioChannels.clear();
+        sendfileBuffers.clear();
         processorCache.clear();
         shutdownExecutor();
     }
@@ -604,10 +732,16 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         if (running) {
             stop();
         }
-        // Close server socket
-        serverSock.socket().close();
+        // Close server socket. Closing the channel also closes the socket
+        // adaptor which does not exist for Unix domain sockets.
         serverSock.close();
         serverSock = null;
+        if (isUnixDomainSocket()) {
+            Path path = Paths.get(unixDomainSocketPath);
+            if (!Files.deleteIfExists(path) && log.isDebugEnabled()) {
+                log.debug(sm.getString("endpoint.nio.udsNotDeleted", path));
+            }
+        }
         sslContext = null;
         releaseCaches();
         selectorPool.close();
@@ -652,6 +786,58 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     }
 
 
+    /**
+     * The generic implementation connects with a TCP socket which does not
+     * reach an acceptor listening on a Unix domain socket.
+     */
+    @Override
+    protected void unlockAccept() {
+        if (!isUnixDomainSocket()) {
+            super.unlockAccept();
+            return;
+        }
+        // Only try to unlock the acceptor if it is necessary
+        boolean unlockRequired = false;
+        for (AbstractEndpoint.Acceptor acceptor : acceptors) {
+            if (acceptor.getState() == AcceptorState.RUNNING) {
+                unlockRequired = true;
+                break;
+            }
+        }
+        if (!unlockRequired) {
+            return;
+        }
+
+        SocketChannel sc = null;
+        try {
+            JreCompat jreCompat = JreCompat.getInstance();
+            sc = jreCompat.openUnixDomainSocketChannel();
+            sc.connect(jreCompat.getUnixDomainSocketAddress(unixDomainSocketPath));
+            // Wait for up to 1000ms for the acceptor threads to unlock
+            long waitLeft = 1000;
+            for (AbstractEndpoint.Acceptor acceptor : acceptors) {
+                while (waitLeft > 0 &&
+                        acceptor.getState() == AcceptorState.RUNNING) {
+                    Thread.sleep(50);
+                    waitLeft -= 50;
+                }
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("endpoint.debug.unlock", unixDomainSocketPath), e);
+            }
+        } finally {
+            if (sc != null) {
+                try {
+                    sc.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+
     /**
      * Process the specified connection.
      */
@@ -660,8 +846,10 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         try {
             //disable blocking, APR style, we are gonna be polling it
             socket.configureBlocking(false);
-            Socket sock = socket.socket();
-            socketProperties.setProperties(sock);
+            if (!isUnixDomainSocket()) {
+                Socket sock = socket.socket();
+                socketProperties.setProperties(sock);
+            }
 
             NioChannel channel = nioChannels.poll();
             if ( channel == null ) {
@@ -880,13 +1068,6 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
 
     private void closeSocket(SocketChannel socket) {
-        try {
-            socket.socket().close();
-        } catch (IOException ioe)  {
-            if (log.isDebugEnabled()) {
-                log.debug("", ioe);
-            }
-        }
         try {
             socket.close();
         } catch (IOException ioe) {
@@ -1154,10 +1335,12 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     }
                 }
                 try {
-                    if (ka != null && ka.getSendfileData() != null
-                            && ka.getSendfileData().fchannel != null
-                            && ka.getSendfileData().fchannel.isOpen()) {
-                        ka.getSendfileData().fchannel.close();
+                    if (ka != null && ka.getSendfileData() != null) {
+                        releaseSendfileBuffer(ka.getSendfileData());
+                        if (ka.getSendfileData().fchannel != null
+                                && ka.getSendfileData().fchannel.isOpen()) {
+                            ka.getSendfileData().fchannel.close();
+                        }
                     }
                 } catch (Exception ignore) {
                 }
@@ -1302,6 +1485,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     if (sk.isReadable() || sk.isWritable() ) {
                         if ( attachment.getSendfileData() != null ) {
                             processSendfile(sk,attachment, false);
+                        } else if (attachment.getPendingWrite() != null) {
+                            processPendingWrite(sk, attachment, false);
                         } else {
                             if ( isWorkerAvailable() ) {
                                 unreg(sk, attachment, sk.readyOps());
@@ -1359,8 +1544,6 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
                 //configure output channel
                 sc = attachment.getChannel();
-                //ssl channel is slightly different
-                WritableByteChannel wc = ((sc instanceof SecureNioChannel)?sc:sc.getIOChannel());
 
                 //we still have data in the buffer
                 if (sc.getOutboundRemaining()>0) {
@@ -1368,7 +1551,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                         attachment.access();
                     }
                 } else {
-                    long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
+                    long written;
+                    if (sc instanceof SecureNioChannel) {
+                        //ssl channel is slightly different, the file content
+                        //has to go through the SSL engine
+                        written = transferSecure(sd, sc);
+                    } else {
+                        written = sd.fchannel.transferTo(sd.pos,sd.length,sc.getIOChannel());
+                    }
                     if ( written > 0 ) {
                         sd.pos += written;
                         sd.length -= written;
@@ -1387,6 +1577,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
                     attachment.setSendfileData(null);
+                    releaseSendfileBuffer(sd);
                     try {
                         sd.fchannel.close();
                     } catch (Exception ignore) {
@@ -1395,31 +1586,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     // responsible for registering the socket for the
                     // appropriate event(s) if sendfile completes.
                     if (!calledByProcessor) {
-                        switch (sd.keepAliveState) {
-                        case NONE: {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Send file connection is being closed");
-                            }
-                            cancelledKey(sk,SocketStatus.STOP,false);
-                            break;
-                        }
-                        case PIPELINED: {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Connection is keep alive, processing pipe-lined data");
-                            }
-                            if (!processSocket(sc, SocketStatus.OPEN_READ, true)) {
-                                cancelledKey(sk, SocketStatus.DISCONNECT, false);
-                            }
-                            break;
-                        }
-                        case OPEN: {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Connection is keep alive, registering back for OP_READ");
-                            }
-                            reg(sk, attachment, SelectionKey.OP_READ);
-                            break;
-                        }
-                        }
+                        completeWrite(sk, attachment, sd.keepAliveState);
                     }
                     return SendfileState.DONE;
                 } else {
@@ -1434,12 +1601,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     return SendfileState.PENDING;
                 }
             }catch ( IOException x ) {
+                releaseSendfileBuffer(attachment.getSendfileData());
                 if ( log.isDebugEnabled() ) log.debug("Unable to complete sendfile request:", x);
                 if (!calledByProcessor) {
                     cancelledKey(sk,SocketStatus.ERROR,false);
                 }
                 return SendfileState.ERROR;
             }catch ( Throwable t ) {
+                releaseSendfileBuffer(attachment.getSendfileData());
                 log.error("",t);
                 if (!calledByProcessor) {
                     cancelledKey(sk, SocketStatus.ERROR, false);
@@ -1448,6 +1617,151 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             }
         }
 
+        /**
+         * Write the response data a processor handed over because the client
+         * did not read it as fast as it was produced.
+         */
+        public SendfileState processPendingWrite(SelectionKey sk,
+                KeyAttachment attachment, boolean calledByProcessor) {
+            try {
+                unreg(sk, attachment, sk.readyOps());
+                ByteBuffer buffer = attachment.getPendingWrite();
+                NioChannel sc = attachment.getChannel();
+                while (true) {
+                    //data already accepted by a secure channel goes first
+                    if (sc.getOutboundRemaining() > 0) {
+                        if (sc.flushOutbound()) {
+                            attachment.access();
+                        }
+                        if (sc.getOutboundRemaining() > 0) {
+                            break;
+                        }
+                    }
+                    if (!buffer.hasRemaining() || sc.write(buffer) <= 0) {
+                        break;
+                    }
+                    attachment.access();
+                }
+                if (!buffer.hasRemaining() && sc.getOutboundRemaining() <= 0) {
+                    SendfileKeepAliveState keepAliveState =
+                            attachment.getPendingWriteKeepAliveState();
+                    attachment.setPendingWrite(null, null);
+                    if (!calledByProcessor) {
+                        completeWrite(sk, attachment, keepAliveState);
+                    }
+                    return SendfileState.DONE;
+                } else {
+                    if (calledByProcessor) {
+                        add(attachment.getChannel(),SelectionKey.OP_WRITE);
+                    } else {
+                        reg(sk,attachment,SelectionKey.OP_WRITE);
+                    }
+                    return SendfileState.PENDING;
+                }
+            } catch (IOException x) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("endpoint.nio.pendingWriteFail"), x);
+                }
+                if (!calledByProcessor) {
+                    cancelledKey(sk, SocketStatus.ERROR, false);
+                }
+                return SendfileState.ERROR;
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                log.error("",t);
+                if (!calledByProcessor) {
+                    cancelledKey(sk, SocketStatus.ERROR, false);
+                }
+                return SendfileState.ERROR;
+            }
+        }
+
+        /**
+         * Hand the connection back to the Poller (or close it) once the
+         * Poller has written the end of a response.
+         */
+        private void completeWrite(SelectionKey sk, KeyAttachment attachment,
+                SendfileKeepAliveState keepAliveState) {
+            switch (keepAliveState) {
+            case NONE: {
+                if (log.isDebugEnabled()) {
+                    log.debug("Connection is being closed");
+                }
+                cancelledKey(sk,SocketStatus.STOP,false);
+                break;
+            }
+            case PIPELINED: {
+                if (log.isDebugEnabled()) {
+                    log.debug("Connection is keep alive, processing pipe-lined data");
+                }
+                if (!processSocket(attachment.getChannel(), SocketStatus.OPEN_READ, true)) {
+                    cancelledKey(sk, SocketStatus.DISCONNECT, false);
+                }
+                break;
+            }
+            case OPEN: {
+                if (log.isDebugEnabled()) {
+                    log.debug("Connection is keep alive, registering back for OP_READ");
+                }
+                reg(sk, attachment, SelectionKey.OP_READ);
+                break;
+            }
+            }
+        }
+
+        /**
+         * Send file content through a secure channel. The content is read
+         * into a pooled direct buffer and handed to the SSL engine one TLS
+         * record at a time, for as long as the channel accepts data.
+         * {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+         * can't do better than this for a non-file channel and re-reads any
+         * data the channel didn't accept.
+         *
+         * @return the number of bytes consumed by the channel
+         */
+        private long transferSecure(SendfileData sd, NioChannel sc)
+                throws IOException {
+            // The buffer is only used while holding the lock on sd so that it
+            // can't be returned to the cache by releaseSendfileBuffer(), and
+            // handed to another connection, while it is still being filled
+            synchronized (sd) {
+                ByteBuffer buffer = sd.buffer;
+                if (buffer == null) {
+                    buffer = sendfileBuffers.poll();
+                    if (buffer == null) {
+                        buffer = ByteBuffer.allocateDirect(
+                                SENDFILE_SSL_BUFFER_SIZE);
+                    }
+                    // Start with an empty buffer
+                    buffer.limit(0);
+                    sd.buffer = buffer;
+                }
+                long total = 0;
+                while (sd.length > 0) {
+                    if (!buffer.hasRemaining()) {
+                        // The buffer always holds the data starting at sd.pos
+                        buffer.clear();
+                        if (buffer.capacity() > sd.length) {
+                            buffer.limit((int) sd.length);
+                        }
+                        int read = sd.fchannel.read(buffer, sd.pos);
+                        buffer.flip();
+                        if (read <= 0) {
+                            break;
+                        }
+                    }
+                    int written = sc.write(buffer);
+                    if (written <= 0) {
+                        break;
+                    }
+                    sd.pos += written;
+                    sd.length -= written;
+                    total += written;
+                }
+                return total;
+            }
+        }
+
         protected void unreg(SelectionKey sk, KeyAttachment attachment, int readyOps) {
             //this is a must, so that we don't have multiple threads messing with the socket
             reg(sk,attachment,sk.interestOps()& (~readyOps));
@@ -1489,9 +1803,12 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                             reg(key,ka,0);//avoid multiple calls, this gets reregistered after invocation
                             //if (!processSocket(ka.getChannel(), SocketStatus.OPEN_CALLBACK)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT);
                             if (!processSocket(ka.getChannel(), SocketStatus.OPEN_READ, true)) processSocket(ka.getChannel(), SocketStatus.DISCONNECT, true);
-                        } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                                  (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                        } else if (!ka.isAsync() &&
+                                ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
+                                  (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE)) {
                             //only timeout sockets that we are waiting for a read from
+                            //async requests waiting for non-blocking IO use the
+                            //async timeout below
                             long delta = now - ka.getLastAccess();
                             long timeout = ka.getTimeout();
                             boolean isTimedout = timeout > 0 && delta > timeout;
@@ -1577,6 +1894,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 }
             }
             writeLatch = null;
+            pendingWrite = null;
+            pendingWriteKeepAliveState = null;
             setWriteTimeout(soTimeout);
         }
 
@@ -1644,6 +1963,24 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         public void setSendfileData(SendfileData sf) { this.sendfileData = sf;}
         public SendfileData getSendfileData() { return this.sendfileData;}
 
+        /**
+         * Hand response data to the Poller to write.
+         *
+         * @param buffer The data, ready to be read, or <code>null</code> once
+         *               it has been written
+         * @param keepAliveState What to do with the connection once the data
+         *                       has been written
+         */
+        public void setPendingWrite(ByteBuffer buffer,
+                SendfileKeepAliveState keepAliveState) {
+            this.pendingWriteKeepAliveState = keepAliveState;
+            this.pendingWrite = buffer;
+        }
+        public ByteBuffer getPendingWrite() { return pendingWrite; }
+        public SendfileKeepAliveState getPendingWriteKeepAliveState() {
+            return pendingWriteKeepAliveState;
+        }
+
         public void setWriteTimeout(long writeTimeout) {
             this.writeTimeout = writeTimeout;
         }
@@ -1655,6 +1992,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         protected CountDownLatch readLatch = null;
         protected CountDownLatch writeLatch = null;
         protected volatile SendfileData sendfileData = null;
+        protected volatile ByteBuffer pendingWrite = null;
+        protected SendfileKeepAliveState pendingWriteKeepAliveState = null;
         private long writeTimeout = -1;
     }
 
@@ -1851,6 +2190,25 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         }
     }
 
+    /**
+     * Return the buffer used by a sendfile operation on a secure channel, if
+     * any, to the cache.
+     */
+    protected void releaseSendfileBuffer(SendfileData sd) {
+        if (sd == null) {
+            return;
+        }
+        ByteBuffer buffer;
+        synchronized (sd) {
+            buffer = sd.buffer;
+            sd.buffer = null;
+        }
+        if (buffer != null) {
+            sendfileBuffers.offer(buffer);
+        }
+    }
+
+
     // ----------------------------------------------- SendfileData Inner Class
     /**
      * SendfileData class.
@@ -1861,6 +2219,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         public volatile FileChannel fchannel;
         public volatile long pos;
         public volatile long length;
+        // Buffer used to feed a secure channel. Guarded by this object.
+        public ByteBuffer buffer;
         // KeepAlive flag
         public SendfileKeepAliveState keepAliveState = SendfileKeepAliveState.NONE;
     }
@@ -414,7 +414,6 @@ public class SecureNioChannel extends NioChannel  {
         }finally {
             if ( force || closed ) {
                 closed = true;
-                sc.socket().close();
                 sc.close();
             }
         }
@@ -24,6 +24,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.juli.FlightRecorderEventType;
 import org.apache.tomcat.util.res.StringManager;
 
 /**
@@ -41,6 +42,17 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
     protected static final StringManager sm = StringManager
             .getManager("org.apache.tomcat.util.threads.res");
 
+    /**
+     * JFR event describing the time a task spent waiting for a thread.
+     */
+    private static final FlightRecorderEventType QUEUE_WAIT_EVENT =
+            FlightRecorderEventType.create(
+                    "org.apache.tomcat.util.threads.QueueWait",
+                    "Executor Queue Wait",
+                    "Time between a task being submitted to an executor and a thread starting to execute it",
+                    new String[] { "queueLength", "activeCount", "poolSize" },
+                    new Class<?>[] { int.class, int.class, int.class });
+
     /**
      * The number of tasks submitted but not yet finished. This includes tasks
      * in the queue and tasks that have been handed to a worker thread but the
@@ -161,6 +173,11 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      * @throws NullPointerException if command or unit is null
      */
     public void execute(Runnable command, long timeout, TimeUnit unit) {
+        Object queueWaitEvent = QUEUE_WAIT_EVENT.begin();
+        if (queueWaitEvent != null) {
+            command = new QueueWaitTask(command, queueWaitEvent,
+                    getQueue().size(), getActiveCount(), getPoolSize());
+        }
         submittedCount.incrementAndGet();
         try {
             super.execute(command);
@@ -214,6 +231,35 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.setCorePoolSize(savedCorePoolSize);
     }
 
+    /**
+     * Wraps tasks while the queue wait event is enabled so that the event is
+     * committed when a thread starts to execute the task.
+     */
+    private static class QueueWaitTask implements Runnable {
+
+        private final Runnable task;
+        private final Object event;
+        private final int queueLength;
+        private final int activeCount;
+        private final int poolSize;
+
+        public QueueWaitTask(Runnable task, Object event, int queueLength,
+                int activeCount, int poolSize) {
+            this.task = task;
+            this.event = event;
+            this.queueLength = queueLength;
+            this.activeCount = activeCount;
+            this.poolSize = poolSize;
+        }
+
+        @Override
+        public void run() {
+            QUEUE_WAIT_EVENT.commit(event, Integer.valueOf(queueLength),
+                    Integer.valueOf(activeCount), Integer.valueOf(poolSize));
+            task.run();
+        }
+    }
+
     private static class RejectHandler implements RejectedExecutionHandler {
         @Override
         public void rejectedExecution(Runnable r,
@@ -43,6 +43,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.juli.FlightRecorderEventType;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
@@ -71,6 +72,13 @@ public class ConnectionPool {
      */
     private static final Log log = LogFactory.getLog(ConnectionPool.class);
 
+    /**
+     * Is JULI's JFR support available? The pool may be used standalone with a
+     * tomcat-juli JAR that pre-dates it so {@link BorrowEvent} is only used
+     * once the support has been found.
+     */
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
     //===============================================================================
     //         INSTANCE/QUICK ACCESS VARIABLE
     //===============================================================================
@@ -632,6 +640,22 @@ public class ConnectionPool {
      * @throws SQLException
      */
     private PooledConnection borrowConnection(int wait, String username, String password) throws SQLException {
+        Object event = JFR_AVAILABLE ? BorrowEvent.begin() : null;
+        if (event == null) {
+            return doBorrowConnection(wait, username, password);
+        }
+        boolean success = false;
+        try {
+            PooledConnection result = doBorrowConnection(wait, username, password);
+            success = true;
+            return result;
+        } finally {
+            BorrowEvent.commit(event, getName(), Boolean.valueOf(success),
+                    Integer.valueOf(size.get()), Integer.valueOf(waitcount.get()));
+        }
+    }
+
+    private PooledConnection doBorrowConnection(int wait, String username, String password) throws SQLException {
 
         if (isClosed()) {
             throw new SQLException("Connection pool closed.");
@@ -1409,6 +1433,42 @@ public class ConnectionPool {
         }
     }
 
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("org.apache.juli.FlightRecorderEventType", false,
+                    ConnectionPool.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * JFR event describing the time taken to borrow a connection. This is the
+     * only class that links to {@link FlightRecorderEventType} and it must
+     * only be used if {@link #JFR_AVAILABLE} is <code>true</code>.
+     */
+    private static class BorrowEvent {
+
+        private static final FlightRecorderEventType TYPE =
+                FlightRecorderEventType.create(
+                        "org.apache.tomcat.jdbc.pool.BorrowConnection",
+                        "JDBC Connection Borrow",
+                        "Time taken to borrow a connection from the pool, including any wait",
+                        new String[] { "pool", "success", "size", "waitCount" },
+                        new Class<?>[] { String.class, boolean.class, int.class, int.class });
+
+        static Object begin() {
+            return TYPE.begin();
+        }
+
+        static void commit(Object event, Object... values) {
+            TYPE.commit(event, values);
+        }
+    }
+
     private static class PrivilegedNewTimer implements PrivilegedAction<Timer> {
         @Override
         public Timer run() {
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.servlet.RequestDispatcher;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Globals;
+
+public class TestAttributeMap {
+
+    @Test
+    public void testSlots() {
+        AttributeMap map = new AttributeMap();
+        Object cert = new Object();
+
+        assertNull(map.put(Globals.CERTIFICATES_ATTR, cert));
+        assertNull(map.put(RequestDispatcher.ERROR_STATUS_CODE,
+                Integer.valueOf(404)));
+        assertNull(map.put("foo", "bar"));
+        assertEquals(3, map.size());
+        assertTrue(map.get(Globals.CERTIFICATES_ATTR) == cert);
+        assertEquals(Integer.valueOf(404),
+                map.get(RequestDispatcher.ERROR_STATUS_CODE));
+        assertEquals(3, map.keySet().size());
+        assertTrue(map.keySet().contains(Globals.CERTIFICATES_ATTR));
+
+        assertTrue(map.remove(Globals.CERTIFICATES_ATTR) == cert);
+        assertNull(map.remove(Globals.CERTIFICATES_ATTR));
+        assertFalse(map.containsKey(Globals.CERTIFICATES_ATTR));
+        assertEquals(2, map.size());
+    }
+
+
+    @Test
+    public void testPutNull() {
+        AttributeMap map = new AttributeMap();
+        map.put("foo", "bar");
+        assertEquals("bar", map.put("foo", null));
+        assertFalse(map.containsKey("foo"));
+        assertEquals(0, map.size());
+        assertTrue(map.keySet().isEmpty());
+    }
+
+
+    @Test
+    public void testCapacityRetainedOnClear() {
+        AttributeMap map = new AttributeMap();
+        for (int i = 0; i < 20; i++) {
+            map.put("attr" + i, Integer.valueOf(i));
+        }
+        int capacity = map.capacity();
+        assertTrue(capacity > AttributeMap.INITIAL_CAPACITY);
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get("attr1"));
+        assertEquals(capacity, map.capacity());
+    }
+
+
+    @Test
+    public void testLargeCapacityDiscardedOnClear() {
+        AttributeMap map = new AttributeMap();
+        for (int i = 0; i < AttributeMap.MAX_RETAINED_CAPACITY; i++) {
+            map.put("attr" + i, Integer.valueOf(i));
+        }
+        assertTrue(map.capacity() > AttributeMap.MAX_RETAINED_CAPACITY);
+
+        map.clear();
+        assertEquals(AttributeMap.INITIAL_CAPACITY, map.capacity());
+    }
+
+
+    /*
+     * Compare a long random sequence of operations against a HashMap. With
+     * only a small number of distinct keys, collisions and removals from the
+     * middle of probe sequences are frequent.
+     */
+    @Test
+    public void testRandomOperations() {
+        AttributeMap map = new AttributeMap();
+        Map<String,Object> expected = new HashMap<String,Object>();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 100000; i++) {
+            String key = "k" + random.nextInt(40);
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    Integer value = Integer.valueOf(i);
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 3:
+                    assertEquals(expected.get(key), map.get(key));
+                    break;
+                default:
+                    if (random.nextInt(1000) == 0) {
+                        expected.clear();
+                        map.clear();
+                    }
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected.keySet(), map.keySet());
+        for (Map.Entry<String,Object> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+}
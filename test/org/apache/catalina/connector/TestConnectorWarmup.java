@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Test cases for the warm-up requests of a {@link Connector}.
+ */
+public class TestConnectorWarmup extends TomcatBaseTest {
+
+    @Test
+    public void testWarmupIterations() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        RecordingServlet servlet = new RecordingServlet();
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "recording", servlet);
+        root.addServletMapping("/", "recording");
+
+        Connector connector = tomcat.getConnector();
+        WarmupRequest get = new WarmupRequest();
+        get.setUri("/get?name=a%20b");
+        connector.addWarmupRequest(get);
+        WarmupRequest post = new WarmupRequest();
+        post.setUri("/post");
+        post.setMethod("POST");
+        post.setBody("name=value");
+        post.addHeader("Content-Type", "application/x-www-form-urlencoded");
+        connector.addWarmupRequest(post);
+        connector.setWarmupIterations(5);
+
+        tomcat.start();
+
+        Assert.assertEquals(10, servlet.records.size());
+        for (int i = 0; i < 10; i += 2) {
+            Assert.assertEquals("GET /get a b true", servlet.records.get(i));
+            Assert.assertEquals("POST /post value true",
+                    servlet.records.get(i + 1));
+        }
+        Assert.assertEquals(10, connector.getWarmupRequestCount());
+        Assert.assertEquals(0, connector.getWarmupErrorCount());
+
+        // Real requests are not marked as warm-up requests
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/get?name=c", bc,
+                null);
+        Assert.assertEquals(200, rc);
+        Assert.assertEquals("GET /get c false", servlet.records.get(10));
+    }
+
+
+    @Test
+    public void testWarmupDuration() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        RecordingServlet servlet = new RecordingServlet();
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "recording", servlet);
+        root.addServletMapping("/", "recording");
+
+        Connector connector = tomcat.getConnector();
+        connector.addWarmupRequest(new WarmupRequest());
+        connector.setWarmupDuration(200);
+
+        tomcat.start();
+
+        Assert.assertTrue(connector.getWarmupTime() >= 200);
+        Assert.assertTrue(connector.getWarmupRequestCount() > 0);
+        Assert.assertEquals(connector.getWarmupRequestCount(),
+                servlet.records.size());
+    }
+
+
+    @Test
+    public void testWarmupErrors() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context root = tomcat.addContext("", null);
+        Wrapper w = Tomcat.addServlet(root, "async", new AsyncServlet());
+        w.setAsyncSupported(true);
+        root.addServletMapping("/async", "async");
+        Tomcat.addServlet(root, "recording", new RecordingServlet());
+        root.addServletMapping("/", "recording");
+
+        Connector connector = tomcat.getConnector();
+        WarmupRequest async = new WarmupRequest();
+        async.setUri("/async");
+        connector.addWarmupRequest(async);
+        connector.addWarmupRequest(new WarmupRequest());
+        connector.setWarmupIterations(3);
+
+        tomcat.start();
+
+        Assert.assertEquals(6, connector.getWarmupRequestCount());
+        Assert.assertEquals(3, connector.getWarmupErrorCount());
+
+        // The Connector still starts
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/", bc, null);
+        Assert.assertEquals(200, rc);
+    }
+
+
+    @Test
+    public void testNoWarmup() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        RecordingServlet servlet = new RecordingServlet();
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "recording", servlet);
+        root.addServletMapping("/", "recording");
+
+        // No iterations or duration configured
+        Connector connector = tomcat.getConnector();
+        connector.addWarmupRequest(new WarmupRequest());
+
+        tomcat.start();
+
+        Assert.assertEquals(0, servlet.records.size());
+        Assert.assertEquals(0, connector.getWarmupRequestCount());
+    }
+
+
+    private static class RecordingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> records =
+                Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            records.add(req.getMethod() + " " + req.getRequestURI() + " " +
+                    req.getParameter("name") + " " +
+                    (req.getAttribute(WarmupRequest.WARMUP_REQUEST_ATTR) != null));
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
+
+
+    private static class AsyncServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            req.startAsync().complete();
+        }
+    }
+}
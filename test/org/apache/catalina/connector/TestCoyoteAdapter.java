@@ -20,6 +20,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
@@ -32,9 +34,12 @@ import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.valves.AccessLogValve;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
 
@@ -386,4 +391,108 @@ public class TestCoyoteAdapter extends TomcatBaseTest {
             t.start();
         }
     }
+
+
+    @Test
+    public void testResourceUsage() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setTrackResourceUsage(true);
+
+        List<String> entries = new CopyOnWriteArrayList<String>();
+        AccessLogValve valve = createAccessLogValve(entries);
+        valve.setPattern("%U %{cpu}R %{alloc}R");
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        // Must have a real docBase - just use temp
+        Context ctx = tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Wrapper w = Tomcat.addServlet(ctx, "servlet", new AllocatingServlet());
+        ctx.addServletMapping("/", "servlet");
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/allocate");
+        Assert.assertEquals("OK", res.toString());
+
+        // The access log entry is written after the response is sent
+        for (int i = 0; i < 50 && entries.size() < 1; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, entries.size());
+        String[] fields = entries.get(0).split(" ");
+        Assert.assertEquals("/allocate", fields[0]);
+        Assert.assertTrue(entries.get(0), Long.parseLong(fields[1]) >= 0);
+        Assert.assertTrue(entries.get(0), Long.parseLong(fields[2]) >=
+                AllocatingServlet.ALLOCATED_BYTES);
+
+        StandardWrapper wrapper = (StandardWrapper) w;
+        Assert.assertTrue(wrapper.getCpuTime() > 0);
+        Assert.assertTrue(wrapper.getAllocatedBytes() >=
+                AllocatingServlet.ALLOCATED_BYTES);
+        StandardContext context = (StandardContext) ctx;
+        Assert.assertEquals(wrapper.getCpuTime(), context.getCpuTime());
+        Assert.assertEquals(wrapper.getAllocatedBytes(),
+                context.getAllocatedBytes());
+    }
+
+    @Test
+    public void testResourceUsageNotTracked() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        List<String> entries = new CopyOnWriteArrayList<String>();
+        AccessLogValve valve = createAccessLogValve(entries);
+        valve.setPattern("%{cpu}R %{alloc}R");
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        // Must have a real docBase - just use temp
+        Context ctx = tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Wrapper w = Tomcat.addServlet(ctx, "servlet", new AllocatingServlet());
+        ctx.addServletMapping("/", "servlet");
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/allocate");
+        Assert.assertEquals("OK", res.toString());
+
+        for (int i = 0; i < 50 && entries.size() < 1; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals("- -", entries.get(0));
+        Assert.assertEquals(0, ((StandardWrapper) w).getAllocatedBytes());
+    }
+
+    private AccessLogValve createAccessLogValve(
+            final List<String> entries) {
+        AccessLogValve valve = new AccessLogValve() {
+            @Override
+            public void log(String message) {
+                entries.add(message);
+            }
+        };
+        // The valve still opens its log file so keep it out of the way
+        File logDir = new File(getTemporaryDirectory(), "access-log");
+        addDeleteOnTearDown(logDir);
+        valve.setDirectory(logDir.getAbsolutePath());
+        return valve;
+    }
+
+    private static class AllocatingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int ALLOCATED_BYTES = 4 * 1024 * 1024;
+
+        // Prevents the allocations from being optimised away
+        private volatile byte[] sink;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            for (int i = 0; i < ALLOCATED_BYTES / 4096; i++) {
+                sink = new byte[4096];
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
 }
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.ReadListener;
+import org.apache.coyote.WriteListener;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestNonBlockingIO extends TomcatBaseTest {
+
+    private static final int BODY_SIZE = 256 * 1024;
+
+    private static final int RESPONSE_SIZE = 4 * 1024 * 1024;
+
+
+    @Test
+    public void testEchoContentLength() throws Exception {
+        doTestEcho(false);
+    }
+
+
+    @Test
+    public void testEchoChunked() throws Exception {
+        doTestEcho(true);
+    }
+
+
+    private void doTestEcho(boolean chunked) throws Exception {
+        Assume.assumeTrue("Only the NIO connector supports non-blocking IO",
+                getProtocol().equals(Http11NioProtocol.class.getName()));
+
+        Tomcat tomcat = getTomcatInstance();
+        Context root = tomcat.addContext("", TEMP_DIR);
+        EchoServlet servlet = new EchoServlet();
+        Tomcat.addServlet(root, "echo", servlet).setAsyncSupported(true);
+        root.addServletMapping("/echo", "echo");
+        tomcat.start();
+
+        byte[] body = new byte[BODY_SIZE];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = expected(i);
+        }
+
+        Socket s = new Socket("localhost", getPort());
+        try {
+            s.setSoTimeout(30000);
+            OutputStream os = s.getOutputStream();
+            StringBuilder head = new StringBuilder();
+            head.append("POST /echo HTTP/1.1\r\n");
+            head.append("Host: localhost\r\n");
+            head.append("Connection: close\r\n");
+            if (chunked) {
+                head.append("Transfer-Encoding: chunked\r\n");
+            } else {
+                head.append("Content-Length: " + body.length + "\r\n");
+            }
+            head.append("\r\n");
+            os.write(head.toString().getBytes(B2CConverter.ISO_8859_1));
+
+            // Send the body in two halves so that the servlet has to wait for
+            // the second one
+            int half = body.length / 2;
+            writeBody(os, body, 0, half, chunked);
+            os.flush();
+            Thread.sleep(500);
+            writeBody(os, body, half, body.length - half, chunked);
+            if (chunked) {
+                os.write("0\r\n\r\n".getBytes(B2CConverter.ISO_8859_1));
+            }
+            os.flush();
+
+            byte[] response = readResponse(s.getInputStream());
+            assertEquals(body.length, response.length);
+            assertArrayEquals(body, response);
+        } finally {
+            s.close();
+        }
+
+        assertTrue("onDataAvailable() was only called " +
+                servlet.dataAvailableCount.get() + " times",
+                servlet.dataAvailableCount.get() > 1);
+        assertEquals(1, servlet.allDataReadCount.get());
+        assertEquals(0, servlet.errorCount.get());
+    }
+
+
+    @Test
+    public void testLargeResponse() throws Exception {
+        Assume.assumeTrue("Only the NIO connector supports non-blocking IO",
+                getProtocol().equals(Http11NioProtocol.class.getName()));
+
+        Tomcat tomcat = getTomcatInstance();
+        Context root = tomcat.addContext("", TEMP_DIR);
+        WriteServlet servlet = new WriteServlet();
+        Tomcat.addServlet(root, "write", servlet).setAsyncSupported(true);
+        root.addServletMapping("/write", "write");
+        tomcat.start();
+
+        ByteChunk bc = new ByteChunk();
+        bc.setLimit(-1);
+        int rc = getUrl("http://localhost:" + getPort() + "/write", bc, null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals(RESPONSE_SIZE, bc.getLength());
+        byte[] response = bc.getBytes();
+        for (int i = 0; i < RESPONSE_SIZE; i++) {
+            assertEquals(expected(i), response[bc.getStart() + i]);
+        }
+        assertEquals(0, servlet.errorCount.get());
+    }
+
+
+    @Test
+    public void testListenerRequiresAsync() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "sync", new SyncServlet());
+        root.addServletMapping("/sync", "sync");
+        tomcat.start();
+
+        ByteChunk bc = getUrl("http://localhost:" + getPort() + "/sync");
+        assertEquals("ISE-ISE", bc.toString());
+    }
+
+
+    private static byte expected(int i) {
+        return (byte) ('a' + (i % 26));
+    }
+
+
+    private static void writeBody(OutputStream os, byte[] body, int off,
+            int len, boolean chunked) throws IOException {
+        if (chunked) {
+            os.write((Integer.toHexString(len) + "\r\n").getBytes(
+                    B2CConverter.ISO_8859_1));
+        }
+        os.write(body, off, len);
+        if (chunked) {
+            os.write("\r\n".getBytes(B2CConverter.ISO_8859_1));
+        }
+    }
+
+
+    private static byte[] readResponse(InputStream is) throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        String head = "";
+        while (!head.endsWith("\r\n\r\n")) {
+            int b = is.read();
+            assertTrue("Unexpected end of stream", b != -1);
+            headers.write(b);
+            if (b == '\n') {
+                head = new String(headers.toByteArray(), B2CConverter.ISO_8859_1);
+            }
+        }
+        assertTrue(head, head.startsWith("HTTP/1.1 200"));
+        // The response is sent with Connection: close
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            body.write(buf, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+
+    private static class EchoServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger dataAvailableCount = new AtomicInteger();
+        private final AtomicInteger allDataReadCount = new AtomicInteger();
+        private final AtomicInteger errorCount = new AtomicInteger();
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            final AsyncContext ac = req.startAsync();
+            ac.setTimeout(30000);
+            resp.setContentType("application/octet-stream");
+            final CoyoteInputStream is =
+                    (CoyoteInputStream) req.getInputStream();
+            final CoyoteOutputStream os =
+                    (CoyoteOutputStream) resp.getOutputStream();
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+            is.setReadListener(new ReadListener() {
+
+                @Override
+                public void onDataAvailable() throws IOException {
+                    dataAvailableCount.incrementAndGet();
+                    byte[] buf = new byte[8192];
+                    while (is.isReady()) {
+                        int read = is.read(buf);
+                        if (read == -1) {
+                            break;
+                        }
+                        received.write(buf, 0, read);
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException {
+                    allDataReadCount.incrementAndGet();
+                    ac.getResponse().setContentLength(received.size());
+                    os.setWriteListener(new ByteArrayWriteListener(
+                            received.toByteArray(), ac, os, errorCount));
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    errorCount.incrementAndGet();
+                    ac.complete();
+                }
+            });
+        }
+    }
+
+
+    private static class WriteServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger errorCount = new AtomicInteger();
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            AsyncContext ac = req.startAsync();
+            ac.setTimeout(30000);
+            resp.setContentType("application/octet-stream");
+            resp.setContentLength(RESPONSE_SIZE);
+            byte[] data = new byte[RESPONSE_SIZE];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = expected(i);
+            }
+            CoyoteOutputStream os = (CoyoteOutputStream) resp.getOutputStream();
+            os.setWriteListener(
+                    new ByteArrayWriteListener(data, ac, os, errorCount));
+        }
+    }
+
+
+    private static class ByteArrayWriteListener implements WriteListener {
+
+        private final byte[] data;
+        private final AsyncContext ac;
+        private final CoyoteOutputStream os;
+        private final AtomicInteger errorCount;
+        private int pos = 0;
+
+        public ByteArrayWriteListener(byte[] data, AsyncContext ac,
+                CoyoteOutputStream os, AtomicInteger errorCount) {
+            this.data = data;
+            this.ac = ac;
+            this.os = os;
+            this.errorCount = errorCount;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            while (pos < data.length && os.isReady()) {
+                int len = Math.min(8192, data.length - pos);
+                os.write(data, pos, len);
+                pos += len;
+            }
+            if (pos == data.length) {
+                ac.complete();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errorCount.incrementAndGet();
+            ac.complete();
+        }
+    }
+
+
+    private static class SyncServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            StringBuilder result = new StringBuilder();
+            try {
+                ((CoyoteInputStream) req.getInputStream()).setReadListener(
+                        new ReadListener() {
+                            @Override
+                            public void onDataAvailable() {
+                                // NO-OP
+                            }
+                            @Override
+                            public void onAllDataRead() {
+                                // NO-OP
+                            }
+                            @Override
+                            public void onError(Throwable throwable) {
+                                // NO-OP
+                            }
+                        });
+                result.append("OK");
+            } catch (IllegalStateException e) {
+                result.append("ISE");
+            }
+            result.append('-');
+            try {
+                ((CoyoteOutputStream) resp.getOutputStream()).isReady();
+                result.append("OK");
+            } catch (IllegalStateException e) {
+                result.append("ISE");
+            }
+            resp.getOutputStream().write(
+                    result.toString().getBytes(B2CConverter.ISO_8859_1));
+        }
+    }
+}
@@ -26,11 +26,14 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestOutputBuffer extends TomcatBaseTest{
@@ -91,6 +94,61 @@ public class TestOutputBuffer extends TomcatBaseTest{
         assertEquals("OK", bc.toString());
     }
 
+    /*
+     * A response that uses a large buffer must not leave the recycled
+     * processor holding that buffer.
+     */
+    @Test
+    public void testLargeBufferNotRetained() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context root = tomcat.addContext("", null);
+
+        Tomcat.addServlet(root, "large", new LargeBufferServlet());
+        root.addServletMapping("/", "large");
+
+        tomcat.start();
+
+        ByteChunk bc = new ByteChunk();
+        bc.setLimit(-1);
+        int rc = getUrl("http://localhost:" + getPort() + "/", bc, null, null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals(LargeBufferServlet.SIZE, bc.getLength());
+
+        AbstractProtocol<?> protocol =
+                (AbstractProtocol<?>) tomcat.getConnector().getProtocolHandler();
+        // The processor may not have been recycled yet
+        long retained = 0;
+        int count = 0;
+        while (retained == 0 && count < 50) {
+            Thread.sleep(100);
+            retained = protocol.getRecycledProcessorRetainedBytes();
+            count++;
+        }
+        assertTrue("Retained [" + retained + "]", retained > 0);
+        assertTrue("Retained [" + retained + "]",
+                retained < LargeBufferServlet.SIZE / 2);
+    }
+
+    private static class LargeBufferServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int SIZE = 1024 * 1024;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setBufferSize(2 * SIZE);
+            resp.setContentType("application/octet-stream");
+            byte[] data = new byte[SIZE / 16];
+            for (int i = 0; i < 16; i++) {
+                resp.getOutputStream().write(data);
+            }
+        }
+    }
+
     private static class WritingServlet extends HttpServlet {
 
         private static final long serialVersionUID = 1L;
@@ -31,12 +31,16 @@ import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -46,6 +50,7 @@ import org.apache.catalina.Globals;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.TesterSupport;
 
 public class TestSendFile extends TomcatBaseTest {
 
@@ -93,6 +98,45 @@ public class TestSendFile extends TomcatBaseTest {
         }
     }
 
+    @Test
+    public void testSendFileSsl() throws Exception {
+        SSLContext sc = SSLContext.getInstance("TLS");
+        sc.init(null, new TrustManager[] { new TesterSupport.TrustAllCerts() },
+                null);
+        HttpsURLConnection.setDefaultSSLSocketFactory(
+                new TesterSupport.NoSSLv2SocketFactory(sc.getSocketFactory()));
+
+        Tomcat tomcat = getTomcatInstance();
+        TesterSupport.initSsl(tomcat);
+        // Sendfile is optional for BIO
+        tomcat.getConnector().setProperty("useSendfile", "true");
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+
+        File file = generateFile(TEMP_DIR, "-ssl", EXPECTED_CONTENT_LENGTH * 5);
+        try {
+            WritingServlet servlet = new WritingServlet(file);
+            Tomcat.addServlet(root, "servlet", servlet);
+            root.addServletMapping("/servlet", "servlet");
+
+            tomcat.start();
+
+            ByteChunk bc = new ByteChunk();
+            for (int i = 0; i < 3; i++) {
+                int rc = getUrl("https://localhost:" + getPort() + "/servlet", bc, null);
+                assertEquals(HttpServletResponse.SC_OK, rc);
+                assertEquals(EXPECTED_CONTENT_LENGTH * 5, bc.getLength());
+                for (int j = bc.getStart(); j < bc.getEnd(); j++) {
+                    assertEquals('X', bc.getBuffer()[j]);
+                }
+                bc.recycle();
+            }
+            assertTrue(servlet.sendfileUsed);
+        } finally {
+            file.delete();
+        }
+    }
+
     public File generateFile(String dir, String suffix, int size) throws IOException {
         String name = "testSendFile-" + System.currentTimeMillis() + suffix + ".txt";
         File f = new File(dir, name);
@@ -131,6 +175,8 @@ public class TestSendFile extends TomcatBaseTest {
 
         private final File f;
 
+        private volatile boolean sendfileUsed = false;
+
         public WritingServlet(File f) {
             this.f = f;
         }
@@ -146,6 +192,7 @@ public class TestSendFile extends TomcatBaseTest {
                 req.setAttribute(Globals.SENDFILE_FILENAME_ATTR, f.getAbsolutePath());
                 req.setAttribute(Globals.SENDFILE_FILE_START_ATTR, new Long(0));
                 req.setAttribute(Globals.SENDFILE_FILE_END_ATTR, new Long(f.length()));
+                sendfileUsed = true;
             } else {
                 byte[] c = new byte[8192];
                 BufferedInputStream in = null;
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+/**
+ * Reports the number of bytes allocated by the server for each request of a
+ * minimal GET over a keep-alive connection. Not run as part of the standard
+ * test suite. Requires a JVM that supports measuring thread allocation.
+ */
+public class TesterRequestAllocationPerformance extends TomcatBaseTest {
+
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 50000;
+
+
+    // "HTTP/1.1 200 OK" ... Content-Length: 2 ... "OK"
+    private static final byte[] RESPONSE_END = "\r\n\r\nOK".getBytes(
+            B2CConverter.ISO_8859_1);
+
+
+    @Test
+    public void testMinimalGet() throws Exception {
+        doTest("/minimal");
+    }
+
+
+    /*
+     * Frameworks typically set a handful of request attributes.
+     */
+    @Test
+    public void testMinimalGetWithAttributes() throws Exception {
+        doTest("/minimal?attributes=4");
+    }
+
+
+    private void doTest(String uri) throws Exception {
+        java.lang.management.ThreadMXBean tmx =
+                ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(tmx instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) tmx;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("maxKeepAliveRequests", "-1");
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "minimal", new MinimalServlet());
+        root.addServletMapping("/minimal", "minimal");
+        tomcat.start();
+
+        Socket s = new Socket("localhost", getPort());
+        try {
+            s.setSoTimeout(10000);
+            OutputStream os = s.getOutputStream();
+            InputStream is = s.getInputStream();
+
+            byte[] request = ("GET " + uri + " HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "\r\n").getBytes(B2CConverter.ISO_8859_1);
+
+            doRequests(os, is, request, WARMUP);
+
+            long clientThread = Thread.currentThread().getId();
+            long before = allocatedBytes(threadBean, clientThread);
+            long start = System.nanoTime();
+            doRequests(os, is, request, ITERATIONS);
+            long time = System.nanoTime() - start;
+            long allocated = allocatedBytes(threadBean, clientThread) - before;
+
+            System.out.println(uri + ": " + allocated / ITERATIONS +
+                    " bytes allocated per request, " +
+                    time / ITERATIONS / 1000 + "us per request");
+        } finally {
+            s.close();
+        }
+    }
+
+
+    private static void doRequests(OutputStream os, InputStream is,
+            byte[] request, int count) throws IOException {
+        byte[] buf = new byte[1024];
+        for (int i = 0; i < count; i++) {
+            os.write(request);
+            os.flush();
+            readResponse(is, buf);
+        }
+    }
+
+
+    private static void readResponse(InputStream is, byte[] buf)
+            throws IOException {
+        int len = 0;
+        while (!endsWith(buf, len, RESPONSE_END)) {
+            int read = is.read(buf, len, buf.length - len);
+            assertTrue("Unexpected end of stream", read != -1);
+            len += read;
+        }
+        assertEquals('2', buf[9]);
+    }
+
+
+    private static boolean endsWith(byte[] buf, int len, byte[] end) {
+        if (len < end.length) {
+            return false;
+        }
+        for (int i = 0; i < end.length; i++) {
+            if (buf[len - end.length + i] != end[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /*
+     * Bytes allocated by every thread in the JVM other than the client.
+     */
+    private static long allocatedBytes(
+            com.sun.management.ThreadMXBean threadBean, long excludeThread) {
+        long result = 0;
+        for (long id : threadBean.getAllThreadIds()) {
+            if (id != excludeThread) {
+                long bytes = threadBean.getThreadAllocatedBytes(id);
+                if (bytes > 0) {
+                    result += bytes;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private static class MinimalServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final String[] ATTRIBUTE_NAMES = new String[] {
+            "org.example.framework.context", "org.example.framework.locale",
+            "org.example.framework.user", "org.example.framework.view"
+        };
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            String attributes = req.getParameter("attributes");
+            if (attributes != null) {
+                int count = Integer.parseInt(attributes);
+                for (int i = 0; i < count; i++) {
+                    req.setAttribute(ATTRIBUTE_NAMES[i], Boolean.TRUE);
+                }
+                for (int i = 0; i < count; i++) {
+                    req.getAttribute(ATTRIBUTE_NAMES[i]);
+                }
+            }
+            resp.setContentType("text/plain");
+            resp.setContentLength(2);
+            resp.getOutputStream().write(new byte[] {'O', 'K'});
+        }
+    }
+}
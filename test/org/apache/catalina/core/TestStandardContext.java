@@ -20,8 +20,13 @@ package org.apache.catalina.core;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -863,6 +868,118 @@ public class TestStandardContext extends TomcatBaseTest {
 
     }
 
+    @Test
+    public void testParallelLoadOnStartup() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        ctx.setParallelLoadOnStartup(true);
+        ctx.setStartStopThreads(2);
+
+        // Each servlet at level 1 waits for the other to start its init()
+        CountDownLatch latch = new CountDownLatch(2);
+        List<String> initialized =
+                Collections.synchronizedList(new ArrayList<String>());
+        Wrapper w1 = Tomcat.addServlet(ctx, "a",
+                new ParallelInitServlet(latch, initialized, "a"));
+        w1.setLoadOnStartup(1);
+        Wrapper w2 = Tomcat.addServlet(ctx, "b",
+                new ParallelInitServlet(latch, initialized, "b"));
+        w2.setLoadOnStartup(1);
+        Wrapper w3 = Tomcat.addServlet(ctx, "c",
+                new ParallelInitServlet(null, initialized, "c"));
+        w3.setLoadOnStartup(2);
+
+        tomcat.start();
+
+        assertEquals(LifecycleState.STARTED, ctx.getState());
+        assertEquals(3, initialized.size());
+        assertTrue(initialized.indexOf("a") < 2);
+        assertTrue(initialized.indexOf("b") < 2);
+        // Level 2 only starts once level 1 has completed
+        assertEquals("c", initialized.get(2));
+        assertTrue(((StandardWrapper) w1).getInitTime() >= 0);
+    }
+
+
+    @Test
+    public void testParallelLoadOnStartupFailure() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        ctx.setParallelLoadOnStartup(true);
+        ctx.setStartStopThreads(2);
+        ((StandardContext) ctx).setFailCtxIfServletStartFails(Boolean.TRUE);
+
+        List<String> initialized =
+                Collections.synchronizedList(new ArrayList<String>());
+        Tomcat.addServlet(ctx, "a", new FailingInitServlet()).setLoadOnStartup(1);
+        Tomcat.addServlet(ctx, "b",
+                new ParallelInitServlet(null, initialized, "b")).setLoadOnStartup(1);
+        Tomcat.addServlet(ctx, "c",
+                new ParallelInitServlet(null, initialized, "c")).setLoadOnStartup(2);
+
+        try {
+            tomcat.start();
+        } catch (LifecycleException e) {
+            // Expected in some cases
+        }
+
+        assertFalse(ctx.getState().isAvailable());
+        // The other servlet at the same level is still loaded
+        assertEquals(Arrays.asList("b"), initialized);
+    }
+
+
+    private static class ParallelInitServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient CountDownLatch latch;
+        private final transient List<String> initialized;
+        private final String name;
+
+        public ParallelInitServlet(CountDownLatch latch,
+                List<String> initialized, String name) {
+            this.latch = latch;
+            this.initialized = initialized;
+            this.name = name;
+        }
+
+        @Override
+        public void init() throws ServletException {
+            if (Thread.currentThread().getContextClassLoader() !=
+                    getServletContext().getClassLoader()) {
+                throw new ServletException("Thread not bound to the Context");
+            }
+            if (latch != null) {
+                latch.countDown();
+                try {
+                    if (!latch.await(10, TimeUnit.SECONDS)) {
+                        throw new ServletException("Not initialized in parallel");
+                    }
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+            }
+            initialized.add(name);
+        }
+    }
+
+
+    private static class FailingInitServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void init() throws ServletException {
+            throw new ServletException("Failure expected by the test");
+        }
+    }
+
+
     @Test
     public void testBug56903() {
         Context context = new StandardContext();
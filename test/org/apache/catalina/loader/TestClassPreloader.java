@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.TesterServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.unittest.TesterJar;
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestClassPreloader extends TomcatBaseTest {
+
+    @Test
+    public void testLoadSave() throws Exception {
+        File profile = new File(getTemporaryDirectory(), "profile.txt");
+        addDeleteOnTearDown(profile);
+
+        Assert.assertTrue(ClassPreloader.load(profile, "").isEmpty());
+
+        List<String> classNames = Arrays.asList("a.B", "c.D");
+        ClassPreloader.save(profile, "1.0", classNames);
+        Assert.assertEquals(classNames, ClassPreloader.load(profile, "1.0"));
+        // Different version
+        Assert.assertTrue(ClassPreloader.load(profile, "").isEmpty());
+        Assert.assertTrue(ClassPreloader.load(profile, "2.0").isEmpty());
+    }
+
+
+    @Test
+    public void testRecordAndPreload() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "preload");
+        File libDir = new File(appDir, "WEB-INF/lib");
+        Assert.assertTrue(libDir.mkdirs());
+        addDeleteOnTearDown(appDir);
+        TesterJar.createJar(new File(libDir, "servlet.jar"),
+                TesterServlet.class);
+
+        Context ctx = tomcat.addContext("", appDir.getAbsolutePath());
+        WebappLoader loader = new WebappLoader();
+        loader.setClassPreloadRecordTime(60);
+        ctx.setLoader(loader);
+        tomcat.start();
+
+        String className = TesterServlet.class.getName();
+
+        // Load a class from the web application and record it
+        ClassLoader cl = ctx.getLoader().getClassLoader();
+        Assert.assertSame(cl, cl.loadClass(className).getClassLoader());
+        Assert.assertEquals(0, loader.getClassPreloadCount());
+
+        File workDir = (File) ctx.getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        File profile = new File(workDir, ClassPreloader.PROFILE_NAME);
+
+        // Stopping the Context saves the profile
+        ctx.stop();
+        List<String> classNames = ClassPreloader.load(profile, "");
+        Assert.assertEquals(Arrays.asList(className), classNames);
+
+        // The class is preloaded on the next start
+        ctx.start();
+        WebappClassLoaderBase wcl =
+                (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+        for (int i = 0; i < 50 && loader.getClassPreloadCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1, loader.getClassPreloadCount());
+        Assert.assertNotNull(wcl.findLoadedClass0(className));
+        // Nothing is recorded while preloading
+        Assert.assertFalse(wcl.isRecordingClasses());
+
+        // The profile is kept as it was
+        ctx.stop();
+        Assert.assertEquals(classNames, ClassPreloader.load(profile, ""));
+    }
+
+
+    @Test
+    public void testParallelCapable() throws Exception {
+        WebappClassLoaderBase cl = new WebappClassLoader(
+                getClass().getClassLoader());
+        Assert.assertFalse(cl.isParallelCapable());
+
+        if (JreCompat.isJre7Available()) {
+            cl = new ParallelWebappClassLoader(getClass().getClassLoader());
+            Assert.assertTrue(cl.isParallelCapable());
+        }
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        tomcat.start();
+
+        WebappClassLoaderBase cl =
+                (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+        Assert.assertFalse(cl.isRecordingClasses());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.JarFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.startup.LoggingBaseTest;
+import org.apache.tomcat.unittest.TesterJar;
+
+public class TestJarIndex extends LoggingBaseTest {
+
+    private File jarDir = null;
+
+    @Test
+    public void testGetJars() throws Exception {
+        JarFile[] jarFiles = new JarFile[] {
+                createJar("a.jar", "a/", "a/One.class", "common.txt"),
+                createJar("b.jar", "b/", "b/Two.class"),
+                createJar("c.jar", "a/", "a/Three.class", "common.txt")
+        };
+        try {
+            JarIndex index = JarIndex.build(jarFiles);
+
+            Assert.assertEquals(3, index.getJarCount());
+            Assert.assertArrayEquals(new int[] { 0 }, index.getJars("a/One.class"));
+            Assert.assertArrayEquals(new int[] { 1 }, index.getJars("b/Two.class"));
+            Assert.assertArrayEquals(new int[] { 0, 2 }, index.getJars("common.txt"));
+            Assert.assertArrayEquals(new int[0], index.getJars("a/Two.class"));
+
+            // Directories are found with or without the trailing '/'
+            Assert.assertArrayEquals(new int[] { 0, 2 }, index.getJars("a/"));
+            Assert.assertArrayEquals(new int[] { 0, 2 }, index.getJars("a"));
+            Assert.assertArrayEquals(new int[] { 1 }, index.getJars("b"));
+        } finally {
+            for (JarFile jarFile : jarFiles) {
+                jarFile.close();
+            }
+        }
+    }
+
+
+    @Test
+    public void testMatchesJarFile() throws Exception {
+        // File and directory with the same name in different JARs
+        JarFile[] jarFiles = new JarFile[] {
+                createJar("a.jar", "x"),
+                createJar("b.jar", "x/"),
+                createJar("c.jar", "x", "x/")
+        };
+        try {
+            JarIndex index = JarIndex.build(jarFiles);
+            int[] jars = index.getJars("x");
+            Assert.assertArrayEquals(new int[] { 0, 1, 2 }, jars);
+            for (int jar : jars) {
+                Assert.assertNotNull(jarFiles[jar].getJarEntry("x"));
+            }
+        } finally {
+            for (JarFile jarFile : jarFiles) {
+                jarFile.close();
+            }
+        }
+    }
+
+
+    private JarFile createJar(String name, String... entries)
+            throws IOException {
+        if (jarDir == null) {
+            jarDir = new File(getTemporaryDirectory(), "jar-index");
+            Assert.assertTrue(jarDir.isDirectory() || jarDir.mkdirs());
+            addDeleteOnTearDown(jarDir);
+        }
+        TesterJar jar = new TesterJar();
+        for (String entry : entries) {
+            jar.addEntry(entry);
+        }
+        return new JarFile(jar.write(new File(jarDir, name)));
+    }
+}
@@ -17,12 +17,17 @@
 package org.apache.catalina.loader;
 
 import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.Context;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -48,4 +53,91 @@ public class TestWebappClassLoader extends TomcatBaseTest {
         File f = new File("test/webapp-3.0/WEB-INF/classes");
         Assert.assertEquals(f.toURI().toURL().toString(), out.toString().trim());
     }
+
+
+    @Test
+    public void testJarResources() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        File appDir = new File("test/webapp-3.0-fragments");
+        Context ctx = tomcat.addWebapp(null, "/test", appDir.getAbsolutePath());
+
+        tomcat.start();
+
+        WebappClassLoaderBase cl =
+                (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+
+        // Present in both JARs
+        List<URL> urls = Collections.list(
+                cl.getResources("META-INF/web-fragment.xml"));
+        Assert.assertEquals(2, urls.size());
+
+        // Present in the second JAR only
+        URL url = cl.getResource("META-INF/resources/resourceF.jsp");
+        Assert.assertNotNull(url);
+        Assert.assertTrue(url.toString().contains("resources2.jar"));
+
+        // Directory entry without the trailing '/'
+        Assert.assertNotNull(cl.getResource("META-INF/resources/folder"));
+
+        // Not present
+        String name = "org/apache/NotPresent.class";
+        Assert.assertNull(cl.getResource(name));
+        Assert.assertTrue(cl.notFoundResources.containsKey(name));
+        Assert.assertNull(cl.getResource(name));
+    }
+
+
+    @Test
+    public void testNotFoundResourcesBounded() {
+        WebappClassLoader cl = new WebappClassLoader();
+        for (int i = 0; i < 2000; i++) {
+            cl.notFoundResources.put("resource" + i, "resource" + i);
+        }
+        Assert.assertEquals(1000, cl.notFoundResources.size());
+        Assert.assertTrue(cl.notFoundResources.containsKey("resource1999"));
+    }
+
+
+    @Test
+    public void testCloseJARs() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        File appDir = new File("test/webapp-3.0-fragments");
+        Context ctx = tomcat.addWebapp(null, "/test", appDir.getAbsolutePath());
+
+        tomcat.start();
+
+        WebappClassLoaderBase cl =
+                (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+
+        // The JARs are closed once the Context has started
+        Assert.assertEquals(0, countOpenJars(cl));
+
+        // The JARs are opened again when a resource is read from one of them
+        InputStream is = cl.getResourceAsStream("META-INF/resources/resourceF.jsp");
+        Assert.assertNotNull(is);
+        is.close();
+        Assert.assertEquals(cl.jarFiles.length, countOpenJars(cl));
+
+        // Not idle so not closed
+        cl.closeJARs(false);
+        Assert.assertEquals(cl.jarFiles.length, countOpenJars(cl));
+
+        cl.closeJARs(true);
+        Assert.assertEquals(0, countOpenJars(cl));
+
+        List<URL> urls = Collections.list(
+                cl.getResources("META-INF/web-fragment.xml"));
+        Assert.assertEquals(2, urls.size());
+    }
+
+
+    private static int countOpenJars(WebappClassLoaderBase cl) {
+        int open = 0;
+        for (int i = 0; i < cl.jarFiles.length; i++) {
+            if (cl.jarFiles[i] != null) {
+                open++;
+            }
+        }
+        return open;
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.unittest.TesterJar;
+
+/**
+ * Measures the time taken for many threads to load resources, and look up
+ * resources that do not exist, from a web application with many JARs.
+ */
+public class TesterParallelWebappClassLoaderPerformance extends TomcatBaseTest {
+
+    private static final int JAR_COUNT = 200;
+    private static final int ENTRIES_PER_JAR = 50;
+    private static final int THREAD_COUNT = 32;
+    private static final int ITERATIONS = 20;
+
+    @Test
+    public void testParallelLoading() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "perf");
+        File libDir = new File(appDir, "WEB-INF/lib");
+        Assert.assertTrue(libDir.mkdirs());
+        addDeleteOnTearDown(appDir);
+        for (int i = 0; i < JAR_COUNT; i++) {
+            createJar(new File(libDir, "lib" + i + ".jar"), i);
+        }
+
+        Context ctx = tomcat.addContext("", appDir.getAbsolutePath());
+        WebappLoader webappLoader = new WebappLoader();
+        webappLoader.setLoaderClass(ParallelWebappClassLoader.class.getName());
+        ctx.setLoader(webappLoader);
+        tomcat.start();
+
+        final WebappClassLoaderBase cl =
+                (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+
+        Thread[] threads = new Thread[THREAD_COUNT];
+        final int[] failures = new int[1];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; n < ITERATIONS; n++) {
+                        for (int i = 0; i < JAR_COUNT; i++) {
+                            int jar = (i + offset) % JAR_COUNT;
+                            String name = "res/jar" + jar + "/entry" +
+                                    ((n + offset) % ENTRIES_PER_JAR) + ".txt";
+                            if (!load(cl, name)) {
+                                synchronized (failures) {
+                                    failures[0]++;
+                                }
+                            }
+                            // Only search this class loader, not the parent
+                            cl.findResource("res/missing" + offset + "-" + i + ".txt");
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long duration = System.nanoTime() - start;
+
+        Assert.assertEquals(0, failures[0]);
+        System.out.println("Parallel resource loading with " + THREAD_COUNT +
+                " threads took: " + (duration / 1000000) + " ms");
+    }
+
+
+    private static boolean load(ClassLoader cl, String name) {
+        InputStream is = cl.getResourceAsStream(name);
+        if (is == null) {
+            return false;
+        }
+        try {
+            byte[] buf = new byte[64];
+            while (is.read(buf) > 0) {
+                // Read the whole resource
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+
+    private static void createJar(File file, int jar) throws IOException {
+        TesterJar testerJar = new TesterJar();
+        for (int i = 0; i < ENTRIES_PER_JAR; i++) {
+            testerJar.addEntry("res/jar" + jar + "/entry" + i + ".txt",
+                    "Entry " + i + " of JAR " + jar);
+        }
+        testerJar.write(file);
+    }
+}
@@ -16,19 +16,30 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
@@ -47,6 +58,8 @@ import org.apache.catalina.deploy.ErrorPage;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.naming.resources.CacheEntry;
+import org.apache.naming.resources.ProxyDirContext;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestDefaultServlet extends TomcatBaseTest {
@@ -308,6 +321,287 @@ public class TestDefaultServlet extends TomcatBaseTest {
         tomcat.stop();
     }
 
+    /*
+     * Verify that a precompressed variant is served, with its own ETag, to
+     * clients which accept its encoding.
+     */
+    @Test
+    public void testPrecompressed() throws Exception {
+        byte[] content = createCompressibleContent();
+        byte[] gzipContent = gzip(content);
+        File appDir = createCompressionApp(content);
+        writeFile(new File(appDir, "app.js.gz"), gzipContent);
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("precompressed", "gzip=.gz");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("js", "application/javascript");
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/app.js";
+        ByteChunk out = new ByteChunk();
+
+        Map<String,List<String>> resHeaders = new HashMap<String,List<String>>();
+        int rc = getUrl(path, out, acceptEncoding("gzip, deflate"), resHeaders);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+        assertEquals("accept-encoding", resHeaders.get("Vary").get(0));
+        assertTrue(resHeaders.get("Content-Type").get(0).startsWith(
+                "application/javascript"));
+        assertTrue(Arrays.equals(gzipContent, toBytes(out)));
+        String gzipETag = resHeaders.get("ETag").get(0);
+
+        out.recycle();
+        resHeaders = new HashMap<String,List<String>>();
+        rc = getUrl(path, out, acceptEncoding("gzip;q=0, deflate"), resHeaders);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertFalse(resHeaders.containsKey("Content-Encoding"));
+        assertEquals("accept-encoding", resHeaders.get("Vary").get(0));
+        assertTrue(Arrays.equals(content, toBytes(out)));
+        assertFalse(gzipETag.equals(resHeaders.get("ETag").get(0)));
+
+        // Conditional request against the compressed representation
+        out.recycle();
+        Map<String,List<String>> reqHeaders = acceptEncoding("gzip");
+        reqHeaders.put("If-None-Match", Arrays.asList(gzipETag));
+        rc = getUrl(path, out, reqHeaders, null);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+    }
+
+    /*
+     * Verify that a gzip variant of a cached resource is generated and served
+     * when the compressed cache is enabled.
+     */
+    @Test
+    public void testCompressedCache() throws Exception {
+        byte[] content = createCompressibleContent();
+        File appDir = createCompressionApp(content);
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("compressedCache", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("js", "application/javascript");
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/app.js";
+        ByteChunk out = new ByteChunk();
+
+        String eTag = null;
+        for (int i = 0; i < 2; i++) {
+            out.recycle();
+            Map<String,List<String>> resHeaders =
+                new HashMap<String,List<String>>();
+            int rc = getUrl(path, out, acceptEncoding("*"), resHeaders);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+            assertTrue(Arrays.equals(content, gunzip(toBytes(out))));
+            assertTrue(resHeaders.get("ETag").get(0).endsWith("-gzip\""));
+            if (eTag != null) {
+                assertEquals(eTag, resHeaders.get("ETag").get(0));
+            }
+            eTag = resHeaders.get("ETag").get(0);
+        }
+
+        out.recycle();
+        Map<String,List<String>> resHeaders = new HashMap<String,List<String>>();
+        int rc = getUrl(path, out, null, resHeaders);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertFalse(resHeaders.containsKey("Content-Encoding"));
+        assertTrue(Arrays.equals(content, toBytes(out)));
+    }
+
+    /*
+     * Verify that a resource whose gzip variant doesn't fit in the cache is
+     * only compressed once and then served as is.
+     */
+    @Test
+    public void testCompressedCacheFull() throws Exception {
+        // Compresses to about half its size, which needs several KB of cache
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8000; i++) {
+            sb.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        byte[] content = sb.toString().getBytes("ASCII");
+        File appDir = createCompressionApp(content);
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        SmallCacheDefaultServlet servlet = new SmallCacheDefaultServlet();
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default", servlet);
+        defaultServlet.addInitParameter("compressedCache", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("js", "application/javascript");
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/app.js";
+        ByteChunk out = new ByteChunk();
+
+        Map<String,List<String>> resHeaders = new HashMap<String,List<String>>();
+        int rc = getUrl(path, out, acceptEncoding("gzip"), resHeaders);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+        assertTrue(Arrays.equals(content, gunzip(toBytes(out))));
+
+        for (int i = 0; i < 2; i++) {
+            out.recycle();
+            resHeaders = new HashMap<String,List<String>>();
+            rc = getUrl(path, out, acceptEncoding("gzip"), resHeaders);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertFalse(resHeaders.containsKey("Content-Encoding"));
+            assertEquals("accept-encoding", resHeaders.get("Vary").get(0));
+            assertTrue(Arrays.equals(content, toBytes(out)));
+        }
+
+        // Compressed once and the variant was not cached
+        assertEquals(1, servlet.cacheAttempts.get());
+        assertEquals(0, servlet.cached.get());
+    }
+
+    /*
+     * Verify that full and partial responses are served correctly from a
+     * memory mapped file.
+     */
+    @Test
+    public void testMappedFile() throws Exception {
+        // Larger than the maximum size of objects held by the resource cache
+        byte[] content = new byte[1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        File appDir = new File(getTemporaryDirectory(), "mapped");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        writeFile(new File(appDir, "data.bin"), content);
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("mappedFileSize", "600");
+        // Sendfile would otherwise take precedence on the NIO connector
+        defaultServlet.addInitParameter("sendfileSize", "-1");
+        ctxt.addServletMapping("/", "default");
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/data.bin";
+        ByteChunk out = new ByteChunk();
+
+        int rc = getUrl(path, out, null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertTrue(Arrays.equals(content, toBytes(out)));
+
+        out.recycle();
+        Map<String,List<String>> reqHeaders = new HashMap<String,List<String>>();
+        reqHeaders.put("Range", Arrays.asList("bytes=1000-1999"));
+        rc = getUrl(path, out, reqHeaders, null);
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 1000, 2000),
+                toBytes(out)));
+    }
+
+    /*
+     * A DefaultServlet with a resource cache that only has room for the
+     * resource itself.
+     */
+    private static class SmallCacheDefaultServlet extends DefaultServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicInteger cacheAttempts = new AtomicInteger();
+        private final AtomicInteger cached = new AtomicInteger();
+
+        @Override
+        public void init() throws ServletException {
+            super.init();
+            Hashtable<String,String> env = new Hashtable<String,String>();
+            env.put(ProxyDirContext.HOST, "localhost");
+            env.put(ProxyDirContext.CONTEXT, "");
+            resources = new ProxyDirContext(env, resources.getDirContext()) {
+                {
+                    // Size in KB
+                    cache.setCacheMaxSize(10);
+                }
+
+                @Override
+                public boolean cacheCompressed(CacheEntry entry,
+                        CacheEntry compressed) {
+                    cacheAttempts.incrementAndGet();
+                    boolean result = super.cacheCompressed(entry, compressed);
+                    if (result) {
+                        cached.incrementAndGet();
+                    }
+                    return result;
+                }
+            };
+        }
+    }
+
+    private File createCompressionApp(byte[] content) throws IOException {
+        File appDir = new File(getTemporaryDirectory(), "compression");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        writeFile(new File(appDir, "app.js"), content);
+        return appDir;
+    }
+
+    private static byte[] createCompressibleContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("var value").append(i).append(" = ").append(i).append(";\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static Map<String,List<String>> acceptEncoding(String value) {
+        Map<String,List<String>> headers = new HashMap<String,List<String>>();
+        headers.put("Accept-Encoding", Arrays.asList(value));
+        return headers;
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] toBytes(ByteChunk bc) {
+        return Arrays.copyOfRange(bc.getBuffer(), bc.getStart(), bc.getEnd());
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(baos);
+        gzip.write(content);
+        gzip.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        InputStream is = new GZIPInputStream(new ByteArrayInputStream(content));
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            baos.write(buf, 0, n);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+
     public static int getUrl(String path, ByteChunk out,
             Map<String, List<String>> resHead) throws IOException {
         out.recycle();
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.servlets.MappedFileCache.MappedFile;
+
+public class TestMappedFileCache {
+
+    private File file1;
+    private File file2;
+
+    @Before
+    public void setUp() throws IOException {
+        file1 = createFile(100);
+        file2 = createFile(200);
+    }
+
+    @After
+    public void tearDown() {
+        file1.delete();
+        file2.delete();
+    }
+
+    @Test
+    public void testAcquireRelease() throws IOException {
+        MappedFileCache cache = new MappedFileCache(1000);
+
+        MappedFile mf1 = acquire(cache, file1);
+        assertNotNull(mf1);
+        assertEquals(100, mf1.getLength());
+        assertEquals(100, cache.getSize());
+
+        MappedFile mf2 = acquire(cache, file1);
+        assertSame(mf1, mf2);
+        assertEquals(100, cache.getSize());
+
+        ByteBuffer slice = mf1.slice(10, 19);
+        assertEquals(10, slice.remaining());
+        assertEquals(10, slice.get());
+
+        cache.release(mf1);
+        cache.release(mf2);
+
+        // Still cached
+        MappedFile mf3 = acquire(cache, file1);
+        assertSame(mf1, mf3);
+        cache.release(mf3);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        MappedFileCache cache = new MappedFileCache(250);
+
+        MappedFile mf1 = acquire(cache, file1);
+        MappedFile mf2 = acquire(cache, file2);
+        assertEquals(200, cache.getSize());
+
+        // The evicted mapping remains usable until it is released
+        ByteBuffer slice = mf1.slice(0, 99);
+        assertEquals(100, slice.remaining());
+        assertEquals(99, slice.get(99));
+        cache.release(mf1);
+
+        MappedFile mf3 = acquire(cache, file1);
+        assertNotSame(mf1, mf3);
+        cache.release(mf2);
+        cache.release(mf3);
+    }
+
+    @Test
+    public void testModified() throws IOException {
+        MappedFileCache cache = new MappedFileCache(1000);
+
+        MappedFile mf1 = acquire(cache, file1);
+        cache.release(mf1);
+
+        MappedFile mf2 = cache.acquire(file1.getCanonicalPath(),
+                file1.length(), file1.lastModified() + 1000);
+        assertNotSame(mf1, mf2);
+        assertEquals(100, cache.getSize());
+        cache.release(mf2);
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        MappedFileCache cache = new MappedFileCache(150);
+        assertNull(acquire(cache, file2));
+        assertEquals(0, cache.getSize());
+    }
+
+    private static MappedFile acquire(MappedFileCache cache, File file)
+            throws IOException {
+        return cache.acquire(file.getCanonicalPath(), file.length(),
+                file.lastModified());
+    }
+
+    private static File createFile(int length) throws IOException {
+        File file = File.createTempFile("mapped", ".bin");
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+}
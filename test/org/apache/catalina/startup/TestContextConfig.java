@@ -18,13 +18,18 @@ package org.apache.catalina.startup;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRegistration;
+import javax.servlet.annotation.HandlesTypes;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,6 +39,8 @@ import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.loader.MyAnnotatedServlet;
+import org.apache.tomcat.unittest.TesterJar;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestContextConfig extends TomcatBaseTest {
@@ -159,6 +166,184 @@ public class TestContextConfig extends TomcatBaseTest {
         assertPageContains("/test/TesterServlet2", "OK");
     }
 
+    @Test
+    public void testParallelAnnotationScanning() throws Exception {
+        doTestParallelAnnotationScanning(4);
+    }
+
+    @Test
+    public void testParallelAnnotationScanningSingleThread() throws Exception {
+        // The Context is started by the only thread of the Host's executor so
+        // the starting thread has to perform the scans
+        doTestParallelAnnotationScanning(1);
+    }
+
+    private void doTestParallelAnnotationScanning(int startStopThreads)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getHost().setStartStopThreads(startStopThreads);
+
+        File appDir = new File(getTemporaryDirectory(), "parallel");
+        File libDir = new File(appDir, "WEB-INF/lib");
+        Assert.assertTrue(libDir.mkdirs());
+        addDeleteOnTearDown(appDir);
+
+        TesterJar.createJar(new File(libDir, "sci.jar"), HandlesTypesSCI.class);
+        TesterJar.createJar(new File(libDir, "a.jar"),
+                MyAnnotatedServlet.class);
+        TesterJar.createJar(new File(libDir, "b.jar"), ParamServlet.class);
+        TesterJar.createJar(new File(libDir, "c.jar"), TesterServlet.class);
+        TesterJar.createJar(new File(libDir, "d.jar"), ParamFilter.class);
+
+        Context ctx = tomcat.addWebapp(null, "/test", appDir.getAbsolutePath());
+        ctx.setParallelAnnotationScanning(true);
+
+        tomcat.start();
+
+        // The classes are loaded by the web application class loader so
+        // compare the names
+        @SuppressWarnings("unchecked")
+        Set<String> classes = (Set<String>) ctx.getServletContext().getAttribute(
+                HandlesTypesSCI.class.getName());
+        Assert.assertNotNull(classes);
+        Assert.assertTrue(classes.contains(MyAnnotatedServlet.class.getName()));
+        Assert.assertTrue(classes.contains(ParamServlet.class.getName()));
+        Assert.assertTrue(classes.contains(TesterServlet.class.getName()));
+        Assert.assertFalse(classes.contains(ParamFilter.class.getName()));
+
+        assertPageContains("/test/annotatedServlet",
+                "This is generated by an annotated servlet");
+        assertPageContains("/test/annotation/overwrite", "<p>Hello World!</p>");
+    }
+
+    @Test
+    public void testParallelDescriptorParsing() throws Exception {
+        doTestParallelDescriptorParsing(4);
+    }
+
+    @Test
+    public void testParallelDescriptorParsingSingleThread() throws Exception {
+        doTestParallelDescriptorParsing(1);
+    }
+
+    private void doTestParallelDescriptorParsing(int startStopThreads)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getHost().setStartStopThreads(startStopThreads);
+
+        File appDir = new File(getTemporaryDirectory(), "descriptors");
+        File libDir = new File(appDir, "WEB-INF/lib");
+        Assert.assertTrue(libDir.mkdirs());
+        addDeleteOnTearDown(appDir);
+
+        // Two JARs declare the same taglib URI so only the listener from the
+        // first one found is used
+        createDescriptorJar(new File(libDir, "a.jar"), "a", "<others/>",
+                "http://tomcat.apache.org/test/a", ListenerA.class);
+        createDescriptorJar(new File(libDir, "b.jar"), "b", null,
+                "http://tomcat.apache.org/test/a", ListenerB.class);
+        createDescriptorJar(new File(libDir, "c.jar"), "c", null,
+                "http://tomcat.apache.org/test/c", ListenerC.class);
+        for (int i = 0; i < 10; i++) {
+            createDescriptorJar(new File(libDir, "x" + i + ".jar"), "x" + i,
+                    null, null, null);
+        }
+
+        Context sequential = tomcat.addWebapp(null, "/sequential",
+                appDir.getAbsolutePath());
+        Context parallel = tomcat.addWebapp(null, "/parallel",
+                appDir.getAbsolutePath());
+        parallel.setParallelDescriptorParsing(true);
+
+        tomcat.start();
+
+        String[] listeners = sequential.findApplicationListeners();
+        Assert.assertEquals(2, listeners.length);
+        Assert.assertArrayEquals(listeners,
+                parallel.findApplicationListeners());
+
+        String[] parameters = sequential.findParameters();
+        Assert.assertEquals(13, parameters.length);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(parameters)),
+                new HashSet<String>(Arrays.asList(
+                        parallel.findParameters())));
+        for (String parameter : parameters) {
+            Assert.assertEquals(sequential.findParameter(parameter),
+                    parallel.findParameter(parameter));
+        }
+    }
+
+    private static void createDescriptorJar(File file, String name,
+            String after, String uri, Class<?> listener) throws IOException {
+        TesterJar jar = new TesterJar();
+        StringBuilder fragment = new StringBuilder(
+                "<web-fragment xmlns=\"http://java.sun.com/xml/ns/javaee\"" +
+                " version=\"3.0\">\n");
+        fragment.append("  <name>").append(name).append("</name>\n");
+        if (after != null) {
+            fragment.append("  <ordering><after>").append(after)
+                    .append("</after></ordering>\n");
+        }
+        fragment.append("  <context-param><param-name>").append(name)
+                .append("</param-name><param-value>").append(file.getName())
+                .append("</param-value></context-param>\n");
+        fragment.append("</web-fragment>\n");
+        jar.addEntry("META-INF/web-fragment.xml", fragment.toString());
+
+        if (listener != null) {
+            String tld =
+                    "<taglib xmlns=\"http://java.sun.com/xml/ns/javaee\"" +
+                    " version=\"2.1\">\n" +
+                    "  <tlib-version>1.0</tlib-version>\n" +
+                    "  <short-name>" + name + "</short-name>\n" +
+                    "  <uri>" + uri + "</uri>\n" +
+                    "  <listener>\n" +
+                    "    <listener-class>" + listener.getName() +
+                    "</listener-class>\n" +
+                    "  </listener>\n" +
+                    "</taglib>\n";
+            jar.addEntry("META-INF/test.tld", tld);
+        }
+        jar.write(file);
+    }
+
+    public static class ListenerA implements ServletContextListener {
+
+        @Override
+        public void contextInitialized(ServletContextEvent sce) {
+            // NO-OP
+        }
+
+        @Override
+        public void contextDestroyed(ServletContextEvent sce) {
+            // NO-OP
+        }
+    }
+
+    public static class ListenerB extends ListenerA {
+        // Distinct class name only
+    }
+
+    public static class ListenerC extends ListenerA {
+        // Distinct class name only
+    }
+
+    @HandlesTypes(Servlet.class)
+    public static class HandlesTypesSCI implements ServletContainerInitializer {
+
+        @Override
+        public void onStartup(Set<Class<?>> c, ServletContext ctx)
+                throws ServletException {
+            Set<String> classes = new HashSet<String>();
+            if (c != null) {
+                for (Class<?> clazz : c) {
+                    classes.add(clazz.getName());
+                }
+            }
+            ctx.setAttribute(HandlesTypesSCI.class.getName(), classes);
+        }
+    }
+
     private static class CustomDefaultServletSCI
             implements ServletContainerInitializer {
 
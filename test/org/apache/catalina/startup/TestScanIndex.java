@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.deploy.ApplicationParameter;
+import org.apache.catalina.loader.MyAnnotatedServlet;
+import org.apache.tomcat.unittest.TesterJar;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestScanIndex extends TomcatBaseTest {
+
+    private static final String TLD =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<taglib xmlns=\"http://java.sun.com/xml/ns/javaee\"\n" +
+            "    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+            "    xsi:schemaLocation=\"http://java.sun.com/xml/ns/javaee " +
+            "http://java.sun.com/xml/ns/javaee/web-jsptaglibrary_2_1.xsd\"\n" +
+            "    version=\"2.1\">\n" +
+            "  <tlib-version>1.0</tlib-version>\n" +
+            "  <short-name>test</short-name>\n" +
+            "  <uri>http://tomcat.apache.org/test/scanIndex</uri>\n" +
+            "  <listener>\n" +
+            "    <listener-class>" + TldListener.class.getName() +
+            "</listener-class>\n" +
+            "  </listener>\n" +
+            "</taglib>\n";
+
+
+    @Test
+    public void testGetPutSave() throws Exception {
+        File workDir = createDir("work");
+        File jarA = TesterJar.createJar(new File(workDir, "a.jar"),
+                TesterServlet.class);
+        File jarB = TesterJar.createJar(new File(workDir, "b.jar"),
+                ParamServlet.class);
+        URL urlA = toJarUrl(jarA);
+        URL urlB = toJarUrl(jarB);
+
+        Context context = createContext(workDir);
+        ScanIndex index = ScanIndex.load(context, "test");
+        Assert.assertNull(index.get(urlA));
+        index.put(urlA, "resultA");
+        index.put(urlB, "resultB");
+        index.save();
+
+        index = ScanIndex.load(context, "test");
+        Assert.assertEquals("resultA", index.get(urlA));
+        // Only JARs used are retained
+        index.save();
+
+        index = ScanIndex.load(context, "test");
+        Assert.assertEquals("resultA", index.get(urlA));
+        Assert.assertNull(index.get(urlB));
+
+        // Not a JAR on the file system
+        index.put(new URL("http://localhost/c.jar"), "resultC");
+        Assert.assertNull(index.get(new URL("http://localhost/c.jar")));
+    }
+
+
+    @Test
+    public void testChangedJar() throws Exception {
+        File workDir = createDir("work");
+        File jar = TesterJar.createJar(new File(workDir, "a.jar"),
+                TesterServlet.class);
+        URL url = toJarUrl(jar);
+
+        Context context = createContext(workDir);
+        ScanIndex index = ScanIndex.load(context, "test");
+        index.put(url, "result");
+        index.save();
+
+        // Same last modified time, different contents
+        long lastModified = jar.lastModified();
+        TesterJar.createJar(jar, ParamServlet.class);
+        Assert.assertTrue(jar.setLastModified(lastModified));
+
+        index = ScanIndex.load(context, "test");
+        Assert.assertNull(index.get(url));
+    }
+
+
+    @Test
+    public void testInvalidIndex() throws Exception {
+        File workDir = createDir("work");
+        File jar = TesterJar.createJar(new File(workDir, "a.jar"),
+                TesterServlet.class);
+
+        OutputStream os = new FileOutputStream(
+                new File(workDir, "test-scan-index.ser"));
+        try {
+            os.write("Not an index".getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+
+        Context context = createContext(workDir);
+        ScanIndex index = ScanIndex.load(context, "test");
+        Assert.assertNotNull(index);
+        Assert.assertNull(index.get(toJarUrl(jar)));
+    }
+
+
+    @Test
+    public void testPermittedTypes() throws Exception {
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("a");
+        Assert.assertEquals(list, roundTrip(list));
+        String[] strings = new String[] { "a", "b" };
+        Assert.assertArrayEquals(strings, (String[]) roundTrip(strings));
+        byte[] bytes = new byte[] { 1, 2 };
+        Assert.assertArrayEquals(bytes, (byte[]) roundTrip(bytes));
+    }
+
+
+    @Test(expected=InvalidClassException.class)
+    public void testRejectedType() throws Exception {
+        roundTrip(new Date());
+    }
+
+
+    @Test(expected=InvalidClassException.class)
+    public void testRejectedArrayType() throws Exception {
+        roundTrip(new Date[] { new Date() });
+    }
+
+
+    @Test(expected=InvalidClassException.class)
+    public void testRejectedDeployType() throws Exception {
+        // Serializable but never part of a parsed web.xml
+        roundTrip(new ApplicationParameter());
+    }
+
+
+    @Test(expected=InvalidClassException.class)
+    public void testRejectedProxy() throws Exception {
+        roundTrip(Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Runnable.class }, new TesterHandler()));
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception {
+        Context context = createContext(createDir("work"));
+        context.setUseScanIndex(false);
+        Assert.assertNull(ScanIndex.load(context, "test"));
+    }
+
+
+    @Test
+    public void testRestart() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = createDir("app");
+        File libDir = new File(appDir, "WEB-INF/lib");
+        Assert.assertTrue(libDir.mkdirs());
+
+        TesterJar.createJar(new File(libDir, "sci.jar"),
+                TestContextConfig.HandlesTypesSCI.class);
+        File servletJar = TesterJar.createJar(
+                new File(libDir, "servlet.jar"), MyAnnotatedServlet.class);
+        createTldJar(new File(libDir, "tld.jar"));
+
+        Context ctx = tomcat.addWebapp(null, "/test", appDir.getAbsolutePath());
+        ctx.setUseScanIndex(true);
+        tomcat.start();
+
+        File workDir = (File) ctx.getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        Assert.assertTrue(new File(workDir, "annotation-scan-index.ser").isFile());
+        Assert.assertTrue(new File(workDir, "tld-scan-index.ser").isFile());
+        assertStarted(ctx, MyAnnotatedServlet.class.getName());
+        assertPage("/test/annotatedServlet", 200);
+
+        // Restart using the index
+        ctx.stop();
+        ctx.start();
+        assertStarted(ctx, MyAnnotatedServlet.class.getName());
+        assertPage("/test/annotatedServlet", 200);
+
+        // Restart after changing a JAR
+        ctx.stop();
+        TesterJar.createJar(servletJar, ParamServlet.class);
+        ctx.start();
+        assertStarted(ctx, ParamServlet.class.getName());
+        assertPage("/test/annotatedServlet", 404);
+        assertPage("/test/annotation/overwrite", 200);
+    }
+
+
+    private void assertStarted(Context ctx, String servletClassName) {
+        ServletContext servletContext = ctx.getServletContext();
+        @SuppressWarnings("unchecked")
+        Set<String> classes = (Set<String>) servletContext.getAttribute(
+                TestContextConfig.HandlesTypesSCI.class.getName());
+        Assert.assertNotNull(classes);
+        Assert.assertTrue(classes.contains(servletClassName));
+        Assert.assertEquals(Boolean.TRUE,
+                servletContext.getAttribute(TldListener.class.getName()));
+    }
+
+
+    private void assertPage(String path, int expectedStatus)
+            throws IOException {
+        int rc = getUrl("http://localhost:" + getPort() + path,
+                new ByteChunk(), null);
+        Assert.assertEquals(expectedStatus, rc);
+    }
+
+
+    private File createDir(String name) {
+        File dir = new File(getTemporaryDirectory(), name);
+        Assert.assertTrue(dir.mkdirs());
+        addDeleteOnTearDown(dir);
+        return dir;
+    }
+
+
+    private Context createContext(File workDir) {
+        // Not started
+        Context context = getTomcatInstance().addContext("", null);
+        context.setUseScanIndex(true);
+        context.getServletContext().setAttribute(
+                ServletContext.TEMPDIR, workDir);
+        return context;
+    }
+
+
+    private static URL toJarUrl(File file) throws IOException {
+        return new URL("jar:" + file.toURI().toURL() + "!/");
+    }
+
+
+    private static void createTldJar(File file) throws IOException {
+        new TesterJar().addEntry("META-INF/test.tld", TLD).write(file);
+    }
+
+
+    public static class TldListener implements ServletContextListener {
+
+        @Override
+        public void contextInitialized(ServletContextEvent sce) {
+            sce.getServletContext().setAttribute(
+                    TldListener.class.getName(), Boolean.TRUE);
+        }
+
+        @Override
+        public void contextDestroyed(ServletContextEvent sce) {
+            // NO-OP
+        }
+    }
+
+
+    private static Object roundTrip(Object o) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(o);
+        oos.close();
+        ObjectInputStream ois = new ScanIndex.IndexObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()));
+        try {
+            return ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+
+    private static class TesterHandler
+            implements InvocationHandler, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import javax.servlet.ServletContext;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.deploy.JspPropertyGroup;
+import org.apache.catalina.deploy.SecurityCollection;
+import org.apache.catalina.deploy.SecurityConstraint;
+import org.apache.catalina.deploy.ServletDef;
+import org.apache.catalina.deploy.WebXml;
+import org.apache.catalina.util.IOTools;
+import org.apache.tomcat.unittest.TesterJar;
+import org.apache.tomcat.util.scan.Constants;
+import org.xml.sax.InputSource;
+
+public class TestWebXmlSnapshot extends TomcatBaseTest {
+
+    private static final String SYSTEM_ID = "file:/test/WEB-INF/web.xml";
+
+    private static final String WEB_XML_START =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\"\n" +
+            "    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+            "    xsi:schemaLocation=\"http://java.sun.com/xml/ns/javaee " +
+            "http://java.sun.com/xml/ns/javaee/web-app_3_0.xsd\"\n" +
+            "    version=\"3.0\">\n" +
+            "  <context-param>\n" +
+            "    <param-name>app</param-name>\n" +
+            "    <param-value>";
+
+    private static final String WEB_XML_END =
+            "</param-value>\n" +
+            "  </context-param>\n" +
+            "  <servlet>\n" +
+            "    <servlet-name>param</servlet-name>\n" +
+            "    <servlet-class>" + ParamServlet.class.getName() +
+            "</servlet-class>\n" +
+            "  </servlet>\n" +
+            "  <servlet-mapping>\n" +
+            "    <servlet-name>param</servlet-name>\n" +
+            "    <url-pattern>/param</url-pattern>\n" +
+            "  </servlet-mapping>\n" +
+            "</web-app>\n";
+
+    private static final String WEB_FRAGMENT_XML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<web-fragment xmlns=\"http://java.sun.com/xml/ns/javaee\"\n" +
+            "    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n" +
+            "    xsi:schemaLocation=\"http://java.sun.com/xml/ns/javaee " +
+            "http://java.sun.com/xml/ns/javaee/web-fragment_3_0.xsd\"\n" +
+            "    version=\"3.0\">\n" +
+            "  <name>fragment</name>\n" +
+            "  <context-param>\n" +
+            "    <param-name>fragment</param-name>\n" +
+            "    <param-value>fromFragment</param-value>\n" +
+            "  </context-param>\n" +
+            "  <context-param>\n" +
+            "    <param-name>app</param-name>\n" +
+            "    <param-value>ignored</param-value>\n" +
+            "  </context-param>\n" +
+            "</web-fragment>\n";
+
+
+    @Test
+    public void testLoadSave() throws Exception {
+        File workDir = createDir("work");
+        Context context = createContext(workDir);
+
+        WebXmlSnapshot snapshot = WebXmlSnapshot.create(context,
+                createSource("a"));
+        Assert.assertNull(snapshot.load());
+        WebXml webXml = createWebXml();
+        snapshot.save(webXml);
+        Assert.assertTrue(
+                new File(workDir, WebXmlSnapshot.SNAPSHOT_NAME).isFile());
+
+        WebXml loaded = WebXmlSnapshot.create(context, createSource("a")).load();
+        Assert.assertNotNull(loaded);
+        Assert.assertNotSame(webXml, loaded);
+        Assert.assertEquals(webXml.toXml(), loaded.toXml());
+        Assert.assertTrue(loaded.getServlets().get("param").isOverridable());
+
+        // Different contents
+        Assert.assertNull(
+                WebXmlSnapshot.create(context, createSource("b")).load());
+
+        // Different parser configuration
+        context.setXmlValidation(true);
+        Assert.assertNull(
+                WebXmlSnapshot.create(context, createSource("a")).load());
+    }
+
+
+    @Test
+    public void testSourceStillReadable() throws Exception {
+        Context context = createContext(createDir("work"));
+        InputSource source = createSource("a");
+        Assert.assertNotNull(WebXmlSnapshot.create(context, source));
+        Assert.assertEquals(WEB_XML_START + "a" + WEB_XML_END,
+                new String(readFully(source.getByteStream()), "UTF-8"));
+    }
+
+
+    @Test
+    public void testInvalidSnapshot() throws Exception {
+        File workDir = createDir("work");
+        OutputStream os = new FileOutputStream(
+                new File(workDir, WebXmlSnapshot.SNAPSHOT_NAME));
+        try {
+            os.write("Not a snapshot".getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+
+        Context context = createContext(workDir);
+        WebXmlSnapshot snapshot = WebXmlSnapshot.create(context,
+                createSource("a"));
+        Assert.assertNotNull(snapshot);
+        Assert.assertNull(snapshot.load());
+    }
+
+
+    @Test
+    public void testDifferentFormat() throws Exception {
+        File workDir = createDir("work");
+        Context context = createContext(workDir);
+        WebXmlSnapshot.create(context, createSource("a")).save(createWebXml());
+        Assert.assertNotNull(
+                WebXmlSnapshot.create(context, createSource("a")).load());
+
+        // Rewrite the snapshot as if by a different version of Tomcat
+        File file = new File(workDir, WebXmlSnapshot.SNAPSHOT_NAME);
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            String format = ois.readUTF();
+            Assert.assertTrue(format, format.startsWith("WebXmlSnapshot/"));
+            oos.writeUTF(format + ".1");
+            oos.writeObject(ois.readObject());
+            oos.writeObject(ois.readObject());
+            oos.writeObject(ois.readObject());
+        } finally {
+            ois.close();
+            oos.close();
+        }
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(bos.toByteArray());
+        } finally {
+            os.close();
+        }
+
+        Assert.assertNull(
+                WebXmlSnapshot.create(context, createSource("a")).load());
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception {
+        Context context = createContext(createDir("work"));
+        context.setUseScanIndex(false);
+        Assert.assertNull(WebXmlSnapshot.create(context, createSource("a")));
+    }
+
+
+    @Test
+    public void testRestart() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = createDir("app");
+        File webInf = new File(appDir, "WEB-INF");
+        File libDir = new File(webInf, "lib");
+        Assert.assertTrue(libDir.mkdirs());
+        File webXmlFile = new File(webInf, "web.xml");
+        writeWebXml(webXmlFile, "first");
+        createFragmentJar(new File(libDir, "fragment.jar"));
+
+        Context ctx = tomcat.addWebapp(null, "/test", appDir.getAbsolutePath());
+        ctx.setUseScanIndex(true);
+        tomcat.start();
+
+        File workDir = (File) ctx.getServletContext().getAttribute(
+                ServletContext.TEMPDIR);
+        File snapshotFile = new File(workDir, WebXmlSnapshot.SNAPSHOT_NAME);
+        Assert.assertTrue(snapshotFile.isFile());
+        Assert.assertTrue(
+                new File(workDir, "fragment-scan-index.ser").isFile());
+        Assert.assertEquals("first", ctx.findParameter("app"));
+        Assert.assertEquals("fromFragment", ctx.findParameter("fragment"));
+        Assert.assertNotNull(ctx.findChild("param"));
+        String merged = (String) ctx.getServletContext().getAttribute(
+                Constants.MERGED_WEB_XML);
+
+        // Restart using the snapshot and the index
+        ctx.stop();
+        long snapshotLastModified = snapshotFile.lastModified() - 10000;
+        Assert.assertTrue(snapshotFile.setLastModified(snapshotLastModified));
+        ctx.start();
+        // Not written again
+        Assert.assertEquals(snapshotLastModified, snapshotFile.lastModified());
+        Assert.assertEquals(merged, ctx.getServletContext().getAttribute(
+                Constants.MERGED_WEB_XML));
+        Assert.assertEquals("first", ctx.findParameter("app"));
+        Assert.assertEquals("fromFragment", ctx.findParameter("fragment"));
+        Assert.assertNotNull(ctx.findChild("param"));
+
+        // Restart after changing web.xml without changing its last modified
+        // time
+        ctx.stop();
+        long lastModified = webXmlFile.lastModified();
+        writeWebXml(webXmlFile, "second");
+        Assert.assertTrue(webXmlFile.setLastModified(lastModified));
+        ctx.start();
+        Assert.assertEquals("second", ctx.findParameter("app"));
+        Assert.assertEquals("fromFragment", ctx.findParameter("fragment"));
+    }
+
+
+    private WebXml createWebXml() {
+        WebXml webXml = new WebXml();
+        webXml.setOverridable(true);
+        webXml.setDistributable(true);
+        webXml.addContextParam("app", "a");
+        ServletDef servletDef = new ServletDef();
+        servletDef.setServletName("param");
+        servletDef.setServletClass(ParamServlet.class.getName());
+        servletDef.addInitParameter("name", "value");
+        servletDef.setLoadOnStartup("1");
+        webXml.addServlet(servletDef);
+        webXml.addServletMapping("/param", "param");
+        webXml.getSessionConfig().setSessionTimeout("15");
+        webXml.getSessionConfig().addSessionTrackingMode("COOKIE");
+        JspPropertyGroup group = new JspPropertyGroup();
+        group.addUrlPattern("*.jspf");
+        group.setIsXml("true");
+        webXml.addJspPropertyGroup(group);
+        SecurityCollection collection = new SecurityCollection();
+        collection.addPattern("/secure/*");
+        collection.addMethod("GET");
+        SecurityConstraint constraint = new SecurityConstraint();
+        constraint.addCollection(collection);
+        constraint.addAuthRole("admin");
+        webXml.addSecurityConstraint(constraint);
+        webXml.addWelcomeFile("index.html");
+        return webXml;
+    }
+
+
+    private File createDir(String name) {
+        File dir = new File(getTemporaryDirectory(), name);
+        Assert.assertTrue(dir.mkdirs());
+        addDeleteOnTearDown(dir);
+        return dir;
+    }
+
+
+    private Context createContext(File workDir) {
+        // Not started
+        Context context = getTomcatInstance().addContext("", null);
+        context.setUseScanIndex(true);
+        context.getServletContext().setAttribute(
+                ServletContext.TEMPDIR, workDir);
+        return context;
+    }
+
+
+    private static InputSource createSource(String value) throws IOException {
+        InputSource source = new InputSource(SYSTEM_ID);
+        source.setByteStream(new ByteArrayInputStream(
+                (WEB_XML_START + value + WEB_XML_END).getBytes("UTF-8")));
+        return source;
+    }
+
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        IOTools.flow(is, os);
+        return os.toByteArray();
+    }
+
+
+    private static void writeWebXml(File file, String value)
+            throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write((WEB_XML_START + value + WEB_XML_END).getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+
+
+    private static void createFragmentJar(File file) throws IOException {
+        new TesterJar().addEntry("META-INF/web-fragment.xml", WEB_FRAGMENT_XML)
+                .write(file);
+    }
+}
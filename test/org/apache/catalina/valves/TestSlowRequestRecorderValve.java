@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.valves.SlowRequestRecorderValve.SlowRequest;
+import org.apache.catalina.valves.SlowRequestRecorderValve.StackSample;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestSlowRequestRecorderValve extends TomcatBaseTest {
+
+    private static final int DELAY = 400;
+    private static final int THRESHOLD = 200;
+
+    @Test
+    public void testSlowRequestsRecorded() throws Exception {
+        SlowRequestRecorderValve valve = new SlowRequestRecorderValve();
+        valve.setThreshold(THRESHOLD);
+        valve.setCapacity(2);
+        valve.setStackSampleInterval(50);
+        valve.setMaxStackSamples(3);
+        Tomcat tomcat = startTomcat(valve);
+
+        getUrl("http://localhost:" + getPort() + "/fast");
+        for (int i = 0; i < 3; i++) {
+            getUrl("http://localhost:" + getPort() + "/slow?i=" + i);
+        }
+        getUrl("http://localhost:" + getPort() + "/fast");
+
+        waitForCount(valve, 3);
+        Assert.assertEquals(3, valve.getSlowRequestCount());
+
+        // Only the two most recent are retained, newest first
+        List<SlowRequest> slowRequests = valve.getSlowRequestList();
+        Assert.assertEquals(2, slowRequests.size());
+        Assert.assertEquals("/slow?i=2", slowRequests.get(0).getUri());
+        Assert.assertEquals("/slow?i=1", slowRequests.get(1).getUri());
+
+        SlowRequest slowRequest = slowRequests.get(0);
+        Assert.assertEquals("GET", slowRequest.getMethod());
+        Assert.assertEquals(200, slowRequest.getStatus());
+        Assert.assertTrue(slowRequest.getTotalTime() >= DELAY);
+        Assert.assertTrue(slowRequest.getServiceTime() >= DELAY);
+        Assert.assertTrue(slowRequest.getThreadName().length() > 0);
+
+        List<StackSample> samples = slowRequest.getStackSamples();
+        Assert.assertTrue(samples.size() > 0);
+        Assert.assertTrue(samples.size() <= 3);
+        boolean found = false;
+        for (StackTraceElement element : samples.get(0).getStackTrace()) {
+            if (element.getClassName().equals(SlowServlet.class.getName())) {
+                found = true;
+            }
+        }
+        Assert.assertTrue(found);
+
+        Assert.assertEquals(2, valve.getSlowRequests().length);
+        Assert.assertTrue(valve.report().contains(SlowServlet.class.getName()));
+
+        valve.reset();
+        Assert.assertEquals(0, valve.getSlowRequestList().size());
+        Assert.assertEquals(0, valve.getSlowRequestCount());
+
+        tomcat.stop();
+    }
+
+
+    @Test
+    public void testAsyncRequestRecorded() throws Exception {
+        SlowRequestRecorderValve valve = new SlowRequestRecorderValve();
+        valve.setThreshold(THRESHOLD);
+        startTomcat(valve);
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/async");
+        Assert.assertEquals("OK", res.toString());
+
+        waitForCount(valve, 1);
+        SlowRequest slowRequest = valve.getSlowRequestList().get(0);
+        Assert.assertEquals("/async", slowRequest.getUri());
+        Assert.assertTrue(slowRequest.getTotalTime() >= DELAY);
+        // The container thread returns long before the request completes
+        Assert.assertTrue(slowRequest.getServiceTime() < DELAY);
+        Assert.assertTrue(slowRequest.getCompletionTime() >= THRESHOLD);
+        Assert.assertEquals(0, slowRequest.getStackSamples().size());
+    }
+
+
+    @Test
+    public void testAsyncDispatchSampled() throws Exception {
+        SlowRequestRecorderValve valve = new SlowRequestRecorderValve();
+        valve.setThreshold(THRESHOLD);
+        valve.setStackSampleInterval(50);
+        startTomcat(valve);
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/dispatch");
+        Assert.assertEquals("OK", res.toString());
+
+        waitForCount(valve, 1);
+        SlowRequest slowRequest = valve.getSlowRequestList().get(0);
+        Assert.assertEquals("/dispatch", slowRequest.getUri());
+        // Samples are taken of the thread processing the dispatch
+        List<StackSample> samples = slowRequest.getStackSamples();
+        Assert.assertTrue(samples.size() > 0);
+        boolean found = false;
+        for (StackTraceElement element : samples.get(0).getStackTrace()) {
+            if (element.getClassName().equals(
+                    DispatchServlet.class.getName())) {
+                found = true;
+            }
+        }
+        Assert.assertTrue(found);
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception {
+        SlowRequestRecorderValve valve = new SlowRequestRecorderValve();
+        valve.setThreshold(0);
+        startTomcat(valve);
+
+        getUrl("http://localhost:" + getPort() + "/slow");
+        Thread.sleep(200);
+        Assert.assertEquals(0, valve.getSlowRequestCount());
+    }
+
+
+    private Tomcat startTomcat(SlowRequestRecorderValve valve)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        // Must have a real docBase - just use temp
+        Context ctx = tomcat.addContext("", System.getProperty("java.io.tmpdir"));
+        Tomcat.addServlet(ctx, "fast", new SlowServlet(0));
+        ctx.addServletMapping("/fast", "fast");
+        Tomcat.addServlet(ctx, "slow", new SlowServlet(DELAY));
+        ctx.addServletMapping("/slow", "slow");
+        Tomcat.addServlet(ctx, "async", new AsyncServlet()).setAsyncSupported(true);
+        ctx.addServletMapping("/async", "async");
+        Tomcat.addServlet(ctx, "dispatch", new DispatchServlet()).setAsyncSupported(true);
+        ctx.addServletMapping("/dispatch", "dispatch");
+
+        tomcat.start();
+        return tomcat;
+    }
+
+
+    private static void waitForCount(SlowRequestRecorderValve valve,
+            int count) throws InterruptedException {
+        // Requests are recorded after the response has been sent and the
+        // count is incremented before the record is stored
+        int retained = Math.min(count, valve.getCapacity());
+        for (int i = 0; i < 50 && (valve.getSlowRequestCount() < count ||
+                valve.getSlowRequestList().size() < retained); i++) {
+            Thread.sleep(100);
+        }
+    }
+
+
+    private static class SlowServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int delay;
+
+        public SlowServlet(int delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
+
+
+    private static class AsyncServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            final AsyncContext ac = req.startAsync();
+            ac.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(DELAY);
+                        ac.getResponse().setContentType("text/plain");
+                        ac.getResponse().getWriter().print("OK");
+                    } catch (Exception e) {
+                        // Test will fail
+                    }
+                    ac.complete();
+                }
+            });
+        }
+    }
+
+
+    private static class DispatchServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            if (req.getDispatcherType() == DispatcherType.ASYNC) {
+                try {
+                    Thread.sleep(DELAY);
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+                resp.setContentType("text/plain");
+                resp.getWriter().print("OK");
+            } else {
+                req.startAsync().dispatch();
+            }
+        }
+    }
+}
@@ -18,10 +18,13 @@ package org.apache.coyote.ajp;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -38,6 +41,8 @@ import org.apache.catalina.startup.TomcatBaseTest;
 
 public class TestAbstractAjpProcessor extends TomcatBaseTest {
 
+    private static final int BODY_CHUNK = 4000;
+
     @Override
     protected String getProtocol() {
         /*
@@ -694,6 +699,147 @@ public class TestAbstractAjpProcessor extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testBodyReadAhead() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        SimpleAjpClient ajpClient = startBodyTest(new CountBodyServlet(latch));
+
+        TesterAjpMessage forwardMessage = createPost(ajpClient, 3 * BODY_CHUNK);
+        // The servlet blocks after reading one byte so the next chunk can only
+        // be requested ahead of the servlet reading the rest of the first one
+        TesterAjpMessage getBody = ajpClient.sendMessage(forwardMessage,
+                ajpClient.createBodyMessage(new byte[BODY_CHUNK]));
+        validateGetBody(getBody);
+        latch.countDown();
+        getBody = ajpClient.sendMessage(
+                ajpClient.createBodyMessage(new byte[BODY_CHUNK]));
+        validateGetBody(getBody);
+
+        // The last chunk is not followed by a request for more data as the
+        // content length has been reached. Only once the servlet has read it
+        // does Tomcat ask for, and get, the end of the body.
+        getBody = ajpClient.sendMessage(
+                ajpClient.createBodyMessage(new byte[BODY_CHUNK]));
+        validateGetBody(getBody);
+        TesterAjpMessage responseHeaders = ajpClient.sendMessage(
+                ajpClient.createBodyMessage(new byte[0]));
+
+        validateResponseHeaders(responseHeaders, 200, "OK");
+        validateResponseBody(ajpClient.readMessage(),
+                Integer.toString(3 * BODY_CHUNK));
+        validateResponseEnd(ajpClient.readMessage(), true);
+
+        // Double check the connection is still open
+        validateCpong(ajpClient.cping());
+
+        ajpClient.disconnect();
+    }
+
+
+    @Test
+    public void testBodyReadAheadUnreadBody() throws Exception {
+        SimpleAjpClient ajpClient = startBodyTest(new CountBodyServlet(null));
+
+        // The servlet reads a single byte. The chunk that has been requested
+        // ahead must be read before the end of the response is sent.
+        TesterAjpMessage forwardMessage = createPost(ajpClient, 3 * BODY_CHUNK);
+        TesterAjpMessage getBody = ajpClient.sendMessage(forwardMessage,
+                ajpClient.createBodyMessage(new byte[BODY_CHUNK]));
+        validateGetBody(getBody);
+        TesterAjpMessage responseHeaders = ajpClient.sendMessage(
+                ajpClient.createBodyMessage(new byte[BODY_CHUNK]));
+
+        validateResponseHeaders(responseHeaders, 200, "OK");
+        validateResponseBody(ajpClient.readMessage(), "1");
+        validateResponseEnd(ajpClient.readMessage(), true);
+
+        // The connection is still in step with the web server
+        validateCpong(ajpClient.cping());
+
+        ajpClient.disconnect();
+    }
+
+
+    @Test
+    public void testCodedResponseHeaders() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "headers", new HeadersServlet());
+        ctx.addServletMapping("/", "headers");
+
+        tomcat.start();
+
+        SimpleAjpClient ajpClient = new SimpleAjpClient();
+        ajpClient.setPort(getPort());
+        ajpClient.connect();
+
+        TesterAjpMessage forwardMessage = ajpClient.createForwardMessage();
+        forwardMessage.end();
+        TesterAjpMessage responseHeaders = ajpClient.sendMessage(forwardMessage);
+
+        responseHeaders.processHeader(false);
+        Assert.assertEquals(0x04, responseHeaders.readByte());
+        Assert.assertEquals(200, responseHeaders.readInt());
+        responseHeaders.readString();
+        Map<String,String> headers = new HashMap<String,String>();
+        int headerCount = responseHeaders.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            String name;
+            if ((responseHeaders.peekInt() & 0xFF00) == 0xA000) {
+                name = Integer.toHexString(responseHeaders.readInt());
+            } else {
+                name = responseHeaders.readString();
+            }
+            headers.put(name, responseHeaders.readString());
+        }
+
+        // Header names with a code are sent as codes whatever their case
+        Assert.assertEquals("text/plain", headers.get("a001"));
+        Assert.assertEquals("/other", headers.get("a006"));
+        Assert.assertEquals("a=b", headers.get("a007"));
+        Assert.assertEquals("value", headers.get("X-Custom"));
+
+        validateResponseEnd(ajpClient.readMessage(), true);
+
+        ajpClient.disconnect();
+    }
+
+
+    private SimpleAjpClient startBodyTest(HttpServlet servlet)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("bodyReadAhead", "true");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "count", servlet);
+        ctx.addServletMapping("/", "count");
+
+        tomcat.start();
+
+        SimpleAjpClient ajpClient = new SimpleAjpClient();
+        ajpClient.setPort(getPort());
+        ajpClient.connect();
+
+        validateCpong(ajpClient.cping());
+        return ajpClient;
+    }
+
+
+    private TesterAjpMessage createPost(SimpleAjpClient ajpClient,
+            int contentLength) {
+        ajpClient.setUri("/");
+        ajpClient.setMethod("POST");
+        TesterAjpMessage forwardMessage = ajpClient.createForwardMessage();
+        forwardMessage.addHeader(0xA008, Integer.toString(contentLength));
+        forwardMessage.addHeader(0xA007, "application/octet-stream");
+        forwardMessage.end();
+        return forwardMessage;
+    }
+
+
     /**
      * Process response header packet and checks the status. Any other data is
      * ignored.
@@ -843,4 +989,62 @@ public class TestAbstractAjpProcessor extends TomcatBaseTest {
             }
         }
     }
+
+
+    private static class CountBodyServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch latch;
+
+        /**
+         * @param latch If null, only one byte of the request body is read.
+         *              Otherwise, the latch is awaited after the first byte
+         *              and the whole body is read.
+         */
+        public CountBodyServlet(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            InputStream is = req.getInputStream();
+            int count = 0;
+            if (is.read() != -1) {
+                count++;
+            }
+            if (latch != null) {
+                try {
+                    if (!latch.await(10, TimeUnit.SECONDS)) {
+                        throw new ServletException("Latch not released");
+                    }
+                } catch (InterruptedException e) {
+                    throw new ServletException(e);
+                }
+                byte[] buf = new byte[1024];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    count += read;
+                }
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print(count);
+        }
+    }
+
+
+    private static class HeadersServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.setHeader("location", "/other");
+            resp.setHeader("SET-COOKIE", "a=b");
+            resp.setHeader("X-Custom", "value");
+        }
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+public class TestInternalNioOutputBuffer extends TomcatBaseTest {
+
+    private static final int LARGE_RESPONSE_SIZE = 4 * 1024 * 1024;
+
+    /*
+     * With a single worker thread, a client that does not read a large
+     * response must not prevent other clients from being served.
+     */
+    @Test
+    public void testSlowClientReleasesWorker() throws Exception {
+        Assume.assumeTrue("Only the NIO connector buffers pending writes",
+                getProtocol().equals(Http11NioProtocol.class.getName()));
+
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("maxThreads", "1");
+        tomcat.getConnector().setProperty("maxPendingWriteSize",
+                Integer.toString(2 * LARGE_RESPONSE_SIZE));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "large", new LargeServlet());
+        root.addServletMapping("/large", "large");
+        Tomcat.addServlet(root, "small", new SmallServlet());
+        root.addServletMapping("/small", "small");
+        tomcat.start();
+
+        Socket slow = new Socket();
+        slow.setReceiveBufferSize(8192);
+        slow.connect(new java.net.InetSocketAddress("localhost", getPort()));
+        Socket fast = new Socket("localhost", getPort());
+        try {
+            slow.setSoTimeout(30000);
+            fast.setSoTimeout(10000);
+
+            sendRequest(slow, "/large");
+            // Give the worker thread the time to write what it can
+            Thread.sleep(1000);
+
+            // Keep-alive, so the connection is returned to the Poller
+            sendRequest(fast, "/small");
+            assertEquals("OK", new String(readResponse(fast.getInputStream()),
+                    B2CConverter.ISO_8859_1));
+            sendRequest(fast, "/small");
+            assertEquals("OK", new String(readResponse(fast.getInputStream()),
+                    B2CConverter.ISO_8859_1));
+
+            byte[] body = readResponse(slow.getInputStream());
+            assertEquals(LARGE_RESPONSE_SIZE, body.length);
+            for (int i = 0; i < body.length; i++) {
+                assertEquals(expected(i), body[i]);
+            }
+
+            // The connection is still usable once the Poller has written the
+            // end of the response
+            sendRequest(slow, "/small");
+            assertEquals("OK", new String(readResponse(slow.getInputStream()),
+                    B2CConverter.ISO_8859_1));
+        } finally {
+            slow.close();
+            fast.close();
+        }
+    }
+
+
+    private static byte expected(int i) {
+        return (byte) ('a' + (i % 26));
+    }
+
+
+    private static void sendRequest(Socket socket, String uri)
+            throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(("GET " + uri + " HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n").getBytes(B2CConverter.ISO_8859_1));
+        os.flush();
+    }
+
+
+    private static byte[] readResponse(InputStream is) throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        String head = "";
+        while (!head.endsWith("\r\n\r\n")) {
+            int b = is.read();
+            assertTrue("Unexpected end of stream", b != -1);
+            headers.write(b);
+            if (b == '\n') {
+                head = new String(headers.toByteArray(), B2CConverter.ISO_8859_1);
+            }
+        }
+        assertTrue(head, head.startsWith("HTTP/1.1 200"));
+        int start = head.toLowerCase().indexOf("content-length:") + 15;
+        assertTrue(head, start >= 15);
+        int length = Integer.parseInt(
+                head.substring(start, head.indexOf("\r\n", start)).trim());
+
+        byte[] body = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            int read = is.read(body, pos, length - pos);
+            assertTrue("Unexpected end of stream", read != -1);
+            pos += read;
+        }
+        return body;
+    }
+
+
+    private static class LargeServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("application/octet-stream");
+            resp.setContentLength(LARGE_RESPONSE_SIZE);
+            byte[] chunk = new byte[26 * 1024];
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = expected(i);
+            }
+            ServletOutputStream os = resp.getOutputStream();
+            int remaining = LARGE_RESPONSE_SIZE;
+            while (remaining > 0) {
+                int len = Math.min(remaining, chunk.length);
+                os.write(chunk, 0, len);
+                remaining -= len;
+            }
+        }
+    }
+
+
+    private static class SmallServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.setContentLength(2);
+            resp.getOutputStream().write(new byte[] {'O', 'K'});
+        }
+    }
+}
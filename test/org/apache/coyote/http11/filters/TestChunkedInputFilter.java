@@ -20,6 +20,7 @@ package org.apache.coyote.http11.filters;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.HashSet;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -37,6 +38,10 @@ import org.apache.catalina.Context;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestChunkedInputFilter extends TomcatBaseTest {
 
@@ -356,6 +361,37 @@ public class TestChunkedInputFilter extends TomcatBaseTest {
                 + "Hello World!" + SimpleHttpClient.CRLF, 10, 10);
     }
 
+    /*
+     * Chunk headers, extensions and CRLFs may be split across reads at any
+     * point.
+     */
+    @Test
+    public void testSplitReads() throws Exception {
+        String chunks = "5;a=b" + SimpleHttpClient.CRLF + "Hello" +
+                SimpleHttpClient.CRLF + "007" + SimpleHttpClient.CRLF +
+                " World!" + SimpleHttpClient.CRLF + "0;x" +
+                SimpleHttpClient.CRLF + "x-trailer: foo" +
+                SimpleHttpClient.CRLF + SimpleHttpClient.CRLF;
+        byte[] input = chunks.getBytes(B2CConverter.ISO_8859_1);
+
+        for (int readSize = 1; readSize <= input.length; readSize++) {
+            ChunkedInputFilter filter = new ChunkedInputFilter(8192,
+                    new HashSet<String>(), 8192, -1);
+            filter.setRequest(new Request());
+            filter.setBuffer(new ByteArrayInputBuffer(input, readSize));
+
+            StringBuilder body = new StringBuilder();
+            ByteChunk chunk = new ByteChunk();
+            while (filter.doRead(chunk, null) >= 0) {
+                body.append(chunk.toString());
+            }
+            assertEquals("Read size [" + readSize + "]", "Hello World!",
+                    body.toString());
+            assertTrue(filter.isFinished());
+            assertEquals(0, filter.available());
+        }
+    }
+
     /**
      * @param expectPass
      *            If the servlet is expected to process the request
@@ -533,6 +569,29 @@ public class TestChunkedInputFilter extends TomcatBaseTest {
         }
     }
 
+    private static class ByteArrayInputBuffer implements InputBuffer {
+
+        private final byte[] input;
+        private final int readSize;
+        private int pos = 0;
+
+        public ByteArrayInputBuffer(byte[] input, int readSize) {
+            this.input = input;
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int doRead(ByteChunk chunk, Request request) {
+            if (pos >= input.length) {
+                return -1;
+            }
+            int len = Math.min(readSize, input.length - pos);
+            chunk.setBytes(input, pos, len);
+            pos += len;
+            return len;
+        }
+    }
+
     private static class TrailerClient extends SimpleHttpClient {
 
         public TrailerClient(int port) {
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import org.apache.coyote.InputBuffer;
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Measures the throughput of decoding a large chunked request body. Not run
+ * as part of the standard test suite.
+ */
+public class TesterChunkedInputFilterPerformance {
+
+    private static final int BODY_SIZE = 256 * 1024 * 1024;
+
+    private static final int READ_SIZE = 8 * 1024;
+
+    private static final int ITERATIONS = 5;
+
+
+    @Test
+    public void testLargeChunks() throws Exception {
+        doTest(64 * 1024);
+    }
+
+
+    @Test
+    public void testMediumChunks() throws Exception {
+        doTest(4 * 1024);
+    }
+
+
+    @Test
+    public void testSmallChunks() throws Exception {
+        doTest(64);
+    }
+
+
+    private void doTest(int chunkSize) throws Exception {
+        byte[] input = createBody(BODY_SIZE, chunkSize);
+
+        // Warm up
+        decode(input);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long read = decode(input);
+            long time = System.nanoTime() - start;
+            assertEquals(BODY_SIZE, read);
+            if (time < best) {
+                best = time;
+            }
+        }
+
+        System.out.println("Chunk size [" + chunkSize + "]: " +
+                (BODY_SIZE / 1024 / 1024) * 1000000000L / best + " MB/s");
+    }
+
+
+    private static long decode(byte[] input) throws IOException {
+        ChunkedInputFilter filter =
+                new ChunkedInputFilter(8192, new HashSet<String>(), 8192, -1);
+        filter.setRequest(new Request());
+        filter.setBuffer(new ByteArrayInputBuffer(input, READ_SIZE));
+
+        ByteChunk chunk = new ByteChunk();
+        long total = 0;
+        int read;
+        while ((read = filter.doRead(chunk, null)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+
+    private static byte[] createBody(int size, int chunkSize) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                size + (size / chunkSize + 1) * 16);
+        byte[] data = new byte[chunkSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + (i % 26));
+        }
+        byte[] header = (Integer.toHexString(chunkSize) + "\r\n").getBytes(
+                B2CConverter.ISO_8859_1);
+        byte[] crlf = "\r\n".getBytes(B2CConverter.ISO_8859_1);
+        for (int written = 0; written < size; written += chunkSize) {
+            baos.write(header, 0, header.length);
+            baos.write(data, 0, data.length);
+            baos.write(crlf, 0, crlf.length);
+        }
+        byte[] end = "0\r\n\r\n".getBytes(B2CConverter.ISO_8859_1);
+        baos.write(end, 0, end.length);
+        return baos.toByteArray();
+    }
+
+
+    private static class ByteArrayInputBuffer implements InputBuffer {
+
+        private final byte[] input;
+        private final int readSize;
+        private int pos = 0;
+
+        public ByteArrayInputBuffer(byte[] input, int readSize) {
+            this.input = input;
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int doRead(ByteChunk chunk, Request request) {
+            if (pos >= input.length) {
+                return -1;
+            }
+            int len = Math.min(readSize, input.length - pos);
+            chunk.setBytes(input, pos, len);
+            pos += len;
+            return len;
+        }
+    }
+}
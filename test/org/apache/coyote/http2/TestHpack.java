@@ -0,0 +1,178 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestHpack {
+
+    private static final String[][] REQUEST_1 = new String[][] {
+            { ":method", "GET" },
+            { ":scheme", "http" },
+            { ":path", "/" },
+            { ":authority", "www.example.com" } };
+
+    private static final String[][] REQUEST_2 = new String[][] {
+            { ":method", "GET" },
+            { ":scheme", "http" },
+            { ":path", "/" },
+            { ":authority", "www.example.com" },
+            { "cache-control", "no-cache" } };
+
+    private static final String[][] REQUEST_3 = new String[][] {
+            { ":method", "GET" },
+            { ":scheme", "https" },
+            { ":path", "/index.html" },
+            { ":authority", "www.example.com" },
+            { "custom-key", "custom-value" } };
+
+
+    /*
+     * RFC 7541, C.3 Request Examples without Huffman Coding
+     */
+    @Test
+    public void testDecodeRequestsWithoutHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        doTestDecode(decoder, "828684410f7777772e6578616d706c652e636f6d",
+                REQUEST_1, 57);
+        doTestDecode(decoder, "828684be58086e6f2d6361636865", REQUEST_2, 110);
+        doTestDecode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+                REQUEST_3, 164);
+    }
+
+
+    /*
+     * RFC 7541, C.4 Request Examples with Huffman Coding
+     */
+    @Test
+    public void testDecodeRequestsWithHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        doTestDecode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+                REQUEST_1, 57);
+        doTestDecode(decoder, "828684be5886a8eb10649cbf", REQUEST_2, 110);
+        doTestDecode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+                REQUEST_3, 164);
+    }
+
+
+    /*
+     * RFC 7541, C.6.1 Response Example with Huffman Coding, which uses every
+     * code length from 5 to 8 bits.
+     */
+    @Test
+    public void testDecodeResponseWithHuffman() throws Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        doTestDecode(decoder,
+                "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166" +
+                "e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3",
+                new String[][] {
+                        { ":status", "302" },
+                        { "cache-control", "private" },
+                        { "date", "Mon, 21 Oct 2013 20:13:21 GMT" },
+                        { "location", "https://www.example.com" } },
+                222);
+    }
+
+
+    @Test(expected=Http2Exception.class)
+    public void testDecodeInvalidIndex() throws Exception {
+        HpackDecoder decoder = new HpackDecoder();
+        // Index 62 refers to an empty dynamic table
+        byte[] block = fromHex("be");
+        decoder.decode(block, 0, block.length, new Collector());
+    }
+
+
+    @Test
+    public void testEncodeRoundTrip() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encodeStatus(block, 200);
+        encoder.encodeStatus(block, 302);
+        encoder.encodeHeader(block, "Content-Type", "text/plain");
+        encoder.encodeHeader(block, "accept-encoding", "gzip, deflate");
+        encoder.encodeHeader(block, "X-Custom", "value");
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longValue.append((char) ('a' + i % 26));
+        }
+        encoder.encodeHeader(block, "x-long", longValue.toString());
+
+        byte[] bytes = block.toByteArray();
+        // Static table entries are encoded as a single octet
+        assertEquals(0x88, bytes[0] & 0xFF);
+
+        Collector collector = new Collector();
+        HpackDecoder decoder = new HpackDecoder();
+        decoder.decode(bytes, 0, bytes.length, collector);
+        assertHeaders(new String[][] {
+                { ":status", "200" },
+                { ":status", "302" },
+                { "content-type", "text/plain" },
+                { "accept-encoding", "gzip, deflate" },
+                { "x-custom", "value" },
+                { "x-long", longValue.toString() } }, collector.headers);
+        // The encoder never adds entries to the dynamic table
+        assertEquals(0, decoder.getFilledTableSlots());
+    }
+
+
+    private static void doTestDecode(HpackDecoder decoder, String hex,
+            String[][] expected, int expectedTableSize) throws Exception {
+        byte[] block = fromHex(hex);
+        Collector collector = new Collector();
+        decoder.decode(block, 0, block.length, collector);
+        assertHeaders(expected, collector.headers);
+        assertEquals(expectedTableSize, decoder.getCurrentMemorySize());
+    }
+
+
+    private static void assertHeaders(String[][] expected,
+            List<String[]> actual) {
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i][0], actual.get(i)[0]);
+            assertEquals(expected[i][1], actual.get(i)[1]);
+        }
+    }
+
+
+    private static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+
+    private static class Collector implements HpackDecoder.HeaderEmitter {
+
+        private final List<String[]> headers = new ArrayList<String[]>();
+
+        @Override
+        public void emitHeader(String name, String value) {
+            headers.add(new String[] { name, value });
+        }
+    }
+}
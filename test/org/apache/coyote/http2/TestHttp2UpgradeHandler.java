@@ -0,0 +1,561 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.B2CConverter;
+
+public class TestHttp2UpgradeHandler extends TomcatBaseTest {
+
+    private static final int LARGE_SIZE = 512 * 1024;
+
+
+    @Test
+    public void testPriorKnowledge() throws Exception {
+        startServer();
+
+        Http2Client client = new Http2Client(getPort());
+        try {
+            client.sendPreface();
+            client.sendRequest(1, "GET", "/simple?name=h2", null);
+            Http2Client.Response response = client.awaitResponse(1);
+            assertEquals(200, response.status);
+            assertEquals("text/plain;charset=ISO-8859-1",
+                    response.headers.get("content-type"));
+            assertEquals("OK-HTTP/2.0-h2", response.getBodyAsString());
+
+            // The connection is re-used for the next stream
+            client.sendRequest(3, "GET", "/simple?name=again", null);
+            response = client.awaitResponse(3);
+            assertEquals("OK-HTTP/2.0-again", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testUpgrade() throws Exception {
+        startServer();
+
+        Http2Client client = new Http2Client(getPort());
+        try {
+            client.sendUpgrade("/simple?name=h2c");
+            client.sendPreface();
+            // The upgrade request is the first stream
+            Http2Client.Response response = client.awaitResponse(1);
+            assertEquals(200, response.status);
+            assertEquals("OK-HTTP/2.0-h2c", response.getBodyAsString());
+
+            client.sendRequest(3, "GET", "/simple?name=next", null);
+            response = client.awaitResponse(3);
+            assertEquals("OK-HTTP/2.0-next", response.getBodyAsString());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testUpgradeDisabled() throws Exception {
+        Assume.assumeTrue("HTTP/2 is only supported by the NIO connector",
+                getProtocol().equals(Http11NioProtocol.class.getName()));
+        Tomcat tomcat = getTomcatInstance();
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "simple", new SimpleServlet());
+        root.addServletMapping("/simple", "simple");
+        tomcat.start();
+
+        Socket socket = new Socket("localhost", getPort());
+        try {
+            socket.setSoTimeout(10000);
+            OutputStream os = socket.getOutputStream();
+            os.write(("GET /simple?name=h1 HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: close, Upgrade, HTTP2-Settings\r\n" +
+                    "Upgrade: h2c\r\n" +
+                    "HTTP2-Settings: AAMAAABkAAQAAP__\r\n" +
+                    "\r\n").getBytes(B2CConverter.ISO_8859_1));
+            os.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream is = socket.getInputStream();
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                response.write(buf, 0, read);
+            }
+            String result = new String(response.toByteArray(),
+                    B2CConverter.ISO_8859_1);
+            assertTrue(result, result.startsWith("HTTP/1.1 200"));
+            assertTrue(result, result.endsWith("OK-HTTP/1.1-h1"));
+        } finally {
+            socket.close();
+        }
+    }
+
+
+    @Test
+    public void testMultiplexing() throws Exception {
+        startServer();
+
+        Http2Client client = new Http2Client(getPort());
+        try {
+            client.sendPreface();
+            // The slow stream only completes once the fast stream has been
+            // processed, which requires the streams to be processed
+            // concurrently
+            client.sendRequest(1, "GET", "/slow", null);
+            client.sendRequest(3, "GET", "/fast", null);
+            Http2Client.Response fast = client.awaitResponse(3);
+            assertEquals("FAST", fast.getBodyAsString());
+            Http2Client.Response slow = client.responses.get(Integer.valueOf(1));
+            assertTrue(slow == null || !slow.ended);
+
+            slow = client.awaitResponse(1);
+            assertEquals("SLOW", slow.getBodyAsString());
+            assertTrue(client.completionOrder.indexOf(Integer.valueOf(3)) <
+                    client.completionOrder.indexOf(Integer.valueOf(1)));
+        } finally {
+            client.close();
+        }
+    }
+
+
+    @Test
+    public void testLargeRequestAndResponse() throws Exception {
+        startServer();
+
+        byte[] body = new byte[LARGE_SIZE];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+
+        Http2Client client = new Http2Client(getPort());
+        try {
+            client.sendPreface();
+            // Both bodies are larger than the default flow control windows
+            client.sendRequest(1, "POST", "/echo", body);
+            Http2Client.Response response = client.awaitResponse(1);
+            assertEquals(200, response.status);
+            assertEquals(Integer.toString(LARGE_SIZE),
+                    response.headers.get("content-length"));
+            assertArrayEquals(body, response.body.toByteArray());
+        } finally {
+            client.close();
+        }
+    }
+
+
+    private void startServer() throws Exception {
+        Assume.assumeTrue("HTTP/2 is only supported by the NIO connector",
+                getProtocol().equals(Http11NioProtocol.class.getName()));
+
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("http2Enabled", "true");
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "simple", new SimpleServlet());
+        root.addServletMapping("/simple", "simple");
+        CountDownLatch latch = new CountDownLatch(1);
+        Tomcat.addServlet(root, "slow", new SlowServlet(latch));
+        root.addServletMapping("/slow", "slow");
+        Tomcat.addServlet(root, "fast", new FastServlet(latch));
+        root.addServletMapping("/fast", "fast");
+        Tomcat.addServlet(root, "echo", new EchoServlet());
+        root.addServletMapping("/echo", "echo");
+
+        tomcat.start();
+    }
+
+
+    private static class SimpleServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.setCharacterEncoding("ISO-8859-1");
+            resp.getWriter().print("OK-" + req.getProtocol() + "-" +
+                    req.getParameter("name"));
+        }
+    }
+
+
+    private static class SlowServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch latch;
+
+        public SlowServlet(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            // Let the response of the fast stream reach the client first
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("SLOW");
+        }
+    }
+
+
+    private static class FastServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch latch;
+
+        public FastServlet(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getWriter().print("FAST");
+            resp.flushBuffer();
+            latch.countDown();
+        }
+    }
+
+
+    private static class EchoServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream is = req.getInputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                body.write(buf, 0, read);
+            }
+            resp.setContentType("application/octet-stream");
+            resp.setContentLength(body.size());
+            resp.getOutputStream().write(body.toByteArray());
+        }
+    }
+
+
+    /**
+     * A minimal HTTP/2 client that processes one frame at a time on the
+     * calling thread.
+     */
+    private static class Http2Client {
+
+        private final Socket socket;
+        private final InputStream is;
+        private final OutputStream os;
+        private final HpackDecoder decoder = new HpackDecoder();
+        private final HpackEncoder encoder = new HpackEncoder();
+
+        private final Map<Integer,Response> responses =
+                new HashMap<Integer,Response>();
+        private final List<Integer> completionOrder = new ArrayList<Integer>();
+
+        private long connectionWindow = Constants.DEFAULT_WINDOW_SIZE;
+        private final Map<Integer,Long> streamWindows =
+                new HashMap<Integer,Long>();
+        private long initialWindowSize = Constants.DEFAULT_WINDOW_SIZE;
+
+        Http2Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(30000);
+            is = socket.getInputStream();
+            os = socket.getOutputStream();
+        }
+
+        void sendUpgrade(String uri) throws IOException {
+            os.write(("GET " + uri + " HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: Upgrade, HTTP2-Settings\r\n" +
+                    "Upgrade: h2c\r\n" +
+                    // MAX_CONCURRENT_STREAMS 100, INITIAL_WINDOW_SIZE 65535
+                    "HTTP2-Settings: AAMAAABkAAQAAP__\r\n" +
+                    "\r\n").getBytes(B2CConverter.ISO_8859_1));
+            os.flush();
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            String headString = "";
+            while (!headString.endsWith("\r\n\r\n")) {
+                int b = is.read();
+                assertTrue("Unexpected end of stream", b != -1);
+                head.write(b);
+                headString = new String(head.toByteArray(),
+                        B2CConverter.ISO_8859_1);
+            }
+            assertTrue(headString, headString.startsWith("HTTP/1.1 101"));
+            assertTrue(headString, headString.contains("Upgrade: h2c"));
+            streamWindows.put(Integer.valueOf(1), Long.valueOf(initialWindowSize));
+        }
+
+        void sendPreface() throws IOException {
+            os.write(Constants.CLIENT_PREFACE);
+            writeFrame(Constants.FRAME_SETTINGS, 0, 0, new byte[0], 0, 0);
+        }
+
+        void sendRequest(int streamId, String method, String path,
+                byte[] body) throws IOException {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.encodeHeader(block, ":method", method);
+            encoder.encodeHeader(block, ":scheme", "http");
+            encoder.encodeHeader(block, ":path", path);
+            encoder.encodeHeader(block, ":authority", "localhost");
+            if (body != null) {
+                encoder.encodeHeader(block, "content-length",
+                        Integer.toString(body.length));
+            }
+            byte[] headers = block.toByteArray();
+            int flags = Constants.FLAG_END_HEADERS;
+            if (body == null) {
+                flags |= Constants.FLAG_END_STREAM;
+            }
+            streamWindows.put(Integer.valueOf(streamId),
+                    Long.valueOf(initialWindowSize));
+            writeFrame(Constants.FRAME_HEADERS, flags, streamId, headers, 0,
+                    headers.length);
+            if (body == null) {
+                return;
+            }
+            int offset = 0;
+            while (offset < body.length) {
+                long window = Math.min(connectionWindow,
+                        streamWindows.get(Integer.valueOf(streamId)).longValue());
+                if (window <= 0) {
+                    // Wait for WINDOW_UPDATE
+                    readFrame();
+                    continue;
+                }
+                int length = (int) Math.min(Math.min(window,
+                        Constants.DEFAULT_MAX_FRAME_SIZE), body.length - offset);
+                boolean last = offset + length == body.length;
+                writeFrame(Constants.FRAME_DATA,
+                        last ? Constants.FLAG_END_STREAM : 0, streamId, body,
+                        offset, length);
+                connectionWindow -= length;
+                streamWindows.put(Integer.valueOf(streamId), Long.valueOf(
+                        streamWindows.get(Integer.valueOf(streamId)).longValue() -
+                        length));
+                offset += length;
+            }
+        }
+
+        Response awaitResponse(int streamId) throws IOException {
+            while (true) {
+                Response response = responses.get(Integer.valueOf(streamId));
+                if (response != null && response.ended) {
+                    return response;
+                }
+                readFrame();
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        private void readFrame() throws IOException {
+            byte[] header = readFully(Constants.FRAME_HEADER_LENGTH);
+            int length = ((header[0] & 0xFF) << 16) + ((header[1] & 0xFF) << 8) +
+                    (header[2] & 0xFF);
+            int type = header[3] & 0xFF;
+            int flags = header[4] & 0xFF;
+            int streamId = readInt(header, 5) & 0x7FFFFFFF;
+            byte[] payload = readFully(length);
+            Integer key = Integer.valueOf(streamId);
+
+            switch (type) {
+            case Constants.FRAME_SETTINGS:
+                if ((flags & Constants.FLAG_ACK) == 0) {
+                    for (int i = 0; i < length; i += 6) {
+                        int id = ((payload[i] & 0xFF) << 8) + (payload[i + 1] & 0xFF);
+                        if (id == Constants.SETTINGS_INITIAL_WINDOW_SIZE) {
+                            initialWindowSize = readInt(payload, i + 2);
+                        }
+                    }
+                    writeFrame(Constants.FRAME_SETTINGS, Constants.FLAG_ACK, 0,
+                            new byte[0], 0, 0);
+                }
+                break;
+            case Constants.FRAME_WINDOW_UPDATE:
+                int increment = readInt(payload, 0) & 0x7FFFFFFF;
+                if (streamId == 0) {
+                    connectionWindow += increment;
+                } else if (streamWindows.containsKey(key)) {
+                    streamWindows.put(key, Long.valueOf(
+                            streamWindows.get(key).longValue() + increment));
+                }
+                break;
+            case Constants.FRAME_HEADERS: {
+                final Response response = new Response();
+                responses.put(key, response);
+                decoder.decode(payload, 0, length,
+                        new HpackDecoder.HeaderEmitter() {
+                            @Override
+                            public void emitHeader(String name, String value) {
+                                if (name.equals(":status")) {
+                                    response.status = Integer.parseInt(value);
+                                } else {
+                                    response.headers.put(name, value);
+                                }
+                            }
+                        });
+                assertTrue((flags & Constants.FLAG_END_HEADERS) != 0);
+                if ((flags & Constants.FLAG_END_STREAM) != 0) {
+                    end(key, response);
+                }
+                break;
+            }
+            case Constants.FRAME_DATA: {
+                Response response = responses.get(key);
+                assertTrue("DATA before HEADERS", response != null);
+                response.body.write(payload, 0, length);
+                if ((flags & Constants.FLAG_END_STREAM) != 0) {
+                    end(key, response);
+                } else if (length > 0) {
+                    writeWindowUpdate(streamId, length);
+                }
+                if (length > 0) {
+                    writeWindowUpdate(0, length);
+                }
+                break;
+            }
+            case Constants.FRAME_RST_STREAM: {
+                int errorCode = readInt(payload, 0);
+                // NO_ERROR is used to stop the request body once the
+                // response is complete
+                assertEquals("RST_STREAM for stream " + streamId,
+                        Constants.NO_ERROR, errorCode);
+                break;
+            }
+            case Constants.FRAME_GOAWAY:
+                throw new IOException("GOAWAY with error code " +
+                        readInt(payload, 4));
+            default:
+                break;
+            }
+        }
+
+        private void end(Integer key, Response response) {
+            response.ended = true;
+            completionOrder.add(key);
+        }
+
+        private void writeWindowUpdate(int streamId, int increment)
+                throws IOException {
+            byte[] payload = new byte[4];
+            writeInt(payload, 0, increment);
+            writeFrame(Constants.FRAME_WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+        }
+
+        private void writeFrame(int type, int flags, int streamId,
+                byte[] payload, int offset, int length) throws IOException {
+            byte[] header = new byte[Constants.FRAME_HEADER_LENGTH];
+            header[0] = (byte) (length >> 16);
+            header[1] = (byte) (length >> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            writeInt(header, 5, streamId);
+            os.write(header);
+            os.write(payload, offset, length);
+            os.flush();
+        }
+
+        private byte[] readFully(int length) throws IOException {
+            byte[] result = new byte[length];
+            int pos = 0;
+            while (pos < length) {
+                int read = is.read(result, pos, length - pos);
+                assertTrue("Unexpected end of stream", read != -1);
+                pos += read;
+            }
+            return result;
+        }
+
+        private static int readInt(byte[] source, int offset) {
+            return ((source[offset] & 0xFF) << 24) +
+                    ((source[offset + 1] & 0xFF) << 16) +
+                    ((source[offset + 2] & 0xFF) << 8) +
+                    (source[offset + 3] & 0xFF);
+        }
+
+        private static void writeInt(byte[] target, int offset, int value) {
+            target[offset] = (byte) (value >> 24);
+            target[offset + 1] = (byte) (value >> 16);
+            target[offset + 2] = (byte) (value >> 8);
+            target[offset + 3] = (byte) value;
+        }
+
+        private static class Response {
+            private int status;
+            private final Map<String,String> headers =
+                    new HashMap<String,String>();
+            private final ByteArrayOutputStream body =
+                    new ByteArrayOutputStream();
+            private boolean ended;
+
+            String getBodyAsString() {
+                return new String(body.toByteArray(), B2CConverter.ISO_8859_1);
+            }
+        }
+    }
+}
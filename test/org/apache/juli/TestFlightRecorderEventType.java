@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.juli;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestFlightRecorderEventType {
+
+    private static final String[] FIELD_NAMES = new String[] { "text", "number" };
+    private static final Class<?>[] FIELD_TYPES =
+            new Class<?>[] { String.class, int.class };
+
+
+    @Test
+    public void testDisabled() {
+        FlightRecorderEventType type = FlightRecorderEventType.create(
+                "org.apache.juli.TestDisabled", "Test", "Test event",
+                FIELD_NAMES, FIELD_TYPES, false);
+        Assert.assertFalse(type.isEnabled());
+        Assert.assertNull(type.begin());
+        // Must be a NO-OP
+        type.commit(null, "text", Integer.valueOf(1));
+        type.emit("text", Integer.valueOf(1));
+    }
+
+
+    @Test
+    public void testNotEnabledByRecording() throws Exception {
+        Assume.assumeTrue(isJfrAvailable());
+
+        FlightRecorderEventType type = FlightRecorderEventType.create(
+                "org.apache.juli.TestNotRecorded", "Test", "Test event",
+                FIELD_NAMES, FIELD_TYPES, true);
+        // No recording has the event enabled
+        Assert.assertFalse(type.isEnabled());
+        Assert.assertNull(type.begin());
+    }
+
+
+    @Test
+    public void testRecorded() throws Exception {
+        Assume.assumeTrue(isJfrAvailable());
+
+        String name = "org.apache.juli.TestRecorded";
+        FlightRecorderEventType type = FlightRecorderEventType.create(
+                name, "Test", "Test event", FIELD_NAMES, FIELD_TYPES, true);
+
+        Class<?> recordingClazz = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClazz.newInstance();
+        recordingClazz.getMethod("enable", String.class).invoke(recording, name);
+        recordingClazz.getMethod("start").invoke(recording);
+        File file = File.createTempFile("test", ".jfr");
+        try {
+            Assert.assertTrue(type.isEnabled());
+            Object event = type.begin();
+            Assert.assertNotNull(event);
+            type.commit(event, "first", Integer.valueOf(42));
+            type.emit("second", Integer.valueOf(43));
+
+            recordingClazz.getMethod("stop").invoke(recording);
+            recordingClazz.getMethod("dump", Path.class).invoke(
+                    recording, file.toPath());
+
+            List<?> events = (List<?>) Class.forName(
+                    "jdk.jfr.consumer.RecordingFile").getMethod(
+                            "readAllEvents", Path.class).invoke(
+                                    null, file.toPath());
+            StringBuilder found = new StringBuilder();
+            for (Object recorded : events) {
+                Class<?> recordedClazz = recorded.getClass();
+                Object eventType =
+                        recordedClazz.getMethod("getEventType").invoke(recorded);
+                String eventName = (String) eventType.getClass().getMethod(
+                        "getName").invoke(eventType);
+                if (!name.equals(eventName)) {
+                    continue;
+                }
+                Method getValue = recordedClazz.getMethod("getValue", String.class);
+                found.append(getValue.invoke(recorded, "text"));
+                found.append('-');
+                found.append(getValue.invoke(recorded, "number"));
+                found.append(' ');
+            }
+            Assert.assertEquals("first-42 second-43 ", found.toString());
+        } finally {
+            recordingClazz.getMethod("close").invoke(recording);
+            Assert.assertTrue(file.delete());
+        }
+    }
+
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.EventFactory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -1260,4 +1260,24 @@ public class TesterContext implements Context {
     public void setDispatchersUseEncodedPaths(boolean dispatchersUseEncodedPaths) { /* NO-OP */ }
     @Override
     public boolean getDispatchersUseEncodedPaths() { return true; }
+
+    @Override
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning) { /* NO-OP */ }
+    @Override
+    public boolean getParallelAnnotationScanning() { return false; }
+
+    @Override
+    public void setUseScanIndex(boolean useScanIndex) { /* NO-OP */ }
+    @Override
+    public boolean getUseScanIndex() { return false; }
+
+    @Override
+    public void setParallelLoadOnStartup(boolean parallelLoadOnStartup) { /* NO-OP */ }
+    @Override
+    public boolean getParallelLoadOnStartup() { return false; }
+
+    @Override
+    public void setParallelDescriptorParsing(boolean parallelDescriptorParsing) { /* NO-OP */ }
+    @Override
+    public boolean getParallelDescriptorParsing() { return false; }
 }
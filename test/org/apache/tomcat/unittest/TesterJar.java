@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.unittest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.servlet.ServletContainerInitializer;
+
+import org.apache.catalina.util.IOTools;
+
+/**
+ * Builds JAR files for tests. Entries are written in the order they are
+ * added.
+ */
+public class TesterJar {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<String,byte[]> entries =
+            new LinkedHashMap<String,byte[]>();
+
+
+    /**
+     * Add an empty entry, such as a directory.
+     */
+    public TesterJar addEntry(String name) {
+        return addEntry(name, new byte[0]);
+    }
+
+
+    /**
+     * Add an entry with the given content, encoded as UTF-8.
+     */
+    public TesterJar addEntry(String name, String content) {
+        return addEntry(name, content.getBytes(UTF_8));
+    }
+
+
+    public TesterJar addEntry(String name, byte[] content) {
+        entries.put(name, content);
+        return this;
+    }
+
+
+    /**
+     * Add the class file of the given class. A ServletContainerInitializer is
+     * also registered as a service.
+     */
+    public TesterJar addClass(Class<?> clazz) throws IOException {
+        String name = clazz.getName().replace('.', '/') + ".class";
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        InputStream is = clazz.getClassLoader().getResourceAsStream(name);
+        try {
+            IOTools.flow(is, content);
+        } finally {
+            is.close();
+        }
+        addEntry(name, content.toByteArray());
+        if (ServletContainerInitializer.class.isAssignableFrom(clazz)) {
+            addEntry("META-INF/services/" +
+                    ServletContainerInitializer.class.getName(),
+                    clazz.getName());
+        }
+        return this;
+    }
+
+
+    /**
+     * Write the JAR.
+     *
+     * @param file  The file to write the JAR to
+     * @return The file the JAR was written to
+     */
+    public File write(File file) throws IOException {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String,byte[]> entry : entries.entrySet()) {
+                jos.putNextEntry(new JarEntry(entry.getKey()));
+                jos.write(entry.getValue());
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+        return file;
+    }
+
+
+    /**
+     * Write a JAR holding the class files of the given classes.
+     *
+     * @param file      The file to write the JAR to
+     * @param classes   The classes to include
+     * @return The file the JAR was written to
+     */
+    public static File createJar(File file, Class<?>... classes)
+            throws IOException {
+        TesterJar jar = new TesterJar();
+        for (Class<?> clazz : classes) {
+            jar.addClass(clazz);
+        }
+        return jar.write(file);
+    }
+}
@@ -28,6 +28,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.tomcat.util.bcel.classfile.ClassParser;
+import org.apache.tomcat.util.bcel.classfile.LazyClassParser;
 import org.apache.tomcat.util.scan.Jar;
 import org.apache.tomcat.util.scan.JarFactory;
 
@@ -37,6 +38,19 @@ public class TesterPerformance {
 
     @Test
     public void testClassParserPerformance() throws IOException {
+        long duration = doTestParserPerformance(false);
+        System.out.println("ClassParser performance test took: " + duration + " ns");
+    }
+
+
+    @Test
+    public void testLazyClassParserPerformance() throws IOException {
+        long duration = doTestParserPerformance(true);
+        System.out.println("LazyClassParser performance test took: " + duration + " ns");
+    }
+
+
+    private long doTestParserPerformance(boolean lazy) throws IOException {
         File libDir = new File(JAR_LOCATION);
         String[] libs = libDir.list();
 
@@ -62,8 +76,13 @@ public class TesterPerformance {
                     if (jarEntryName.endsWith(".class")) {
                         InputStream is = jar.getEntryInputStream();
                         long start = System.nanoTime();
-                        ClassParser cp = new ClassParser(is);
-                        cp.parse();
+                        if (lazy) {
+                            LazyClassParser lcp = new LazyClassParser(is);
+                            lcp.parse();
+                        } else {
+                            ClassParser cp = new ClassParser(is);
+                            cp.parse();
+                        }
                         duration += System.nanoTime() - start;
                     }
                     jar.nextEntry();
@@ -74,6 +93,6 @@ public class TesterPerformance {
             }
         }
 
-        System.out.println("ClassParser performance test took: " + duration + " ns");
+        return duration;
     }
 }
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.bcel.classfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.startup.ParamServlet;
+import org.apache.catalina.util.IOTools;
+import org.apache.tomcat.util.bcel.Const;
+import org.apache.tomcat.util.scan.Jar;
+import org.apache.tomcat.util.scan.JarFactory;
+
+public class TestLazyClassParser {
+
+    @Test
+    public void testAnnotatedClass() throws Exception {
+        byte[] bytes = getBytes(ParamServlet.class);
+        JavaClass clazz = compare(bytes);
+        Assert.assertEquals(1, clazz.getAnnotationEntries().length);
+    }
+
+
+    @Test
+    public void testUnannotatedClass() throws Exception {
+        byte[] bytes = getBytes(TestLazyClassParser.class);
+        JavaClass clazz = compare(bytes);
+        Assert.assertNull(clazz.getAnnotationEntries());
+    }
+
+
+    @Test
+    public void testJar() throws Exception {
+        // Parse every class in the JUnit JAR with both parsers
+        URL url = Test.class.getProtectionDomain().getCodeSource().getLocation();
+        Assert.assertTrue(new File(url.toURI()).isFile());
+        Jar jar = JarFactory.newInstance(
+                new URL("jar:" + url.toExternalForm() + "!/"));
+        int count = 0;
+        try {
+            jar.nextEntry();
+            String jarEntryName = jar.getEntryName();
+            while (jarEntryName != null) {
+                if (jarEntryName.endsWith(".class")) {
+                    InputStream is = jar.getEntryInputStream();
+                    compare(readFully(is));
+                    count++;
+                }
+                jar.nextEntry();
+                jarEntryName = jar.getEntryName();
+            }
+        } finally {
+            jar.close();
+        }
+        Assert.assertTrue(count > 0);
+    }
+
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] bytes = getBytes(ParamServlet.class);
+        // Parse a large class first so the per-thread buffer holds the rest of
+        // the class file
+        new LazyClassParser(new ByteArrayInputStream(bytes)).parse();
+        for (int length : new int[] { 0, 3, 10, bytes.length / 2, bytes.length - 1 }) {
+            try {
+                new LazyClassParser(new ByteArrayInputStream(
+                        Arrays.copyOf(bytes, length))).parse();
+                Assert.fail("Truncated to " + length + " bytes");
+            } catch (ClassFormatException e) {
+                // Expected
+            }
+        }
+    }
+
+
+    @Test
+    public void testReferenceBeyondConstantPool() throws Exception {
+        byte[] bytes = getBytes(ParamServlet.class);
+        int previousCount = ((bytes[8] & 0xff) << 8) | (bytes[9] & 0xff);
+        // Parse a large class first so the per-thread offsets buffer is
+        // longer than the constant pool of the next class
+        new LazyClassParser(new ByteArrayInputStream(bytes)).parse();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(0xCAFEBABE);
+        dos.writeShort(0);
+        dos.writeShort(50);
+        // Constant pool: #1 Utf8 "A", #2 Class #1
+        dos.writeShort(3);
+        dos.writeByte(Const.CONSTANT_Utf8);
+        dos.writeUTF("A");
+        dos.writeByte(Const.CONSTANT_Class);
+        dos.writeShort(1);
+        dos.writeShort(0x0001);
+        // this_class refers to an entry only the previous class had
+        dos.writeShort(previousCount - 1);
+        dos.close();
+
+        try {
+            new LazyClassParser(new ByteArrayInputStream(
+                    baos.toByteArray())).parse();
+            Assert.fail();
+        } catch (ClassFormatException e) {
+            Assert.assertEquals("Invalid constant pool reference: " +
+                    (previousCount - 1), e.getMessage());
+        }
+    }
+
+
+    @Test(expected=ClassFormatException.class)
+    public void testInvalidMagic() throws Exception {
+        byte[] bytes = getBytes(ParamServlet.class);
+        bytes[0] = 0;
+        new LazyClassParser(new ByteArrayInputStream(bytes)).parse();
+    }
+
+
+    private static JavaClass compare(byte[] bytes) throws IOException {
+        JavaClass expected = new ClassParser(new ByteArrayInputStream(bytes)).parse();
+        JavaClass actual = new LazyClassParser(new ByteArrayInputStream(bytes)).parse();
+
+        Assert.assertEquals(expected.getClassName(), actual.getClassName());
+        Assert.assertEquals(expected.getSuperclassName(), actual.getSuperclassName());
+        Assert.assertArrayEquals(expected.getInterfaceNames(), actual.getInterfaceNames());
+        Assert.assertEquals(expected.getAccessFlags(), actual.getAccessFlags());
+
+        AnnotationEntry[] expectedEntries = expected.getAnnotationEntries();
+        AnnotationEntry[] actualEntries = actual.getAnnotationEntries();
+        if (expectedEntries == null) {
+            Assert.assertNull(actualEntries);
+            return actual;
+        }
+        Assert.assertEquals(expectedEntries.length, actualEntries.length);
+        for (int i = 0; i < expectedEntries.length; i++) {
+            Assert.assertEquals(expectedEntries[i].getAnnotationType(),
+                    actualEntries[i].getAnnotationType());
+            Assert.assertEquals(toString(expectedEntries[i]),
+                    toString(actualEntries[i]));
+        }
+        return actual;
+    }
+
+
+    private static String toString(AnnotationEntry entry) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(entry.getAnnotationType());
+        sb.append('(');
+        for (ElementValuePair pair : entry.getElementValuePairs()) {
+            sb.append(pair.getNameString());
+            sb.append('=');
+            sb.append(toString(pair.getValue()));
+            sb.append(';');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+
+    private static String toString(ElementValue value) {
+        // The default string form of nested annotations is not comparable
+        if (value instanceof AnnotationElementValue) {
+            return toString(((AnnotationElementValue) value).getAnnotationEntry());
+        }
+        if (value instanceof ArrayElementValue) {
+            StringBuilder sb = new StringBuilder("[");
+            for (ElementValue element :
+                    ((ArrayElementValue) value).getElementValuesArray()) {
+                sb.append(toString(element));
+                sb.append(',');
+            }
+            sb.append(']');
+            return sb.toString();
+        }
+        return value.stringifyValue();
+    }
+
+
+    private static byte[] getBytes(Class<?> clazz) throws IOException {
+        String name = clazz.getName().replace('.', '/') + ".class";
+        InputStream is = clazz.getClassLoader().getResourceAsStream(name);
+        Assert.assertNotNull(is);
+        return readFully(is);
+    }
+
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            IOTools.flow(is, baos);
+        } finally {
+            is.close();
+        }
+        return baos.toByteArray();
+    }
+}
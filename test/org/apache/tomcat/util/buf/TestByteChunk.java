@@ -17,7 +17,10 @@
 
 package org.apache.tomcat.util.buf;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
@@ -149,4 +152,108 @@ public class TestByteChunk {
         assertEquals(-1, ByteChunk.findNotBytes(bytes, 2, 3, new byte[] { 'l',
                 'e', 'H' }));
     }
+
+    @Test
+    public void testAppendByteBuffer() throws IOException {
+        byte[] src = new byte[1000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) i;
+        }
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+        ByteChunk bc = new ByteChunk(64);
+        bc.setLimit(64);
+        bc.setByteOutputChannel(new ByteChunk.ByteOutputChannel() {
+            @Override
+            public void realWriteBytes(byte[] cbuf, int off, int len) {
+                sink.write(cbuf, off, len);
+            }
+        });
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(src.length);
+        direct.put(src);
+        direct.flip();
+        bc.append((byte) -1);
+        bc.append(direct);
+        bc.flushBuffer();
+
+        assertEquals(0, direct.remaining());
+        byte[] result = sink.toByteArray();
+        assertEquals(src.length + 1, result.length);
+        assertEquals(-1, result[0]);
+        assertTrue(Arrays.equals(src, Arrays.copyOfRange(result, 1, result.length)));
+    }
+
+    @Test
+    public void testGrowthSizeClasses() throws IOException {
+        ByteChunk bc = new ByteChunk();
+        bc.append(new byte[10], 0, 10);
+        assertEquals(ChunkBufferPool.MIN_SIZE, bc.getBuffer().length);
+        bc.append(new byte[1000], 0, 1000);
+        assertEquals(1024, bc.getBuffer().length);
+        bc.append(new byte[5000], 0, 5000);
+        assertEquals(8192, bc.getBuffer().length);
+        assertEquals(6010, bc.getLength());
+
+        bc = new ByteChunk(1000);
+        bc.setLimit(3000);
+        bc.append(new byte[2500], 0, 2500);
+        assertEquals(2500, bc.getLength());
+        assertEquals(3000, bc.getBuffer().length);
+    }
+
+    @Test
+    public void testShrinkOnRecycle() throws IOException {
+        int max = ChunkBufferPool.getMaxRetainedSize();
+        ChunkBufferPool.setMaxRetainedSize(4096);
+        try {
+            ByteChunk bc = new ByteChunk(1024);
+            byte[] initial = bc.getBuffer();
+            bc.append(new byte[2000], 0, 2000);
+            bc.recycle();
+            // Within the retained size
+            assertEquals(2048, bc.getBuffer().length);
+
+            bc.append(new byte[10000], 0, 10000);
+            bc.recycle();
+            assertEquals(1024, bc.getBuffer().length);
+            assertTrue(bc.getBuffer() != initial);
+
+            // An array allocated with a larger initial size is kept
+            bc = new ByteChunk(8192);
+            bc.recycle();
+            assertEquals(8192, bc.getBuffer().length);
+
+            // Arrays set by the caller are never replaced
+            byte[] large = new byte[100000];
+            bc.setBytes(large, 0, large.length);
+            bc.recycle();
+            assertTrue(bc.getBuffer() == large);
+        } finally {
+            ChunkBufferPool.setMaxRetainedSize(max);
+        }
+    }
+
+    @Test
+    public void testPooling() throws IOException {
+        int max = ChunkBufferPool.getMaxRetainedSize();
+        ChunkBufferPool.setMaxRetainedSize(4096);
+        ChunkBufferPool.setMaxPooledBytes(1024 * 1024);
+        try {
+            ByteChunk bc = new ByteChunk(1024);
+            bc.append(new byte[10000], 0, 10000);
+            byte[] grown = bc.getBuffer();
+            assertEquals(16384, grown.length);
+            bc.recycle();
+            assertEquals(16384, ChunkBufferPool.getPooledBytes());
+
+            ByteChunk other = new ByteChunk(1024);
+            other.append(new byte[9000], 0, 9000);
+            assertTrue(other.getBuffer() == grown);
+            assertEquals(0, ChunkBufferPool.getPooledBytes());
+        } finally {
+            ChunkBufferPool.setMaxPooledBytes(0);
+            ChunkBufferPool.setMaxRetainedSize(max);
+        }
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestC2BConverter {
+
+    @Test
+    public void testUtf8() throws Exception {
+        doTestRandom("UTF-8", true);
+    }
+
+    @Test
+    public void testIso88591() throws Exception {
+        doTestRandom("ISO-8859-1", true);
+    }
+
+    /*
+     * Uses the CharsetEncoder rather than a fast path. Surrogates are excluded
+     * since that code path does not reliably handle a surrogate at the end of
+     * one write.
+     */
+    @Test
+    public void testUsAscii() throws Exception {
+        doTestRandom("US-ASCII", false);
+    }
+
+    @Test
+    public void testUtf8SurrogatePairSplit() throws Exception {
+        C2BConverter conv = new C2BConverter("UTF-8");
+        ByteChunk bc = new ByteChunk(16);
+        CharChunk cc = new CharChunk();
+
+        String s = "a😀b";
+        cc.setChars(s.toCharArray(), 0, 2);
+        conv.convert(cc, bc);
+        Assert.assertEquals(0, cc.getLength());
+        Assert.assertTrue(conv.isUndeflow());
+        cc.setChars(s.toCharArray(), 2, 2);
+        conv.convert(cc, bc);
+        Assert.assertFalse(conv.isUndeflow());
+
+        Assert.assertArrayEquals(s.getBytes(B2CConverter.UTF_8),
+                toBytes(bc));
+    }
+
+    @Test
+    public void testIso88591Replacement() throws Exception {
+        C2BConverter conv = new C2BConverter("ISO-8859-1");
+        ByteChunk bc = new ByteChunk(16);
+        CharChunk cc = new CharChunk();
+
+        cc.setChars("aé€😀b".toCharArray(), 0, 6);
+        conv.convert(cc, bc);
+
+        Assert.assertArrayEquals(new byte[] {'a', (byte) 0xe9, '?', '?', 'b'},
+                toBytes(bc));
+    }
+
+
+    /*
+     * Encode random text, split into random sized writes, into a small output
+     * buffer and compare the result with that of String.getBytes(), which
+     * also replaces malformed and unmappable input with the replacement
+     * byte.
+     */
+    private void doTestRandom(String encoding, boolean surrogates)
+            throws Exception {
+        Charset charset = B2CConverter.getCharset(encoding);
+        Random random = new Random(0);
+
+        for (int i = 0; i < 500; i++) {
+            char[] input = randomChars(random, random.nextInt(200),
+                    surrogates);
+            int outputSize = 4 + random.nextInt(16);
+            C2BConverter conv = new C2BConverter(encoding);
+
+            byte[] result = encode(conv, input, random, outputSize);
+            Assert.assertArrayEquals("Iteration [" + i + "]",
+                    new String(input).getBytes(charset), result);
+        }
+    }
+
+
+    private static byte[] encode(C2BConverter conv, char[] input,
+            Random random, int outputSize) throws Exception {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteChunk bc = new ByteChunk(outputSize);
+        CharChunk cc = new CharChunk();
+
+        int pos = 0;
+        while (pos < input.length) {
+            int len = Math.min(input.length - pos, 1 + random.nextInt(20));
+            cc.setChars(input, pos, len);
+            pos += len;
+            // Same loop as OutputBuffer.realWriteChars()
+            while (cc.getLength() > 0) {
+                conv.convert(cc, bc);
+                if (bc.getLength() == 0) {
+                    break;
+                }
+                if (cc.getLength() > 0) {
+                    result.write(toBytes(bc));
+                    bc.recycle();
+                }
+            }
+        }
+        result.write(toBytes(bc));
+        return result.toByteArray();
+    }
+
+
+    private static char[] randomChars(Random random, int len,
+            boolean surrogates) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+            switch (random.nextInt(8)) {
+                case 0:
+                    sb.append((char) (0x80 + random.nextInt(0x80)));
+                    break;
+                case 1:
+                    sb.append((char) (0x100 + random.nextInt(0x700)));
+                    break;
+                case 2:
+                    sb.append((char) (0x800 + random.nextInt(0xd000)));
+                    break;
+                case 3:
+                    if (surrogates) {
+                        sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+                    }
+                    break;
+                case 4:
+                    if (surrogates) {
+                        sb.append((char) (0xd800 + random.nextInt(0x800)));
+                    }
+                    break;
+                default:
+                    sb.append((char) random.nextInt(0x80));
+            }
+        }
+        // A trailing high surrogate is held until the next write
+        sb.append('x');
+        char[] result = new char[sb.length()];
+        sb.getChars(0, sb.length(), result, 0);
+        return result;
+    }
+
+
+    private static byte[] toBytes(ByteChunk bc) {
+        byte[] result = new byte[bc.getLength()];
+        System.arraycopy(bc.getBuffer(), bc.getStart(), result, 0,
+                result.length);
+        return result;
+    }
+}
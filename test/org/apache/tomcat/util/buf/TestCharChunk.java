@@ -17,7 +17,9 @@
 
 package org.apache.tomcat.util.buf;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -39,4 +41,27 @@ public class TestCharChunk {
         assertFalse(cc.endsWith("x"));
         assertFalse(cc.endsWith("xxtest"));
     }
+
+    @Test
+    public void testShrinkOnRecycle() throws Exception {
+        int max = ChunkBufferPool.getMaxRetainedSize();
+        ChunkBufferPool.setMaxRetainedSize(4096);
+        try {
+            CharChunk cc = new CharChunk();
+            cc.append(new char[10000], 0, 10000);
+            assertEquals(16384, cc.getBuffer().length);
+            cc.recycle();
+            // Never explicitly allocated so returns to the initial state
+            assertNull(cc.getBuffer());
+            cc.append("test");
+            assertEquals("test", cc.toString());
+
+            cc = new CharChunk(1024);
+            cc.append(new char[10000], 0, 10000);
+            cc.recycle();
+            assertEquals(1024, cc.getBuffer().length);
+        } finally {
+            ChunkBufferPool.setMaxRetainedSize(max);
+        }
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.B2CConverter;
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestUnixDomainSocket extends TomcatBaseTest {
+
+    @Test
+    public void testRequest() throws Exception {
+        Assume.assumeTrue("Unix domain sockets require Java 16 or later",
+                JreCompat.isJre16Available());
+
+        Tomcat tomcat = getTomcatInstance();
+        // The additional NIO connector is not reached through TCP
+        Connector connector = new Connector(Http11NioProtocol.class.getName());
+        connector.setPort(0);
+        File path = new File(getTemporaryDirectory(), "tomcat.sock");
+        connector.setProperty("unixDomainSocketPath", path.getAbsolutePath());
+        connector.setProperty("unixDomainSocketPathPermissions", "rw-------");
+        tomcat.getService().addConnector(connector);
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "address", new AddressServlet());
+        root.addServletMapping("/address", "address");
+        tomcat.start();
+
+        assertTrue(path.exists());
+
+        // Two requests check that the connection is kept alive
+        SocketChannel sc = JreCompat.getInstance().openUnixDomainSocketChannel();
+        try {
+            sc.connect(JreCompat.getInstance().getUnixDomainSocketAddress(
+                    path.getAbsolutePath()));
+            for (int i = 0; i < 2; i++) {
+                String response = request(sc, i == 1);
+                assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                assertTrue(response, response.endsWith(
+                        "127.0.0.1-127.0.0.1-0-127.0.0.1-localhost-0"));
+            }
+        } finally {
+            sc.close();
+        }
+
+        // The socket file is removed once the connector is unbound
+        connector.stop();
+        connector.destroy();
+        assertFalse(path.exists());
+    }
+
+
+    private static String request(SocketChannel sc, boolean close)
+            throws IOException {
+        sc.write(ByteBuffer.wrap(("GET /address HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                (close ? "Connection: close\r\n" : "") +
+                "\r\n").getBytes(B2CConverter.ISO_8859_1)));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        String response = "";
+        int contentLength = -1;
+        int headerEnd = -1;
+        while (headerEnd == -1 ||
+                result.size() < headerEnd + contentLength) {
+            buf.clear();
+            int read = sc.read(buf);
+            assertTrue("Unexpected end of stream", read != -1);
+            result.write(buf.array(), 0, read);
+            response = new String(result.toByteArray(), B2CConverter.ISO_8859_1);
+            if (headerEnd == -1 && response.contains("\r\n\r\n")) {
+                headerEnd = response.indexOf("\r\n\r\n") + 4;
+                int start = response.toLowerCase().indexOf("content-length:") + 15;
+                contentLength = Integer.parseInt(response.substring(
+                        start, response.indexOf("\r\n", start)).trim());
+            }
+        }
+        return response;
+    }
+
+
+    private static class AddressServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            String result = req.getRemoteAddr() + "-" + req.getRemoteHost() +
+                    "-" + req.getRemotePort() + "-" + req.getLocalAddr() + "-" +
+                    req.getLocalName() + "-" + req.getLocalPort();
+            resp.setContentLength(result.length());
+            resp.getWriter().print(result);
+        }
+    }
+}